@@ -0,0 +1,66 @@
+// JMH benchmarks for the frame pipeline. Runs on a desktop JVM:
+//   ./gradlew :benchmark:jmh
+// Results are written as JSON to benchmark/build/results/jmh/results.json
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+dependencies {
+    implementation(project(":engine"))
+    jmh(project(":engine"))
+    jmh(testFixtures(project(":engine")))
+
+    // Desktop build of OpenCV with bundled natives; same Java API as the Android package
+    jmh("org.openpnp:opencv:4.9.0-0")
+
+    // AreaResizeTest checks the engine's resize against OpenCV's
+    testImplementation("org.openpnp:opencv:4.9.0-0")
+    testImplementation(testFixtures(project(":engine")))
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+
+    // Pass e.g. -Pjmh.includes=FrameStageBenchmark.scaleImage to run a subset
+    if (project.hasProperty("jmh.includes")) {
+        includes.set(listOf(project.property("jmh.includes").toString()))
+    }
+}
+
+// Offline threshold sweep over a labelled recording (see ThresholdSweep):
+//   ./gradlew :benchmark:sweep -Psweep.args="session.sktr session.labels.csv"
+tasks.register<JavaExec>("sweep") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.bschoun.godot.seekthermal.benchmark.ThresholdSweep")
+    if (project.hasProperty("sweep.args")) {
+        args(project.property("sweep.args").toString().split(" ").filter { it.isNotEmpty() })
+    }
+}
+
+// Labelled CNN training images from recordings (see DatasetExport):
+//   ./gradlew :benchmark:exportDataset -Pexport.args="dataset session1.sktr session2.sktr"
+tasks.register<JavaExec>("exportDataset") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.bschoun.godot.seekthermal.benchmark.DatasetExport")
+    if (project.hasProperty("export.args")) {
+        args(project.property("export.args").toString().split(" ").filter { it.isNotEmpty() })
+    }
+}
@@ -0,0 +1,73 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import com.bschoun.godot.seekthermal.engine.SyntheticFrames;
+import com.bschoun.godot.seekthermal.engine.ThermalRecordingReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Frames and masks to benchmark with.
+ *
+ * By default frames are the engine's SyntheticFrames test fixture: a warm background with sensor
+ * noise and a breath that comes and goes, so the detector goes through whole exhales. Setting the
+ * system property seek.recording to a ThermalRecording file uses its frames instead, when its
+ * resolution matches.
+ */
+public final class FrameData {
+
+    public static final int SYNTHETIC_FRAMES = 128;
+    public static final int SYNTHETIC_PERIOD = 64;
+
+    private FrameData() {}
+
+    public static int parseWidth(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    public static int parseHeight(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /// Raw 16-bit frames, as the SDK would deliver them
+    public static short[][] frames(int width, int height) throws IOException {
+        String recording = System.getProperty("seek.recording");
+        if (recording != null) {
+            try (ThermalRecordingReader reader = new ThermalRecordingReader(new File(recording))) {
+                if (reader.getWidth() == width && reader.getHeight() == height) {
+                    short[][] frames = new short[reader.getFrameCount()][width * height];
+                    for (int i = 0; i < frames.length; i++) {
+                        reader.readFrame(i, frames[i]);
+                    }
+                    return frames;
+                }
+            }
+        }
+        return SyntheticFrames.breathing(width, height, SYNTHETIC_FRAMES, SYNTHETIC_PERIOD, 3, 42);
+    }
+
+    /// A disc inscribed in the square the frame is centred in, like mask.jpg for 320x240
+    public static byte[] squareMask(int size) {
+        byte[] mask = new byte[size * size];
+        float c = (size - 1) / 2.0f;
+        float r2 = (size / 2.0f) * (size / 2.0f);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                float dx = x - c;
+                float dy = y - c;
+                if (dx * dx + dy * dy <= r2) {
+                    mask[y * size + x] = (byte) 255;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /// The rows of the square mask that the frame covers
+    public static byte[] frameMask(byte[] squareMask, int width, int height) {
+        byte[] mask = new byte[width * height];
+        int yOffset = (width - height) / 2;
+        System.arraycopy(squareMask, yOffset * width, mask, 0, mask.length);
+        return mask;
+    }
+}
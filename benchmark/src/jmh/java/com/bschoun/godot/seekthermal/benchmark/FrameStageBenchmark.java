@@ -0,0 +1,403 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import com.bschoun.godot.seekthermal.engine.AreaResize;
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.ExhaleDetector;
+import com.bschoun.godot.seekthermal.engine.ExhaleType;
+import com.bschoun.godot.seekthermal.engine.FlightRecorder;
+import com.bschoun.godot.seekthermal.engine.FlightRecording;
+import com.bschoun.godot.seekthermal.engine.FrameKernel;
+import com.bschoun.godot.seekthermal.engine.MaskedMinMax;
+import com.bschoun.godot.seekthermal.engine.QuantileEngine;
+import com.bschoun.godot.seekthermal.engine.StripeRunner;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage cost of processing one thermal frame, at the Seek's 320x240 and at larger sizes.
+ *
+ * The OpenCV benchmarks repeat the calls SeekThermalGodotAndroidPlugin makes (and, for the IQR,
+ * the calcHist version it used to make), on the desktop build of OpenCV. The engine benchmarks
+ * run the detector code that replaced them. At 27 FPS the whole frame has about 37 ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameStageBenchmark {
+
+    @Param({"320x240", "640x480", "1280x960"})
+    public String resolution;
+
+    private int width;
+    private int height;
+
+    private short[][] frames;
+    private int frameIndex = 0;
+    private long timestamp = 0;
+
+    // Raw data as the SDK delivers it
+    private ByteBuffer sdkBuffer;
+    private ShortBuffer sdkShorts;
+    private short[] shortArray;
+
+    private byte[] maskBytes;
+    private float[] floatData;
+
+    private Mat shortMat;
+    private Mat floatMat;
+    private Mat movingAverageMat;
+    private Mat diffMat;
+    private Mat scaled;
+    private Mat scaleScratch;
+    private Mat squareMask;
+    private Mat frameMask;
+    private Mat frameMaskInverse;
+    private Mat square;
+    private Mat squareRoi;
+    private Mat squareMasked;
+    private Mat small;
+
+    private final Scalar scaleMin = new Scalar(0);
+    private final Scalar scaleMax = new Scalar(10);
+    private final Scalar black = new Scalar(0);
+    private final Size targetSize = new Size(224, 224);
+
+    private final MaskedMinMax minMax = new MaskedMinMax();
+    private QuantileEngine exactQuantiles;
+    private QuantileEngine histogramQuantiles;
+    private FrameKernel kernel;
+    private ExhaleDetector detector;
+
+    // Split into row stripes on the common pool, as the plugin does for large frames
+    private FrameKernel stripedKernel;
+    private QuantileEngine stripedQuantiles;
+
+    // Flight recorder ring, fed as the camera callback does, and a dump's frame encoding
+    private FlightRecorder flightRecorder;
+    private long flightSequence = 0;
+    private byte[] flightPayload;
+
+    // The same square shrink in Java, as DatasetExport does it
+    private AreaResize areaResize;
+    private byte[] squareBytes;
+    private byte[] smallBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        nu.pattern.OpenCV.loadLocally();
+
+        width = FrameData.parseWidth(resolution);
+        height = FrameData.parseHeight(resolution);
+        frames = FrameData.frames(width, height);
+
+        byte[] squareMaskBytes = FrameData.squareMask(width);
+        maskBytes = FrameData.frameMask(squareMaskBytes, width, height);
+
+        sdkBuffer = ByteBuffer.allocateDirect(width * height * 2).order(ByteOrder.BIG_ENDIAN);
+        sdkShorts = sdkBuffer.asShortBuffer();
+        shortArray = new short[width * height];
+        floatData = new float[width * height];
+
+        shortMat = new Mat(height, width, CvType.CV_16UC1);
+        floatMat = new Mat(height, width, CvType.CV_32F);
+        movingAverageMat = new Mat(height, width, CvType.CV_32F);
+        diffMat = new Mat(height, width, CvType.CV_32F);
+        scaled = new Mat(height, width, CvType.CV_8U);
+        scaleScratch = new Mat(height, width, CvType.CV_32F);
+
+        squareMask = new Mat(width, width, CvType.CV_8U);
+        squareMask.put(0, 0, squareMaskBytes);
+        frameMask = squareMask.submat(new Rect(0, (width - height) / 2, width, height));
+        frameMaskInverse = new Mat();
+        Core.bitwise_not(frameMask, frameMaskInverse);
+
+        square = new Mat(width, width, CvType.CV_8U, black);
+        squareRoi = square.submat(new Rect(0, (width - height) / 2, width, height));
+        squareMasked = new Mat(width, width, CvType.CV_8U);
+        small = new Mat(targetSize, CvType.CV_8U);
+
+        exactQuantiles = new QuantileEngine(width * height, QuantileEngine.Mode.EXACT);
+        histogramQuantiles = new QuantileEngine(width * height, QuantileEngine.Mode.HISTOGRAM);
+        kernel = new FrameKernel(width, height);
+        kernel.setMask(maskBytes);
+        StripeRunner stripes = new StripeRunner(ForkJoinPool.commonPool(),
+                Math.max(2, Runtime.getRuntime().availableProcessors()));
+        stripedKernel = new FrameKernel(width, height, stripes);
+        stripedKernel.setMask(maskBytes);
+        stripedQuantiles = new QuantileEngine(width * height, QuantileEngine.Mode.HISTOGRAM,
+                QuantileEngine.DEFAULT_BINS, stripes);
+        detector = new ExhaleDetector(width, height, DetectorConfig.DEFAULT, QuantileEngine.Mode.EXACT,
+                new ExhaleDetector.Listener() {
+                    @Override
+                    public void onExhaleStarted(ExhaleType type, long timestampNanos) {}
+
+                    @Override
+                    public void onExhaleEnded(String source, long timestampNanos) {}
+                });
+
+        flightRecorder = new FlightRecorder(width, height, 27, 3, 2,
+                new File(System.getProperty("java.io.tmpdir"), "seek-flight-benchmark"), "benchmark", 1,
+                new FlightRecorder.Listener() {
+                    @Override
+                    public void onDumpWritten(File file, String reasons, long frames, long bytes) {}
+
+                    @Override
+                    public void onDumpFailed(File file, IOException e) {}
+                });
+        flightPayload = new byte[FlightRecording.maxPayloadSize(width, height)];
+        areaResize = new AreaResize(width, width, (int) targetSize.width, (int) targetSize.height);
+        squareBytes = new byte[width * width];
+        smallBytes = new byte[(int) targetSize.area()];
+
+        // Put a realistic frame and moving average in place for the single-stage benchmarks
+        loadFrame(frames[0]);
+        convertShortsToFloatMat();
+        floatMat.copyTo(movingAverageMat);
+        loadFrame(frames[frames.length / 4]);
+        convertShortsToFloatMat();
+        Core.subtract(floatMat, movingAverageMat, diffMat);
+        scaleImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Mat m : new Mat[] { shortMat, floatMat, movingAverageMat, diffMat, scaled, scaleScratch,
+                squareMask, frameMask, frameMaskInverse, square, squareRoi, squareMasked, small }) {
+            m.release();
+        }
+        flightRecorder.close();
+    }
+
+    private void loadFrame(short[] frame) {
+        sdkShorts.clear();
+        sdkShorts.put(frame);
+    }
+
+    private short[] nextFrame() {
+        short[] frame = frames[frameIndex];
+        frameIndex = (frameIndex + 1) % frames.length;
+        timestamp += 37_037_037L;
+        return frame;
+    }
+
+    //region Conversion
+    /// ShortBuffer -> short[] -> shortMat -> floatMat, as the plugin originally did it
+    @Benchmark
+    public Mat convertShortsToFloatMat() {
+        sdkShorts.rewind();
+        sdkShorts.get(shortArray);
+        shortMat.put(0, 0, shortArray);
+        shortMat.convertTo(floatMat, floatMat.type(), 1 / 64.0f, -40);
+        return floatMat;
+    }
+
+    /// ShortBuffer -> short[] -> float[] in Java, as the detector does it
+    @Benchmark
+    public float[] convertShortsToFloatArray() {
+        sdkShorts.rewind();
+        sdkShorts.get(shortArray);
+        for (int i = 0; i < shortArray.length; i++) {
+            floatData[i] = (shortArray[i] & 0xFFFF) * (1 / 64.0f) - 40;
+        }
+        return floatData;
+    }
+    //endregion
+
+    //region Min/max
+    @Benchmark
+    public Core.MinMaxLocResult maskedMinMaxLoc() {
+        return Core.minMaxLoc(floatMat, frameMask);
+    }
+
+    @Benchmark
+    public MaskedMinMax maskedMinMaxJava() {
+        minMax.compute(floatData, maskBytes, width);
+        return minMax;
+    }
+    //endregion
+
+    //region Preview
+    /// Clip/scale the min-subtracted image to 8 bits and black out the masked pixels
+    @Benchmark
+    public Mat scaleImage() {
+        floatMat.copyTo(scaleScratch);
+        Core.max(scaleScratch, scaleMin, scaleScratch);
+        Core.min(scaleScratch, scaleMax, scaleScratch);
+        Core.subtract(scaleScratch, scaleMin, scaleScratch, frameMask);
+        scaleScratch.convertTo(scaled, CvType.CV_8U, 255.0 / 10);
+        scaled.setTo(black, frameMaskInverse);
+        return scaled;
+    }
+
+    /// Copy into the square preview, mask it, and shrink it for the CNN
+    @Benchmark
+    public Mat squareCopyAndResize() {
+        scaled.copyTo(squareRoi);
+        square.copyTo(squareMasked, squareMask);
+        Imgproc.resize(squareMasked, small, targetSize, 0, 0, Imgproc.INTER_AREA);
+        return small;
+    }
+
+    /// The same with AreaResize on the detector's preview, which is already masked
+    @Benchmark
+    public byte[] squareCopyAndResizeJava() {
+        System.arraycopy(detector.getPreview(), 0, squareBytes, (width - height) / 2 * width, width * height);
+        areaResize.resize(squareBytes, smallBytes);
+        return smallBytes;
+    }
+    //endregion
+
+    //region IQR
+    /// The original getIqrUpperFence: 8-bit conversion, calcHist and per-bin hist.get()
+    @Benchmark
+    public float iqrCalcHist() {
+        Core.MinMaxLocResult res = Core.minMaxLoc(diffMat, frameMask);
+        Mat byteImage = new Mat();
+        float alpha = 255.0f / (float) (res.maxVal - res.minVal);
+        float beta = (float) (-res.minVal * alpha);
+        diffMat.convertTo(byteImage, CvType.CV_8UC1, alpha, beta);
+
+        Mat hist = new Mat();
+        int histSize = 256;
+        List<Mat> images = Collections.singletonList(byteImage);
+        Imgproc.calcHist(images, new MatOfInt(0), frameMask, hist, new MatOfInt(histSize),
+                new MatOfFloat(0f, 256f), false);
+
+        double total = Core.sumElems(hist).val[0];
+        double cumulative = 0.0;
+        int q1Bin = -1, q3Bin = -1;
+        for (int i = 0; i < histSize; i++) {
+            cumulative += hist.get(i, 0)[0];
+            if (q1Bin == -1 && cumulative >= total * 0.25) {
+                q1Bin = i;
+            }
+            if (q3Bin == -1 && cumulative >= total * 0.75) {
+                q3Bin = i;
+                break;
+            }
+        }
+        byteImage.release();
+        hist.release();
+
+        double q1Val = (q1Bin / 255.0) * (res.maxVal - res.minVal) + res.minVal;
+        double q3Val = (q3Bin / 255.0) * (res.maxVal - res.minVal) + res.minVal;
+        return (float) (q3Val + (q3Val - q1Val) * 1.5);
+    }
+
+    @Benchmark
+    public float iqrQuantileExact() {
+        diffMat.get(0, 0, floatData);
+        exactQuantiles.gather(floatData, maskBytes);
+        exactQuantiles.compute();
+        return exactQuantiles.getUpperFence();
+    }
+
+    @Benchmark
+    public float iqrQuantileHistogram() {
+        diffMat.get(0, 0, floatData);
+        histogramQuantiles.gather(floatData, maskBytes);
+        histogramQuantiles.compute();
+        return histogramQuantiles.getUpperFence();
+    }
+    //endregion
+
+    //region Moving average
+    @Benchmark
+    public Mat accumulateWeighted() {
+        Imgproc.accumulateWeighted(floatMat, movingAverageMat, 1 / 27.0, frameMask);
+        return movingAverageMat;
+    }
+    //endregion
+
+    //region Fused kernel
+    /// Convert, min/max, subtract, preview, diff, diff min/max and moving average in two passes over
+    /// the masked pixels; replaces the conversion, min/max, preview and moving average stages above
+    @Benchmark
+    public byte[] fusedKernel() {
+        kernel.process(nextFrame(), 1 / 27.0f, histogramQuantiles);
+        return kernel.getPreview();
+    }
+
+    /// The fused kernel and the histogram IQR on one thread...
+    @Benchmark
+    public float fusedKernelWithIqr() {
+        kernel.process(nextFrame(), 1 / 27.0f, histogramQuantiles);
+        histogramQuantiles.compute();
+        return histogramQuantiles.getUpperFence();
+    }
+
+    /// ...and split into row stripes over all cores
+    @Benchmark
+    public float stripedKernelWithIqr() {
+        stripedKernel.process(nextFrame(), 1 / 27.0f, stripedQuantiles);
+        stripedQuantiles.compute();
+        return stripedQuantiles.getUpperFence();
+    }
+    //endregion
+
+    //region Full frame
+    /// Everything the analysis stage does for one frame: detection plus the preview image
+    @Benchmark
+    public void fullFrame(Blackhole blackhole) {
+        short[] frame = nextFrame();
+        detector.process(frame, maskBytes, timestamp);
+        scaled.put(0, 0, detector.getPreview());
+        squareCopyAndResize();
+        blackhole.consume(detector.isExhaling());
+    }
+
+    /// Detection alone, on plain Java arrays
+    @Benchmark
+    public boolean detectorOnly() {
+        short[] frame = nextFrame();
+        detector.process(frame, maskBytes, timestamp);
+        return detector.isExhaling();
+    }
+    //endregion
+
+    //region Flight recorder
+    /// What the flight recorder adds to the camera callback: copying the SDK buffer into the ring
+    @Benchmark
+    public void flightRecorderAdd() {
+        sdkShorts.rewind();
+        flightRecorder.add(sdkShorts, flightSequence++, timestamp);
+    }
+
+    /// Delta + varint encoding of one frame against the one before, as the dump writer does it;
+    /// returns the compressed size
+    @Benchmark
+    public int flightRecorderEncode() {
+        short[] previous = nextFrame();
+        return FlightRecording.encodeFrame(frames[frameIndex], previous, flightPayload, 0);
+    }
+    //endregion
+}
@@ -0,0 +1,425 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import com.bschoun.godot.seekthermal.engine.AreaResize;
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.ExhaleDetector;
+import com.bschoun.godot.seekthermal.engine.ExhaleType;
+import com.bschoun.godot.seekthermal.engine.FlightRecording;
+import com.bschoun.godot.seekthermal.engine.FlightRecordingReader;
+import com.bschoun.godot.seekthermal.engine.FrameMask;
+import com.bschoun.godot.seekthermal.engine.QuantileEngine;
+import com.bschoun.godot.seekthermal.engine.ThermalFrame;
+import com.bschoun.godot.seekthermal.engine.ThermalRecordingReader;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Turns recorded sessions into labelled images for retraining the exhale CNN, on a desktop JVM:
+ * <pre>
+ * ./gradlew :benchmark:exportDataset -Pexport.args="dataset session1.sktr session2.skfr"
+ * </pre>
+ * Every frame goes through the same steps as on the device: the detector subtracts the min, scales
+ * 0-10 degrees above it to 0-255 and masks it (ExhaleDetector's preview), then it's centred in a
+ * black square and shrunk to 224x224 by area (AreaResize, which matches OpenCV's INTER_AREA). Each
+ * image is labelled with the detector's state at its frame: Gale or Waft while an exhale of that
+ * type is going on, None otherwise. Exhales that aren't classified yet are left out. Images go to
+ * a folder per label under the output directory, listed in labels.csv there once they're written.
+ *
+ * Recordings (.sktr, or flight recorder .skfr dumps) are replayed in parallel, one detector each,
+ * and a pool of workers resizes and encodes the images. At most a few frames per worker are in
+ * flight, so memory stays flat and, with enough cores, the disk is the limit. Options:
+ * --format=png|pgm, --every=n (every nth frame), --none-every=n (every nth None frame, to balance
+ * the classes), --threads=n (encode workers, all cores by default), --mask=path, and single
+ * detector settings as ThresholdSweep prints them: --history, --timeout, --start, --end, --gale
+ * and --waft.
+ */
+public final class DatasetExport {
+
+    /// The CNN's input size, CameraPipeline's targetSize
+    private static final int IMAGE_SIZE = 224;
+
+    /// Folder names, in the order of the CNN's labels.txt (ExhaleType's first three)
+    private static final String[] LABELS = { "Gale", "Waft", "None" };
+
+    /// A frame's preview on its way to an encode worker, with its labels.csv row; recycled
+    private static final class Job {
+        byte[] preview = new byte[0];
+        int width;
+        int height;
+        String path;        // Relative to the output directory
+        int label;
+        String recording;
+        long sequence;
+        double seconds;
+    }
+
+    /// What one worker thread needs to turn a preview into an image file
+    private static final class Encoder {
+        byte[] square = new byte[0];
+        AreaResize resize;
+        final BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private final File outDir;
+    private final String format;
+    private final int every;
+    private final int noneEvery;
+    private final DetectorConfig config;
+    private final MaskImage mask;
+
+    private final ExecutorService encoders;
+    private final ArrayBlockingQueue<Job> jobs;
+    private final ThreadLocal<Encoder> encoder = ThreadLocal.withInitial(Encoder::new);
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final long[] labelCounts = new long[LABELS.length];
+    private final PrintWriter index;
+
+    private DatasetExport(File outDir, String format, int every, int noneEvery, DetectorConfig config,
+                          MaskImage mask, int threads) throws IOException {
+        this.outDir = outDir;
+        this.format = format;
+        this.every = every;
+        this.noneEvery = noneEvery;
+        this.config = config;
+        this.mask = mask;
+        for (String label : LABELS) {
+            File dir = new File(outDir, label);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+        }
+        index = new PrintWriter(new File(outDir, "labels.csv"), StandardCharsets.UTF_8);
+        index.println("file,label,recording,frame,seconds");
+
+        encoders = Executors.newFixedThreadPool(threads, r -> new Thread(r, "seek-export-encoder"));
+        jobs = new ArrayBlockingQueue<>(threads * 4);
+        for (int i = 0; i < threads * 4; i++) {
+            jobs.add(new Job());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String outPath = null;
+        List<File> recordings = new ArrayList<>();
+        String maskPath = "../plugin/src/main/assets/mask.jpg";
+        String format = "png";
+        int every = 1;
+        int noneEvery = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        DetectorConfig d = DetectorConfig.DEFAULT;
+        float history = d.historySeconds;
+        float timeout = d.exhaleTimeout;
+        float start = d.exhaleStartThreshold;
+        float end = d.exhaleEndThreshold;
+        float gale = d.galeThreshold;
+        float waft = d.waftThreshold;
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                if (outPath == null) {
+                    outPath = arg;
+                } else {
+                    recordings.add(new File(arg));
+                }
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                usage("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "format": format = value; break;
+                case "every": every = Integer.parseInt(value); break;
+                case "none-every": noneEvery = Integer.parseInt(value); break;
+                case "threads": threads = Integer.parseInt(value); break;
+                case "mask": maskPath = value; break;
+                case "history": history = Float.parseFloat(value); break;
+                case "timeout": timeout = Float.parseFloat(value); break;
+                case "start": start = Float.parseFloat(value); break;
+                case "end": end = Float.parseFloat(value); break;
+                case "gale": gale = Float.parseFloat(value); break;
+                case "waft": waft = Float.parseFloat(value); break;
+                default: usage("Unknown option " + arg);
+            }
+        }
+        if (outPath == null || recordings.isEmpty()) {
+            usage("Need an output directory and at least one recording");
+        }
+        if (!format.equals("png") && !format.equals("pgm")) {
+            usage("Unknown format " + format);
+        }
+        if (every < 1 || noneEvery < 1 || threads < 1) {
+            usage("--every, --none-every and --threads must be at least 1");
+        }
+
+        DetectorConfig config = new DetectorConfig(d.fps, history, timeout, start, end, gale, waft);
+        DatasetExport export = new DatasetExport(new File(outPath), format, every, noneEvery, config,
+                MaskImage.read(new File(maskPath)), threads);
+        System.out.println(recordings.size() + " recordings, " + threads + " encode workers, " + config);
+
+        long startTime = System.nanoTime();
+        long images = export.run(recordings);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf(Locale.ROOT, "%d images in %.1f s: %.0f images/s, %.1f MB/s%n", images, seconds,
+                images / seconds, export.bytesWritten.get() / seconds / (1 << 20));
+        for (int i = 0; i < LABELS.length; i++) {
+            System.out.println("  " + LABELS[i] + ": " + export.labelCounts[i]);
+        }
+        System.out.println("Index: " + new File(outPath, "labels.csv"));
+    }
+
+    /// Exports every recording, returns the number of images written
+    private long run(List<File> recordings) throws IOException, InterruptedException {
+        ExecutorService replays = Executors.newFixedThreadPool(Math.min(recordings.size(),
+                Runtime.getRuntime().availableProcessors()), r -> new Thread(r, "seek-export-replay"));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (File recording : recordings) {
+                results.add(replays.submit(() -> export(recording)));
+            }
+            long images = 0;
+            for (Future<Long> result : results) {
+                try {
+                    images += result.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+            return images;
+        } finally {
+            replays.shutdownNow();
+            encoders.shutdown();
+            encoders.awaitTermination(1, TimeUnit.HOURS);
+            index.close();
+            IOException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+        }
+    }
+
+    /// Runs one recording through a detector and hands its labelled frames to the encoders
+    private long export(File recording) throws IOException, InterruptedException {
+        String name = recording.getName();
+        String base = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        long images = 0;
+        try (Frames frames = Frames.open(recording)) {
+            int width = frames.getWidth();
+            int height = frames.getHeight();
+            byte[] frameMask = new FrameMask(mask.source, mask.size, width, height, false, false).getFrame();
+            ExhaleDetector detector = new ExhaleDetector(width, height, config, QuantileEngine.Mode.EXACT,
+                    new ExhaleDetector.Listener() {
+                        @Override
+                        public void onExhaleStarted(ExhaleType type, long timestampNanos) {}
+
+                        @Override
+                        public void onExhaleEnded(String source, long timestampNanos) {}
+                    });
+
+            ThermalFrame frame = new ThermalFrame(width, height);
+            long first = Long.MIN_VALUE;
+            long count = 0;
+            long noneCount = 0;
+            while (frames.next(frame) && failure.get() == null) {
+                if (first == Long.MIN_VALUE) {
+                    first = frame.timestampNanos;
+                }
+                detector.process(frame.data, frameMask, frame.timestampNanos);
+                if (count++ % every != 0) {
+                    continue;
+                }
+                int label = label(detector);
+                if (label < 0 || (label == ExhaleType.NONE.ordinal() && noneCount++ % noneEvery != 0)) {
+                    continue;
+                }
+
+                Job job = jobs.take();
+                if (job.preview.length != width * height) {
+                    job.preview = new byte[width * height];
+                }
+                System.arraycopy(detector.getPreview(), 0, job.preview, 0, width * height);
+                job.width = width;
+                job.height = height;
+                job.path = String.format(Locale.ROOT, "%s/%s-%06d.%s", LABELS[label], base, frame.sequence, format);
+                job.label = label;
+                job.recording = name;
+                job.sequence = frame.sequence;
+                job.seconds = (frame.timestampNanos - first) / 1e9;
+                encoders.execute(() -> encode(job));
+                images++;
+            }
+        }
+        return images;
+    }
+
+    /// The CNN label index for the detector's state, or -1 if the frame is in an unclassified exhale
+    private static int label(ExhaleDetector detector) {
+        if (!detector.isExhaling()) {
+            return ExhaleType.NONE.ordinal();
+        }
+        ExhaleType type = detector.getExhaleType();
+        return type == ExhaleType.GALE || type == ExhaleType.WAFT ? type.ordinal() : -1;
+    }
+
+    /// Squares, resizes and writes one image, then lists it in the index, on an encode worker
+    private void encode(Job job) {
+        File file = new File(outDir, job.path);
+        try {
+            Encoder e = encoder.get();
+            int size = job.width;
+            if (e.square.length != size * size) {
+                e.square = new byte[size * size];
+                e.resize = new AreaResize(size, size, IMAGE_SIZE, IMAGE_SIZE);
+            }
+
+            // The frame in the middle rows of a black square, as CameraPipeline's processingMatGray
+            int offset = (size - job.height) / 2 * size;
+            Arrays.fill(e.square, 0, offset, (byte) 0);
+            System.arraycopy(job.preview, 0, e.square, offset, job.preview.length);
+            Arrays.fill(e.square, offset + job.preview.length, e.square.length, (byte) 0);
+            e.resize.resize(e.square, e.pixels);
+
+            if (format.equals("png")) {
+                ImageIO.write(e.image, "png", file);
+            } else {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    out.write(("P5\n" + IMAGE_SIZE + " " + IMAGE_SIZE + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(e.pixels);
+                }
+            }
+            bytesWritten.addAndGet(file.length());
+
+            // Only images that were written are listed
+            synchronized (index) {
+                index.printf(Locale.ROOT, "%s,%s,%s,%d,%.3f%n", job.path, LABELS[job.label], job.recording,
+                        job.sequence, job.seconds);
+                labelCounts[job.label]++;
+            }
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            // Anything else would otherwise only end this task, and the export would carry on without it
+            failure.compareAndSet(null, new IOException("Could not write " + file, e));
+        } finally {
+            jobs.add(job);
+        }
+    }
+
+    /// Frames of a recording or a flight recorder dump, in order
+    private interface Frames extends Closeable {
+        int getWidth();
+
+        int getHeight();
+
+        boolean next(ThermalFrame frame) throws IOException;
+
+        static Frames open(File file) throws IOException {
+            return file.getName().endsWith(FlightRecording.FILE_EXTENSION)
+                    ? new DumpFrames(new FlightRecordingReader(file))
+                    : new RecordingFrames(new ThermalRecordingReader(file));
+        }
+    }
+
+    private static final class RecordingFrames implements Frames {
+        private final ThermalRecordingReader reader;
+        private int next = 0;
+
+        RecordingFrames(ThermalRecordingReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int getWidth() {
+            return reader.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return reader.getHeight();
+        }
+
+        @Override
+        public boolean next(ThermalFrame frame) {
+            if (next == reader.getFrameCount()) {
+                return false;
+            }
+            reader.readFrame(next++, frame);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static final class DumpFrames implements Frames {
+        private final FlightRecordingReader reader;
+
+        DumpFrames(FlightRecordingReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int getWidth() {
+            return reader.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return reader.getHeight();
+        }
+
+        @Override
+        public boolean next(ThermalFrame frame) throws IOException {
+            return reader.readFrame(frame);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: DatasetExport <output dir> <recording.sktr|dump.skfr>... [--format=png|pgm]"
+                + " [--every=n] [--none-every=n] [--threads=n] [--mask=mask.jpg] [--history=s] [--timeout=s]"
+                + " [--start=t] [--end=t] [--gale=t] [--waft=t]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,41 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/** The plugin's mask asset, read on a desktop JVM the way MaskLoader reads it on the device */
+final class MaskImage {
+
+    /// Square, non-zero inside the mask
+    final byte[] source;
+    final int size;
+
+    private MaskImage(byte[] source, int size) {
+        this.source = source;
+        this.size = size;
+    }
+
+    /// Thresholds the image like MaskLoader does; scale it to a frame size with FrameMask
+    static MaskImage read(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Could not decode " + file);
+        }
+        if (image.getWidth() != image.getHeight()) {
+            throw new IOException("Mask image must be square: " + file);
+        }
+        int size = image.getWidth();
+        byte[] source = new byte[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int p = image.getRGB(x, y);
+                int gray = (299 * ((p >> 16) & 0xFF) + 587 * ((p >> 8) & 0xFF) + 114 * (p & 0xFF) + 500) / 1000;
+                source[y * size + x] = (byte) (gray > 127 ? 255 : 0);
+            }
+        }
+        return new MaskImage(source, size);
+    }
+}
@@ -0,0 +1,138 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.ExhaleLabels;
+import com.bschoun.godot.seekthermal.engine.FrameMask;
+import com.bschoun.godot.seekthermal.engine.ParameterSweep;
+import com.bschoun.godot.seekthermal.engine.QuantileEngine;
+import com.bschoun.godot.seekthermal.engine.SweepGrid;
+import com.bschoun.godot.seekthermal.engine.ThermalRecordingReader;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds detector thresholds for a labelled recording, on a desktop JVM:
+ * <pre>
+ * ./gradlew :benchmark:sweep -Psweep.args="session.sktr session.labels.csv"
+ * </pre>
+ * Labels are in the ExhaleLabels format. Every combination of the ranges below is scored (see
+ * ParameterSweep); the best are printed and all are written to &lt;recording&gt;.sweep.csv. Ranges
+ * can be changed with options of the form --start=0.25:1:0.125 (from:to:step), for --history,
+ * --timeout, --start, --end, --gale and --waft. --mask=path picks the mask image (the plugin's
+ * mask.jpg by default), --threads=n the number of threads (all cores by default).
+ */
+public final class ThresholdSweep {
+
+    private static final int TOP = 10;
+
+    private ThresholdSweep() {}
+
+    public static void main(String[] args) throws Exception {
+        String recordingPath = null;
+        String labelsPath = null;
+        String maskPath = "../plugin/src/main/assets/mask.jpg";
+        int threads = Runtime.getRuntime().availableProcessors();
+        float[] history = { 0.5f, 1, 2 };
+        float[] timeout = { 5, 7, 10 };
+        float[] start = SweepGrid.range(0.25f, 1, 0.125f);
+        float[] end = SweepGrid.range(-0.5f, 0, 0.125f);
+        float[] gale = SweepGrid.range(-0.5f, 0.25f, 0.125f);
+        float[] waft = SweepGrid.range(1, 3, 0.5f);
+
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                if (recordingPath == null) {
+                    recordingPath = arg;
+                } else {
+                    labelsPath = arg;
+                }
+                continue;
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                usage("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+                case "history": history = parseRange(value); break;
+                case "timeout": timeout = parseRange(value); break;
+                case "start": start = parseRange(value); break;
+                case "end": end = parseRange(value); break;
+                case "gale": gale = parseRange(value); break;
+                case "waft": waft = parseRange(value); break;
+                case "mask": maskPath = value; break;
+                case "threads": threads = Integer.parseInt(value); break;
+                default: usage("Unknown option " + arg);
+            }
+        }
+        if (recordingPath == null || labelsPath == null) {
+            usage("Need a recording and its labels");
+        }
+
+        File recording = new File(recordingPath);
+        int width;
+        int height;
+        int fps;
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(recording)) {
+            width = reader.getWidth();
+            height = reader.getHeight();
+            fps = reader.getFps() > 0 ? reader.getFps() : DetectorConfig.DEFAULT.fps;
+        }
+        MaskImage maskImage = MaskImage.read(new File(maskPath));
+        FrameMask mask = new FrameMask(maskImage.source, maskImage.size, width, height, false, false);
+        ExhaleLabels labels = ExhaleLabels.read(new File(labelsPath));
+        SweepGrid grid = new SweepGrid(fps, history, timeout, start, end, gale, waft);
+        System.out.println(recording + ": " + width + "x" + height + ", " + labels.size() + " labelled exhales");
+        System.out.println(grid);
+
+        long startTime = System.nanoTime();
+        ParameterSweep sweep = new ParameterSweep(recording, mask.getFrame(), labels, QuantileEngine.Mode.EXACT);
+        List<ParameterSweep.Result> results = sweep.run(grid, threads);
+        System.out.printf(Locale.ROOT, "%d combinations on %d threads in %.1f s%n", results.size(), threads,
+                (System.nanoTime() - startTime) / 1e9);
+
+        System.out.println("Best " + Math.min(TOP, results.size()) + ":");
+        for (ParameterSweep.Result result : results.subList(0, Math.min(TOP, results.size()))) {
+            System.out.printf(Locale.ROOT, "F1 %.3f  type %.3f  start error %.2f s  %s%n",
+                    result.getF1(), result.getTypeAccuracy(), result.meanStartErrorSeconds, result.config);
+        }
+
+        File csv = new File(recording.getPath() + ".sweep.csv");
+        try (PrintWriter out = new PrintWriter(csv, StandardCharsets.UTF_8)) {
+            out.println("f1,precision,recall,typeAccuracy,meanStartErrorSeconds,detected,truePositives,"
+                    + "historySeconds,exhaleTimeout,exhaleStartThreshold,exhaleEndThreshold,galeThreshold,waftThreshold");
+            for (ParameterSweep.Result r : results) {
+                DetectorConfig c = r.config;
+                out.printf(Locale.ROOT, "%.4f,%.4f,%.4f,%.4f,%.4f,%d,%d,%s,%s,%s,%s,%s,%s%n",
+                        r.getF1(), r.getPrecision(), r.getRecall(), r.getTypeAccuracy(), r.meanStartErrorSeconds,
+                        r.detected, r.truePositives, c.historySeconds, c.exhaleTimeout, c.exhaleStartThreshold,
+                        c.exhaleEndThreshold, c.galeThreshold, c.waftThreshold);
+            }
+        }
+        System.out.println("All results: " + csv);
+    }
+
+    /// "from:to:step", or a single value
+    private static float[] parseRange(String text) {
+        String[] parts = text.split(":");
+        if (parts.length == 1) {
+            return new float[] { Float.parseFloat(parts[0]) };
+        }
+        if (parts.length != 3) {
+            usage("Expected from:to:step, got " + text);
+        }
+        return SweepGrid.range(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]), Float.parseFloat(parts[2]));
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: ThresholdSweep <recording.sktr> <labels.csv> [--history=from:to:step] [--timeout=...]"
+                + " [--start=...] [--end=...] [--gale=...] [--waft=...] [--mask=mask.jpg] [--threads=n]");
+        System.exit(2);
+    }
+}
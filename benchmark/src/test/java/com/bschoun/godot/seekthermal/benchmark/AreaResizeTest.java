@@ -0,0 +1,67 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.bschoun.godot.seekthermal.engine.AreaResize;
+
+/// AreaResize must give the CNN exactly the input the plugin's OpenCV resize() would
+class AreaResizeTest {
+
+    @BeforeAll
+    static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // The plugin's square crops down to the CNN input
+            "320, 320, 224, 224",
+            "448, 448, 224, 224",
+            "640, 640, 224, 224",
+            "672, 672, 224, 224",
+            "1280, 1280, 224, 224",
+            // Different ratios per axis, and sizes that don't divide
+            "206, 156, 150, 100",
+            "640, 480, 224, 224",
+            "301, 299, 224, 37",
+    })
+    void matchesOpenCvInterArea(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        Random random = new Random(srcWidth * 31L + dstHeight);
+        for (int trial = 0; trial < 3; trial++) {
+            byte[] src = new byte[srcWidth * srcHeight];
+            if (trial == 0) {
+                random.nextBytes(src);
+            } else {
+                // Smooth, like a thermal image, where rounding ties are more likely
+                for (int y = 0, i = 0; y < srcHeight; y++) {
+                    for (int x = 0; x < srcWidth; x++, i++) {
+                        src[i] = (byte) ((x * trial + y) / 2);
+                    }
+                }
+            }
+
+            byte[] expected = new byte[dstWidth * dstHeight];
+            Mat srcMat = new Mat(srcHeight, srcWidth, CvType.CV_8UC1);
+            Mat dstMat = new Mat();
+            srcMat.put(0, 0, src);
+            Imgproc.resize(srcMat, dstMat, new Size(dstWidth, dstHeight), 0, 0, Imgproc.INTER_AREA);
+            dstMat.get(0, 0, expected);
+            srcMat.release();
+            dstMat.release();
+
+            byte[] actual = new byte[dstWidth * dstHeight];
+            new AreaResize(srcWidth, srcHeight, dstWidth, dstHeight).resize(src, actual);
+            assertArrayEquals(expected, actual, srcWidth + "x" + srcHeight + " trial " + trial);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.bschoun.godot.seekthermal.benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.FrameKernel;
+import com.bschoun.godot.seekthermal.engine.MaskedMinMax;
+import com.bschoun.godot.seekthermal.engine.QuantileEngine;
+import com.bschoun.godot.seekthermal.engine.SyntheticFrames;
+
+/// FrameKernel against the OpenCV calls it replaced, as the plugin made them before: every value
+/// the detector uses must come out the same, bit for bit
+class FrameKernelOpenCvTest {
+
+    private static final int FRAMES = 60;
+
+    @BeforeAll
+    static void loadOpenCv() {
+        nu.pattern.OpenCV.loadLocally();
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "320, 240", "206, 156" })
+    void matchesTheOpenCvChain(int width, int height) {
+        int size = width * height;
+        byte[] mask = SyntheticFrames.diskMask(width, height);
+        short[][] frames = SyntheticFrames.breathing(width, height, FRAMES, 27, 3, 8);
+        float alpha = DetectorConfig.DEFAULT.getAccumulateAlpha();
+
+        FrameKernel kernel = new FrameKernel(width, height);
+        kernel.setMask(mask);
+        QuantileEngine diffOut = new QuantileEngine(size, QuantileEngine.Mode.EXACT);
+        int[] indices = kernel.getIndices();
+        int n = kernel.getCount();
+
+        Mat maskMat = new Mat(height, width, CvType.CV_8U);
+        maskMat.put(0, 0, mask);
+        Mat maskInverse = new Mat();
+        Core.compare(maskMat, new Scalar(0), maskInverse, Core.CMP_EQ);
+        Mat shortMat = new Mat(height, width, CvType.CV_16UC1);
+        Mat floatMat = new Mat(height, width, CvType.CV_32F);
+        Mat scaled = new Mat(height, width, CvType.CV_32F);
+        Mat preview = new Mat(height, width, CvType.CV_8U);
+        Mat movingAverage = new Mat(height, width, CvType.CV_32F, new Scalar(0));
+        Mat diff = new Mat(height, width, CvType.CV_32F);
+
+        float[] expected = new float[size];
+        byte[] expectedPreview = new byte[size];
+        for (int f = 0; f < FRAMES; f++) {
+            String frame = width + "x" + height + " frame " + f;
+
+            // The reference: convert, min/max, subtract the min, clip/scale to 8 bits, black out
+            // the outside, difference from the moving average and its min/max, update the average
+            shortMat.put(0, 0, frames[f]);
+            shortMat.convertTo(floatMat, CvType.CV_32F, 1 / 64.0f, -40);
+            Core.MinMaxLocResult frameRes = Core.minMaxLoc(floatMat, maskMat);
+            Core.subtract(floatMat, new Scalar(frameRes.minVal), floatMat, maskMat);
+
+            floatMat.copyTo(scaled);
+            Core.max(scaled, new Scalar(FrameKernel.PREVIEW_MIN), scaled);
+            Core.min(scaled, new Scalar(FrameKernel.PREVIEW_MAX), scaled);
+            Core.subtract(scaled, new Scalar(FrameKernel.PREVIEW_MIN), scaled, maskMat);
+            scaled.convertTo(preview, CvType.CV_8U, 255.0 / (FrameKernel.PREVIEW_MAX - FrameKernel.PREVIEW_MIN));
+            preview.setTo(new Scalar(0), maskInverse);
+
+            if (f == 0) {
+                floatMat.copyTo(movingAverage, maskMat);
+            }
+            Core.subtract(floatMat, movingAverage, diff);
+            Core.MinMaxLocResult diffRes = Core.minMaxLoc(diff, maskMat);
+            Imgproc.accumulateWeighted(floatMat, movingAverage, alpha, maskMat);
+
+            kernel.process(frames[f], alpha, diffOut);
+
+            assertMinMax(frameRes, kernel.getFrameMinMax(), frame);
+            assertMinMax(diffRes, kernel.getDiffMinMax(), frame);
+
+            preview.get(0, 0, expectedPreview);
+            assertArrayEquals(expectedPreview, kernel.getPreview(), frame + " preview");
+
+            floatMat.get(0, 0, expected);
+            assertCompactEquals(expected, indices, kernel.getCalibrated(), n, frame + " calibrated");
+            diff.get(0, 0, expected);
+            assertCompactEquals(expected, indices, diffOut.getValues(), n, frame + " difference");
+            movingAverage.get(0, 0, expected);
+            assertCompactEquals(expected, indices, kernel.getMovingAverage(), n, frame + " moving average");
+        }
+
+        for (Mat m : new Mat[] { maskMat, maskInverse, shortMat, floatMat, scaled, preview, movingAverage, diff }) {
+            m.release();
+        }
+    }
+
+    private static void assertMinMax(Core.MinMaxLocResult expected, MaskedMinMax actual, String frame) {
+        assertEquals((float) expected.minVal, actual.minVal, frame + " min");
+        assertEquals((float) expected.maxVal, actual.maxVal, frame + " max");
+        assertEquals((int) expected.minLoc.x, actual.minX, frame + " min x");
+        assertEquals((int) expected.minLoc.y, actual.minY, frame + " min y");
+        assertEquals((int) expected.maxLoc.x, actual.maxX, frame + " max x");
+        assertEquals((int) expected.maxLoc.y, actual.maxY, frame + " max y");
+    }
+
+    /// The kernel keeps values in the mask's compact order; expected is the full frame
+    private static void assertCompactEquals(float[] expected, int[] indices, float[] actual, int n, String what) {
+        float[] compact = new float[n];
+        for (int k = 0; k < n; k++) {
+            compact[k] = expected[indices[k]];
+        }
+        assertArrayEquals(compact, Arrays.copyOf(actual, n), what);
+    }
+}
@@ -2,4 +2,5 @@
 plugins {
     id("com.android.library") version "7.4.2" apply false
     id("org.jetbrains.kotlin.android") version "1.8.0" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
@@ -0,0 +1,26 @@
+// Detection engine: plain Java, no Android dependencies, so it also runs on a desktop JVM
+plugins {
+    `java-library`
+
+    // SyntheticFrames, shared by the engine's tests and the benchmarks
+    `java-test-fixtures`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+base {
+    archivesName.set("seek-thermal-engine")
+}
+
+dependencies {
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+}
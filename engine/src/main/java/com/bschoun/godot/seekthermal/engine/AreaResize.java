@@ -0,0 +1,183 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Shrinks 8-bit gray images by pixel area, like OpenCV's resize() with INTER_AREA, so code that
+ * doesn't have OpenCV (e.g. dataset export on a desktop JVM) produces the same CNN input as the
+ * plugin. Each output pixel is the average of the input pixels it covers, weighted by how much of
+ * each it covers, rounded half to even. Integer ratios take OpenCV's block-average path.
+ * AreaResizeTest in the benchmark module checks it bit for bit against the desktop OpenCV 4.9
+ * build.
+ *
+ * The weights are worked out once per size pair. Not thread-safe (it has scratch rows); use one per
+ * thread.
+ */
+public final class AreaResize {
+
+    private final int srcWidth;
+    private final int dstWidth;
+    private final int dstHeight;
+
+    // Integer ratios for the block-average path, or 0
+    private final int blockX;
+    private final int blockY;
+
+    /// One axis's weights, as OpenCV's computeResizeAreaTab: which output pixel each goes to, from
+    /// which input pixel, and the share of the output pixel's cell that input pixel covers
+    private static final class Axis {
+        final int[] dst;
+        final int[] src;
+        final float[] alpha;
+
+        Axis(int srcSize, int dstSize, double scale) {
+            int[] d = new int[srcSize * 2];
+            int[] s = new int[srcSize * 2];
+            float[] a = new float[srcSize * 2];
+            int k = 0;
+            for (int dx = 0; dx < dstSize; dx++) {
+                double fsx1 = dx * scale;
+                double fsx2 = fsx1 + scale;
+                double cellWidth = Math.min(scale, srcSize - fsx1);
+
+                int sx1 = (int) Math.ceil(fsx1);
+                int sx2 = (int) Math.floor(fsx2);
+                sx2 = Math.min(sx2, srcSize - 1);
+                sx1 = Math.min(sx1, sx2);
+
+                if (sx1 - fsx1 > 1e-3) {
+                    d[k] = dx;
+                    s[k] = sx1 - 1;
+                    a[k++] = (float) ((sx1 - fsx1) / cellWidth);
+                }
+                for (int sx = sx1; sx < sx2; sx++) {
+                    d[k] = dx;
+                    s[k] = sx;
+                    a[k++] = (float) (1.0 / cellWidth);
+                }
+                if (fsx2 - sx2 > 1e-3) {
+                    d[k] = dx;
+                    s[k] = sx2;
+                    a[k++] = (float) (Math.min(Math.min(fsx2 - sx2, 1.0), cellWidth) / cellWidth);
+                }
+            }
+            dst = Arrays.copyOf(d, k);
+            src = Arrays.copyOf(s, k);
+            alpha = Arrays.copyOf(a, k);
+        }
+    }
+
+    private final Axis x;
+    private final Axis y;
+
+    private final float[] row;
+    private final float[] sum;
+
+    public AreaResize(int srcWidth, int srcHeight, int dstWidth, int dstHeight) {
+        if (dstWidth < 1 || dstHeight < 1 || dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException("Can only shrink, not " + srcWidth + "x" + srcHeight
+                    + " to " + dstWidth + "x" + dstHeight);
+        }
+        this.srcWidth = srcWidth;
+        this.dstWidth = dstWidth;
+        this.dstHeight = dstHeight;
+
+        // Same arithmetic as OpenCV, so the scales (and weights) come out bit for bit the same
+        double scaleX = 1.0 / ((double) dstWidth / srcWidth);
+        double scaleY = 1.0 / ((double) dstHeight / srcHeight);
+        int integerX = (int) Math.round(scaleX);
+        int integerY = (int) Math.round(scaleY);
+        boolean block = Math.abs(scaleX - integerX) < Math.ulp(1.0) && Math.abs(scaleY - integerY) < Math.ulp(1.0);
+        blockX = block ? integerX : 0;
+        blockY = block ? integerY : 0;
+
+        x = new Axis(srcWidth, dstWidth, scaleX);
+        y = new Axis(srcHeight, dstHeight, scaleY);
+
+        row = new float[dstWidth];
+        sum = new float[dstWidth];
+    }
+
+    public int getDstWidth() {
+        return dstWidth;
+    }
+
+    public int getDstHeight() {
+        return dstHeight;
+    }
+
+    /// Resizes src (srcWidth x srcHeight) into dst (dstWidth x dstHeight)
+    public void resize(byte[] src, byte[] dst) {
+        if (blockX == 1 && blockY == 1) {
+            System.arraycopy(src, 0, dst, 0, dstWidth * dstHeight);
+        } else if (blockX > 0) {
+            resizeBlocks(src, dst);
+        } else {
+            resizeArea(src, dst);
+        }
+    }
+
+    /// Whole input pixels per output pixel: the block's integer sum times 1 / area, except 2x2
+    /// blocks, which OpenCV rounds half up with integer math
+    private void resizeBlocks(byte[] src, byte[] dst) {
+        boolean halves = blockX == 2 && blockY == 2;
+        float scale = 1.0f / (blockX * blockY);
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int sy0 = dy * blockY;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int sx0 = dx * blockX;
+                int total = 0;
+                for (int sy = sy0; sy < sy0 + blockY; sy++) {
+                    int offset = sy * srcWidth + sx0;
+                    for (int sx = 0; sx < blockX; sx++) {
+                        total += src[offset + sx] & 0xFF;
+                    }
+                }
+                dst[dy * dstWidth + dx] = halves ? (byte) ((total + 2) >> 2) : saturate(total * scale);
+            }
+        }
+    }
+
+    /// Fractional coverage: each input row is weighted horizontally, then added to its output rows
+    private void resizeArea(byte[] src, byte[] dst) {
+        float[] row = this.row;
+        float[] sum = this.sum;
+        int[] xDst = x.dst;
+        int[] xSrc = x.src;
+        float[] xAlpha = x.alpha;
+        Arrays.fill(sum, 0);
+        int previous = y.dst[0];
+        for (int j = 0; j < y.dst.length; j++) {
+            float beta = y.alpha[j];
+            int dy = y.dst[j];
+            int offset = y.src[j] * srcWidth;
+
+            Arrays.fill(row, 0);
+            for (int k = 0; k < xDst.length; k++) {
+                row[xDst[k]] += (src[offset + xSrc[k]] & 0xFF) * xAlpha[k];
+            }
+
+            if (dy != previous) {
+                int out = previous * dstWidth;
+                for (int dx = 0; dx < dstWidth; dx++) {
+                    dst[out + dx] = saturate(sum[dx]);
+                    sum[dx] = beta * row[dx];
+                }
+                previous = dy;
+            } else {
+                for (int dx = 0; dx < dstWidth; dx++) {
+                    sum[dx] += beta * row[dx];
+                }
+            }
+        }
+        int out = previous * dstWidth;
+        for (int dx = 0; dx < dstWidth; dx++) {
+            dst[out + dx] = saturate(sum[dx]);
+        }
+    }
+
+    private static byte saturate(float value) {
+        int rounded = (int) Math.rint(value);
+        return (byte) Math.max(0, Math.min(255, rounded));
+    }
+}
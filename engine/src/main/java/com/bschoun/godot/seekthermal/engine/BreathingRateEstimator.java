@@ -0,0 +1,230 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the breathing rate from a per-frame signal (the detector's midrange), at constant cost
+ * per frame.
+ *
+ * The last windowSize samples are kept in a ring, and a sliding DFT keeps the spectrum of that
+ * window up to date for just the bins in the breathing band: each new sample updates every bin
+ * with the sample entering the window and the one leaving it, so a frame costs a few multiplies per
+ * bin however long the window is. estimate() Hann-windows those bins (which only needs the
+ * neighbouring bins), picks the strongest and interpolates between bins. The confidence says how
+ * much of the band's power is in that peak: 0 for noise spread over the band, 1 for a clean rhythm.
+ *
+ * A slightly damped update keeps rounding errors from building up over long sessions. The damped
+ * window leaks a constant level into the lowest bins, so samples go through a first-order high-pass
+ * (at half the band's lower edge) first, which takes the level and slow drift out.
+ *
+ * Not thread-safe: call add() and estimate() from one thread. The getters may be called from any
+ * thread and return the last estimate.
+ */
+public class BreathingRateEstimator {
+
+    // Damping of the sliding DFT; the window's oldest sample is weighted r^N (about 0.99 for N = 1000)
+    private static final double DAMPING = 0.99999;
+
+    // Gaps longer than this many samples (e.g. the camera stopping) restart the window
+    private static final int MAX_GAP = 64;
+
+    private final double sampleRate;
+    private final int windowSize;
+    private final int minBin;       // First and last bin of the band, each with a neighbour either side
+    private final int maxBin;
+    private final double dampingN;
+    private final double highPassAlpha;
+
+    private final float[] ring;
+    private final double[] cos;     // Twiddle per bin, offset by minBin - 1
+    private final double[] sin;
+    private final double[] re;
+    private final double[] im;
+    private final double[] power;   // Hann-windowed power of the band, reused by estimate()
+
+    private int next = 0;
+    private int count = 0;
+    private double level;           // Slow moving average the high-pass takes out
+    private long lastSequence = -1;
+    private float lastValue;
+
+    private volatile float rate = 0;
+    private volatile float confidence = 0;
+
+    /**
+     * @param sampleRate frames per second the samples arrive at
+     * @param windowSeconds how much history the rate is estimated from; at least a few breaths
+     * @param minBreathsPerMinute lower end of the band searched
+     * @param maxBreathsPerMinute upper end of the band searched
+     */
+    public BreathingRateEstimator(double sampleRate, double windowSeconds,
+                                  double minBreathsPerMinute, double maxBreathsPerMinute) {
+        if (sampleRate <= 0 || windowSeconds <= 0 || minBreathsPerMinute <= 0
+                || maxBreathsPerMinute <= minBreathsPerMinute) {
+            throw new IllegalArgumentException("Invalid breathing rate estimator settings");
+        }
+        this.sampleRate = sampleRate;
+        windowSize = (int) Math.round(sampleRate * windowSeconds);
+
+        // Bin k is k * sampleRate / windowSize Hz. Bin 1 is too close to DC for the Hann window.
+        double binsPerBpm = windowSize / (sampleRate * 60);
+        minBin = Math.max(2, (int) Math.floor(minBreathsPerMinute * binsPerBpm));
+        maxBin = Math.min(windowSize / 2 - 1, (int) Math.ceil(maxBreathsPerMinute * binsPerBpm));
+        if (maxBin - minBin < 2) {
+            throw new IllegalArgumentException("Window of " + windowSeconds + " s is too short for the band");
+        }
+        dampingN = Math.pow(DAMPING, windowSize);
+        highPassAlpha = 1 - Math.exp(-2 * Math.PI * minBreathsPerMinute / 120 / sampleRate);
+
+        ring = new float[windowSize];
+        int bins = maxBin - minBin + 3;
+        cos = new double[bins];
+        sin = new double[bins];
+        re = new double[bins];
+        im = new double[bins];
+        power = new double[bins];
+        for (int i = 0; i < bins; i++) {
+            double w = 2 * Math.PI * (minBin - 1 + i) / windowSize;
+            cos[i] = DAMPING * Math.cos(w);
+            sin[i] = DAMPING * Math.sin(w);
+        }
+    }
+
+    /// 30 second window, 4 to 40 breaths per minute
+    public BreathingRateEstimator(double sampleRate) {
+        this(sampleRate, 30, 4, 40);
+    }
+
+    /**
+     * Adds one frame's value.
+     *
+     * @param sequence frame sequence number; frames skipped since the last call (e.g. dropped by a
+     *                 busy pipeline) are filled with the previous value, so the spacing stays even
+     */
+    public void add(float value, long sequence) {
+        if (lastSequence >= 0) {
+            long gap = sequence - lastSequence - 1;
+            if (gap < 0 || gap > MAX_GAP) {
+                reset();
+            } else {
+                for (long i = 0; i < gap; i++) {
+                    push(lastValue);
+                }
+            }
+        }
+        push(value);
+        lastSequence = sequence;
+        lastValue = value;
+    }
+
+    private void push(float value) {
+        if (count == 0) {
+            level = value;
+        }
+        level += highPassAlpha * (value - level);
+        float x = (float) (value - level);
+
+        double delta = x - dampingN * ring[next];
+        ring[next] = x;
+        next = next + 1 == windowSize ? 0 : next + 1;
+        if (count < windowSize) {
+            count++;
+        }
+
+        // S_k <- r * e^(i w_k) * S_k + x_new - r^N * x_old
+        for (int i = 0; i < re.length; i++) {
+            double r = re[i];
+            double m = im[i];
+            re[i] = cos[i] * r - sin[i] * m + delta;
+            im[i] = sin[i] * r + cos[i] * m;
+        }
+    }
+
+    /// Whether a whole window of samples has been seen, and estimate() has something to go on
+    public boolean isReady() {
+        return count == windowSize;
+    }
+
+    /**
+     * Updates the rate and confidence from the current window. Costs a pass over the band's bins;
+     * call it at the rate estimates are wanted, not every frame.
+     *
+     * @return false (leaving the last estimate) until the window is full
+     */
+    public boolean estimate() {
+        if (!isReady()) {
+            return false;
+        }
+
+        // Hann window in the frequency domain: 0.5 X[k] - 0.25 (X[k-1] + X[k+1])
+        int bins = re.length;
+        double total = 0;
+        int peak = 1;
+        for (int i = 1; i < bins - 1; i++) {
+            double hr = 0.5 * re[i] - 0.25 * (re[i - 1] + re[i + 1]);
+            double hi = 0.5 * im[i] - 0.25 * (im[i - 1] + im[i + 1]);
+            power[i] = hr * hr + hi * hi;
+            total += power[i];
+            if (power[i] > power[peak]) {
+                peak = i;
+            }
+        }
+        if (total <= 0) {
+            rate = 0;
+            confidence = 0;
+            return true;
+        }
+
+        // Parabolic interpolation of the magnitude around the peak
+        double offset = 0;
+        double peakPower = power[peak];
+        if (peak > 1 && peak < bins - 2) {
+            double a = Math.sqrt(power[peak - 1]);
+            double b = Math.sqrt(power[peak]);
+            double c = Math.sqrt(power[peak + 1]);
+            double denominator = a - 2 * b + c;
+            if (denominator < 0) {
+                offset = 0.5 * (a - c) / denominator;
+            }
+            peakPower += power[peak - 1] + power[peak + 1];
+        }
+        double bin = minBin - 1 + peak + offset;
+        rate = (float) (bin * sampleRate / windowSize * 60);
+
+        // A Hann-windowed tone spreads over about three bins; white noise gives each bin an equal share
+        double share = peakPower / total;
+        double noiseShare = 3.0 / (bins - 2);
+        confidence = (float) Math.max(0, Math.min(1, (share - noiseShare) / (1 - noiseShare)));
+        return true;
+    }
+
+    /// Forgets the window and the last estimate
+    public void reset() {
+        Arrays.fill(ring, 0);
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        next = 0;
+        count = 0;
+        lastSequence = -1;
+        rate = 0;
+        confidence = 0;
+    }
+
+    /// Breaths per minute from the last estimate, 0 if there is none
+    public float getRate() {
+        return rate;
+    }
+
+    /// 0-1, how clearly the last estimate stood out from the rest of the band
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+}
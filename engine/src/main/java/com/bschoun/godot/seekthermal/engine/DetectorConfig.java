@@ -0,0 +1,60 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/** Tuning parameters for ExhaleDetector. Immutable, so one instance can be shared between threads. */
+public final class DetectorConfig {
+
+    /// Nominal camera frame rate, used to turn historySeconds into a moving-average weight
+    public final int fps;
+
+    /// Roughly how many seconds of frames the moving average remembers
+    public final float historySeconds;
+
+    /// Seconds after which an exhale that hasn't ended is ended anyway
+    public final float exhaleTimeout;
+
+    /// Midrange of the diff image above which an exhale starts
+    public final float exhaleStartThreshold;
+
+    /// Midrange of the diff image below which an exhale ends
+    public final float exhaleEndThreshold;
+
+    /// IQR fence (minus midrange) below which an exhale is a gale
+    public final float galeThreshold;
+
+    /// IQR fence (minus midrange) above which an exhale is a waft
+    public final float waftThreshold;
+
+    public static final DetectorConfig DEFAULT = new DetectorConfig(27, 1, 7, 0.5f, -0.25f, -0.125f, 2.0f);
+
+    public DetectorConfig(int fps,
+                          float historySeconds,
+                          float exhaleTimeout,
+                          float exhaleStartThreshold,
+                          float exhaleEndThreshold,
+                          float galeThreshold,
+                          float waftThreshold) {
+        this.fps = fps;
+        this.historySeconds = historySeconds;
+        this.exhaleTimeout = exhaleTimeout;
+        this.exhaleStartThreshold = exhaleStartThreshold;
+        this.exhaleEndThreshold = exhaleEndThreshold;
+        this.galeThreshold = galeThreshold;
+        this.waftThreshold = waftThreshold;
+    }
+
+    /// Weight of the newest frame in the moving average
+    public float getAccumulateAlpha() {
+        return 1.0f / (fps * historySeconds);
+    }
+
+    @Override
+    public String toString() {
+        return "DetectorConfig{fps=" + fps
+                + ", historySeconds=" + historySeconds
+                + ", exhaleTimeout=" + exhaleTimeout
+                + ", exhaleStartThreshold=" + exhaleStartThreshold
+                + ", exhaleEndThreshold=" + exhaleEndThreshold
+                + ", galeThreshold=" + galeThreshold
+                + ", waftThreshold=" + waftThreshold + "}";
+    }
+}
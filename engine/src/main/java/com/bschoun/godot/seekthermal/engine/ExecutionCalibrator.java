@@ -0,0 +1,200 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Finds the fastest ExecutionConfig for a model on this device by timing a few warm inferences
+ * with each candidate, and caches the choice in a properties file keyed by device and model hash,
+ * so later launches skip the timing.
+ *
+ * The model itself is behind SessionFactory, so this works for any inference runtime. Candidates
+ * that fail to open (e.g. no GPU delegate on this device) are skipped.
+ */
+public class ExecutionCalibrator {
+
+    public static final int DEFAULT_WARMUP_RUNS = 3;
+    public static final int DEFAULT_TIMED_RUNS = 10;
+
+    /// A model loaded with one ExecutionConfig, ready to run inferences on fixed input
+    public interface Session extends AutoCloseable {
+        void run() throws Exception;
+
+        @Override
+        void close();
+    }
+
+    public interface SessionFactory {
+        /// Throws if the config isn't supported here
+        Session open(ExecutionConfig config) throws Exception;
+    }
+
+    /// Timing of one candidate; medianNanos is -1 if it couldn't be run
+    public static final class Trial {
+        public final ExecutionConfig config;
+        public final long medianNanos;
+        public final String error;
+
+        Trial(ExecutionConfig config, long medianNanos, String error) {
+            this.config = config;
+            this.medianNanos = medianNanos;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return config + ": " + (medianNanos >= 0 ? (medianNanos / 1000) + " us" : "failed (" + error + ")");
+        }
+    }
+
+    private final File cacheFile;
+    private final int warmupRuns;
+    private final int timedRuns;
+
+    private List<Trial> lastTrials = Collections.emptyList();
+    private boolean lastCached = false;
+
+    public ExecutionCalibrator(File cacheFile) {
+        this(cacheFile, DEFAULT_WARMUP_RUNS, DEFAULT_TIMED_RUNS);
+    }
+
+    public ExecutionCalibrator(File cacheFile, int warmupRuns, int timedRuns) {
+        this.cacheFile = cacheFile;
+        this.warmupRuns = warmupRuns;
+        this.timedRuns = timedRuns;
+    }
+
+    /**
+     * Returns the fastest candidate, from the cache if this device and model were calibrated before
+     * (and the cached config is still a candidate), otherwise by timing every candidate.
+     *
+     * @param force ignore the cache and time the candidates again
+     * @return the fastest config, or null if none of the candidates could be run
+     */
+    public ExecutionConfig calibrate(String deviceKey, String modelHash, List<ExecutionConfig> candidates,
+                                     SessionFactory factory, boolean force) throws IOException {
+        String key = cacheKey(deviceKey, modelHash);
+        if (!force) {
+            ExecutionConfig cached = getCached(deviceKey, modelHash);
+            if (cached != null && candidates.contains(cached)) {
+                lastTrials = Collections.emptyList();
+                lastCached = true;
+                return cached;
+            }
+        }
+
+        List<Trial> trials = new ArrayList<>();
+        Trial best = null;
+        for (ExecutionConfig config : candidates) {
+            Trial trial = time(config, factory);
+            trials.add(trial);
+            if (trial.medianNanos >= 0 && (best == null || trial.medianNanos < best.medianNanos)) {
+                best = trial;
+            }
+        }
+        lastTrials = Collections.unmodifiableList(trials);
+        lastCached = false;
+
+        if (best == null) {
+            return null;
+        }
+        Properties cache = loadCache();
+        cache.setProperty(key, best.config.toString());
+        saveCache(cache);
+        return best.config;
+    }
+
+    /// The cached choice for this device and model, or null
+    public ExecutionConfig getCached(String deviceKey, String modelHash) throws IOException {
+        String value = loadCache().getProperty(cacheKey(deviceKey, modelHash));
+        if (value == null) {
+            return null;
+        }
+        try {
+            return ExecutionConfig.parse(value);
+        } catch (IllegalArgumentException e) {
+            // Written by a version with different backends
+            return null;
+        }
+    }
+
+    /// Timings from the last calibrate() that didn't come from the cache
+    public List<Trial> getLastTrials() {
+        return lastTrials;
+    }
+
+    /// Whether the last calibrate() was answered from the cache
+    public boolean wasLastCached() {
+        return lastCached;
+    }
+
+    private Trial time(ExecutionConfig config, SessionFactory factory) {
+        try (Session session = factory.open(config)) {
+            for (int i = 0; i < warmupRuns; i++) {
+                session.run();
+            }
+            long[] times = new long[timedRuns];
+            for (int i = 0; i < timedRuns; i++) {
+                long start = System.nanoTime();
+                session.run();
+                times[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            return new Trial(config, times[(timedRuns - 1) / 2], null);
+        } catch (Exception | LinkageError e) {
+            // Missing native delegates show up as linkage errors
+            return new Trial(config, -1, e.toString());
+        }
+    }
+
+    private static String cacheKey(String deviceKey, String modelHash) {
+        return deviceKey.replace('=', '_').replace(':', '_') + "|" + modelHash;
+    }
+
+    private Properties loadCache() throws IOException {
+        Properties properties = new Properties();
+        if (cacheFile.isFile()) {
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private void saveCache(Properties properties) throws IOException {
+        File parent = cacheFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        try (OutputStream out = new FileOutputStream(cacheFile)) {
+            properties.store(out, "Fastest inference execution config per device and model");
+        }
+    }
+
+    /// Hex SHA-256 of the buffer's remaining bytes; the buffer's position isn't changed
+    public static String hash(ByteBuffer model) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.duplicate());
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * How an inference model is executed: which backend, and how many CPU threads it may use.
+ * Immutable; toString() and parse() round-trip so configs can be cached as text.
+ */
+public final class ExecutionConfig {
+
+    public enum Backend {
+        /// Built-in CPU kernels, XNNPACK disabled
+        CPU,
+        /// XNNPACK CPU kernels
+        XNNPACK,
+        GPU,
+        NNAPI
+    }
+
+    public final Backend backend;
+    public final int numThreads;
+
+    public ExecutionConfig(Backend backend, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1, got " + numThreads);
+        }
+        this.backend = backend;
+        this.numThreads = numThreads;
+    }
+
+    /// CPU and XNNPACK at 1 to maxThreads threads; the candidates that can run anywhere, including a plain JVM
+    public static List<ExecutionConfig> cpuCandidates(int maxThreads) {
+        List<ExecutionConfig> candidates = new ArrayList<>();
+        for (Backend backend : new Backend[] { Backend.CPU, Backend.XNNPACK }) {
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                candidates.add(new ExecutionConfig(backend, threads));
+            }
+        }
+        return candidates;
+    }
+
+    /// Parses the output of toString(), e.g. "XNNPACK/2"
+    public static ExecutionConfig parse(String text) {
+        int slash = text.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Not an execution config: " + text);
+        }
+        Backend backend = Backend.valueOf(text.substring(0, slash).trim().toUpperCase(Locale.ROOT));
+        int threads = Integer.parseInt(text.substring(slash + 1).trim());
+        return new ExecutionConfig(backend, threads);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ExecutionConfig)) {
+            return false;
+        }
+        ExecutionConfig other = (ExecutionConfig) o;
+        return backend == other.backend && numThreads == other.numThreads;
+    }
+
+    @Override
+    public int hashCode() {
+        return backend.hashCode() * 31 + numThreads;
+    }
+
+    @Override
+    public String toString() {
+        return backend.name() + "/" + numThreads;
+    }
+}
@@ -0,0 +1,286 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * Detects and classifies exhales from raw thermography of the thin medium.
+ *
+ * Each frame is converted to degrees, has its (masked) minimum subtracted and is compared with a
+ * moving average of previous frames. The midrange of that difference starts and ends exhales, and
+ * its IQR upper fence classifies them as gales or wafts. Only the pixels inside the mask are
+ * touched, in two fused passes (see FrameKernel), split over threads for large frames. Everything
+ * runs on Java arrays allocated up front, so the detector has no Android dependencies and
+ * processing a frame doesn't allocate.
+ *
+ * Not thread-safe: call process() from a single thread. requestEnd() may be called from any thread.
+ */
+public class ExhaleDetector {
+
+    public interface Listener {
+        /// An exhale started, or an exhale already in progress was classified
+        void onExhaleStarted(ExhaleType type, long timestampNanos);
+
+        /// The exhale ended; source says why ("" for a normal end)
+        void onExhaleEnded(String source, long timestampNanos);
+    }
+
+    private final int width;
+    private final int height;
+    private final Listener listener;
+    private volatile DetectorConfig config;
+
+    private final FrameKernel kernel;
+    private final QuantileEngine diffQuantiles;
+
+    private boolean exhaling = false;
+    private ExhaleType exhaleType = ExhaleType.NONE;
+    private long exhaleStartTime = 0;
+    private long exhaleEndTime = 0;
+
+    // Results of the last frame
+    private float midrange;
+    private float iqrMaxDiff;
+    private boolean classify;
+    private long kernelNanos;
+
+    // Set from other threads (e.g. the CNN), picked up on the next frame
+    private volatile String endRequest;
+    private volatile long endRequestTimestamp;
+
+    public ExhaleDetector(int width, int height, DetectorConfig config, QuantileEngine.Mode iqrMode, Listener listener) {
+        this(width, height, config, iqrMode, StripeRunner.SERIAL, listener);
+    }
+
+    /// stripes splits the frame kernel and the IQR histogram over threads, see StripeRunner.forPixels()
+    public ExhaleDetector(int width, int height, DetectorConfig config, QuantileEngine.Mode iqrMode,
+                          StripeRunner stripes, Listener listener) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.listener = listener;
+
+        kernel = new FrameKernel(width, height, stripes);
+        diffQuantiles = new QuantileEngine(width * height, iqrMode, QuantileEngine.DEFAULT_BINS, stripes);
+    }
+
+    public ExhaleDetector(int width, int height, Listener listener) {
+        this(width, height, DetectorConfig.DEFAULT, QuantileEngine.Mode.EXACT, listener);
+    }
+
+    /// Takes effect from the next frame
+    public void setConfig(DetectorConfig config) {
+        this.config = config;
+    }
+
+    public DetectorConfig getConfig() {
+        return config;
+    }
+
+    /// Forgets the moving average and any exhale in progress (without notifying the listener)
+    public void reset() {
+        kernel.reset();
+        exhaling = false;
+        exhaleType = ExhaleType.NONE;
+        endRequest = null;
+    }
+
+    /// Ends the current exhale on the next frame, if it had already been classified
+    public void requestEnd(String source) {
+        requestEnd(source, Long.MAX_VALUE);
+    }
+
+    /**
+     * Ends the current exhale on the next frame, if it had already been classified and the request
+     * is about a frame from this exhale. Requests based on frames captured before the current
+     * exhale was classified (e.g. a slow CNN result from the previous one) are stale and ignored.
+     *
+     * @param frameTimestampNanos capture time of the frame the request is based on
+     */
+    public void requestEnd(String source, long frameTimestampNanos) {
+        endRequestTimestamp = frameTimestampNanos;
+        endRequest = source;
+    }
+
+    /**
+     * Processes one frame.
+     *
+     * @param raw 16-bit thermography as delivered by the SDK, width * height values
+     * @param mask non-zero where the thin medium is, width * height values. Compared by reference,
+     *             so pass a new array to change the mask; changing it restarts the moving average.
+     * @param timestampNanos capture time of the frame, in nanoseconds on a monotonic clock
+     */
+    public void process(short[] raw, byte[] mask, long timestampNanos) {
+        DetectorConfig config = this.config;
+
+        if (mask != kernel.getMask()) {
+            kernel.setMask(mask);
+        }
+
+        // Calibrate, subtract the min, build the preview and difference image, and update the
+        // moving average (the state machine below doesn't depend on it)
+        long kernelStart = System.nanoTime();
+        kernel.process(raw, config.getAccumulateAlpha(), diffQuantiles);
+        kernelNanos = System.nanoTime() - kernelStart;
+
+        // Calculate the midrange of the difference
+        MaskedMinMax diffRes = kernel.getDiffMinMax();
+        midrange = (diffRes.maxVal + diffRes.minVal) / 2.0f;
+        iqrMaxDiff = getIqrUpperFence() - midrange;
+
+        updateState(config, timestampNanos);
+    }
+
+    /**
+     * Runs only the exhale state machine, on a frame's midrange and IQR fence computed elsewhere,
+     * e.g. by process() on a detector with the same history. The thresholds don't affect those
+     * features, so a recording's features can be replayed with many thresholds (see ParameterSweep).
+     */
+    public void processFeatures(float midrange, float iqrMaxDiff, long timestampNanos) {
+        this.midrange = midrange;
+        this.iqrMaxDiff = iqrMaxDiff;
+        updateState(config, timestampNanos);
+    }
+
+    /// Upper IQR fence (Q3 + 1.5 * IQR) of the masked difference image
+    private float getIqrUpperFence() {
+        if (diffQuantiles.getCount() == 0) {
+            return 0.0f;
+        }
+        diffQuantiles.compute();
+        return diffQuantiles.getUpperFence();
+    }
+
+    private void updateState(DetectorConfig config, long timestampNanos) {
+
+        // When we're not exhaling, check for the start of the exhale
+        if (!exhaling) {
+
+            // Anything requested during a previous exhale no longer applies
+            endRequest = null;
+
+            if (midrange > config.exhaleStartThreshold) {
+                // Start the exhale but don't classify it yet
+                startExhale(ExhaleType.NONE, timestampNanos);
+            }
+        }
+
+        // When we're exhaling, check for the end of the exhale
+        // This needs to be exhaling, not else, to process any exhale we found above immediately and not one frame later
+        classify = false;
+        boolean classifiedThisFrame = false;
+        if (exhaling) {
+
+            // If we're exhaling and haven't yet classified the exhale, see if we can classify it
+            if (exhaleType == ExhaleType.NONE) {
+
+                if (iqrMaxDiff < config.galeThreshold) {
+                    startExhale(ExhaleType.GALE, timestampNanos);
+                    classifiedThisFrame = true;
+                } else if (iqrMaxDiff > config.waftThreshold) {
+                    startExhale(ExhaleType.WAFT, timestampNanos);
+                    classifiedThisFrame = true;
+                }
+            }
+            // If our exhale type is WAFT or GALE, it's worth classifying the image to look for an early end
+            else {
+                classify = true;
+            }
+
+            // Requests only apply to exhales that were already classified when they were made
+            String requested = endRequest;
+            long requestedAt = endRequestTimestamp;
+            endRequest = null;
+            if (requested != null && exhaleType != ExhaleType.NONE && !classifiedThisFrame
+                    && requestedAt >= exhaleStartTime) {
+                endExhale(requested, timestampNanos);
+            }
+            else if (midrange < config.exhaleEndThreshold) {
+                endExhale("", timestampNanos);
+            }
+            // Check for timeout
+            else if ((timestampNanos - exhaleStartTime) / 1_000_000_000.0f > config.exhaleTimeout) {
+                endExhale("(TIMEOUT)", timestampNanos);
+            }
+        }
+    }
+
+    private void startExhale(ExhaleType type, long timestampNanos) {
+        exhaling = true;
+        exhaleStartTime = timestampNanos;
+        exhaleType = type;
+        listener.onExhaleStarted(type, timestampNanos);
+    }
+
+    private void endExhale(String source, long timestampNanos) {
+        exhaling = false;
+        exhaleEndTime = timestampNanos;
+        exhaleType = ExhaleType.NONE;
+        endRequest = null;
+        listener.onExhaleEnded(source, timestampNanos);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isExhaling() {
+        return exhaling;
+    }
+
+    public ExhaleType getExhaleType() {
+        return exhaleType;
+    }
+
+    public long getExhaleStartTime() {
+        return exhaleStartTime;
+    }
+
+    public long getExhaleEndTime() {
+        return exhaleEndTime;
+    }
+
+    /// Whether the last frame is worth running through the CNN (exhaling, already classified)
+    public boolean shouldClassify() {
+        return classify;
+    }
+
+    /// Min/max of the last frame in degrees, before the min was subtracted
+    public MaskedMinMax getFrameMinMax() {
+        return kernel.getFrameMinMax();
+    }
+
+    /// Min/max of the last frame's difference from the moving average
+    public MaskedMinMax getDiffMinMax() {
+        return kernel.getDiffMinMax();
+    }
+
+    /// How long FrameKernel took for the last frame; the rest of process() is detection
+    public long getLastKernelNanos() {
+        return kernelNanos;
+    }
+
+    public float getMidrange() {
+        return midrange;
+    }
+
+    /// IQR upper fence of the last difference image, minus its midrange
+    public float getIqrMaxDiff() {
+        return iqrMaxDiff;
+    }
+
+    /// 8-bit preview of the last frame (0-10 degrees above the min), black outside the mask.
+    /// Reused by the next frame.
+    public byte[] getPreview() {
+        return kernel.getPreview();
+    }
+
+    public FrameKernel getKernel() {
+        return kernel;
+    }
+
+    public QuantileEngine getDiffQuantiles() {
+        return diffQuantiles;
+    }
+}
@@ -0,0 +1,93 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Hand-labelled exhales of a recording, to score detector settings against.
+ *
+ * The text format has one exhale per line: start and end in seconds from the recording's first
+ * frame, and optionally its type (GALE or WAFT), comma separated. Blank lines and lines starting
+ * with # are ignored:
+ * <pre>
+ * # start, end, type
+ * 3.20, 4.85, GALE
+ * 9.10, 10.40, WAFT
+ * 15.0, 16.2
+ * </pre>
+ */
+public final class ExhaleLabels {
+
+    /// One labelled exhale, times in nanoseconds from the first frame
+    public static final class Interval {
+        public final long startNanos;
+        public final long endNanos;
+        /// null if the label doesn't say
+        public final ExhaleType type;
+
+        public Interval(long startNanos, long endNanos, ExhaleType type) {
+            if (endNanos < startNanos) {
+                throw new IllegalArgumentException("Exhale ends before it starts");
+            }
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.type = type;
+        }
+    }
+
+    private final List<Interval> intervals;
+
+    /// Intervals in any order; they're sorted by start
+    public ExhaleLabels(List<Interval> intervals) {
+        List<Interval> sorted = new ArrayList<>(intervals);
+        sorted.sort((a, b) -> Long.compare(a.startNanos, b.startNanos));
+        this.intervals = Collections.unmodifiableList(sorted);
+    }
+
+    public static ExhaleLabels read(File file) throws IOException {
+        List<Interval> intervals = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                try {
+                    long start = toNanos(fields[0]);
+                    long end = toNanos(fields[1]);
+                    ExhaleType type = fields.length > 2 && !fields[2].trim().isEmpty()
+                            ? ExhaleType.valueOf(fields[2].trim().toUpperCase(Locale.ROOT)) : null;
+                    intervals.add(new Interval(start, end, type));
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + number + ": not an exhale label: " + line, e);
+                }
+            }
+        }
+        return new ExhaleLabels(intervals);
+    }
+
+    private static long toNanos(String seconds) {
+        return Math.round(Double.parseDouble(seconds.trim()) * 1_000_000_000.0);
+    }
+
+    /// Sorted by start
+    public List<Interval> getIntervals() {
+        return intervals;
+    }
+
+    public int size() {
+        return intervals.size();
+    }
+}
@@ -0,0 +1,9 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/** Kinds of exhale. The first three match the indices of the CNN's labels (Gale/Waft/None). */
+public enum ExhaleType {
+    GALE,
+    WAFT,
+    NONE,
+    CALM
+}
@@ -0,0 +1,319 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Black box for the raw thermography: always holds the last few seconds of frames, and on a
+ * trigger (an exhale event, or a request from the app) writes the frames from preSeconds before
+ * it to postSeconds after it to a FlightRecording file.
+ *
+ * The ring is allocated up front, (preSeconds + 1) * fps frames, and the frame thread only copies
+ * each frame into its slot. Dumps are compressed and written on one background thread, which
+ * starts on the frames before the trigger straight away and follows the new ones as they arrive.
+ * A trigger within the post-trigger window of a dump still being written extends that dump
+ * instead of starting another. If the writer falls so far behind that frames are overwritten
+ * before it gets to them, they're skipped, and the dump records the gap. Only the last maxDumps
+ * dumps are kept.
+ *
+ * Each slot is locked while it's written or read, so the frame thread only ever waits for the
+ * writer copying out that one frame, which is the one being overwritten anyway.
+ */
+public class FlightRecorder implements Closeable {
+
+    public interface Listener {
+        /// A dump was written; called on the writer thread
+        void onDumpWritten(File file, String reasons, long frames, long bytes);
+
+        void onDumpFailed(File file, IOException e);
+    }
+
+    /// One frame of the ring
+    private static final class Slot {
+        final short[] data;
+        long sequence = -1;
+        long timestampNanos;
+
+        Slot(int pixels) {
+            data = new short[pixels];
+        }
+    }
+
+    /// A dump waiting for, or collecting, its frames
+    private static final class Dump {
+        final long triggerMillis;
+        final long triggerNanos;
+        // Guarded by the recorder
+        long endNanos;
+        final List<String> reasons = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        Dump(String reason, long triggerMillis, long triggerNanos, long endNanos) {
+            this.triggerMillis = triggerMillis;
+            this.triggerNanos = triggerNanos;
+            this.endNanos = endNanos;
+            reasons.add(reason);
+            times.add(triggerNanos);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final long preNanos;
+    private final long postNanos;
+    private final File directory;
+    private final String prefix;
+    private final int maxDumps;
+    private final Listener listener;
+
+    private final Slot[] slots;
+    private volatile long newestSequence = -1;
+    private volatile long newestTimestamp;
+
+    private final ExecutorService writer;
+    private final short[] writerFrame;
+    private final ArrayDeque<File> dumps = new ArrayDeque<>();  // Writer thread only
+
+    // The dump that's still taking triggers, guarded by this
+    private Dump open;
+    private volatile boolean closed = false;
+
+    /**
+     * @param directory where dumps go, created if needed
+     * @param prefix    file name prefix, followed by the trigger time
+     */
+    public FlightRecorder(int width, int height, int fps, float preSeconds, float postSeconds,
+                          File directory, String prefix, int maxDumps, Listener listener) {
+        if (fps <= 0 || preSeconds < 0 || postSeconds < 0 || maxDumps < 1) {
+            throw new IllegalArgumentException("Invalid flight recorder settings");
+        }
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.preNanos = (long) (preSeconds * 1_000_000_000L);
+        this.postNanos = (long) (postSeconds * 1_000_000_000L);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxDumps = maxDumps;
+        this.listener = listener;
+
+        // A second more than the pre-trigger window, for the writer to get to the oldest frames
+        int capacity = (int) Math.ceil((preSeconds + 1) * fps);
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot(width * height);
+        }
+        writerFrame = new short[width * height];
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "seek-flight-" + prefix);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /// Bytes held by the ring
+    public long getFootprintBytes() {
+        return (long) slots.length * width * height * 2;
+    }
+
+    /// Copies a frame into the ring; data is read from its current position. Sequences must increase.
+    public void add(ShortBuffer data, long sequence, long timestampNanos) {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        synchronized (slot) {
+            data.get(slot.data);
+            slot.sequence = sequence;
+            slot.timestampNanos = timestampNanos;
+        }
+        added(sequence, timestampNanos);
+    }
+
+    /// The same for a frame in an array (e.g. a replay), without wrapping it in a buffer
+    public void add(short[] data, long sequence, long timestampNanos) {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        synchronized (slot) {
+            System.arraycopy(data, 0, slot.data, 0, slot.data.length);
+            slot.sequence = sequence;
+            slot.timestampNanos = timestampNanos;
+        }
+        added(sequence, timestampNanos);
+    }
+
+    private void added(long sequence, long timestampNanos) {
+        newestTimestamp = timestampNanos;
+        newestSequence = sequence;
+    }
+
+    /// Dumps the window around the newest frame; false if there are no frames yet
+    public boolean trigger(String reason) {
+        return newestSequence >= 0 && trigger(reason, newestTimestamp);
+    }
+
+    /// Dumps the window around the frame captured at timestampNanos; false once closed
+    public boolean trigger(String reason, long timestampNanos) {
+        Dump dump;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (open != null && timestampNanos <= open.endNanos) {
+                open.reasons.add(reason);
+                open.times.add(timestampNanos);
+                open.endNanos = Math.max(open.endNanos, timestampNanos + postNanos);
+                return true;
+            }
+            dump = new Dump(reason, System.currentTimeMillis(), timestampNanos, timestampNanos + postNanos);
+            open = dump;
+        }
+        writer.execute(() -> write(dump));
+        return true;
+    }
+
+    /// Stops taking frames and triggers. Dumps in progress are finished with the frames they have.
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        writer.shutdown();
+    }
+
+    private void write(Dump dump) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            listener.onDumpFailed(directory, new IOException("Could not create " + directory));
+            return;
+        }
+        File file = new File(directory, prefix + "-" + dump.triggerMillis + FlightRecording.FILE_EXTENSION);
+        long sequence = firstSequence(dump.triggerNanos - preNanos);
+        long written = -1;  // Sequence of the last frame written
+        int event = 0;
+        long frames;
+        long bytes;
+        try (FlightRecordingWriter out = new FlightRecordingWriter(file, width, height, fps,
+                dump.triggerMillis, dump.triggerNanos)) {
+            while (true) {
+                if (sequence > newestSequence) {
+                    // Waiting for frames after the trigger; give up if the camera stopped
+                    if (closed || System.nanoTime() - endNanos(dump) > 1_000_000_000L) {
+                        synchronized (this) {
+                            if (open == dump) {
+                                open = null;
+                            }
+                        }
+                        break;
+                    }
+                    sleepFrame();
+                    continue;
+                }
+                long timestamp = copy(sequence);
+                if (timestamp == Long.MIN_VALUE) {
+                    // Overwritten before we got to it
+                    sequence++;
+                    continue;
+                }
+                if (timestamp > endNanos(dump) && finish(dump, timestamp)) {
+                    break;
+                }
+                event = writeEvents(out, dump, event, timestamp);
+                out.writeFrame(writerFrame, written < 0 ? 0 : sequence - written - 1, timestamp);
+                written = sequence;
+                sequence++;
+            }
+            writeEvents(out, dump, event, Long.MAX_VALUE);
+            frames = out.getFramesWritten();
+            bytes = out.getBytesWritten();
+        } catch (IOException e) {
+            listener.onDumpFailed(file, e);
+            return;
+        }
+        String reasons;
+        synchronized (this) {
+            reasons = String.join(",", dump.reasons);
+        }
+        listener.onDumpWritten(file, reasons, frames, bytes);
+
+        dumps.add(file);
+        while (dumps.size() > maxDumps) {
+            File oldest = dumps.poll();
+            if (!oldest.delete()) {
+                oldest.deleteOnExit();
+            }
+        }
+    }
+
+    /// Writes the dump's triggers from index event up to timestampNanos, returns the index of the next
+    private int writeEvents(FlightRecordingWriter out, Dump dump, int event, long timestampNanos) throws IOException {
+        for (;; event++) {
+            String reason;
+            long time;
+            synchronized (this) {
+                if (event >= dump.times.size() || dump.times.get(event) > timestampNanos) {
+                    return event;
+                }
+                reason = dump.reasons.get(event);
+                time = dump.times.get(event);
+            }
+            out.writeEvent(reason, time);
+        }
+    }
+
+    private synchronized long endNanos(Dump dump) {
+        return dump.endNanos;
+    }
+
+    /// Stops a dump from taking triggers once a frame past its end is reached; false if a
+    /// trigger extended it meanwhile
+    private synchronized boolean finish(Dump dump, long timestamp) {
+        if (timestamp <= dump.endNanos) {
+            return false;
+        }
+        if (open == dump) {
+            open = null;
+        }
+        return true;
+    }
+
+    /// The oldest frame in the ring captured at or after fromNanos (the next frame if none is)
+    private long firstSequence(long fromNanos) {
+        long newest = newestSequence;
+        long first = newest + 1;
+        for (long sequence = newest; sequence >= 0 && sequence > newest - slots.length; sequence--) {
+            Slot slot = slots[(int) (sequence % slots.length)];
+            synchronized (slot) {
+                if (slot.sequence != sequence || slot.timestampNanos < fromNanos) {
+                    break;
+                }
+            }
+            first = sequence;
+        }
+        return first;
+    }
+
+    /// Copies a frame out of the ring into writerFrame, returns its timestamp, or Long.MIN_VALUE
+    /// if it's been overwritten
+    private long copy(long sequence) {
+        Slot slot = slots[(int) (sequence % slots.length)];
+        synchronized (slot) {
+            if (slot.sequence != sequence) {
+                return Long.MIN_VALUE;
+            }
+            System.arraycopy(slot.data, 0, writerFrame, 0, writerFrame.length);
+            return slot.timestampNanos;
+        }
+    }
+
+    private void sleepFrame() {
+        try {
+            Thread.sleep(Math.max(1, 500 / fps));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
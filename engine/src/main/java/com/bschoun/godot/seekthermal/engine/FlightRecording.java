@@ -0,0 +1,94 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * On-disk format for FlightRecorder dumps: the raw thermography around a trigger, compressed.
+ *
+ * Everything is little-endian. The file starts with a 40 byte header:
+ * <pre>
+ *   0   int    magic, "SKFR"
+ *   4   int    format version
+ *   8   int    frame width
+ *   12  int    frame height
+ *   16  long   wall-clock time of the first trigger, milliseconds since the epoch
+ *   24  int    nominal frames per second, 0 if unknown
+ *   28  long   capture timestamp of the first trigger, nanoseconds; record times are relative to it
+ *   36  int    reserved
+ * </pre>
+ * followed by records, each a type byte and then varints:
+ * <pre>
+ *   FRAME   varint frames skipped since the previous frame (ring overruns), zigzag time,
+ *           varint payload length, payload
+ *   EVENT   zigzag time, varint length, UTF-8 reason (a trigger; comes before the first frame
+ *           captured at or after it)
+ * </pre>
+ * A frame payload has one zigzag varint per pixel: the 16-bit difference from the same pixel of
+ * the previous frame, or from the pixel to its left for the first frame. Thermography changes
+ * slowly, so most pixels take one byte instead of two. A dump that was cut short is readable up
+ * to its last whole record.
+ */
+public final class FlightRecording {
+
+    public static final int MAGIC = 0x52464B53; // "SKFR" read as a little-endian int
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 40;
+
+    public static final byte FRAME = 1;
+    public static final byte EVENT = 2;
+
+    public static final String FILE_EXTENSION = ".skfr";
+
+    private FlightRecording() {}
+
+    /// Largest possible payload of a frame: three bytes per pixel
+    public static int maxPayloadSize(int width, int height) {
+        return width * height * 3;
+    }
+
+    /**
+     * Encodes frame into out at position, returns the position after it.
+     *
+     * @param previous the frame before, or null for the first frame
+     */
+    public static int encodeFrame(short[] frame, short[] previous, byte[] out, int position) {
+        int p = position;
+        int last = 0;
+        for (int i = 0; i < frame.length; i++) {
+            int value = frame[i];
+            int delta = (short) (value - (previous != null ? previous[i] : last));
+            last = value;
+            int zigzag = (delta << 1) ^ (delta >> 31);
+            while (zigzag >= 0x80) {
+                out[p++] = (byte) (zigzag | 0x80);
+                zigzag >>>= 7;
+            }
+            out[p++] = (byte) zigzag;
+        }
+        return p;
+    }
+
+    /**
+     * Decodes a payload written by encodeFrame() into frame, returns the position after it.
+     *
+     * @param previous the frame before, or null for the first frame; may be frame itself
+     */
+    public static int decodeFrame(byte[] in, int position, short[] previous, short[] frame) {
+        int p = position;
+        int last = 0;
+        for (int i = 0; i < frame.length; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in[p++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            short value = (short) ((previous != null ? previous[i] : last) + delta);
+            frame[i] = value;
+            last = value;
+        }
+        return p;
+    }
+}
@@ -0,0 +1,194 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a FlightRecording dump front to back. Frames are delta-coded against the one before, so
+ * there's no random access; convert() turns a dump into a ThermalRecording for the tools that
+ * need it (replays, ThresholdSweep). Not thread-safe; use from a single thread.
+ */
+public class FlightRecordingReader implements Closeable {
+
+    /// A trigger recorded in the dump
+    public static final class Event {
+        public final long timestampNanos;
+        public final String reason;
+
+        Event(long timestampNanos, String reason) {
+            this.timestampNanos = timestampNanos;
+            this.reason = reason;
+        }
+    }
+
+    private final InputStream in;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final long triggerMillis;
+    private final long triggerNanos;
+
+    private final byte[] payload;
+    private final short[] current;
+    private boolean first = true;
+    private long sequence = -1;
+
+    private final List<Event> events = new ArrayList<>();
+
+    public FlightRecordingReader(File path) throws IOException {
+        in = new BufferedInputStream(new FileInputStream(path), 1 << 16);
+        try {
+            byte[] bytes = new byte[FlightRecording.HEADER_SIZE];
+            readFully(bytes, bytes.length);
+            ByteBuffer header = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+            if (header.getInt() != FlightRecording.MAGIC) {
+                throw new IOException("Not a flight recorder dump: " + path);
+            }
+            int version = header.getInt();
+            if (version != FlightRecording.VERSION) {
+                throw new IOException("Unsupported dump version " + version + ": " + path);
+            }
+            width = header.getInt();
+            height = header.getInt();
+            triggerMillis = header.getLong();
+            fps = header.getInt();
+            triggerNanos = header.getLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        payload = new byte[FlightRecording.maxPayloadSize(width, height)];
+        current = new short[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    /// Wall-clock time of the first trigger, milliseconds since the epoch
+    public long getTriggerMillis() {
+        return triggerMillis;
+    }
+
+    /// Capture timestamp of the first trigger, on the recording device's System.nanoTime clock
+    public long getTriggerNanos() {
+        return triggerNanos;
+    }
+
+    /// Triggers read so far, in order
+    public List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Reads the next frame into frame, returns false at the end of the dump (or of what was
+     * written of it). The sequence counts frames from the first, including ones the recorder had
+     * to skip.
+     */
+    public boolean readFrame(ThermalFrame frame) throws IOException {
+        try {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return false;
+                }
+                if (type == FlightRecording.EVENT) {
+                    long time = triggerNanos + unzigzag(readVarint());
+                    int length = (int) readVarint();
+                    byte[] text = new byte[length];
+                    readFully(text, length);
+                    events.add(new Event(time, new String(text, StandardCharsets.UTF_8)));
+                } else if (type == FlightRecording.FRAME) {
+                    long skipped = readVarint();
+                    long time = triggerNanos + unzigzag(readVarint());
+                    int length = (int) readVarint();
+                    if (length > payload.length) {
+                        throw new IOException("Frame payload of " + length + " bytes is too large");
+                    }
+                    readFully(payload, length);
+                    FlightRecording.decodeFrame(payload, 0, first ? null : current, current);
+                    first = false;
+
+                    sequence += skipped + 1;
+                    System.arraycopy(current, 0, frame.data, 0, current.length);
+                    frame.sequence = sequence;
+                    frame.timestampNanos = time;
+                    return true;
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // Cut short mid-record
+            return false;
+        }
+    }
+
+    /// Writes a dump's frames as a ThermalRecording, returns how many
+    public static int convert(File dump, File recording) throws IOException {
+        try (FlightRecordingReader reader = new FlightRecordingReader(dump);
+             ThermalRecordingWriter writer = new ThermalRecordingWriter(recording, reader.getWidth(),
+                     reader.getHeight(), reader.getFps())) {
+            ThermalFrame frame = new ThermalFrame(reader.getWidth(), reader.getHeight());
+            while (reader.readFrame(frame)) {
+                writer.write(frame);
+            }
+            return (int) writer.getFramesWritten();
+        }
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,117 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/** Writes a dump in the FlightRecording format. Not thread-safe; use from a single thread. */
+public class FlightRecordingWriter implements Closeable {
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final long triggerNanos;
+
+    // Record header and payload, reused for every frame
+    private final byte[] recordHeader = new byte[32];
+    private final byte[] payload;
+    private short[] previous;
+
+    private long framesWritten = 0;
+    private long bytesWritten = 0;
+
+    public FlightRecordingWriter(File file, int width, int height, int fps, long triggerMillis, long triggerNanos)
+            throws IOException {
+        this.width = width;
+        this.height = height;
+        this.triggerNanos = triggerNanos;
+        this.payload = new byte[FlightRecording.maxPayloadSize(width, height)];
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+
+        ByteBuffer header = ByteBuffer.allocate(FlightRecording.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FlightRecording.MAGIC);
+        header.putInt(FlightRecording.VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putLong(triggerMillis);
+        header.putInt(fps);
+        header.putLong(triggerNanos);
+        header.putInt(0);
+        write(header.array(), 0, header.capacity());
+    }
+
+    /**
+     * Appends a frame.
+     *
+     * @param skipped frames since the previous one that couldn't be written
+     */
+    public void writeFrame(short[] data, long skipped, long timestampNanos) throws IOException {
+        if (data.length != width * height) {
+            throw new IllegalArgumentException("Expected " + (width * height) + " pixels, got " + data.length);
+        }
+        int length = FlightRecording.encodeFrame(data, previous, payload, 0);
+        if (previous == null) {
+            previous = new short[data.length];
+        }
+        System.arraycopy(data, 0, previous, 0, data.length);
+
+        int p = 0;
+        recordHeader[p++] = FlightRecording.FRAME;
+        p = putVarint(recordHeader, p, skipped);
+        p = putVarint(recordHeader, p, zigzag(timestampNanos - triggerNanos));
+        p = putVarint(recordHeader, p, length);
+        write(recordHeader, 0, p);
+        write(payload, 0, length);
+        framesWritten++;
+    }
+
+    /// Appends a trigger; write it before the first frame captured at or after timestampNanos
+    public void writeEvent(String reason, long timestampNanos) throws IOException {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        int p = 0;
+        recordHeader[p++] = FlightRecording.EVENT;
+        p = putVarint(recordHeader, p, zigzag(timestampNanos - triggerNanos));
+        p = putVarint(recordHeader, p, text.length);
+        write(recordHeader, 0, p);
+        write(text, 0, text.length);
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /// Compressed size so far, including the header
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int putVarint(byte[] out, int position, long value) {
+        int p = position;
+        while ((value & ~0x7FL) != 0) {
+            out[p++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[p++] = (byte) value;
+        return p;
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        bytesWritten += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
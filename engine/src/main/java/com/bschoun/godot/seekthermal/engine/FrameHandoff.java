@@ -0,0 +1,114 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.function.Supplier;
+
+/**
+ * Bounded, newest-wins handoff between two pipeline stages.
+ *
+ * Three buffers are allocated up front: one owned by the producer, one owned by the consumer and
+ * one pending in the middle. Publishing swaps the producer's buffer with the pending one, so the
+ * producer never waits on the consumer. If the consumer hasn't picked up the pending buffer yet it
+ * is overwritten and counted as a dropped frame.
+ */
+public class FrameHandoff<T> {
+
+    private final Object[] buffers = new Object[3];
+
+    private int writeIndex = 0;     // Owned by the producer
+    private int pendingIndex = 1;   // Guarded by this
+    private int readIndex = 2;      // Owned by the consumer
+
+    private boolean fresh = false;
+    private boolean closed = false;
+
+    private long published = 0;
+    private long dropped = 0;
+
+    public FrameHandoff(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    /// Returns the buffer the producer should fill before calling publish()
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        return (T) buffers[writeIndex];
+    }
+
+    /// Hands the acquired buffer to the consumer, replacing anything it hasn't picked up yet
+    public synchronized void publish() {
+        int swap = pendingIndex;
+        pendingIndex = writeIndex;
+        writeIndex = swap;
+
+        if (fresh) {
+            dropped++;
+        }
+        fresh = true;
+        published++;
+        notifyAll();
+    }
+
+    /// Blocks until a new buffer is published, returns null once the handoff is closed
+    @SuppressWarnings("unchecked")
+    public synchronized T take() throws InterruptedException {
+        while (!fresh && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        int swap = pendingIndex;
+        pendingIndex = readIndex;
+        readIndex = swap;
+        fresh = false;
+        notifyAll();
+        return (T) buffers[readIndex];
+    }
+
+    /**
+     * Blocks until the consumer has taken the last published buffer. A producer that calls this
+     * after every publish() never has a frame dropped, at the cost of waiting on the consumer; for
+     * producers that can wait, like a replay. Returns false once the handoff is closed.
+     */
+    public synchronized boolean awaitTaken() throws InterruptedException {
+        while (fresh && !closed) {
+            wait();
+        }
+        return !closed;
+    }
+
+    /// Returns the newest published buffer if the consumer hasn't seen it yet, otherwise null.
+    /// Never blocks, for consumers that poll (e.g. once per rendered frame).
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (!fresh || closed) {
+            return null;
+        }
+        int swap = pendingIndex;
+        pendingIndex = readIndex;
+        readIndex = swap;
+        fresh = false;
+        return (T) buffers[readIndex];
+    }
+
+    /// Re-opens a closed handoff, discarding anything that was pending
+    public synchronized void open() {
+        closed = false;
+        fresh = false;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized long getPublishedCount() {
+        return published;
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,355 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Fused per-frame processing over the masked pixels only.
+ *
+ * The mask is turned into a compact list of pixel indices once, and the moving average is kept in
+ * the same compact order. Each frame then takes two passes over the raw shorts of the pixels in the
+ * mask:
+ * <ol>
+ *   <li>convert to degrees and find the min/max and their locations</li>
+ *   <li>subtract the min, write the 8-bit preview, take the difference from the moving average
+ *       (tracking its min/max), and update the moving average</li>
+ * </ol>
+ * This replaces the separate convert, minMaxLoc, subtract, clip/scale, setTo, subtract, minMaxLoc
+ * and accumulateWeighted passes, each of which touched every pixel of the frame, and gives the same
+ * results bit for bit (FrameKernelOpenCvTest in the benchmark module checks).
+ *
+ * For large frames, both passes are split into row stripes on a StripeRunner, each stripe finding
+ * its own min/max; merging them in stripe order gives the same results as one thread.
+ */
+public class FrameKernel {
+
+    /// Range of the min-subtracted image (in degrees) that's mapped onto 0-255 in the preview
+    public static final float PREVIEW_MIN = 0;
+    public static final float PREVIEW_MAX = 10;
+
+    private static final float PREVIEW_SCALE = 255.0f / (PREVIEW_MAX - PREVIEW_MIN);
+
+    private final int width;
+    private final int height;
+    private final StripeRunner stripes;
+
+    private byte[] mask;
+    private int[] indices = new int[0];
+    private int count = 0;
+
+    // Compact ranges of the stripes, starting at row boundaries with about equal numbers of pixels
+    private final int[] stripeBounds;
+
+    private float[] calibrated = new float[0];    // Compact, degrees
+    private float[] movingAverage = new float[0]; // Compact, min-subtracted degrees
+    private boolean initialized = false;
+
+    private final byte[] preview;   // Full frame, black outside the mask
+
+    private final MaskedMinMax frameMinMax = new MaskedMinMax();
+    private final MaskedMinMax diffMinMax = new MaskedMinMax();
+
+    // Min/max (and where, as compact indices) of each stripe, merged after each pass
+    private final float[] stripeMin;
+    private final float[] stripeMax;
+    private final int[] stripeMinK;
+    private final int[] stripeMaxK;
+
+    // Inputs of the current frame's second pass, set before the stripes run
+    private short[] frameRaw;
+    private float frameMin;
+    private float frameAlpha;
+    private boolean startAverage;
+    private float[] frameDiff;
+
+    private final StripeRunner.Body convertPass = this::convert;
+    private final StripeRunner.Body differencePass = this::difference;
+
+    public FrameKernel(int width, int height) {
+        this(width, height, StripeRunner.SERIAL);
+    }
+
+    public FrameKernel(int width, int height, StripeRunner stripes) {
+        this.width = width;
+        this.height = height;
+        this.stripes = stripes;
+        this.preview = new byte[width * height];
+
+        int n = stripes.getStripes();
+        stripeBounds = new int[n + 1];
+        stripeMin = new float[n];
+        stripeMax = new float[n];
+        stripeMinK = new int[n];
+        stripeMaxK = new int[n];
+    }
+
+    /// Rebuilds the index list for a new mask; the moving average starts over from the next frame
+    public void setMask(byte[] mask) {
+        if (mask.length != width * height) {
+            throw new IllegalArgumentException("Expected a " + width + "x" + height + " mask");
+        }
+        this.mask = mask;
+
+        int n = 0;
+        for (byte m : mask) {
+            if (m != 0) {
+                n++;
+            }
+        }
+        if (indices.length != n) {
+            indices = new int[n];
+            calibrated = new float[n];
+            movingAverage = new float[n];
+        }
+        n = 0;
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i] != 0) {
+                indices[n++] = i;
+            }
+        }
+        count = n;
+        splitRows();
+
+        Arrays.fill(preview, (byte) 0);
+        initialized = false;
+    }
+
+    /// Splits the compact pixels into stripes of about equal size, moving each split back to the start of its row
+    private void splitRows() {
+        int stripeCount = stripes.getStripes();
+        stripeBounds[0] = 0;
+        stripeBounds[stripeCount] = count;
+        for (int i = 1; i < stripeCount; i++) {
+            int k = (int) ((long) count * i / stripeCount);
+            if (k < count) {
+                int rowStart = indices[k] - indices[k] % width;
+                while (k > 0 && indices[k - 1] >= rowStart) {
+                    k--;
+                }
+            }
+            stripeBounds[i] = Math.max(k, stripeBounds[i - 1]);
+        }
+    }
+
+    /// Forgets the moving average, so the next frame starts it over
+    public void reset() {
+        initialized = false;
+    }
+
+    /**
+     * Processes one frame.
+     *
+     * @param raw 16-bit thermography, width * height values
+     * @param alpha weight of this frame in the moving average
+     * @param diffOut receives the masked difference values, ready for compute()
+     */
+    public void process(short[] raw, float alpha, QuantileEngine diffOut) {
+        final int[] idx = indices;
+        final int n = count;
+
+        if (n == 0) {
+            setMinMax(frameMinMax, 0, 0, 0, 0);
+            setMinMax(diffMinMax, 0, 0, 0, 0);
+            diffOut.setCount(0, 0, 0);
+            return;
+        }
+
+        // Pass 1: convert to degrees, find the min and max
+        frameRaw = raw;
+        stripes.run(stripeBounds, convertPass);
+        int minS = mergeMin();
+        int maxS = mergeMax();
+        float min = stripeMin[minS];
+        setMinMax(frameMinMax, min, idx[stripeMinK[minS]], stripeMax[maxS], idx[stripeMaxK[maxS]]);
+
+        // Pass 2: subtract the min, preview, difference from the moving average, update the average.
+        // The first frame starts the moving average.
+        frameMin = min;
+        frameAlpha = alpha;
+        startAverage = !initialized;
+        frameDiff = diffOut.getValues();
+        stripes.run(stripeBounds, differencePass);
+        initialized = true;
+        frameRaw = null;
+        frameDiff = null;
+
+        minS = mergeMin();
+        maxS = mergeMax();
+        float dMin = stripeMin[minS];
+        float dMax = stripeMax[maxS];
+        setMinMax(diffMinMax, dMin, idx[stripeMinK[minS]], dMax, idx[stripeMaxK[maxS]]);
+        diffOut.setCount(n, dMin, dMax);
+    }
+
+    /// Pass 1 over [from, to): calibrate, and the stripe's min/max
+    private void convert(int stripe, int from, int to) {
+        final short[] raw = frameRaw;
+        final int[] idx = indices;
+        final float[] cal = calibrated;
+
+        // Seek algorithm scales shorts by 1/64 and subtracts 40 to get the float values
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        int minK = from;
+        int maxK = from;
+        for (int k = from; k < to; k++) {
+            float v = (raw[idx[k]] & 0xFFFF) * (1 / 64.0f) - 40;
+            cal[k] = v;
+            if (v < min) {
+                min = v;
+                minK = k;
+            }
+            if (v > max) {
+                max = v;
+                maxK = k;
+            }
+        }
+        setStripe(stripe, min, minK, max, maxK);
+    }
+
+    /// Pass 2 over [from, to): preview, difference and moving average, and the difference's min/max
+    private void difference(int stripe, int from, int to) {
+        final int[] idx = indices;
+        final float[] cal = calibrated;
+        final float[] avg = movingAverage;
+        final float[] diff = frameDiff;
+        final byte[] out = preview;
+        final float min = frameMin;
+        final float alpha = frameAlpha;
+
+        if (startAverage) {
+            for (int k = from; k < to; k++) {
+                avg[k] = cal[k] - min;
+            }
+        }
+
+        float dMin = Float.POSITIVE_INFINITY;
+        float dMax = Float.NEGATIVE_INFINITY;
+        int dMinK = from;
+        int dMaxK = from;
+        for (int k = from; k < to; k++) {
+            float c = cal[k] - min;
+            cal[k] = c;
+
+            // Clip to the preview range and scale to 8 bits, rounding half to even like convertTo.
+            // Whole degrees land exactly on halves (3 degrees is 76.5), so ties are common.
+            float p = c < PREVIEW_MIN ? PREVIEW_MIN : (c > PREVIEW_MAX ? PREVIEW_MAX : c);
+            out[idx[k]] = (byte) (int) Math.rint((p - PREVIEW_MIN) * PREVIEW_SCALE);
+
+            float a = avg[k];
+            float d = c - a;
+            diff[k] = d;
+            if (d < dMin) {
+                dMin = d;
+                dMinK = k;
+            }
+            if (d > dMax) {
+                dMax = d;
+                dMaxK = k;
+            }
+            avg[k] = fma(c - a, alpha, a);
+        }
+        setStripe(stripe, dMin, dMinK, dMax, dMaxK);
+    }
+
+    /**
+     * a * b + c rounded once, as OpenCV's accumulateWeighted computes dst + (src - dst) * alpha with
+     * fused multiply-adds. Math.fma isn't on every Android version this runs on, so: the product is
+     * exact in a double, the sum is rounded to odd there (its lowest bit set if anything was lost),
+     * and rounding that to float then gives the same as rounding the exact sum once.
+     */
+    static float fma(float a, float b, float c) {
+        double product = (double) a * b;
+        double sum = product + c;
+
+        // What the double sum lost (TwoSum)
+        double virtual = sum - product;
+        double error = (product - (sum - virtual)) + (c - virtual);
+        if (error != 0 && Double.isFinite(sum) && (Double.doubleToRawLongBits(sum) & 1) == 0) {
+            sum = Math.nextAfter(sum, error > 0 ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY);
+        }
+        return (float) sum;
+    }
+
+    private void setStripe(int stripe, float min, int minK, float max, int maxK) {
+        stripeMin[stripe] = min;
+        stripeMinK[stripe] = minK;
+        stripeMax[stripe] = max;
+        stripeMaxK[stripe] = maxK;
+    }
+
+    /// Stripe with the lowest min; the first one on ties, like a single pass
+    private int mergeMin() {
+        int best = 0;
+        for (int i = 1; i < stripeMin.length; i++) {
+            if (stripeMin[i] < stripeMin[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /// Stripe with the highest max; the first one on ties
+    private int mergeMax() {
+        int best = 0;
+        for (int i = 1; i < stripeMax.length; i++) {
+            if (stripeMax[i] > stripeMax[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private void setMinMax(MaskedMinMax out, float min, int minIndex, float max, int maxIndex) {
+        out.minVal = min;
+        out.maxVal = max;
+        out.minX = minIndex % width;
+        out.minY = minIndex / width;
+        out.maxX = maxIndex % width;
+        out.maxY = maxIndex / width;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte[] getMask() {
+        return mask;
+    }
+
+    /// Number of pixels inside the mask
+    public int getCount() {
+        return count;
+    }
+
+    /// Frame indices of the pixels inside the mask, in the order of the compact arrays
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /// Min-subtracted degrees of the last frame, compact (see getIndices). Reused by the next frame.
+    public float[] getCalibrated() {
+        return calibrated;
+    }
+
+    /// Moving average, compact (see getIndices)
+    public float[] getMovingAverage() {
+        return movingAverage;
+    }
+
+    /// 8-bit preview of the last frame, full size, black outside the mask. Reused by the next frame.
+    public byte[] getPreview() {
+        return preview;
+    }
+
+    public MaskedMinMax getFrameMinMax() {
+        return frameMinMax;
+    }
+
+    public MaskedMinMax getDiffMinMax() {
+        return diffMinMax;
+    }
+}
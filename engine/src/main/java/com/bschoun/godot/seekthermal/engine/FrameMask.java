@@ -0,0 +1,91 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * The thin-medium mask for one sensor resolution, generated from the square source mask.
+ *
+ * The camera image sits in the vertical middle of a width x width square (the CNN's input shape), so
+ * the mask exists twice: for the square, and for the frame (the square's middle height rows). The
+ * source is scaled (nearest neighbour) to the width and flipped before the frame rows are taken
+ * out, so the two always agree. Immutable; make a new one to change the flips.
+ */
+public final class FrameMask {
+
+    /// Gives the mask for a sensor resolution, or null if there isn't one (yet)
+    public interface Source {
+        FrameMask get(int width, int height);
+    }
+
+    private final int width;
+    private final int height;
+    private final int yOffset;
+    private final boolean xFlip;
+    private final boolean yFlip;
+    private final byte[] square;
+    private final byte[] frame;
+
+    /**
+     * @param source    size x size mask bytes, non-zero inside the mask
+     * @param size      side of the source mask
+     * @param width     sensor width, also the side of the square
+     * @param height    sensor height, at most width
+     */
+    public FrameMask(byte[] source, int size, int width, int height, boolean xFlip, boolean yFlip) {
+        if (source.length != size * size) {
+            throw new IllegalArgumentException("Expected a " + size + "x" + size + " source mask");
+        }
+        if (height > width || height < 1) {
+            throw new IllegalArgumentException("Unsupported frame size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.yOffset = (width - height) / 2;
+        this.xFlip = xFlip;
+        this.yFlip = yFlip;
+
+        // Scale to width x width, flipping on the way: flip code 1 mirrors x, 0 mirrors y
+        square = new byte[width * width];
+        for (int y = 0; y < width; y++) {
+            int sy = (yFlip ? width - 1 - y : y) * size / width;
+            int row = y * width;
+            int sourceRow = sy * size;
+            for (int x = 0; x < width; x++) {
+                int sx = (xFlip ? width - 1 - x : x) * size / width;
+                square[row + x] = source[sourceRow + sx];
+            }
+        }
+
+        frame = new byte[width * height];
+        System.arraycopy(square, yOffset * width, frame, 0, frame.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /// First row of the square the frame is in
+    public int getYOffset() {
+        return yOffset;
+    }
+
+    public boolean isXFlipped() {
+        return xFlip;
+    }
+
+    public boolean isYFlipped() {
+        return yFlip;
+    }
+
+    /// width x width mask. Don't modify.
+    public byte[] getSquare() {
+        return square;
+    }
+
+    /// width x height mask of the frame, as ExhaleDetector.process() takes it. Don't modify.
+    public byte[] getFrame() {
+        return frame;
+    }
+}
@@ -0,0 +1,86 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.function.Supplier;
+
+/**
+ * Bounded FIFO of preallocated buffers between a producer and one consumer, for consumers that
+ * must see every frame in order (e.g. writing a recording).
+ *
+ * Unlike FrameHandoff, nothing queued is ever replaced. The producer still never waits: if every
+ * buffer is queued, acquire() returns null and the frame is counted as dropped. The consumer owns
+ * the buffer take() returned until its next take(). After close() the consumer gets what's still
+ * queued, then null.
+ */
+public class FrameQueue<T> {
+
+    private final Object[] buffers;
+    private final int capacity;
+
+    // Guarded by this
+    private long published = 0;
+    private long taken = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /// capacity frames can be queued; one more buffer is allocated for the consumer's current frame
+    public FrameQueue(int capacity, Supplier<T> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A queue needs room for at least one frame");
+        }
+        this.capacity = capacity;
+        buffers = new Object[capacity + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /// Returns the buffer the producer should fill before calling publish(), or null if the queue
+    /// is full (the frame is dropped) or closed
+    @SuppressWarnings("unchecked")
+    public synchronized T acquire() {
+        if (closed) {
+            return null;
+        }
+        if (published - taken >= capacity) {
+            dropped++;
+            return null;
+        }
+        return (T) buffers[(int) (published % buffers.length)];
+    }
+
+    /// Queues the buffer acquire() returned
+    public synchronized void publish() {
+        published++;
+        notifyAll();
+    }
+
+    /// Blocks until a frame is queued and returns it; null once the queue is closed and empty
+    @SuppressWarnings("unchecked")
+    public synchronized T take() throws InterruptedException {
+        while (published == taken && !closed) {
+            wait();
+        }
+        if (published == taken) {
+            return null;
+        }
+        return (T) buffers[(int) (taken++ % buffers.length)];
+    }
+
+    /// Stops taking frames; the consumer still gets the ones already queued
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized long getPublishedCount() {
+        return published;
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,91 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * Sliding window over the last few preprocessed frames (e.g. CNN inputs), for models that look at
+ * several frames at once. Frames are byte images of a fixed size, allocated up front; adding a
+ * frame to a full window overwrites the oldest.
+ *
+ * Not thread-safe; owned by the thread that adds frames. Copy it out with copyTo() to hand it on.
+ */
+public class FrameWindow {
+
+    private final byte[][] frames;
+    private final long[] sequences;
+    private final long[] timestamps;
+    private final int frameSize;
+
+    private int head = 0;   // Slot the next frame goes into
+    private int size = 0;
+
+    public FrameWindow(int capacity, int frameSize) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
+        }
+        this.frames = new byte[capacity][frameSize];
+        this.sequences = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.frameSize = frameSize;
+    }
+
+    /// The buffer to fill with the next frame; it becomes part of the window on commit()
+    public byte[] next() {
+        return frames[head];
+    }
+
+    /// Adds the frame written into next(), dropping the oldest if the window is full
+    public void commit(long sequence, long timestampNanos) {
+        sequences[head] = sequence;
+        timestamps[head] = timestampNanos;
+        head = (head + 1) % frames.length;
+        if (size < frames.length) {
+            size++;
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return frames.length;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public boolean isFull() {
+        return size == frames.length;
+    }
+
+    private int slot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + size);
+        }
+        return (head - size + index + frames.length) % frames.length;
+    }
+
+    /// Frame index in the window, 0 being the oldest
+    public byte[] get(int index) {
+        return frames[slot(index)];
+    }
+
+    public long getSequence(int index) {
+        return sequences[slot(index)];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[slot(index)];
+    }
+
+    /// Copies the frames, oldest first, into dst (at least size() arrays of getFrameSize() bytes)
+    public void copyTo(byte[][] dst) {
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(frames[slot(i)], 0, dst[i], 0, frameSize);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs slow work (e.g. a CNN inference) on its own thread with at most one job in flight.
+ *
+ * There is a single job buffer. A producer calls tryAcquire(), fills the job and calls submit().
+ * While a job is in flight tryAcquire() returns null and the frame is counted as skipped, so
+ * nothing queues up behind a slow inference and results never lag further behind than one job.
+ * A job that process() throws on is counted and logged, and the executor takes the next one.
+ */
+public abstract class InferenceExecutor<T> implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(InferenceExecutor.class.getName());
+
+    private final String name;
+    private final T job;
+
+    private boolean busy = false;       // Guarded by this; true from tryAcquire() until the job ends
+    private boolean submitted = false;  // Guarded by this
+    private boolean closed = true;      // Guarded by this
+
+    private Thread thread;
+
+    private long skipped = 0;
+    private volatile long completed = 0;
+    private volatile long failed = 0;
+
+    public InferenceExecutor(String name, Supplier<T> factory) {
+        this.name = name;
+        this.job = factory.get();
+    }
+
+    /// Called on the executor thread for every submitted job
+    protected abstract void process(T job);
+
+    /// Returns the job buffer to fill, or null (counted as skipped) if a job is still in flight
+    public synchronized T tryAcquire() {
+        if (busy || closed) {
+            skipped++;
+            return null;
+        }
+        busy = true;
+        return job;
+    }
+
+    /// Starts the job returned by tryAcquire()
+    public synchronized void submit() {
+        if (!busy) {
+            throw new IllegalStateException("submit() without a successful tryAcquire()");
+        }
+        submitted = true;
+        notifyAll();
+    }
+
+    /// Gives back a job from tryAcquire() without running it
+    public synchronized void cancel() {
+        if (!submitted) {
+            busy = false;
+        }
+    }
+
+    public synchronized boolean isBusy() {
+        return busy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        closed = false;
+        busy = false;
+        submitted = false;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /// Stops the thread, waiting for a job in flight to finish
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (thread == null) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+            t = thread;
+            thread = null;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!submitted && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                process(job);
+                completed++;
+            } catch (RuntimeException e) {
+                failed++;
+                if (failed % PipelineStage.FAILURE_LOG_INTERVAL == 1) {
+                    LOG.log(Level.SEVERE, name + " failed on a job (" + failed + " so far)", e);
+                }
+            } finally {
+                synchronized (this) {
+                    submitted = false;
+                    busy = false;
+                }
+            }
+        }
+    }
+
+    public long getCompletedCount() {
+        return completed;
+    }
+
+    /// Jobs process() threw on
+    public long getFailedCount() {
+        return failed;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+}
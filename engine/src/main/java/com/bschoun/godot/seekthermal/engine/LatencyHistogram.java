@@ -0,0 +1,119 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of recorded durations, with buckets that are logarithmic in microseconds: four buckets
+ * per power of two, so every bucket is within 25% of its neighbours. That's coarse enough to be a
+ * few hundred longs, fine enough for percentiles of frame and inference times.
+ *
+ * record() may be called from several threads and doesn't allocate or lock; snapshot() may be
+ * called from any thread and sees a recent, not necessarily consistent, state.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;       // Per power of two
+    private static final int SUB_BITS = 2;
+    private static final int MAX_EXPONENT = 40;     // 2^40 us is about 12 days
+    static final int BUCKETS = (MAX_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /// Summary of a histogram at one point in time
+    public static final class Snapshot {
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        private final long[] counts;
+
+        private Snapshot(long count, long totalNanos, long maxNanos, long[] counts) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.counts = counts;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : totalNanos / (double) count;
+        }
+
+        /// Upper bound of the bucket holding the q-quantile (0-1), capped at the max; 0 if empty
+        public long getPercentileNanos(double q) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundNanos(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos / 1000));
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Another thread raised the max, check against that
+        }
+        count.incrementAndGet();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(count.get(), totalNanos.get(), maxNanos.get(), copy);
+    }
+
+    /// Clears the histogram. Values recorded at the same time may be lost.
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /// Bucket of a duration in whole microseconds; everything from 2^(MAX_EXPONENT + 1) us up goes in the last one
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    /// Exclusive upper bound of a bucket, in nanoseconds
+    static long upperBoundNanos(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return (bucket + 1) * 1000L;
+        }
+        int exponent = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        long lowMicros = (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+        return (lowMicros + (1L << (exponent - SUB_BITS))) * 1000L;
+    }
+}
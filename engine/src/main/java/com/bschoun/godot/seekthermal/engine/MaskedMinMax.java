@@ -0,0 +1,53 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * Reusable equivalent of Core.MinMaxLocResult for a masked float image held in a Java array.
+ * Unlike Core.minMaxLoc, computing it doesn't allocate anything, so it can run every frame.
+ */
+public class MaskedMinMax {
+
+    public float minVal;
+    public float maxVal;
+
+    public int minX;
+    public int minY;
+    public int maxX;
+    public int maxY;
+
+    /// Finds the min/max values and locations of data where mask is non-zero
+    public void compute(float[] data, byte[] mask, int width) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        int minIndex = -1;
+        int maxIndex = -1;
+
+        for (int i = 0; i < data.length; i++) {
+            if (mask[i] == 0) {
+                continue;
+            }
+            float v = data[i];
+            if (v < min) {
+                min = v;
+                minIndex = i;
+            }
+            if (v > max) {
+                max = v;
+                maxIndex = i;
+            }
+        }
+
+        // Match Core.minMaxLoc when nothing is inside the mask
+        if (minIndex < 0) {
+            minVal = maxVal = 0;
+            minX = minY = maxX = maxY = -1;
+            return;
+        }
+
+        minVal = min;
+        maxVal = max;
+        minX = minIndex % width;
+        minY = minIndex / width;
+        maxX = maxIndex % width;
+        maxY = maxIndex / width;
+    }
+}
@@ -0,0 +1,154 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * Per-frame scalar features of the detector packed into one float array, so they can be sent to
+ * Godot as a single PackedFloat32Array instead of a dictionary of boxed values.
+ *
+ * Each record is STRIDE floats, laid out as below. Only every decimation-th frame is recorded, and
+ * batchSize records are collected before the buffer is handed on, oldest first. Records are
+ * written in place, so packing a frame doesn't allocate.
+ *
+ * <pre>
+ *  0 SEQUENCE           frame sequence number (exact up to 2^24)
+ *  1 TIME               seconds since the first frame packed after a reset
+ *  2 FRAME_INTERVAL     seconds since the previous frame (recorded or not), 0 for the first
+ *  3 PROCESSING_TIME    seconds the detector took for this frame
+ *  4 MIN_VALUE          frame minimum in degrees
+ *  5 MIN_X, 6 MIN_Y     where it is
+ *  7 MAX_VALUE          frame maximum in degrees
+ *  8 MAX_X, 9 MAX_Y     where it is
+ * 10 DIFF_MIN          minimum of the difference from the moving average
+ * 11 DIFF_MAX          maximum of the difference from the moving average
+ * 12 MIDRANGE          midrange of the difference, which starts and ends exhales
+ * 13 IQR_MAX_DIFF      IQR upper fence of the difference minus the midrange, which classifies them
+ * 14 EXHALING          1 while exhaling, otherwise 0
+ * 15 EXHALE_TYPE       ExhaleType ordinal
+ * 16 CLASSIFY          1 if the frame was handed to the CNN, otherwise 0
+ * 17 EXHALE_TIME       seconds since the current exhale started, 0 when not exhaling
+ * </pre>
+ *
+ * Not thread-safe; owned by the thread that processes frames.
+ */
+public class PackedStats {
+
+    public static final int SEQUENCE = 0;
+    public static final int TIME = 1;
+    public static final int FRAME_INTERVAL = 2;
+    public static final int PROCESSING_TIME = 3;
+    public static final int MIN_VALUE = 4;
+    public static final int MIN_X = 5;
+    public static final int MIN_Y = 6;
+    public static final int MAX_VALUE = 7;
+    public static final int MAX_X = 8;
+    public static final int MAX_Y = 9;
+    public static final int DIFF_MIN = 10;
+    public static final int DIFF_MAX = 11;
+    public static final int MIDRANGE = 12;
+    public static final int IQR_MAX_DIFF = 13;
+    public static final int EXHALING = 14;
+    public static final int EXHALE_TYPE = 15;
+    public static final int CLASSIFY = 16;
+    public static final int EXHALE_TIME = 17;
+
+    /// Floats per record
+    public static final int STRIDE = 18;
+
+    /// Field names in layout order, so Godot can look fields up by name
+    public static final String[] FIELD_NAMES = {
+        "sequence", "time", "frameInterval", "processingTime",
+        "minValue", "minX", "minY", "maxValue", "maxX", "maxY",
+        "diffMin", "diffMax", "midrange", "iqrMaxDiff",
+        "exhaling", "exhaleType", "classify", "exhaleTime"
+    };
+
+    private static final float NANOS_PER_SECOND = 1_000_000_000.0f;
+
+    private final int decimation;
+    private final int batchSize;
+    private final float[] buffer;
+
+    private int records = 0;        // In the current batch
+    private long framesSeen = 0;
+    private long firstTimestamp;
+    private long lastTimestamp;
+
+    /**
+     * @param decimation record every decimation-th frame (1 for every frame)
+     * @param batchSize records per batch (1 to hand on every record)
+     */
+    public PackedStats(int decimation, int batchSize) {
+        if (decimation < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("decimation and batchSize must be at least 1, got "
+                    + decimation + " and " + batchSize);
+        }
+        this.decimation = decimation;
+        this.batchSize = batchSize;
+        this.buffer = new float[STRIDE * batchSize];
+    }
+
+    /**
+     * Records the detector's last frame, if this frame isn't decimated away.
+     *
+     * @param processingNanos how long the detector took for the frame
+     * @return true if the batch is now full and getBuffer() should be sent; the next frame starts a new batch
+     */
+    public boolean add(ExhaleDetector detector, long sequence, long timestampNanos, long processingNanos) {
+        long interval = framesSeen == 0 ? 0 : timestampNanos - lastTimestamp;
+        if (framesSeen == 0) {
+            firstTimestamp = timestampNanos;
+        }
+        lastTimestamp = timestampNanos;
+        if (framesSeen++ % decimation != 0) {
+            return false;
+        }
+
+        if (records == batchSize) {
+            records = 0;
+        }
+        int o = records * STRIDE;
+        MaskedMinMax frame = detector.getFrameMinMax();
+        MaskedMinMax diff = detector.getDiffMinMax();
+
+        buffer[o + SEQUENCE] = sequence;
+        buffer[o + TIME] = (timestampNanos - firstTimestamp) / NANOS_PER_SECOND;
+        buffer[o + FRAME_INTERVAL] = interval / NANOS_PER_SECOND;
+        buffer[o + PROCESSING_TIME] = processingNanos / NANOS_PER_SECOND;
+        buffer[o + MIN_VALUE] = frame.minVal;
+        buffer[o + MIN_X] = frame.minX;
+        buffer[o + MIN_Y] = frame.minY;
+        buffer[o + MAX_VALUE] = frame.maxVal;
+        buffer[o + MAX_X] = frame.maxX;
+        buffer[o + MAX_Y] = frame.maxY;
+        buffer[o + DIFF_MIN] = diff.minVal;
+        buffer[o + DIFF_MAX] = diff.maxVal;
+        buffer[o + MIDRANGE] = detector.getMidrange();
+        buffer[o + IQR_MAX_DIFF] = detector.getIqrMaxDiff();
+        buffer[o + EXHALING] = detector.isExhaling() ? 1 : 0;
+        buffer[o + EXHALE_TYPE] = detector.getExhaleType().ordinal();
+        buffer[o + CLASSIFY] = detector.shouldClassify() ? 1 : 0;
+        buffer[o + EXHALE_TIME] = detector.isExhaling()
+                ? (timestampNanos - detector.getExhaleStartTime()) / NANOS_PER_SECOND : 0;
+
+        records++;
+        return records == batchSize;
+    }
+
+    /// The batch, batchSize records of STRIDE floats. Overwritten from the next recorded frame.
+    public float[] getBuffer() {
+        return buffer;
+    }
+
+    /// Starts over: the next frame is recorded, starts a batch and is time 0
+    public void reset() {
+        records = 0;
+        framesSeen = 0;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -0,0 +1,319 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tries every detector setting in a SweepGrid on a recorded session and scores each against
+ * labelled exhales, using all cores.
+ *
+ * The expensive part of detection, the midrange and IQR fence of every frame, only depends on the
+ * moving-average history. So the recording (memory-mapped, shared through the page cache) is run
+ * through the detector once per history value, in parallel, and the per-frame features are kept.
+ * Every combination then replays just the exhale state machine over those features, which is
+ * cheap enough for thousands of combinations. The CNN's early ends aren't simulated.
+ *
+ * A detected exhale matches the first unmatched label it overlaps. Results are ranked by F1 score,
+ * then by how many matches have the labelled type, then by how close their starts are.
+ */
+public class ParameterSweep {
+
+    /// How one combination did against the labels
+    public static final class Result {
+        public final int index;
+        public final DetectorConfig config;
+        public final int detected;
+        public final int truePositives;
+        public final int falsePositives;
+        public final int falseNegatives;
+        /// Matches whose type agrees with the label (or the label has no type)
+        public final int typeMatches;
+        /// Mean of |detected start - labelled start| over the matches
+        public final double meanStartErrorSeconds;
+
+        Result(int index, DetectorConfig config, int detected, int truePositives, int labels,
+               int typeMatches, double meanStartErrorSeconds) {
+            this.index = index;
+            this.config = config;
+            this.detected = detected;
+            this.truePositives = truePositives;
+            this.falsePositives = detected - truePositives;
+            this.falseNegatives = labels - truePositives;
+            this.typeMatches = typeMatches;
+            this.meanStartErrorSeconds = meanStartErrorSeconds;
+        }
+
+        public double getPrecision() {
+            return detected == 0 ? 0 : truePositives / (double) detected;
+        }
+
+        public double getRecall() {
+            int labels = truePositives + falseNegatives;
+            return labels == 0 ? 0 : truePositives / (double) labels;
+        }
+
+        public double getF1() {
+            int denominator = 2 * truePositives + falsePositives + falseNegatives;
+            return denominator == 0 ? 0 : 2 * truePositives / (double) denominator;
+        }
+
+        public double getTypeAccuracy() {
+            return truePositives == 0 ? 0 : typeMatches / (double) truePositives;
+        }
+    }
+
+    /// Best first
+    public static final Comparator<Result> BY_SCORE = Comparator
+            .comparingDouble(Result::getF1).reversed()
+            .thenComparing(Comparator.comparingDouble(Result::getTypeAccuracy).reversed())
+            .thenComparingDouble(r -> r.meanStartErrorSeconds)
+            .thenComparingInt(r -> r.index);
+
+    /// Midrange and IQR fence of every frame for one history value
+    private static final class Features {
+        final float[] midrange;
+        final float[] iqrMaxDiff;
+
+        Features(int frames) {
+            midrange = new float[frames];
+            iqrMaxDiff = new float[frames];
+        }
+    }
+
+    private final File recording;
+    private final byte[] mask;
+    private final ExhaleLabels labels;
+    private final QuantileEngine.Mode iqrMode;
+
+    private int width;
+    private int height;
+    private long[] timestamps;  // Nanoseconds from the first frame
+
+    /**
+     * @param mask  the frame mask, as ExhaleDetector.process() takes it (see FrameMask)
+     */
+    public ParameterSweep(File recording, byte[] mask, ExhaleLabels labels, QuantileEngine.Mode iqrMode) {
+        this.recording = recording;
+        this.mask = mask;
+        this.labels = labels;
+        this.iqrMode = iqrMode;
+    }
+
+    /// Scores every combination on the given number of threads, returns the results best first
+    public List<Result> run(SweepGrid grid, int threads) throws IOException, InterruptedException {
+        readTimestamps();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> new Thread(r, "seek-sweep"));
+        try {
+            // One feature extraction per history value
+            float[] histories = grid.getHistorySeconds();
+            List<Future<Features>> extractions = new ArrayList<>();
+            for (float history : histories) {
+                extractions.add(executor.submit(() -> extract(grid.get(0), history)));
+            }
+            Features[] features = new Features[histories.length];
+            for (int i = 0; i < features.length; i++) {
+                features[i] = get(extractions.get(i));
+            }
+
+            // Then every combination, handed out to the threads in chunks
+            final int size = grid.size();
+            final int chunk = Math.max(1, Math.min(256, size / (threads * 8)));
+            final Result[] results = new Result[size];
+            final AtomicInteger next = new AtomicInteger();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    Replay replay = new Replay();
+                    int from;
+                    while ((from = next.getAndAdd(chunk)) < size) {
+                        int to = Math.min(size, from + chunk);
+                        for (int i = from; i < to; i++) {
+                            results[i] = replay.score(i, grid.get(i), features[grid.historyIndex(i)]);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                get(worker);
+            }
+
+            List<Result> ranked = new ArrayList<>(Arrays.asList(results));
+            ranked.sort(BY_SCORE);
+            return ranked;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /// Scores one combination on a feature trace computed elsewhere (timestamps from the first
+    /// frame), without a recording
+    static Result score(DetectorConfig config, ExhaleLabels labels, long[] timestamps, float[] midrange,
+                        float[] iqrMaxDiff) {
+        ParameterSweep sweep = new ParameterSweep(null, null, labels, QuantileEngine.Mode.EXACT);
+        sweep.width = 1;
+        sweep.height = 1;
+        sweep.timestamps = timestamps;
+        Features features = new Features(timestamps.length);
+        System.arraycopy(midrange, 0, features.midrange, 0, timestamps.length);
+        System.arraycopy(iqrMaxDiff, 0, features.iqrMaxDiff, 0, timestamps.length);
+        return sweep.new Replay().score(0, config, features);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void readTimestamps() throws IOException {
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(recording)) {
+            width = reader.getWidth();
+            height = reader.getHeight();
+            if (mask.length != width * height) {
+                throw new IOException("Mask is not " + width + "x" + height + ", the recording's size");
+            }
+            timestamps = new long[reader.getFrameCount()];
+            long first = timestamps.length > 0 ? reader.getTimestamp(0) : 0;
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = reader.getTimestamp(i) - first;
+            }
+        }
+    }
+
+    /// Runs the recording through a detector with this history, keeping the features of every frame
+    private Features extract(DetectorConfig base, float historySeconds) throws IOException {
+        DetectorConfig config = new DetectorConfig(base.fps, historySeconds, base.exhaleTimeout,
+                base.exhaleStartThreshold, base.exhaleEndThreshold, base.galeThreshold, base.waftThreshold);
+        ExhaleDetector detector = new ExhaleDetector(width, height, config, iqrMode, new Events());
+        Features features = new Features(timestamps.length);
+        short[] raw = new short[width * height];
+
+        // Each thread maps the file itself; the pages are shared
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(recording)) {
+            for (int i = 0; i < timestamps.length; i++) {
+                reader.readFrame(i, raw);
+                detector.process(raw, mask, timestamps[i]);
+                features.midrange[i] = detector.getMidrange();
+                features.iqrMaxDiff[i] = detector.getIqrMaxDiff();
+            }
+        }
+        return features;
+    }
+
+    /// Detected exhales of one replay, as parallel arrays that are reused between replays
+    private static final class Events implements ExhaleDetector.Listener {
+        long[] starts = new long[64];
+        long[] ends = new long[64];
+        ExhaleType[] types = new ExhaleType[64];
+        int count = 0;
+        boolean open = false;
+
+        void clear() {
+            count = 0;
+            open = false;
+        }
+
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {
+            if (!open) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                    types = Arrays.copyOf(types, count * 2);
+                }
+                starts[count] = timestampNanos;
+                types[count] = type;
+                open = true;
+            } else if (types[count] == ExhaleType.NONE) {
+                // Classified after it started
+                types[count] = type;
+            }
+        }
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {
+            if (open) {
+                ends[count++] = timestampNanos;
+                open = false;
+            }
+        }
+
+        /// Ends an exhale still going at the end of the recording
+        void finish(long timestampNanos) {
+            onExhaleEnded("", timestampNanos);
+        }
+    }
+
+    /// Replays the state machine for one combination at a time; one per thread
+    private final class Replay {
+        private final Events events = new Events();
+        private final ExhaleDetector detector = new ExhaleDetector(width, height, events);
+        private boolean[] matched = new boolean[64];
+
+        Result score(int index, DetectorConfig config, Features features) {
+            detector.setConfig(config);
+            detector.reset();
+            events.clear();
+
+            long[] time = timestamps;
+            for (int i = 0; i < time.length; i++) {
+                detector.processFeatures(features.midrange[i], features.iqrMaxDiff[i], time[i]);
+            }
+            if (time.length > 0) {
+                events.finish(time[time.length - 1]);
+            }
+            return match(index, config);
+        }
+
+        private Result match(int index, DetectorConfig config) {
+            int detected = events.count;
+            if (matched.length < detected) {
+                matched = new boolean[detected * 2];
+            }
+            Arrays.fill(matched, 0, detected, false);
+
+            // Both are sorted by start, so detections that ended before a label can be skipped for good
+            int first = 0;
+            int truePositives = 0;
+            int typeMatches = 0;
+            double startError = 0;
+            for (ExhaleLabels.Interval label : labels.getIntervals()) {
+                while (first < detected && events.ends[first] <= label.startNanos) {
+                    first++;
+                }
+                for (int d = first; d < detected && events.starts[d] < label.endNanos; d++) {
+                    if (!matched[d] && events.ends[d] > label.startNanos) {
+                        matched[d] = true;
+                        truePositives++;
+                        if (label.type == null || label.type == events.types[d]) {
+                            typeMatches++;
+                        }
+                        startError += Math.abs(events.starts[d] - label.startNanos) / 1_000_000_000.0;
+                        break;
+                    }
+                }
+            }
+            return new Result(index, config, detected, truePositives, labels.size(), typeMatches,
+                    truePositives == 0 ? 0 : startError / truePositives);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms per pipeline stage, plus frame counters and the measured camera frame rate.
+ *
+ * Stages are recorded by the threads that run them, and recording doesn't allocate, so this can
+ * stay on in production. Read it from any thread with getHistogram(stage).snapshot() and the getters.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        /// Copying the frame out of the camera callback
+        INGEST,
+        /// Calibrating the raw frame, min subtraction, preview and difference image (FrameKernel)
+        CONVERSION,
+        /// Midrange, IQR fence and the exhale state machine
+        DETECTION,
+        /// Square, masked preview image and handing it on
+        PREVIEW,
+        /// One CNN inference, including input preparation
+        CNN,
+        /// Emitting a signal to Godot
+        SIGNAL,
+        /// From the capture of the frame that started or ended an exhale to exhaling_changed being emitted
+        EXHALE_EVENT
+    }
+
+    // How quickly the frame rate follows changes; about the last 30 frames count
+    private static final double FPS_SMOOTHING = 1.0 / 30;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    // Only written by the thread calling frameReceived()
+    private long lastReceivedNanos = 0;
+    private volatile double meanIntervalNanos = 0;
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /// Counts a frame from the camera and updates the frame rate; call from the camera callback only
+    public void frameReceived(long timestampNanos) {
+        received.lazySet(received.get() + 1);
+        if (lastReceivedNanos != 0) {
+            long interval = timestampNanos - lastReceivedNanos;
+            double mean = meanIntervalNanos;
+            meanIntervalNanos = mean == 0 ? interval : mean + (interval - mean) * FPS_SMOOTHING;
+        }
+        lastReceivedNanos = timestampNanos;
+    }
+
+    /// Counts a frame the analysis stage finished; call from the analysis stage only
+    public void frameProcessed() {
+        processed.lazySet(processed.get() + 1);
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /// Smoothed rate frames arrive from the camera at, 0 before the second frame
+    public double getFps() {
+        double mean = meanIntervalNanos;
+        return mean > 0 ? 1_000_000_000.0 / mean : 0;
+    }
+
+    /// Clears everything. Values recorded at the same time may be lost.
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        received.set(0);
+        processed.set(0);
+        meanIntervalNanos = 0;
+    }
+}
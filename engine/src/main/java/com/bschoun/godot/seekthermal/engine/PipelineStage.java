@@ -0,0 +1,99 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stage of the frame pipeline. Each stage runs on its own thread and is fed through a
+ * FrameHandoff, so a slow stage drops frames instead of stalling the stages before it.
+ *
+ * A frame that process() throws on is counted and logged, and the stage goes on with the next one.
+ */
+public abstract class PipelineStage<T> implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(PipelineStage.class.getName());
+
+    // A failure that repeats every frame is only logged every this many times
+    static final int FAILURE_LOG_INTERVAL = 100;
+
+    private final String name;
+    private final FrameHandoff<T> input;
+
+    private Thread thread;
+    private volatile long processed = 0;
+    private volatile long failed = 0;
+
+    public PipelineStage(String name, Supplier<T> factory) {
+        this.name = name;
+        this.input = new FrameHandoff<>(factory);
+    }
+
+    /// Called on the stage thread for every frame that wasn't dropped
+    protected abstract void process(T frame);
+
+    /// The handoff that feeds this stage; producers acquire(), fill and publish() into it
+    public FrameHandoff<T> getInput() {
+        return input;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        input.open();
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        input.close();
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            T frame;
+            while ((frame = input.take()) != null) {
+                try {
+                    process(frame);
+                    processed++;
+                } catch (RuntimeException e) {
+                    failed++;
+                    if (failed % FAILURE_LOG_INTERVAL == 1) {
+                        LOG.log(Level.SEVERE, name + " failed on a frame (" + failed + " so far)", e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    public long getProcessedCount() {
+        return processed;
+    }
+
+    /// Frames process() threw on
+    public long getFailedCount() {
+        return failed;
+    }
+
+    public long getDroppedCount() {
+        return input.getDroppedCount();
+    }
+}
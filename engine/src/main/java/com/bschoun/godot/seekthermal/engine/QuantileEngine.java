@@ -0,0 +1,252 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Quartiles of the masked pixels of a float image, computed entirely in Java.
+ *
+ * The masked pixels are gathered once into a preallocated array, then either selected exactly
+ * (quickselect, O(n) on average) or binned into a fixed-size histogram and interpolated within the
+ * quartile's bin. Quantiles use the nearest-rank definition: the smallest value with at least
+ * q * n values at or below it.
+ *
+ * With a StripeRunner, the histogram is filled in stripes (one partial histogram each) and summed.
+ */
+public class QuantileEngine {
+
+    public enum Mode {
+        EXACT,      // Quickselect, exact to the pixel
+        HISTOGRAM   // Fixed-bin histogram between min and max, interpolated within the bin: the
+                    // exact value's bin, so within (max - min) / bins of it
+    }
+
+    public static final int DEFAULT_BINS = 1024;
+
+    private final float[] values;
+    private final int[] histogram;
+    private Mode mode;
+
+    private final StripeRunner stripes;
+    private final int[][] stripeHistograms;   // The first is histogram itself
+    private final int[] stripeBounds;
+    private final StripeRunner.Body binPass = this::bin;
+    private float binScale;
+
+    private int count = 0;
+    private float min;
+    private float max;
+
+    // Results of the last compute()
+    private float q1;
+    private float q3;
+
+    public QuantileEngine(int capacity, Mode mode) {
+        this(capacity, mode, DEFAULT_BINS);
+    }
+
+    public QuantileEngine(int capacity, Mode mode, int bins) {
+        this(capacity, mode, bins, StripeRunner.SERIAL);
+    }
+
+    public QuantileEngine(int capacity, Mode mode, int bins, StripeRunner stripes) {
+        this.values = new float[capacity];
+        this.histogram = new int[bins];
+        this.mode = mode;
+
+        this.stripes = stripes;
+        stripeHistograms = new int[stripes.getStripes()][];
+        stripeHistograms[0] = histogram;
+        for (int i = 1; i < stripeHistograms.length; i++) {
+            stripeHistograms[i] = new int[bins];
+        }
+        stripeBounds = new int[stripes.getStripes() + 1];
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /// Copies the values of data where mask is non-zero, returns how many there were
+    public int gather(float[] data, byte[] mask) {
+        float lo = Float.POSITIVE_INFINITY;
+        float hi = Float.NEGATIVE_INFINITY;
+        int n = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (mask[i] == 0) {
+                continue;
+            }
+            float v = data[i];
+            values[n++] = v;
+            if (v < lo) {
+                lo = v;
+            }
+            if (v > hi) {
+                hi = v;
+            }
+        }
+        count = n;
+        min = lo;
+        max = hi;
+        return n;
+    }
+
+    /// Gives direct access to the value array for callers that fill it themselves (see setCount)
+    public float[] getValues() {
+        return values;
+    }
+
+    /// Sets the number of values written directly into getValues(), along with their range
+    public void setCount(int count, float min, float max) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+    }
+
+    /// Computes Q1 and Q3 of the gathered values using the current mode
+    public void compute() {
+        if (count == 0) {
+            q1 = q3 = 0;
+            return;
+        }
+        // A range too wide for a float (e.g. from extreme outliers) can't be binned either
+        if (mode == Mode.EXACT || max <= min || Float.isInfinite(max - min)) {
+            computeExact();
+        } else {
+            computeHistogram();
+        }
+    }
+
+    public float getQ1() {
+        return q1;
+    }
+
+    public float getQ3() {
+        return q3;
+    }
+
+    public float getIqr() {
+        return q3 - q1;
+    }
+
+    /// Q3 + 1.5 * IQR, the upper fence for outliers
+    public float getUpperFence() {
+        return q3 + getIqr() * 1.5f;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    private static int rank(int n, double q) {
+        // Nearest rank, zero-based
+        int k = (int) Math.ceil(q * n) - 1;
+        return Math.max(0, Math.min(n - 1, k));
+    }
+
+    private void computeExact() {
+        int k1 = rank(count, 0.25);
+        int k3 = rank(count, 0.75);
+
+        // After selecting k1 everything above it is >= Q1, so Q3 only needs searching from there
+        q1 = select(values, 0, count - 1, k1);
+        q3 = k3 > k1 ? select(values, k1 + 1, count - 1, k3) : q1;
+    }
+
+    private void computeHistogram() {
+        int bins = histogram.length;
+        binScale = bins / (max - min);
+        stripes.split(count, stripeBounds);
+        stripes.run(stripeBounds, binPass);
+        for (int s = 1; s < stripeHistograms.length; s++) {
+            int[] partial = stripeHistograms[s];
+            for (int i = 0; i < bins; i++) {
+                histogram[i] += partial[i];
+            }
+        }
+
+        double q1Count = count * 0.25;
+        double q3Count = count * 0.75;
+        float binWidth = (max - min) / bins;
+
+        int cumulative = 0;
+        boolean q1Found = false;
+        for (int i = 0; i < bins; i++) {
+            int before = cumulative;
+            cumulative += histogram[i];
+            if (!q1Found && cumulative >= q1Count) {
+                q1 = interpolate(i, before, q1Count, binWidth);
+                q1Found = true;
+            }
+            if (cumulative >= q3Count) {
+                q3 = interpolate(i, before, q3Count, binWidth);
+                break;
+            }
+        }
+    }
+
+    /// Bins values[from, to) into the stripe's histogram
+    private void bin(int stripe, int from, int to) {
+        int[] hist = stripeHistograms[stripe];
+        int bins = hist.length;
+        float scale = binScale;
+        float lo = min;
+        Arrays.fill(hist, 0);
+        for (int i = from; i < to; i++) {
+            int bin = (int) ((values[i] - lo) * scale);
+            if (bin >= bins) {
+                bin = bins - 1;
+            }
+            hist[bin]++;
+        }
+    }
+
+    /// Position of target within bin, assuming the bin's values are spread evenly across it
+    private float interpolate(int bin, int before, double target, float binWidth) {
+        int inBin = histogram[bin];
+        float fraction = inBin == 0 ? 0 : (float) ((target - before) / inBin);
+        return min + (bin + fraction) * binWidth;
+    }
+
+    /// Iterative quickselect, partially sorts a[lo..hi] so that a[k] holds the k-th smallest value
+    static float select(float[] a, int lo, int hi, int k) {
+        while (hi > lo) {
+            // Median of three as the pivot
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < a[lo]) swap(a, lo, mid);
+            if (a[hi] < a[lo]) swap(a, lo, hi);
+            if (a[hi] < a[mid]) swap(a, mid, hi);
+            float pivot = a[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) i++;
+                while (a[j] > pivot) j--;
+                if (i <= j) {
+                    swap(a, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return a[k];
+            }
+        }
+        return a[k];
+    }
+
+    private static void swap(float[] a, int i, int j) {
+        float t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
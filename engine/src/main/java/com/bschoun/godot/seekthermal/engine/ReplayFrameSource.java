@@ -0,0 +1,113 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * Plays a ThermalRecording back as if it were coming from the camera, either paced by the
+ * recorded timestamps or as fast as the listener takes frames.
+ *
+ * Timestamps are rebased onto System.nanoTime at the start of playback, so code that compares
+ * frame timestamps with each other sees the same spacing as during recording.
+ */
+public class ReplayFrameSource implements Runnable {
+
+    public interface Listener {
+        /// Called on the replay thread; frame is reused for the next call. Without real-time pacing,
+        /// the listener sets the pace: it can block until its consumer is ready for the next frame.
+        void onFrame(ThermalFrame frame) throws InterruptedException;
+
+        /// Called once playback reaches the end or is stopped
+        default void onReplayFinished(long framesPlayed) {}
+    }
+
+    private final ThermalRecordingReader reader;
+    private final Listener listener;
+    private final boolean realTime;
+    private final boolean loop;
+    private final ThermalFrame frame;
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private long framesPlayed = 0;
+
+    public ReplayFrameSource(ThermalRecordingReader reader, Listener listener, boolean realTime, boolean loop) {
+        this.reader = reader;
+        this.listener = listener;
+        this.realTime = realTime;
+        this.loop = loop;
+        this.frame = new ThermalFrame(reader.getWidth(), reader.getHeight());
+    }
+
+    /// Plays on a new thread
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "seek-replay");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getFramesPlayed() {
+        return framesPlayed;
+    }
+
+    /// Plays on the calling thread until the end of the recording (or stop() when looping)
+    @Override
+    public void run() {
+        running = true;
+        int count = reader.getFrameCount();
+        long sequence = 0;
+        long startNanos = System.nanoTime();
+        long timeOffset = 0;
+
+        try {
+            while (running && count > 0) {
+                long first = reader.getTimestamp(0);
+                for (int i = 0; i < count && running; i++) {
+                    reader.readFrame(i, frame);
+
+                    long due = startNanos + timeOffset + (frame.timestampNanos - first);
+                    if (realTime) {
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                    }
+                    frame.timestampNanos = due;
+                    frame.sequence = sequence++;
+
+                    listener.onFrame(frame);
+                    framesPlayed++;
+                }
+                if (!loop) {
+                    break;
+                }
+                // Carry on the timeline after the last frame, one nominal frame interval later
+                int fps = reader.getFps() > 0 ? reader.getFps() : 27;
+                timeOffset += reader.getTimestamp(count - 1) - first + 1_000_000_000L / fps;
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        } finally {
+            running = false;
+            listener.onReplayFinished(framesPlayed);
+        }
+    }
+}
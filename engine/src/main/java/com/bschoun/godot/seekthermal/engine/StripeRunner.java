@@ -0,0 +1,109 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a piece of per-frame work over stripes of a range (e.g. rows of a frame) on a fork-join
+ * pool and returns once every stripe is done. Stripe 0 runs on the calling thread, the rest on the
+ * pool. The tasks are allocated up front and reinitialized for every run, so running doesn't
+ * allocate; the work should write its results per stripe, for the caller to merge.
+ *
+ * A runner with one stripe runs everything on the calling thread, at no extra cost. Not
+ * thread-safe: one run at a time per runner, but runners may share a pool.
+ */
+public class StripeRunner {
+
+    public interface Body {
+        /// Processes [from, to) of the range; stripe is 0 to getStripes() - 1
+        void run(int stripe, int from, int to);
+    }
+
+    /// Below this many pixels per stripe, handing work to another thread costs more than it saves
+    public static final int MIN_STRIPE_PIXELS = 65536;
+
+    /// Runs everything on the calling thread
+    public static final StripeRunner SERIAL = new StripeRunner(null, 1);
+
+    private final ForkJoinPool pool;
+    private final Stripe[] stripes;
+
+    // Set for the duration of run(); the pool hand-off makes them visible to the stripes
+    private Body body;
+    private int[] bounds;
+
+    public StripeRunner(ForkJoinPool pool, int stripes) {
+        if (stripes < 1 || (stripes > 1 && pool == null)) {
+            throw new IllegalArgumentException("Need a pool for " + stripes + " stripes");
+        }
+        this.pool = pool;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(i);
+        }
+    }
+
+    /// As many stripes of the common pool as a frame of this many pixels is worth, 1 for small frames
+    public static StripeRunner forPixels(int pixels) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int stripes = Math.max(1, Math.min(cores, pixels / MIN_STRIPE_PIXELS));
+        return stripes == 1 ? SERIAL : new StripeRunner(ForkJoinPool.commonPool(), stripes);
+    }
+
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    /// Fills bounds (getStripes() + 1 values) with an even split of [0, n)
+    public void split(int n, int[] bounds) {
+        int count = stripes.length;
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = (int) ((long) n * i / count);
+        }
+    }
+
+    /**
+     * Runs body over every stripe, stripe i covering [bounds[i], bounds[i + 1]).
+     *
+     * @param bounds getStripes() + 1 non-decreasing values
+     */
+    public void run(int[] bounds, Body body) {
+        int count = stripes.length;
+        if (count == 1) {
+            body.run(0, bounds[0], bounds[1]);
+            return;
+        }
+
+        this.body = body;
+        this.bounds = bounds;
+        for (int i = 1; i < count; i++) {
+            stripes[i].reinitialize();
+            pool.execute(stripes[i]);
+        }
+        try {
+            body.run(0, bounds[0], bounds[1]);
+        } finally {
+            // Joining also makes the stripes' results visible to this thread
+            for (int i = 1; i < count; i++) {
+                stripes[i].join();
+            }
+            this.body = null;
+            this.bounds = null;
+        }
+    }
+
+    // Never serialized; RecursiveAction is only Serializable by inheritance
+    @SuppressWarnings("serial")
+    private final class Stripe extends RecursiveAction {
+        private final int index;
+
+        Stripe(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            body.run(index, bounds[index], bounds[index + 1]);
+        }
+    }
+}
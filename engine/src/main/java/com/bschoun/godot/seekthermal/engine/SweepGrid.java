@@ -0,0 +1,106 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Arrays;
+
+/**
+ * The detector settings a ParameterSweep tries: every combination of the values given for each
+ * parameter. Combinations are numbered with the history outermost, so candidates that share
+ * features are next to each other. Immutable.
+ */
+public final class SweepGrid {
+
+    private final int fps;
+    private final float[] historySeconds;
+    private final float[] exhaleTimeouts;
+    private final float[] startThresholds;
+    private final float[] endThresholds;
+    private final float[] galeThresholds;
+    private final float[] waftThresholds;
+
+    public SweepGrid(int fps,
+                     float[] historySeconds,
+                     float[] exhaleTimeouts,
+                     float[] startThresholds,
+                     float[] endThresholds,
+                     float[] galeThresholds,
+                     float[] waftThresholds) {
+        this.fps = fps;
+        this.historySeconds = nonEmpty(historySeconds, "historySeconds");
+        this.exhaleTimeouts = nonEmpty(exhaleTimeouts, "exhaleTimeouts");
+        this.startThresholds = nonEmpty(startThresholds, "startThresholds");
+        this.endThresholds = nonEmpty(endThresholds, "endThresholds");
+        this.galeThresholds = nonEmpty(galeThresholds, "galeThresholds");
+        this.waftThresholds = nonEmpty(waftThresholds, "waftThresholds");
+    }
+
+    private static float[] nonEmpty(float[] values, String name) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException(name + " needs at least one value");
+        }
+        return values.clone();
+    }
+
+    /// from, from + step, ... up to and including to (within rounding)
+    public static float[] range(float from, float to, float step) {
+        if (step <= 0 || to < from) {
+            throw new IllegalArgumentException("Empty range " + from + " to " + to + " by " + step);
+        }
+        int count = (int) Math.floor((to - from) / step + 1e-4) + 1;
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = from + i * step;
+        }
+        return values;
+    }
+
+    /// Number of combinations
+    public int size() {
+        long size = (long) historySeconds.length * exhaleTimeouts.length * startThresholds.length
+                * endThresholds.length * galeThresholds.length * waftThresholds.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many combinations: " + size);
+        }
+        return (int) size;
+    }
+
+    /// Combinations per history value
+    public int sizePerHistory() {
+        return size() / historySeconds.length;
+    }
+
+    public float[] getHistorySeconds() {
+        return historySeconds.clone();
+    }
+
+    /// Which history value a combination uses
+    public int historyIndex(int index) {
+        return index / sizePerHistory();
+    }
+
+    /// The settings of one combination, 0 to size() - 1
+    public DetectorConfig get(int index) {
+        int i = index;
+        float waft = waftThresholds[i % waftThresholds.length];
+        i /= waftThresholds.length;
+        float gale = galeThresholds[i % galeThresholds.length];
+        i /= galeThresholds.length;
+        float end = endThresholds[i % endThresholds.length];
+        i /= endThresholds.length;
+        float start = startThresholds[i % startThresholds.length];
+        i /= startThresholds.length;
+        float timeout = exhaleTimeouts[i % exhaleTimeouts.length];
+        i /= exhaleTimeouts.length;
+        float history = historySeconds[i];
+        return new DetectorConfig(fps, history, timeout, start, end, gale, waft);
+    }
+
+    @Override
+    public String toString() {
+        return "SweepGrid{" + size() + " combinations: history=" + Arrays.toString(historySeconds)
+                + ", timeout=" + Arrays.toString(exhaleTimeouts)
+                + ", start=" + Arrays.toString(startThresholds)
+                + ", end=" + Arrays.toString(endThresholds)
+                + ", gale=" + Arrays.toString(galeThresholds)
+                + ", waft=" + Arrays.toString(waftThresholds) + "}";
+    }
+}
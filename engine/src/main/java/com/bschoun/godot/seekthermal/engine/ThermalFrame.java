@@ -0,0 +1,20 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/** Raw thermography from the camera, as handed from the SDK callback to the analysis stage */
+public class ThermalFrame {
+
+    // 16-bit values straight from the sensor (scaled by 64, offset by 40 C)
+    public final short[] data;
+
+    public final int width;
+    public final int height;
+
+    public long sequence;
+    public long timestampNanos;
+
+    public ThermalFrame(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.data = new short[width * height];
+    }
+}
@@ -0,0 +1,113 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+/**
+ * Writes every raw frame to a ThermalRecording on its own thread, for recordings that are replayed
+ * to regression-test the detector.
+ *
+ * The frame thread only copies each frame into a FrameQueue of bufferSeconds of preallocated
+ * frames, so a disk stall shorter than that loses nothing. Frames are only dropped when the queue
+ * overflows; how many is written into the recording's header when it's closed.
+ */
+public class ThermalRecorder implements Closeable {
+
+    private final ThermalRecordingWriter writer;
+    private final FrameQueue<ThermalFrame> queue;
+    private final Thread thread;
+    private final long footprintBytes;
+
+    private volatile long framesWritten = 0;
+    private volatile IOException failure;
+
+    public ThermalRecorder(File file, int width, int height, int fps, float bufferSeconds) throws IOException {
+        int capacity = Math.max(1, (int) Math.ceil(bufferSeconds * fps));
+        writer = new ThermalRecordingWriter(file, width, height, fps);
+        queue = new FrameQueue<>(capacity, () -> new ThermalFrame(width, height));
+        footprintBytes = (capacity + 1L) * width * height * 2;
+        thread = new Thread(this::write, "seek-recorder-" + file.getName());
+        thread.start();
+    }
+
+    /// Bytes held by the queue
+    public long getFootprintBytes() {
+        return footprintBytes;
+    }
+
+    /// Queues a frame, read from the buffer's current position; false if the queue is full and it was dropped
+    public boolean add(ShortBuffer data, long sequence, long timestampNanos) {
+        ThermalFrame frame = queue.acquire();
+        if (frame == null) {
+            return false;
+        }
+        data.get(frame.data);
+        frame.sequence = sequence;
+        frame.timestampNanos = timestampNanos;
+        queue.publish();
+        return true;
+    }
+
+    /// The same for a frame in an array
+    public boolean add(short[] data, long sequence, long timestampNanos) {
+        ThermalFrame frame = queue.acquire();
+        if (frame == null) {
+            return false;
+        }
+        System.arraycopy(data, 0, frame.data, 0, frame.data.length);
+        frame.sequence = sequence;
+        frame.timestampNanos = timestampNanos;
+        queue.publish();
+        return true;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /// Frames that didn't fit in the queue
+    public long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    private void write() {
+        try {
+            ThermalFrame frame;
+            while ((frame = queue.take()) != null) {
+                writer.write(frame);
+                framesWritten++;
+            }
+        } catch (IOException e) {
+            // Stop writing; the queue fills up and the rest of the frames are dropped
+            failure = e;
+        } catch (InterruptedException e) {
+            // Not interrupted; close() waits for the queue to drain
+        }
+    }
+
+    /**
+     * Stops taking frames, waits for the queued ones to be written, records the dropped count and
+     * closes the file.
+     *
+     * @throws IOException if writing failed at any point; the file has the frames before that
+     */
+    @Override
+    public void close() throws IOException {
+        queue.close();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            writer.setDroppedFrames(getDroppedCount());
+        } finally {
+            writer.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
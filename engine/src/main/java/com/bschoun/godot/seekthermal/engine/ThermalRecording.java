@@ -0,0 +1,41 @@
+package com.bschoun.godot.seekthermal.engine;
+
+/**
+ * On-disk format for raw thermography recordings.
+ *
+ * Everything is little-endian. The file starts with a 32 byte header:
+ * <pre>
+ *   0   int    magic, "SKTR"
+ *   4   int    format version
+ *   8   int    frame width
+ *   12  int    frame height
+ *   16  long   wall-clock start time, milliseconds since the epoch
+ *   24  int    nominal frames per second, 0 if unknown
+ *   28  int    frames dropped while recording, written when the recording is closed
+ * </pre>
+ * followed by fixed-size frame records:
+ * <pre>
+ *   0   long              capture timestamp, nanoseconds (System.nanoTime on the recording device)
+ *   8   short[w * h]      raw 16-bit thermography, exactly as delivered by the SDK
+ * </pre>
+ * Because every record is the same size, frame i can be found without an index, and a recording
+ * that was cut short (app killed, camera unplugged) is still readable up to its last whole frame.
+ */
+public final class ThermalRecording {
+
+    public static final int MAGIC = 0x52544B53; // "SKTR" read as a little-endian int
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 32;
+    static final int DROPPED_FRAMES_OFFSET = 28;
+    public static final int TIMESTAMP_SIZE = 8;
+
+    public static final String FILE_EXTENSION = ".sktr";
+
+    private ThermalRecording() {}
+
+    /// Size in bytes of one frame record for the given resolution
+    public static int recordSize(int width, int height) {
+        return TIMESTAMP_SIZE + width * height * 2;
+    }
+}
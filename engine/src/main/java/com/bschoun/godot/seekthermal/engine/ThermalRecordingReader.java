@@ -0,0 +1,139 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a ThermalRecording through a memory-mapped FileChannel, so frames come straight from the
+ * page cache without read() copies. Files bigger than a single mapping (2 GB) are mapped in
+ * chunks of whole frames. Not thread-safe; use from a single thread.
+ */
+public class ThermalRecordingReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final long startTimeMillis;
+    private final int droppedFrames;
+    private final int frameCount;
+
+    private final int recordSize;
+    private final int framesPerChunk;
+    private final MappedByteBuffer[] chunks;
+    private final ShortBuffer[] chunkShorts;
+
+    public ThermalRecordingReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel();
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(ThermalRecording.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Recording is too short to have a header: " + path);
+                }
+            }
+            header.flip();
+
+            if (header.getInt() != ThermalRecording.MAGIC) {
+                throw new IOException("Not a thermal recording: " + path);
+            }
+            int version = header.getInt();
+            if (version != ThermalRecording.VERSION) {
+                throw new IOException("Unsupported recording version " + version + ": " + path);
+            }
+            width = header.getInt();
+            height = header.getInt();
+            startTimeMillis = header.getLong();
+            fps = header.getInt();
+            droppedFrames = header.getInt();
+
+            recordSize = ThermalRecording.recordSize(width, height);
+            long frames = (channel.size() - ThermalRecording.HEADER_SIZE) / recordSize;
+            frameCount = (int) Math.min(frames, Integer.MAX_VALUE);
+
+            // Map whole frames only, so a record never straddles two mappings
+            framesPerChunk = Math.max(1, Integer.MAX_VALUE / recordSize);
+            int chunkCount = (frameCount + framesPerChunk - 1) / framesPerChunk;
+            chunks = new MappedByteBuffer[chunkCount];
+            chunkShorts = new ShortBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = ThermalRecording.HEADER_SIZE + (long) i * framesPerChunk * recordSize;
+                int framesInChunk = Math.min(framesPerChunk, frameCount - i * framesPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) framesInChunk * recordSize);
+                chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+                chunkShorts[i] = chunks[i].asShortBuffer();
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /// Frames the recorder couldn't keep up with, so the recording doesn't have them
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return chunks[index / framesPerChunk].getLong((index % framesPerChunk) * recordSize);
+    }
+
+    /// Copies frame index into data, returns its capture timestamp
+    public long readFrame(int index, short[] data) {
+        checkIndex(index);
+        int chunk = index / framesPerChunk;
+        int offset = (index % framesPerChunk) * recordSize;
+
+        ShortBuffer shorts = chunkShorts[chunk];
+        shorts.position((offset + ThermalRecording.TIMESTAMP_SIZE) / 2);
+        shorts.get(data, 0, width * height);
+        return chunks[chunk].getLong(offset);
+    }
+
+    /// Copies frame index into frame, setting its timestamp to the recorded one
+    public void readFrame(int index, ThermalFrame frame) {
+        frame.timestampNanos = readFrame(index, frame.data);
+        frame.sequence = index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/** Writes frames in the ThermalRecording format. Not thread-safe; use from a single thread. */
+public class ThermalRecordingWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+
+    // One record, reused for every frame
+    private final ByteBuffer record;
+    private final ShortBuffer recordData;
+
+    private long framesWritten = 0;
+
+    public ThermalRecordingWriter(File file, int width, int height, int fps) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.channel = new FileOutputStream(file).getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(ThermalRecording.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ThermalRecording.MAGIC);
+        header.putInt(ThermalRecording.VERSION);
+        header.putInt(width);
+        header.putInt(height);
+        header.putLong(System.currentTimeMillis());
+        header.putInt(fps);
+        header.putInt(0);
+        header.flip();
+        writeFully(header);
+
+        record = ByteBuffer.allocateDirect(ThermalRecording.recordSize(width, height)).order(ByteOrder.LITTLE_ENDIAN);
+        record.position(ThermalRecording.TIMESTAMP_SIZE);
+        recordData = record.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        record.clear();
+    }
+
+    public void write(ThermalFrame frame) throws IOException {
+        write(frame.data, frame.timestampNanos);
+    }
+
+    public void write(short[] data, long timestampNanos) throws IOException {
+        if (data.length != width * height) {
+            throw new IllegalArgumentException("Expected " + (width * height) + " pixels, got " + data.length);
+        }
+        record.clear();
+        record.putLong(0, timestampNanos);
+        recordData.clear();
+        recordData.put(data);
+        writeFully(record);
+        framesWritten++;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /// Records in the header how many frames the recorder dropped; they're not in the file
+    public void setDroppedFrames(long dropped) throws IOException {
+        ByteBuffer field = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        field.putInt(0, (int) Math.min(dropped, Integer.MAX_VALUE));
+        while (field.hasRemaining()) {
+            channel.write(field, ThermalRecording.DROPPED_FRAMES_OFFSET + field.position());
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
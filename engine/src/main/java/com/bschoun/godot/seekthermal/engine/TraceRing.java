@@ -0,0 +1,233 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded in-memory trace of timed spans, for finding where latency builds up on a device. Once
+ * full, new events overwrite the oldest, so it always holds the last capacity events.
+ *
+ * Events go into arrays allocated up front and names should be constants, so recording doesn't
+ * allocate. writeChromeTrace() dumps the ring in the Chrome trace event format, which
+ * chrome://tracing and ui.perfetto.dev open; each track shows up as a thread.
+ *
+ * Thread-safe, and recording never locks: each event claims the next number from a counter, and
+ * its slot is stamped with that number once it's written. A reader only keeps an event whose
+ * stamp is the same before and after copying it, so events being written (or overwritten) while
+ * the ring is dumped are left out rather than torn. All times are System.nanoTime() values.
+ */
+public class TraceRing {
+
+    /// Stamp of a slot while an event is being written into it
+    private static final long WRITING = Long.MIN_VALUE;
+
+    private final AtomicReferenceArray<String> names;
+    private final AtomicReferenceArray<String> details;
+    private final AtomicIntegerArray tracks;
+    private final AtomicLongArray starts;
+    private final AtomicLongArray durations;     // -1 for instant events
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray stamps;        // Number of the event in each slot, or WRITING
+    private final int capacity;
+
+    private final List<String> trackNames = new ArrayList<>();
+    private volatile boolean enabled = true;
+
+    private final AtomicLong claimed = new AtomicLong();   // Number of the next event
+    private volatile long cleared = 0;                     // Events before this one were cleared
+
+    public TraceRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1, got " + capacity);
+        }
+        this.capacity = capacity;
+        names = new AtomicReferenceArray<>(capacity);
+        details = new AtomicReferenceArray<>(capacity);
+        tracks = new AtomicIntegerArray(capacity);
+        starts = new AtomicLongArray(capacity);
+        durations = new AtomicLongArray(capacity);
+        sequences = new AtomicLongArray(capacity);
+        stamps = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            // As if the previous lap had written them, so none of them is read before it's written
+            stamps.set(i, i - (long) capacity);
+        }
+    }
+
+    /// Registers a track (shown as a thread) and returns its id; do this once, up front
+    public synchronized int addTrack(String name) {
+        int existing = trackNames.indexOf(name);
+        if (existing >= 0) {
+            return existing;
+        }
+        trackNames.add(name);
+        return trackNames.size() - 1;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a span from startNanos to endNanos.
+     *
+     * @param sequence frame the span belongs to, or -1
+     * @param detail   optional extra text shown with the event, or null
+     */
+    public void span(int track, String name, long startNanos, long endNanos, long sequence, String detail) {
+        if (enabled) {
+            add(track, name, startNanos, Math.max(0, endNanos - startNanos), sequence, detail);
+        }
+    }
+
+    public void span(int track, String name, long startNanos, long endNanos, long sequence) {
+        span(track, name, startNanos, endNanos, sequence, null);
+    }
+
+    /// Records something that happened at one point in time
+    public void instant(int track, String name, long timeNanos, long sequence, String detail) {
+        if (enabled) {
+            add(track, name, timeNanos, -1, sequence, detail);
+        }
+    }
+
+    private void add(int track, String name, long start, long duration, long sequence, String detail) {
+        long number = claimed.getAndIncrement();
+        int slot = (int) (number % capacity);
+
+        // Take the slot over from the event before it, unless that one is still being written or
+        // a newer event already has it (only if the ring wrapped around while this one was
+        // claimed); then this event is lost, rather than mixed with the other one
+        long stamp = stamps.get(slot);
+        if (stamp == WRITING || stamp >= number || !stamps.compareAndSet(slot, stamp, WRITING)) {
+            return;
+        }
+        names.lazySet(slot, name);
+        details.lazySet(slot, detail);
+        tracks.lazySet(slot, track);
+        starts.lazySet(slot, start);
+        durations.lazySet(slot, duration);
+        sequences.lazySet(slot, sequence);
+        stamps.set(slot, number);
+    }
+
+    /// Events held, including any still being written
+    public int size() {
+        long end = claimed.get();
+        return (int) Math.min(capacity, end - cleared);
+    }
+
+    public void clear() {
+        cleared = claimed.get();
+    }
+
+    /// Writes the events to a file as Chrome trace JSON
+    public void writeChromeTrace(File file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writeChromeTrace(out);
+        }
+    }
+
+    /// Writes the events, oldest first, as Chrome trace JSON. Recording isn't held up while writing.
+    public void writeChromeTrace(Writer out) throws IOException {
+        // Copy the ring, leaving out events that change while they're copied
+        long end = claimed.get();
+        long first = Math.max(cleared, end - capacity);
+        int held = (int) (end - first);
+        String[] n = new String[held];
+        String[] d = new String[held];
+        int[] t = new int[held];
+        long[] s = new long[held];
+        long[] dur = new long[held];
+        long[] seq = new long[held];
+        int count = 0;
+        for (long number = first; number < end; number++) {
+            int slot = (int) (number % capacity);
+            if (stamps.get(slot) != number) {
+                continue;
+            }
+            n[count] = names.get(slot);
+            d[count] = details.get(slot);
+            t[count] = tracks.get(slot);
+            s[count] = starts.get(slot);
+            dur[count] = durations.get(slot);
+            seq[count] = sequences.get(slot);
+            if (stamps.get(slot) == number) {
+                count++;
+            }
+        }
+        String[] tn;
+        synchronized (this) {
+            tn = trackNames.toArray(new String[0]);
+        }
+
+        long base = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            base = Math.min(base, s[i]);
+        }
+
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"tid\":0,\"args\":{\"name\":\"SeekThermal\"}}");
+        for (int i = 0; i < tn.length; i++) {
+            out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + i
+                    + ",\"args\":{\"name\":" + quote(tn[i]) + "}}");
+            out.write(",\n{\"name\":\"thread_sort_index\",\"ph\":\"M\",\"pid\":1,\"tid\":" + i
+                    + ",\"args\":{\"sort_index\":" + i + "}}");
+        }
+        for (int i = 0; i < count; i++) {
+            StringBuilder e = new StringBuilder(160);
+            e.append(",\n{\"name\":").append(quote(n[i]))
+                    .append(",\"pid\":1,\"tid\":").append(t[i])
+                    .append(",\"ts\":").append(micros(s[i] - base));
+            if (dur[i] >= 0) {
+                e.append(",\"ph\":\"X\",\"dur\":").append(micros(dur[i]));
+            } else {
+                e.append(",\"ph\":\"i\",\"s\":\"t\"");
+            }
+            e.append(",\"args\":{");
+            if (seq[i] >= 0) {
+                e.append("\"frame\":").append(seq[i]);
+            }
+            if (d[i] != null) {
+                e.append(seq[i] >= 0 ? "," : "").append("\"detail\":").append(quote(d[i]));
+            }
+            e.append("}}");
+            out.write(e.toString());
+        }
+        out.write("\n]}\n");
+    }
+
+    private static String micros(long nanos) {
+        return String.format(java.util.Locale.ROOT, "%.3f", nanos / 1000.0);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(java.util.Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
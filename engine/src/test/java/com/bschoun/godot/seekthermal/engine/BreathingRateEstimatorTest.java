@@ -0,0 +1,83 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class BreathingRateEstimatorTest {
+
+    private static final int FPS = 27;
+
+    /// A midrange-like signal: a positive level, breathing as a sinusoid, and sensor noise
+    private static BreathingRateEstimator feedBreathing(double breathsPerMinute, double noise, int seconds) {
+        BreathingRateEstimator estimator = new BreathingRateEstimator(FPS);
+        Random random = new Random(1);
+        for (int i = 0; i < seconds * FPS; i++) {
+            double t = (double) i / FPS;
+            double value = 0.3 + 0.4 * Math.sin(2 * Math.PI * breathsPerMinute / 60 * t) + random.nextGaussian() * noise;
+            estimator.add((float) value, i);
+        }
+        return estimator;
+    }
+
+    @ParameterizedTest
+    @ValueSource(doubles = { 6, 12, 15, 20, 30 })
+    void findsTheRateOfANoisySinusoid(double breathsPerMinute) {
+        BreathingRateEstimator estimator = feedBreathing(breathsPerMinute, 0.2, 45);
+        assertTrue(estimator.estimate());
+        assertEquals(breathsPerMinute, estimator.getRate(), 0.5);
+        assertTrue(estimator.getConfidence() > 0.8, "Confidence " + estimator.getConfidence());
+    }
+
+    @Test
+    void noiseHasLessConfidenceThanBreathing() {
+        BreathingRateEstimator estimator = feedBreathing(15, 0.2, 45);
+        estimator.estimate();
+        float breathing = estimator.getConfidence();
+
+        BreathingRateEstimator noise = new BreathingRateEstimator(FPS);
+        Random random = new Random(2);
+        for (int i = 0; i < 45 * FPS; i++) {
+            noise.add((float) (random.nextGaussian() * 0.2), i);
+        }
+        noise.estimate();
+        assertTrue(noise.getConfidence() < 0.5 && noise.getConfidence() < breathing,
+                "Noise confidence " + noise.getConfidence());
+    }
+
+    @ParameterizedTest
+    @ValueSource(floats = { 0, 0.3f, -2, 5 })
+    void flatSignalHasNoConfidence(float level) {
+        BreathingRateEstimator estimator = new BreathingRateEstimator(FPS);
+        for (int i = 0; i < 60 * FPS; i++) {
+            estimator.add(level, i);
+        }
+        assertTrue(estimator.estimate());
+        assertEquals(0, estimator.getConfidence(), 0.05);
+        assertTrue(Float.isFinite(estimator.getRate()));
+    }
+
+    @Test
+    void waitsForAFullWindow() {
+        BreathingRateEstimator estimator = new BreathingRateEstimator(FPS);
+        for (int i = 0; i < estimator.getWindowSize() - 1; i++) {
+            estimator.add(1, i);
+        }
+        assertFalse(estimator.estimate());
+        assertEquals(0, estimator.getRate());
+    }
+
+    @Test
+    void longGapRestartsTheWindow() {
+        BreathingRateEstimator estimator = feedBreathing(12, 0.1, 40);
+        assertTrue(estimator.isReady());
+        estimator.add(0.3f, 40 * FPS + 1000);
+        assertFalse(estimator.isReady());
+    }
+}
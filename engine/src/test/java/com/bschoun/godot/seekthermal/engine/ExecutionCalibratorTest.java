@@ -0,0 +1,185 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/// Parsing configs, and the calibration cache, with sessions that only pretend to run a model
+class ExecutionCalibratorTest {
+
+    private static final String DEVICE = "Pixel 7:android-34";
+    private static final ExecutionConfig FASTEST = new ExecutionConfig(ExecutionConfig.Backend.XNNPACK, 2);
+
+    @TempDir
+    File directory;
+
+    /// FASTEST runs instantly, every other config takes 2 ms, and GPU doesn't open at all
+    private static final class FakeFactory implements ExecutionCalibrator.SessionFactory {
+        final List<ExecutionConfig> opened = new ArrayList<>();
+
+        @Override
+        public ExecutionCalibrator.Session open(ExecutionConfig config) {
+            opened.add(config);
+            if (config.backend == ExecutionConfig.Backend.GPU) {
+                throw new UnsupportedOperationException("No GPU delegate");
+            }
+            return new ExecutionCalibrator.Session() {
+                @Override
+                public void run() throws InterruptedException {
+                    if (!config.equals(FASTEST)) {
+                        Thread.sleep(2);
+                    }
+                }
+
+                @Override
+                public void close() {}
+            };
+        }
+    }
+
+    private static List<ExecutionConfig> candidates() {
+        List<ExecutionConfig> candidates = ExecutionConfig.cpuCandidates(3);
+        candidates.add(new ExecutionConfig(ExecutionConfig.Backend.GPU, 1));
+        return candidates;
+    }
+
+    private static String modelHash(String model) {
+        return ExecutionCalibrator.hash(ByteBuffer.wrap(model.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void configsRoundTripThroughText() {
+        for (ExecutionConfig.Backend backend : ExecutionConfig.Backend.values()) {
+            for (int threads = 1; threads <= 8; threads++) {
+                ExecutionConfig config = new ExecutionConfig(backend, threads);
+                assertEquals(backend.name() + "/" + threads, config.toString());
+                assertEquals(config, ExecutionConfig.parse(config.toString()));
+                assertEquals(config.hashCode(), ExecutionConfig.parse(config.toString()).hashCode());
+            }
+        }
+        assertEquals(FASTEST, ExecutionConfig.parse(" xnnpack / 2 "));
+        assertNotEquals(FASTEST, new ExecutionConfig(ExecutionConfig.Backend.CPU, 2));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "XNNPACK", "XNNPACK 2", "TPU/2", "/2", "CPU/", "CPU/two", "CPU/0", "CPU/-1",
+            "CPU/2/3"})
+    void malformedConfigsAreRejected(String text) {
+        assertThrows(IllegalArgumentException.class, () -> ExecutionConfig.parse(text));
+    }
+
+    @Test
+    void picksTheFastestAndCachesIt() throws IOException {
+        File cacheFile = new File(directory, "calibration.properties");
+        String hash = modelHash("model v1");
+        ExecutionCalibrator calibrator = new ExecutionCalibrator(cacheFile, 1, 3);
+        FakeFactory factory = new FakeFactory();
+
+        assertEquals(FASTEST, calibrator.calibrate(DEVICE, hash, candidates(), factory, false));
+        assertFalse(calibrator.wasLastCached());
+        assertEquals(candidates(), factory.opened);
+        List<ExecutionCalibrator.Trial> trials = calibrator.getLastTrials();
+        assertEquals(candidates().size(), trials.size());
+        ExecutionCalibrator.Trial gpu = trials.get(trials.size() - 1);
+        assertEquals(-1, gpu.medianNanos);
+        assertTrue(gpu.error.contains("No GPU delegate"), gpu.error);
+
+        // The same device and model, even from a new calibrator, comes from the cache
+        factory.opened.clear();
+        ExecutionCalibrator later = new ExecutionCalibrator(cacheFile, 1, 3);
+        assertEquals(FASTEST, later.getCached(DEVICE, hash));
+        assertEquals(FASTEST, later.calibrate(DEVICE, hash, candidates(), factory, false));
+        assertTrue(later.wasLastCached());
+        assertTrue(later.getLastTrials().isEmpty());
+        assertTrue(factory.opened.isEmpty());
+
+        // Forcing times them again
+        assertEquals(FASTEST, later.calibrate(DEVICE, hash, candidates(), factory, true));
+        assertFalse(later.wasLastCached());
+        assertEquals(candidates(), factory.opened);
+    }
+
+    @Test
+    void cacheMissesWhenTheModelChanges() throws IOException {
+        File cacheFile = new File(directory, "cache/calibration.properties");
+        ExecutionCalibrator calibrator = new ExecutionCalibrator(cacheFile, 1, 3);
+        FakeFactory factory = new FakeFactory();
+        String v1 = modelHash("model v1");
+        String v2 = modelHash("model v2");
+        assertNotEquals(v1, v2);
+        calibrator.calibrate(DEVICE, v1, candidates(), factory, false);
+
+        // A retrained model has a different hash, so it's timed again
+        assertNull(calibrator.getCached(DEVICE, v2));
+        factory.opened.clear();
+        assertEquals(FASTEST, calibrator.calibrate(DEVICE, v2, candidates(), factory, false));
+        assertFalse(calibrator.wasLastCached());
+        assertEquals(candidates(), factory.opened);
+
+        // Both are cached; so is nothing for another device
+        assertEquals(FASTEST, calibrator.getCached(DEVICE, v1));
+        assertEquals(FASTEST, calibrator.getCached(DEVICE, v2));
+        assertNull(calibrator.getCached("Pixel 8:android-35", v1));
+    }
+
+    @Test
+    void cachedConfigsMustStillBeCandidates() throws IOException {
+        File cacheFile = new File(directory, "calibration.properties");
+        ExecutionCalibrator calibrator = new ExecutionCalibrator(cacheFile, 1, 3);
+        FakeFactory factory = new FakeFactory();
+        String hash = modelHash("model v1");
+        calibrator.calibrate(DEVICE, hash, candidates(), factory, false);
+
+        // With one thread at most, XNNPACK/2 isn't a candidate any more
+        List<ExecutionConfig> single = ExecutionConfig.cpuCandidates(1);
+        factory.opened.clear();
+        ExecutionConfig chosen = calibrator.calibrate(DEVICE, hash, single, factory, false);
+        assertFalse(calibrator.wasLastCached());
+        assertEquals(single, factory.opened);
+        assertTrue(single.contains(chosen));
+        assertEquals(chosen, calibrator.getCached(DEVICE, hash));
+
+        // Nothing that runs: no choice, and the cache keeps the last one
+        List<ExecutionConfig> gpuOnly = List.of(new ExecutionConfig(ExecutionConfig.Backend.GPU, 1));
+        assertNull(calibrator.calibrate(DEVICE, hash, gpuOnly, factory, true));
+        assertEquals(chosen, calibrator.getCached(DEVICE, hash));
+    }
+
+    @Test
+    void unreadableCacheEntriesAreIgnored() throws IOException {
+        File cacheFile = new File(directory, "calibration.properties");
+        String hash = modelHash("model v1");
+        Files.write(cacheFile.toPath(), ("Pixel 7_android-34|" + hash + "=TPU/4\n").getBytes(StandardCharsets.ISO_8859_1));
+        ExecutionCalibrator calibrator = new ExecutionCalibrator(cacheFile, 1, 3);
+        assertNull(calibrator.getCached(DEVICE, hash));
+        assertEquals(FASTEST, calibrator.calibrate(DEVICE, hash, candidates(), new FakeFactory(), false));
+        assertEquals(FASTEST, calibrator.getCached(DEVICE, hash));
+    }
+
+    @Test
+    void hashLeavesTheBufferAlone() {
+        ByteBuffer model = ByteBuffer.wrap("header model v1".getBytes(StandardCharsets.UTF_8));
+        model.position(7);
+        assertEquals(modelHash("model v1"), ExecutionCalibrator.hash(model));
+        assertEquals(7, model.position());
+        // SHA-256 of nothing
+        assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ExecutionCalibrator.hash(ByteBuffer.allocate(0)));
+    }
+}
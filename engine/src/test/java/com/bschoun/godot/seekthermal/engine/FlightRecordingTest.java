@@ -0,0 +1,194 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// The .skfr format must give back exactly the frames that went in
+class FlightRecordingTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+    private static final int FPS = 27;
+
+    @TempDir
+    File directory;
+
+    private static long time(int frame) {
+        return frame * 1_000_000_000L / FPS;
+    }
+
+    /// Frames that exercise the encoding: a smooth first frame, a cooler one (negative deltas), one
+    /// that jumps across the whole short range, and noise
+    private static short[][] frames() {
+        int pixels = WIDTH * HEIGHT;
+        short[][] frames = new short[4][pixels];
+        Random random = new Random(9);
+        for (int i = 0; i < pixels; i++) {
+            frames[0][i] = SyntheticFrames.raw(30 + i % WIDTH * 0.1f);
+            frames[1][i] = (short) (frames[0][i] - 1 - i % 200);
+            frames[2][i] = (short) (i % 4 == 0 ? Short.MIN_VALUE : i % 4 == 1 ? Short.MAX_VALUE : i % 4 == 2 ? 0 : -1);
+            frames[3][i] = (short) random.nextInt(1 << 16);
+        }
+        return frames;
+    }
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        short[][] frames = frames();
+        byte[] payload = new byte[FlightRecording.maxPayloadSize(WIDTH, HEIGHT)];
+        short[] decoded = new short[WIDTH * HEIGHT];
+        short[] previous = null;
+        for (short[] frame : frames) {
+            int length = FlightRecording.encodeFrame(frame, previous, payload, 0);
+            assertTrue(length <= payload.length);
+            assertEquals(length, FlightRecording.decodeFrame(payload, 0, previous == null ? null : decoded, decoded));
+            assertArrayEquals(frame, decoded);
+            previous = frame;
+        }
+    }
+
+    /// A first frame is coded against its left neighbours, so here the jumps are within the frame
+    @Test
+    void firstFrameWithFullRangeJumps() {
+        short[] frame = frames()[2];
+        byte[] payload = new byte[FlightRecording.maxPayloadSize(WIDTH, HEIGHT)];
+        short[] decoded = new short[WIDTH * HEIGHT];
+        int length = FlightRecording.encodeFrame(frame, null, payload, 0);
+        assertEquals(length, FlightRecording.decodeFrame(payload, 0, null, decoded));
+        assertArrayEquals(frame, decoded);
+    }
+
+    @Test
+    void slowlyChangingFramesTakeAboutOneBytePerPixel() {
+        short[][] frames = frames();
+        byte[] payload = new byte[FlightRecording.maxPayloadSize(WIDTH, HEIGHT)];
+        short[] next = frames[0].clone();
+        for (int i = 0; i < next.length; i += 3) {
+            next[i] += 2;
+        }
+        assertEquals(WIDTH * HEIGHT, FlightRecording.encodeFrame(next, frames[0], payload, 0));
+    }
+
+    @Test
+    void writerReaderRoundTrip() throws IOException {
+        short[][] frames = frames();
+        File file = new File(directory, "dump" + FlightRecording.FILE_EXTENSION);
+        long trigger = time(100);
+        try (FlightRecordingWriter writer = new FlightRecordingWriter(file, WIDTH, HEIGHT, FPS, 1234L, trigger)) {
+            writer.writeFrame(frames[0], 0, time(98));
+            writer.writeFrame(frames[1], 0, time(99));
+            writer.writeEvent("exhale started GALE", trigger);
+            writer.writeFrame(frames[2], 0, time(100));
+            writer.writeFrame(frames[3], 2, time(103));  // Two frames lost to the ring
+            assertEquals(4, writer.getFramesWritten());
+        }
+
+        try (FlightRecordingReader reader = new FlightRecordingReader(file)) {
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+            assertEquals(FPS, reader.getFps());
+            assertEquals(1234L, reader.getTriggerMillis());
+            assertEquals(trigger, reader.getTriggerNanos());
+
+            ThermalFrame frame = new ThermalFrame(WIDTH, HEIGHT);
+            long[] sequences = { 0, 1, 2, 5 };
+            long[] times = { time(98), time(99), time(100), time(103) };
+            for (int i = 0; i < frames.length; i++) {
+                assertTrue(reader.readFrame(frame));
+                assertArrayEquals(frames[i], frame.data, "Frame " + i);
+                assertEquals(sequences[i], frame.sequence);
+                assertEquals(times[i], frame.timestampNanos);
+            }
+            assertFalse(reader.readFrame(frame));
+
+            assertEquals(1, reader.getEvents().size());
+            assertEquals("exhale started GALE", reader.getEvents().get(0).reason);
+            assertEquals(trigger, reader.getEvents().get(0).timestampNanos);
+        }
+    }
+
+    @Test
+    void truncatedDumpReadsUpToItsLastWholeFrame() throws IOException {
+        short[][] frames = frames();
+        File file = new File(directory, "cut" + FlightRecording.FILE_EXTENSION);
+        long[] ends = new long[frames.length];
+        try (FlightRecordingWriter writer = new FlightRecordingWriter(file, WIDTH, HEIGHT, FPS, 0, time(0))) {
+            for (int i = 0; i < frames.length; i++) {
+                writer.writeFrame(frames[i], 0, time(i));
+                ends[i] = writer.getBytesWritten();
+            }
+        }
+
+        // Cut inside the third frame's record
+        try (RandomAccessFile cut = new RandomAccessFile(file, "rw")) {
+            cut.setLength((ends[1] + ends[2]) / 2);
+        }
+        try (FlightRecordingReader reader = new FlightRecordingReader(file)) {
+            ThermalFrame frame = new ThermalFrame(WIDTH, HEIGHT);
+            assertTrue(reader.readFrame(frame));
+            assertTrue(reader.readFrame(frame));
+            assertArrayEquals(frames[1], frame.data);
+            assertFalse(reader.readFrame(frame));
+        }
+    }
+
+    /// The camera stops before the post-trigger window is over: the dump has what there was
+    @Test
+    void recorderDumpsAPartialPostTriggerWindow() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        File[] dump = new File[1];
+        FlightRecorder recorder = new FlightRecorder(WIDTH, HEIGHT, FPS, 1, 2, directory, "camera0", 5,
+                new FlightRecorder.Listener() {
+                    @Override
+                    public void onDumpWritten(File file, String reasons, long frames, long bytes) {
+                        dump[0] = file;
+                        written.countDown();
+                    }
+
+                    @Override
+                    public void onDumpFailed(File file, IOException e) {
+                    }
+                });
+
+        short[][] frames = SyntheticFrames.breathing(WIDTH, HEIGHT, 60, 54, 3, 4);
+        for (int i = 0; i < 50; i++) {
+            recorder.add(frames[i], i, time(i));
+        }
+        assertTrue(recorder.trigger("test"));
+        for (int i = 50; i < 60; i++) {
+            recorder.add(frames[i], i, time(i));
+        }
+        recorder.close();
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        assertNotNull(dump[0]);
+
+        int first = 0;
+        while (time(first) < time(49) - 1_000_000_000L) {
+            first++;
+        }
+        try (FlightRecordingReader reader = new FlightRecordingReader(dump[0])) {
+            assertEquals(time(49), reader.getTriggerNanos());
+            ThermalFrame frame = new ThermalFrame(WIDTH, HEIGHT);
+            for (int i = first; i < 60; i++) {
+                assertTrue(reader.readFrame(frame), "Frame " + i);
+                assertArrayEquals(frames[i], frame.data, "Frame " + i);
+                assertEquals(time(i), frame.timestampNanos);
+            }
+            assertFalse(reader.readFrame(frame));
+            assertEquals("test", reader.getEvents().get(0).reason);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/// The OpenCV comparison is FrameKernelOpenCvTest in the benchmark module, which has OpenCV
+class FrameKernelTest {
+
+    @Test
+    void fmaRoundsOnce() {
+        Random random = new Random(12);
+        for (int i = 0; i < 1_000_000; i++) {
+            float a, b, c;
+            if (i % 2 == 0) {
+                // A moving average update
+                a = random.nextInt(1024) / 64f - (float) random.nextGaussian() - 40;
+                b = 0.1f;
+                c = (float) random.nextGaussian() * 4;
+            } else {
+                // Any floats at all
+                a = Float.intBitsToFloat(random.nextInt());
+                b = Float.intBitsToFloat(random.nextInt());
+                c = Float.intBitsToFloat(random.nextInt());
+            }
+            assertEquals(Math.fma(a, b, c), FrameKernel.fma(a, b, c), a + " * " + b + " + " + c);
+        }
+    }
+
+    @Test
+    void fmaAvoidsDoubleRounding() {
+        // The exact result, 1 + 2^-23 + 2^-24 - 2^-70, is just below halfway between two floats. Its
+        // double rounding is exactly halfway, which would then round up to the even float.
+        float a = 1 + 0x1p-23f;
+        float b = 0x1.fffffcp-25f;  // 2^-24 * (1 - 2^-23)
+        float c = 1 + 0x1p-23f;
+        assertEquals(1 + 0x1p-23f, Math.fma(a, b, c));
+        assertEquals(1 + 0x1p-23f, FrameKernel.fma(a, b, c));
+        assertEquals(-1 - 0x1p-23f, FrameKernel.fma(-a, b, -c));
+    }
+}
@@ -0,0 +1,120 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    private static final long TOP_MICROS = 1L << 41;   // Where the last bucket ends
+
+    @Test
+    void belowFourMicrosEveryMicrosecondHasABucket() {
+        for (long micros = 0; micros < 4; micros++) {
+            assertEquals(micros, LatencyHistogram.bucketOf(micros));
+            assertEquals((micros + 1) * 1000, LatencyHistogram.upperBoundNanos((int) micros));
+        }
+        assertEquals(0, LatencyHistogram.bucketOf(-3));
+
+        // 3999 ns is in the 3 us bucket, whose bound is 4 us
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3999);
+        histogram.record(-5);   // Counted as 0
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.count);
+        assertEquals(1000, snapshot.getPercentileNanos(0.5));
+        assertEquals(3999, snapshot.getPercentileNanos(1));   // The 4 us bound, capped at the max
+    }
+
+    @Test
+    void powersOfTwoStartABucket() {
+        for (int exponent = 2; exponent <= 40; exponent++) {
+            long power = 1L << exponent;
+            int bucket = LatencyHistogram.bucketOf(power);
+            assertEquals(exponent * 4, bucket, "2^" + exponent);
+            // Below 4 us the buckets are one microsecond each, so 4 to 7 (for 2^1) are never used
+            int below = exponent == 2 ? 3 : bucket - 1;
+            assertEquals(below, LatencyHistogram.bucketOf(power - 1), "2^" + exponent + " - 1");
+            assertEquals(power * 1000, LatencyHistogram.upperBoundNanos(below), "2^" + exponent);
+            // Four buckets a quarter of the power wide
+            assertEquals((power + power / 4) * 1000, LatencyHistogram.upperBoundNanos(bucket));
+            assertEquals(bucket + 3, LatencyHistogram.bucketOf(2 * power - 1));
+        }
+    }
+
+    @Test
+    void bucketsMeetAtTheirBounds() {
+        for (int bucket = 8; bucket < LatencyHistogram.BUCKETS - 1; bucket++) {
+            long bound = LatencyHistogram.upperBoundNanos(bucket) / 1000;
+            assertEquals(bucket, LatencyHistogram.bucketOf(bound - 1), "Below the bound of " + bucket);
+            assertEquals(bucket + 1, LatencyHistogram.bucketOf(bound), "At the bound of " + bucket);
+        }
+    }
+
+    @Test
+    void longDurationsGoInTheTopBucket() {
+        int top = LatencyHistogram.BUCKETS - 1;
+        assertEquals(TOP_MICROS * 1000, LatencyHistogram.upperBoundNanos(top));
+        assertEquals(top, LatencyHistogram.bucketOf(TOP_MICROS - 1));
+        assertEquals(top, LatencyHistogram.bucketOf(TOP_MICROS));
+        assertEquals(top, LatencyHistogram.bucketOf(Long.MAX_VALUE / 1000));
+
+        // A duration past the top bucket reports that bucket's bound, below the max
+        LatencyHistogram histogram = new LatencyHistogram();
+        long huge = TOP_MICROS * 4 * 1000;
+        histogram.record(1000);
+        histogram.record(huge);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(huge, snapshot.maxNanos);
+        assertEquals(TOP_MICROS * 1000, snapshot.getPercentileNanos(1));
+    }
+
+    @Test
+    void percentilesAreWithinABucketOfTheSortedValues() {
+        Random random = new Random(16);
+        int n = 100_000;
+        long[] values = new long[n];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < n; i++) {
+            // Log-uniform from 100 ns to 10 s
+            values[i] = (long) Math.pow(10, 2 + random.nextDouble() * 8);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(n, snapshot.count);
+        assertEquals(values[n - 1], snapshot.maxNanos);
+        for (double q : new double[] {0, 0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1}) {
+            long expected = values[Math.max(0, (int) Math.ceil(q * n) - 1)];
+            long actual = snapshot.getPercentileNanos(q);
+            // The bound of the value's bucket: the next whole microsecond below 4 us, at most 25% up after
+            long limit = expected < 4000 ? (expected / 1000 + 1) * 1000 : expected + expected / 4;
+            assertTrue(actual >= expected && actual <= limit, q + ": " + actual + " for " + expected);
+            assertTrue(actual <= snapshot.maxNanos, q + ": " + actual + " above the max");
+        }
+    }
+
+    @Test
+    void percentilesAreCappedAtTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getPercentileNanos(0.5));
+
+        // 5.1 ms is in the bucket from 4096 to 5120 us
+        histogram.record(5_100_000);
+        histogram.record(5_000_000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(5_120_000, LatencyHistogram.upperBoundNanos(LatencyHistogram.bucketOf(5100)));
+        assertEquals(5_100_000, snapshot.getPercentileNanos(0.5));
+        assertEquals(5_100_000, snapshot.getPercentileNanos(1));
+        assertEquals(5_050_000, snapshot.getMeanNanos(), 0);
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+        assertEquals(0, histogram.snapshot().getPercentileNanos(1));
+    }
+}
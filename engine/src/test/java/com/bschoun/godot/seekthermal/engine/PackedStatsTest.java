@@ -0,0 +1,152 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/// Records of real detector states, checked field by field through FIELD_NAMES
+class PackedStatsTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAMES = 192;   // A whole number of batches
+    private static final int DECIMATION = 3;
+    private static final int BATCH = 4;
+
+    private static final ExhaleDetector.Listener NO_EXHALES = new ExhaleDetector.Listener() {
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {}
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {}
+    };
+
+    @Test
+    void layoutMatchesFieldNames() {
+        assertEquals(PackedStats.STRIDE, PackedStats.FIELD_NAMES.length);
+        assertEquals("sequence", PackedStats.FIELD_NAMES[PackedStats.SEQUENCE]);
+        assertEquals("time", PackedStats.FIELD_NAMES[PackedStats.TIME]);
+        assertEquals("frameInterval", PackedStats.FIELD_NAMES[PackedStats.FRAME_INTERVAL]);
+        assertEquals("processingTime", PackedStats.FIELD_NAMES[PackedStats.PROCESSING_TIME]);
+        assertEquals("minValue", PackedStats.FIELD_NAMES[PackedStats.MIN_VALUE]);
+        assertEquals("minX", PackedStats.FIELD_NAMES[PackedStats.MIN_X]);
+        assertEquals("minY", PackedStats.FIELD_NAMES[PackedStats.MIN_Y]);
+        assertEquals("maxValue", PackedStats.FIELD_NAMES[PackedStats.MAX_VALUE]);
+        assertEquals("maxX", PackedStats.FIELD_NAMES[PackedStats.MAX_X]);
+        assertEquals("maxY", PackedStats.FIELD_NAMES[PackedStats.MAX_Y]);
+        assertEquals("diffMin", PackedStats.FIELD_NAMES[PackedStats.DIFF_MIN]);
+        assertEquals("diffMax", PackedStats.FIELD_NAMES[PackedStats.DIFF_MAX]);
+        assertEquals("midrange", PackedStats.FIELD_NAMES[PackedStats.MIDRANGE]);
+        assertEquals("iqrMaxDiff", PackedStats.FIELD_NAMES[PackedStats.IQR_MAX_DIFF]);
+        assertEquals("exhaling", PackedStats.FIELD_NAMES[PackedStats.EXHALING]);
+        assertEquals("exhaleType", PackedStats.FIELD_NAMES[PackedStats.EXHALE_TYPE]);
+        assertEquals("classify", PackedStats.FIELD_NAMES[PackedStats.CLASSIFY]);
+        assertEquals("exhaleTime", PackedStats.FIELD_NAMES[PackedStats.EXHALE_TIME]);
+    }
+
+    @Test
+    void packsDecimatedBatches() {
+        short[][] frames = SyntheticFrames.breathing(WIDTH, HEIGHT, FRAMES, 54, 3, 15);
+        byte[] mask = SyntheticFrames.diskMask(WIDTH, HEIGHT);
+        ExhaleDetector detector = new ExhaleDetector(WIDTH, HEIGHT, NO_EXHALES);
+        PackedStats stats = new PackedStats(DECIMATION, BATCH);
+
+        List<Map<String, Float>> expected = new ArrayList<>();
+        long start = 0;
+        long previous = 0;
+        long timestamp = 5_000_000_000L;
+        int batches = 0;
+        boolean exhaled = false;
+        boolean classified = false;
+        for (int i = 0; i < FRAMES; i++) {
+            // Uneven intervals, so FRAME_INTERVAL has to be this frame's own
+            timestamp += 37_000_000L + (i % 5) * 1_000_000L;
+            long sequence = 1000 + i;
+            long processing = 2_000_000L + i * 1000L;
+            if (i == 0) {
+                start = timestamp;
+            }
+            detector.process(frames[i], mask, timestamp);
+
+            boolean full = stats.add(detector, sequence, timestamp, processing);
+            if (i % DECIMATION == 0) {
+                Map<String, Float> record = new LinkedHashMap<>();
+                record.put("sequence", (float) sequence);
+                record.put("time", (timestamp - start) / 1e9f);
+                record.put("frameInterval", i == 0 ? 0 : (timestamp - previous) / 1e9f);
+                record.put("processingTime", processing / 1e9f);
+                MaskedMinMax frame = detector.getFrameMinMax();
+                record.put("minValue", frame.minVal);
+                record.put("minX", (float) frame.minX);
+                record.put("minY", (float) frame.minY);
+                record.put("maxValue", frame.maxVal);
+                record.put("maxX", (float) frame.maxX);
+                record.put("maxY", (float) frame.maxY);
+                MaskedMinMax diff = detector.getDiffMinMax();
+                record.put("diffMin", diff.minVal);
+                record.put("diffMax", diff.maxVal);
+                record.put("midrange", detector.getMidrange());
+                record.put("iqrMaxDiff", detector.getIqrMaxDiff());
+                record.put("exhaling", detector.isExhaling() ? 1f : 0f);
+                record.put("exhaleType", (float) detector.getExhaleType().ordinal());
+                record.put("classify", detector.shouldClassify() ? 1f : 0f);
+                record.put("exhaleTime", detector.isExhaling()
+                        ? (timestamp - detector.getExhaleStartTime()) / 1e9f : 0f);
+                expected.add(record);
+                exhaled |= detector.isExhaling();
+                classified |= detector.shouldClassify();
+            }
+            previous = timestamp;
+
+            // Every BATCH recorded frames fill a batch, oldest first
+            assertEquals(i % (DECIMATION * BATCH) == DECIMATION * (BATCH - 1), full, "Frame " + i);
+            if (full) {
+                assertBatch(expected.subList(batches * BATCH, (batches + 1) * BATCH), stats.getBuffer());
+                batches++;
+            }
+        }
+        assertEquals(FRAMES / (DECIMATION * BATCH), batches);
+        // The synthetic breaths are strong enough to exercise the exhale fields
+        assertTrue(exhaled, "Never exhaling");
+        assertTrue(classified, "Never classified");
+
+        // The next recorded frame goes first in the new batch; the rest is left from the last one
+        float[] before = stats.getBuffer().clone();
+        timestamp += 40_000_000L;
+        assertFalse(stats.add(detector, 1000 + FRAMES, timestamp, 0));
+        float[] after = stats.getBuffer();
+        assertEquals(1000 + FRAMES, after[PackedStats.SEQUENCE]);
+        assertEquals((timestamp - start) / 1e9f, after[PackedStats.TIME]);
+        assertEquals(0.04f, after[PackedStats.FRAME_INTERVAL], 1e-6f);
+        assertArrayEquals(Arrays.copyOfRange(before, PackedStats.STRIDE, before.length),
+                Arrays.copyOfRange(after, PackedStats.STRIDE, after.length));
+
+        // After a reset the next frame is time 0, with no interval, and starts a batch
+        stats.reset();
+        assertFalse(stats.add(detector, 5000, timestamp + 1_000_000_000L, 0));
+        assertEquals(5000, after[PackedStats.SEQUENCE]);
+        assertEquals(0, after[PackedStats.TIME]);
+        assertEquals(0, after[PackedStats.FRAME_INTERVAL]);
+    }
+
+    private static void assertBatch(List<Map<String, Float>> records, float[] buffer) {
+        assertEquals(BATCH * PackedStats.STRIDE, buffer.length);
+        for (int r = 0; r < records.size(); r++) {
+            Map<String, Float> record = records.get(r);
+            assertEquals(PackedStats.STRIDE, record.size());
+            for (int field = 0; field < PackedStats.STRIDE; field++) {
+                String name = PackedStats.FIELD_NAMES[field];
+                assertEquals(record.get(name), buffer[r * PackedStats.STRIDE + field], "Record " + r + " " + name);
+            }
+        }
+    }
+}
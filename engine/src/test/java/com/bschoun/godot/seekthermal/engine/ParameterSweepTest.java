@@ -0,0 +1,143 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/// Scoring detections against labels, on a hand-built feature trace, and reading label files
+class ParameterSweepTest {
+
+    private static final int FPS = 27;
+    private static final long SECOND = 1_000_000_000L;
+
+    @TempDir
+    File directory;
+
+    /// 20 seconds of features: quiet, apart from exhales (midrange above the start threshold) at
+    /// the given times, each with an IQR fence that classifies it as the given type
+    private static final class Trace {
+        final long[] timestamps = new long[20 * FPS];
+        final float[] midrange = new float[timestamps.length];
+        final float[] iqrMaxDiff = new float[timestamps.length];
+
+        Trace() {
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = i * SECOND / FPS;
+            }
+            Arrays.fill(midrange, -0.5f);
+        }
+
+        Trace exhale(double start, double end, ExhaleType type) {
+            float fence = type == ExhaleType.GALE ? -0.5f : 3;
+            for (int i = (int) Math.round(start * FPS); i < Math.round(end * FPS); i++) {
+                midrange[i] = 1;
+                iqrMaxDiff[i] = fence;
+            }
+            return this;
+        }
+    }
+
+    private static ExhaleLabels.Interval label(double start, double end, ExhaleType type) {
+        return new ExhaleLabels.Interval(Math.round(start * SECOND), Math.round(end * SECOND), type);
+    }
+
+    @Test
+    void countsMatchesMissesAndTypes() {
+        Trace trace = new Trace()
+                .exhale(2, 3, ExhaleType.GALE)      // Matches a GALE label
+                .exhale(6, 7, ExhaleType.WAFT)      // Matches a label of the other type
+                .exhale(10, 13, ExhaleType.WAFT)    // Overlaps two labels, matches only the first
+                .exhale(16, 16.5, ExhaleType.WAFT); // No label
+        ExhaleLabels labels = new ExhaleLabels(List.of(
+                label(12, 13, null),                // The second label of the long detection
+                label(2, 3, ExhaleType.GALE),
+                label(6, 7, ExhaleType.GALE),
+                label(10, 11, ExhaleType.WAFT),
+                label(18, 19, null)));              // Not detected
+
+        ParameterSweep.Result result = ParameterSweep.score(DetectorConfig.DEFAULT, labels, trace.timestamps,
+                trace.midrange, trace.iqrMaxDiff);
+
+        assertEquals(4, result.detected);
+        assertEquals(3, result.truePositives);
+        assertEquals(1, result.falsePositives);
+        assertEquals(2, result.falseNegatives);
+        assertEquals(2, result.typeMatches);
+        assertEquals(0.75, result.getPrecision(), 1e-9);
+        assertEquals(0.6, result.getRecall(), 1e-9);
+        assertEquals(6 / 9.0, result.getF1(), 1e-9);
+        assertEquals(2 / 3.0, result.getTypeAccuracy(), 1e-9);
+
+        // Detections start on the first frame at or after the labelled start
+        assertTrue(result.meanStartErrorSeconds < 1.0 / FPS, "Start error " + result.meanStartErrorSeconds);
+    }
+
+    @Test
+    void noDetectionsScoreZero() {
+        Trace trace = new Trace();
+        ExhaleLabels labels = new ExhaleLabels(List.of(label(2, 3, ExhaleType.GALE)));
+        ParameterSweep.Result result = ParameterSweep.score(DetectorConfig.DEFAULT, labels, trace.timestamps,
+                trace.midrange, trace.iqrMaxDiff);
+        assertEquals(0, result.detected);
+        assertEquals(0, result.truePositives);
+        assertEquals(1, result.falseNegatives);
+        assertEquals(0, result.getF1());
+    }
+
+    @Test
+    void exhaleStillGoingAtTheEndCounts() {
+        Trace trace = new Trace().exhale(19.5, 20, ExhaleType.GALE);
+        ExhaleLabels labels = new ExhaleLabels(List.of(label(19.5, 20, ExhaleType.GALE)));
+        ParameterSweep.Result result = ParameterSweep.score(DetectorConfig.DEFAULT, labels, trace.timestamps,
+                trace.midrange, trace.iqrMaxDiff);
+        assertEquals(1, result.truePositives);
+        assertEquals(1, result.typeMatches);
+    }
+
+    private File write(String text) throws IOException {
+        File file = new File(directory, "labels.csv");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    void readsLabels() throws IOException {
+        ExhaleLabels labels = ExhaleLabels.read(write(
+                "# start, end, type\n"
+                + "\n"
+                + "9.10, 10.40, waft\n"
+                + "  3.20,4.85, GALE  \n"
+                + "15.0, 16.2\n"
+                + "17, 18,\n"));
+        assertEquals(4, labels.size());
+
+        ExhaleLabels.Interval first = labels.getIntervals().get(0);
+        assertEquals(3_200_000_000L, first.startNanos);
+        assertEquals(4_850_000_000L, first.endNanos);
+        assertEquals(ExhaleType.GALE, first.type);
+        assertEquals(ExhaleType.WAFT, labels.getIntervals().get(1).type);
+        assertNull(labels.getIntervals().get(2).type);
+        assertNull(labels.getIntervals().get(3).type);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "3.2", "three, 4", "1, 2, SIGH", "5, 4, GALE", ",", "1;2" })
+    void rejectsMalformedLines(String line) throws IOException {
+        File file = write("1, 2, GALE\n" + line + "\n");
+        IOException e = assertThrows(IOException.class, () -> ExhaleLabels.read(file));
+        assertTrue(e.getMessage().contains(":2:"), e.getMessage());
+    }
+}
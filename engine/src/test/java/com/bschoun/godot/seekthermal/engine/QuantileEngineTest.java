@@ -0,0 +1,193 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/// Both modes against a sorted copy of the values, with nearest-rank quartiles
+class QuantileEngineTest {
+
+    private static final int SIZE = 206 * 156;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    /// The smallest value with at least q * n values at or below it
+    private static float nearestRank(float[] values, int n, double q) {
+        float[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        int k = (int) Math.ceil(q * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, k))];
+    }
+
+    private static byte[] everyPixel(int n) {
+        byte[] mask = new byte[n];
+        Arrays.fill(mask, (byte) 1);
+        return mask;
+    }
+
+    @ParameterizedTest
+    @EnumSource(QuantileEngine.Mode.class)
+    void emptyMaskGivesZero(QuantileEngine.Mode mode) {
+        QuantileEngine engine = new QuantileEngine(SIZE, mode);
+        assertEquals(0, engine.gather(new float[SIZE], new byte[SIZE]));
+        engine.compute();
+        assertEquals(0, engine.getQ1());
+        assertEquals(0, engine.getQ3());
+        assertEquals(0, engine.getUpperFence());
+    }
+
+    @ParameterizedTest
+    @EnumSource(QuantileEngine.Mode.class)
+    void singlePixelIsBothQuartiles(QuantileEngine.Mode mode) {
+        float[] data = new float[SIZE];
+        byte[] mask = new byte[SIZE];
+        data[1234] = -3.5f;
+        data[1235] = 100;  // Outside the mask
+        mask[1234] = 1;
+        QuantileEngine engine = new QuantileEngine(SIZE, mode);
+        assertEquals(1, engine.gather(data, mask));
+        engine.compute();
+        assertEquals(-3.5f, engine.getQ1());
+        assertEquals(-3.5f, engine.getQ3());
+        assertEquals(-3.5f, engine.getUpperFence());
+    }
+
+    @ParameterizedTest
+    @EnumSource(QuantileEngine.Mode.class)
+    void allEqualValuesHaveNoSpread(QuantileEngine.Mode mode) {
+        float[] data = new float[SIZE];
+        Arrays.fill(data, 0.75f);
+        QuantileEngine engine = new QuantileEngine(SIZE, mode);
+        engine.gather(data, everyPixel(SIZE));
+        engine.compute();
+        assertEquals(0.75f, engine.getQ1());
+        assertEquals(0.75f, engine.getQ3());
+        assertEquals(0, engine.getIqr());
+    }
+
+    @Test
+    void exactMatchesNearestRank() {
+        Random random = new Random(3);
+        QuantileEngine engine = new QuantileEngine(SIZE, QuantileEngine.Mode.EXACT);
+        for (int n : new int[] { 2, 3, 4, 5, 7, 8, 100, 1001, SIZE }) {
+            float[] data = new float[n];
+            for (int i = 0; i < n; i++) {
+                // Few distinct values, so there are plenty of ties
+                data[i] = random.nextInt(50) * 0.25f - 5;
+            }
+            engine.gather(data, everyPixel(n));
+            engine.compute();
+            assertEquals(nearestRank(data, n, 0.25), engine.getQ1(), "Q1 of " + n);
+            assertEquals(nearestRank(data, n, 0.75), engine.getQ3(), "Q3 of " + n);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(QuantileEngine.Mode.class)
+    void extremeValues(QuantileEngine.Mode mode) {
+        float[] data = new float[SIZE];
+        Random random = new Random(5);
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = (float) random.nextGaussian();
+        }
+        data[10] = -Float.MAX_VALUE;
+        data[20] = Float.MAX_VALUE;
+        data[30] = Float.MAX_VALUE;
+        QuantileEngine engine = new QuantileEngine(SIZE, mode);
+        engine.gather(data, everyPixel(SIZE));
+        engine.compute();
+
+        // Too wide a range to bin, so both modes are exact
+        assertEquals(nearestRank(data, SIZE, 0.25), engine.getQ1());
+        assertEquals(nearestRank(data, SIZE, 0.75), engine.getQ3());
+    }
+
+    @Test
+    void histogramIsWithinOneBin() {
+        assertWithinOneBin(StripeRunner.SERIAL);
+    }
+
+    @Test
+    void stripedHistogramIsWithinOneBinAndMatchesSerial() {
+        StripeRunner stripes = new StripeRunner(pool, 3);
+        assertWithinOneBin(stripes);
+
+        float[] data = skewed(new Random(11), SIZE);
+        QuantileEngine serial = new QuantileEngine(SIZE, QuantileEngine.Mode.HISTOGRAM);
+        QuantileEngine striped = new QuantileEngine(SIZE, QuantileEngine.Mode.HISTOGRAM,
+                QuantileEngine.DEFAULT_BINS, stripes);
+        serial.gather(data, everyPixel(SIZE));
+        striped.gather(data, everyPixel(SIZE));
+        serial.compute();
+        striped.compute();
+        assertEquals(serial.getQ1(), striped.getQ1());
+        assertEquals(serial.getQ3(), striped.getQ3());
+    }
+
+    private static void assertWithinOneBin(StripeRunner stripes) {
+        Random random = new Random(7);
+        QuantileEngine engine = new QuantileEngine(SIZE, QuantileEngine.Mode.HISTOGRAM,
+                QuantileEngine.DEFAULT_BINS, stripes);
+        byte[] mask = SyntheticFrames.diskMask(206, 156);
+        for (int trial = 0; trial < 20; trial++) {
+            float[] data = trial % 2 == 0 ? skewed(random, SIZE) : uniform(random, SIZE);
+            int n = engine.gather(data, mask);
+
+            // The same values the engine gathered, in the same order
+            float[] masked = new float[n];
+            for (int i = 0, k = 0; i < SIZE; i++) {
+                if (mask[i] != 0) {
+                    masked[k++] = data[i];
+                }
+            }
+            float[] sorted = masked.clone();
+            Arrays.sort(sorted);
+            float binWidth = (sorted[n - 1] - sorted[0]) / QuantileEngine.DEFAULT_BINS;
+            float tolerance = binWidth * 1.0001f;
+
+            engine.compute();
+            float q1 = nearestRank(masked, n, 0.25);
+            float q3 = nearestRank(masked, n, 0.75);
+            assertTrue(Math.abs(engine.getQ1() - q1) <= tolerance,
+                    "Q1 " + engine.getQ1() + " vs " + q1 + ", bin width " + binWidth);
+            assertTrue(Math.abs(engine.getQ3() - q3) <= tolerance,
+                    "Q3 " + engine.getQ3() + " vs " + q3 + ", bin width " + binWidth);
+        }
+    }
+
+    /// Like a difference image: mostly small noise, with a warm tail
+    private static float[] skewed(Random random, int n) {
+        float[] data = new float[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = (float) (random.nextGaussian() * 0.1 + (random.nextInt(10) == 0 ? random.nextDouble() * 4 : 0));
+        }
+        return data;
+    }
+
+    private static float[] uniform(Random random, int n) {
+        float[] data = new float[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = random.nextFloat() * 20 - 10;
+        }
+        return data;
+    }
+}
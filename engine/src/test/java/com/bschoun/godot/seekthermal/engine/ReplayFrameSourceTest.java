@@ -0,0 +1,75 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// An unpaced replay into a slower stage must still get every frame through, in order
+class ReplayFrameSourceTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+    private static final int FRAMES = 100;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void unpacedReplayWaitsForTheStage() throws IOException, InterruptedException {
+        short[][] frames = SyntheticFrames.breathing(WIDTH, HEIGHT, FRAMES, 54, 3, 10);
+        File file = new File(directory, "replay" + ThermalRecording.FILE_EXTENSION);
+        try (ThermalRecordingWriter writer = new ThermalRecordingWriter(file, WIDTH, HEIGHT, 27)) {
+            for (int i = 0; i < FRAMES; i++) {
+                writer.write(frames[i], i * 37_037_037L);
+            }
+        }
+
+        List<Long> sequences = new ArrayList<>();
+        List<short[]> received = new ArrayList<>();
+        PipelineStage<ThermalFrame> stage = new PipelineStage<ThermalFrame>("test-analysis",
+                () -> new ThermalFrame(WIDTH, HEIGHT)) {
+            @Override
+            protected void process(ThermalFrame frame) {
+                sequences.add(frame.sequence);
+                received.add(frame.data.clone());
+                try {
+                    Thread.sleep(1);  // Slower than reading the recording
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        stage.start();
+
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(file)) {
+            ReplayFrameSource replay = new ReplayFrameSource(reader, frame -> {
+                ThermalFrame next = stage.getInput().acquire();
+                System.arraycopy(frame.data, 0, next.data, 0, next.data.length);
+                next.sequence = frame.sequence;
+                stage.getInput().publish();
+                stage.getInput().awaitTaken();
+            }, false, false);
+            replay.run();
+        }
+
+        // Every frame has been taken; wait for the stage to finish the last one
+        while (stage.getProcessedCount() + stage.getDroppedCount() < FRAMES) {
+            Thread.sleep(1);
+        }
+        stage.stop();
+
+        assertEquals(0, stage.getDroppedCount());
+        assertEquals(FRAMES, sequences.size());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i, sequences.get(i));
+            assertArrayEquals(frames[i], received.get(i), "Frame " + i);
+        }
+    }
+}
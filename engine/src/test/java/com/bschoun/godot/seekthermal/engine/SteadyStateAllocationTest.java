@@ -0,0 +1,95 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/// Processing a frame once the detector is set up must not allocate, so long sessions don't churn
+/// the garbage collector
+class SteadyStateAllocationTest {
+
+    // The Seek Compact's sensor
+    private static final int WIDTH = 206;
+    private static final int HEIGHT = 156;
+
+    // Until the JIT has settled: while it recompiles, deoptimized code can briefly allocate objects
+    // that compiled code had optimized away
+    private static final int WARM_UP_FRAMES = 10_000;
+    private static final int FRAMES = 10_000;
+
+    @TempDir
+    File directory;
+
+    private int started;
+    private int ended;
+
+    private final ExhaleDetector.Listener listener = new ExhaleDetector.Listener() {
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {
+            started++;
+        }
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {
+            ended++;
+        }
+    };
+
+    @ParameterizedTest
+    @EnumSource(QuantileEngine.Mode.class)
+    void replayedFramesDoNotAllocate(QuantileEngine.Mode mode) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported(), "This JVM can't count allocations");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] mask = SyntheticFrames.diskMask(WIDTH, HEIGHT);
+        short[][] frames = SyntheticFrames.breathing(WIDTH, HEIGHT, 4 * 54, 54, 3, 1);
+        ExhaleDetector detector = new ExhaleDetector(WIDTH, HEIGHT, DetectorConfig.DEFAULT, mode, listener);
+
+        // The replay path also feeds the flight recorder, which mustn't allocate until it dumps
+        FlightRecorder recorder = new FlightRecorder(WIDTH, HEIGHT, 27, 1, 1, directory, "test", 1,
+                new FlightRecorder.Listener() {
+                    @Override
+                    public void onDumpWritten(File file, String reasons, long frames, long bytes) {
+                    }
+
+                    @Override
+                    public void onDumpFailed(File file, IOException e) {
+                    }
+                });
+
+        long sequence = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; i++, sequence++) {
+            replay(detector, recorder, frames, mask, sequence);
+        }
+        int startedBefore = started;
+
+        // Measure the measuring, in case reading the counter costs something itself
+        long overhead = threads.getCurrentThreadAllocatedBytes();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        overhead = before - overhead;
+        for (int i = 0; i < FRAMES; i++, sequence++) {
+            replay(detector, recorder, frames, mask, sequence);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - overhead;
+        recorder.close();
+
+        assertEquals(0, allocated, "Bytes allocated over " + FRAMES + " frames");
+        assertTrue(started > startedBefore && ended > 0, "The frames should have exhales in them");
+    }
+
+    private static void replay(ExhaleDetector detector, FlightRecorder recorder, short[][] frames, byte[] mask,
+                               long sequence) {
+        short[] frame = frames[(int) (sequence % frames.length)];
+        long timestamp = sequence * 1_000_000_000L / 27;
+        detector.process(frame, mask, timestamp);
+        recorder.add(frame, sequence, timestamp);
+    }
+}
@@ -0,0 +1,114 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/// Splitting the kernel and the IQR histogram over threads must give exactly what one thread does
+class StripedDetectorTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 960;
+    private static final int FRAMES = 16;
+    private static final int STRIPES = 4;
+
+    private static short[][] frames;
+    private static ForkJoinPool pool;
+
+    private static final ExhaleDetector.Listener NO_EXHALES = new ExhaleDetector.Listener() {
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {}
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {}
+    };
+
+    @BeforeAll
+    static void setUp() {
+        frames = SyntheticFrames.breathing(WIDTH, HEIGHT, FRAMES, 8, 3, 20);
+        pool = new ForkJoinPool(STRIPES);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    static Stream<Arguments> masks() {
+        return Stream.of(QuantileEngine.Mode.values()).flatMap(mode -> Stream.of(
+                Arguments.of(mode, "disk", SyntheticFrames.diskMask(WIDTH, HEIGHT)),
+                // Stripe splits move back to the start of a row, so with fewer rows than stripes
+                // the first stripes get nothing
+                Arguments.of(mode, "three rows", rows(400, 3)),
+                Arguments.of(mode, "part of one row", part(700, 100, 50))));
+    }
+
+    @ParameterizedTest(name = "{0}, {1}")
+    @MethodSource("masks")
+    void stripedMatchesSerial(QuantileEngine.Mode mode, String name, byte[] mask) {
+        ExhaleDetector serial = new ExhaleDetector(WIDTH, HEIGHT, DetectorConfig.DEFAULT, mode,
+                StripeRunner.SERIAL, NO_EXHALES);
+        ExhaleDetector striped = new ExhaleDetector(WIDTH, HEIGHT, DetectorConfig.DEFAULT, mode,
+                new StripeRunner(pool, STRIPES), NO_EXHALES);
+
+        for (int i = 0; i < FRAMES; i++) {
+            long timestamp = i * 37_037_037L;
+            serial.process(frames[i], mask, timestamp);
+            striped.process(frames[i], mask, timestamp);
+
+            String frame = "Frame " + i;
+            assertMinMaxEquals(serial.getFrameMinMax(), striped.getFrameMinMax(), frame + " min/max");
+            assertMinMaxEquals(serial.getDiffMinMax(), striped.getDiffMinMax(), frame + " diff min/max");
+            assertArrayEquals(serial.getPreview(), striped.getPreview(), frame + " preview");
+
+            QuantileEngine expected = serial.getDiffQuantiles();
+            QuantileEngine actual = striped.getDiffQuantiles();
+            assertEquals(expected.getCount(), actual.getCount(), frame + " diff count");
+            assertArrayEquals(Arrays.copyOf(expected.getValues(), expected.getCount()),
+                    Arrays.copyOf(actual.getValues(), actual.getCount()), frame + " diff");
+            assertArrayEquals(serial.getKernel().getMovingAverage(), striped.getKernel().getMovingAverage(),
+                    frame + " moving average");
+
+            assertBitsEqual(serial.getMidrange(), striped.getMidrange(), frame + " midrange");
+            assertBitsEqual(expected.getUpperFence(), actual.getUpperFence(), frame + " IQR fence");
+            assertBitsEqual(serial.getIqrMaxDiff(), striped.getIqrMaxDiff(), frame + " IQR max diff");
+        }
+    }
+
+    private static void assertMinMaxEquals(MaskedMinMax expected, MaskedMinMax actual, String message) {
+        assertBitsEqual(expected.minVal, actual.minVal, message);
+        assertBitsEqual(expected.maxVal, actual.maxVal, message);
+        assertEquals(expected.minX, actual.minX, message + " min x");
+        assertEquals(expected.minY, actual.minY, message + " min y");
+        assertEquals(expected.maxX, actual.maxX, message + " max x");
+        assertEquals(expected.maxY, actual.maxY, message + " max y");
+    }
+
+    private static void assertBitsEqual(float expected, float actual, String message) {
+        assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual),
+                message + ": expected " + expected + ", was " + actual);
+    }
+
+    /// count full rows from row first
+    private static byte[] rows(int first, int count) {
+        byte[] mask = new byte[WIDTH * HEIGHT];
+        Arrays.fill(mask, first * WIDTH, (first + count) * WIDTH, (byte) 1);
+        return mask;
+    }
+
+    /// length pixels of row y from x
+    private static byte[] part(int y, int x, int length) {
+        byte[] mask = new byte[WIDTH * HEIGHT];
+        Arrays.fill(mask, y * WIDTH + x, y * WIDTH + x + length, (byte) 1);
+        return mask;
+    }
+}
@@ -0,0 +1,113 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/// Recordings must have every frame, unless the queue overflows, and say how many they lost
+class ThermalRecorderTest {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 24;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void queueKeepsOrderAndDropsOnlyWhenFull() throws InterruptedException {
+        FrameQueue<long[]> queue = new FrameQueue<>(3, () -> new long[1]);
+        for (int i = 0; i < 5; i++) {
+            long[] frame = queue.acquire();
+            if (i < 3) {
+                frame[0] = i;
+                queue.publish();
+            } else {
+                assertNull(frame, "Frame " + i);
+            }
+        }
+        assertEquals(2, queue.getDroppedCount());
+
+        // Taking one makes room for one more, in the spare buffer; the consumer's current one
+        // isn't handed out until it takes the next
+        long[] first = queue.take();
+        assertEquals(0, first[0]);
+        long[] spare = queue.acquire();
+        assertNotSame(first, spare);
+        spare[0] = 3;
+        queue.publish();
+        assertNull(queue.acquire());
+        assertEquals(1, queue.take()[0]);
+        long[] reused = queue.acquire();
+        assertSame(first, reused);
+        reused[0] = 4;
+        queue.publish();
+
+        // Closing drains what's queued
+        queue.close();
+        assertNull(queue.acquire());
+        assertEquals(2, queue.take()[0]);
+        assertEquals(3, queue.take()[0]);
+        assertEquals(4, queue.take()[0]);
+        assertNull(queue.take());
+        assertEquals(3, queue.getDroppedCount());
+    }
+
+    @Test
+    void writesEveryFrameInOrder() throws IOException {
+        short[][] frames = SyntheticFrames.breathing(WIDTH, HEIGHT, 200, 54, 3, 6);
+        File file = new File(directory, "session" + ThermalRecording.FILE_EXTENSION);
+        ThermalRecorder recorder = new ThermalRecorder(file, WIDTH, HEIGHT, 27, 10);
+        for (int i = 0; i < frames.length; i++) {
+            assertTrue(recorder.add(frames[i], i, i * 1000L));
+        }
+        recorder.close();
+        assertEquals(frames.length, recorder.getFramesWritten());
+        assertEquals(0, recorder.getDroppedCount());
+
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(file)) {
+            assertEquals(frames.length, reader.getFrameCount());
+            assertEquals(0, reader.getDroppedFrames());
+            short[] data = new short[WIDTH * HEIGHT];
+            for (int i = 0; i < frames.length; i++) {
+                assertEquals(i * 1000L, reader.readFrame(i, data));
+                assertArrayEquals(frames[i], data, "Frame " + i);
+            }
+        }
+    }
+
+    @Test
+    void overflowIsCountedInTheHeader() throws IOException {
+        short[] frame = new short[WIDTH * HEIGHT];
+        File file = new File(directory, "stalled" + ThermalRecording.FILE_EXTENSION);
+
+        // A queue of one frame, filled faster than a disk can take 10,000 frames
+        ThermalRecorder recorder = new ThermalRecorder(file, WIDTH, HEIGHT, 1, 1);
+        int added = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (recorder.add(frame, i, i)) {
+                added++;
+            }
+        }
+        recorder.close();
+        long dropped = recorder.getDroppedCount();
+        assertTrue(dropped > 0, "Nothing dropped");
+        assertEquals(10_000, added + dropped);
+        assertEquals(added, recorder.getFramesWritten());
+
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(file)) {
+            assertEquals(added, reader.getFrameCount());
+            assertEquals(dropped, reader.getDroppedFrames());
+        }
+        assertFalse(recorder.add(frame, 10_000, 10_000));
+    }
+}
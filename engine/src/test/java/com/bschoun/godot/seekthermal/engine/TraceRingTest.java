@@ -0,0 +1,173 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+class TraceRingTest {
+
+    // One event per line in writeChromeTrace()'s output
+    private static final Pattern EVENT = Pattern.compile(
+            "\\{\"name\":\"(.*)\",\"pid\":1,\"tid\":(\\d+),\"ts\":([0-9.]+),(?:\"ph\":\"X\",\"dur\":([0-9.]+)|\"ph\":\"i\",\"s\":\"t\"),"
+                    + "\"args\":\\{(?:\"frame\":(\\d+))?,?(?:\"detail\":\"(.*)\")?}}");
+
+    private record Event(String name, int track, String ts, String dur, String frame, String detail) {}
+
+    @Test
+    void keepsTheNewestEventsInOrder() throws IOException {
+        TraceRing trace = new TraceRing(4);
+        int track = trace.addTrack("analysis");
+        for (int i = 0; i < 10; i++) {
+            trace.span(track, "frame", 1_000_000L + i * 1000, 1_000_000L + i * 1000 + 500, i);
+        }
+        assertEquals(4, trace.size());
+
+        List<Event> events = parse(trace);
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            Event event = events.get(i);
+            assertEquals(String.valueOf(6 + i), event.frame());
+            // Times are relative to the oldest event held
+            assertEquals(String.format(java.util.Locale.ROOT, "%.3f", i * 1.0), event.ts());
+            assertEquals("0.500", event.dur());
+        }
+
+        trace.clear();
+        assertEquals(0, trace.size());
+        assertEquals(0, parse(trace).size());
+        trace.instant(track, "after", 5, -1, null);
+        assertEquals(1, parse(trace).size());
+    }
+
+    @Test
+    void writesSpansAndInstants() throws IOException {
+        TraceRing trace = new TraceRing(16);
+        int camera = trace.addTrack("camera");
+        int exhale = trace.addTrack("exhale events");
+        assertEquals(camera, trace.addTrack("camera"));
+
+        trace.span(camera, "ingest", 2000, 5000, 3);
+        trace.instant(exhale, "exhale", 4000, -1, "cnn");
+        trace.span(exhale, "backwards", 9000, 8000, -1);   // Clamped to 0
+
+        List<Event> events = parse(trace);
+        assertEquals(3, events.size());
+
+        Event span = events.get(0);
+        assertEquals(new Event("ingest", camera, "0.000", "3.000", "3", null), span);
+        Event instant = events.get(1);
+        assertEquals(new Event("exhale", exhale, "2.000", null, null, "cnn"), instant);
+        Event clamped = events.get(2);
+        assertEquals(new Event("backwards", exhale, "7.000", "0.000", null, null), clamped);
+
+        trace.setEnabled(false);
+        trace.span(camera, "ignored", 0, 1, 0);
+        trace.instant(camera, "ignored", 0, 0, null);
+        assertEquals(3, trace.size());
+    }
+
+    @Test
+    void escapesJson() throws IOException {
+        TraceRing trace = new TraceRing(4);
+        int track = trace.addTrack("cam \"0\"\\");
+        trace.instant(track, "say \"hi\"", 0, 1, "a\\b\nc\td\u0001");
+
+        String json = write(trace);
+        assertTrue(json.contains("\"args\":{\"name\":\"cam \\\"0\\\"\\\\\"}"), json);
+        assertTrue(json.contains("{\"name\":\"say \\\"hi\\\"\""), json);
+        assertTrue(json.contains("\"detail\":\"a\\\\b\\u000ac\\u0009d\\u0001\"}}"), json);
+        // Nothing is left unescaped that would split the event over lines
+        assertEquals(1, parse(trace).size());
+    }
+
+    @Test
+    void concurrentEventsAreNeverTorn() throws Exception {
+        // Each thread's events carry its number in the name, frame and detail, so an event mixed
+        // from two writes shows up as a mismatch
+        int threads = 4;
+        int perThread = 200_000;
+        TraceRing trace = new TraceRing(1024);
+        int track = trace.addTrack("writers");
+        String[] names = new String[threads];
+        String[] details = new String[threads];
+        for (int i = 0; i < threads; i++) {
+            names[i] = "writer " + i;
+            details[i] = "detail " + i;
+        }
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < threads; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long time = writer * 1_000_000_000L + i;
+                    if (i % 2 == 0) {
+                        trace.span(track, names[writer], time, time + writer, writer, details[writer]);
+                    } else {
+                        trace.instant(track, names[writer], time, writer, details[writer]);
+                    }
+                }
+            });
+            writers.add(thread);
+            thread.start();
+        }
+
+        int dumps = 0;
+        boolean running = true;
+        while (running) {
+            running = writers.stream().anyMatch(Thread::isAlive);
+            for (Event event : parse(trace)) {
+                String writer = event.frame();
+                assertEquals("writer " + writer, event.name());
+                assertEquals("detail " + writer, event.detail());
+                if (event.dur() != null) {
+                    assertEquals(String.format(java.util.Locale.ROOT, "%.3f", Integer.parseInt(writer) / 1000.0),
+                            event.dur());
+                }
+            }
+            dumps++;
+        }
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        assertTrue(dumps > 0);
+
+        // An event can be lost if the ring laps a writer that's stalled mid-event, but once the
+        // writers are done it's full again
+        for (int i = 0; i < 1024; i++) {
+            trace.instant(track, "after", i, i, null);
+        }
+        assertEquals(1024, trace.size());
+        List<Event> events = parse(trace);
+        assertEquals(1024, events.size());
+        assertEquals("1023", events.get(1023).frame());
+    }
+
+    private static String write(TraceRing trace) throws IOException {
+        StringWriter out = new StringWriter();
+        trace.writeChromeTrace(out);
+        return out.toString();
+    }
+
+    private static List<Event> parse(TraceRing trace) throws IOException {
+        List<Event> events = new ArrayList<>();
+        for (String line : write(trace).split("\n")) {
+            if (!line.startsWith("{\"name\"") || line.contains("\"ph\":\"M\"")) {
+                continue;
+            }
+            Matcher m = EVENT.matcher(line.endsWith(",") ? line.substring(0, line.length() - 1) : line);
+            assertTrue(m.matches(), line);
+            events.add(new Event(m.group(1), Integer.parseInt(m.group(2)), m.group(3), m.group(4), m.group(5),
+                    m.group(6)));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,58 @@
+package com.bschoun.godot.seekthermal.engine;
+
+import java.util.Random;
+
+/// Made-up thermography for tests and benchmarks: a background at about 30 degrees with sensor
+/// noise, and a warm patch in the middle that comes and goes like a breath on the thin medium
+public final class SyntheticFrames {
+
+    private SyntheticFrames() {}
+
+    /// Raw value of a temperature, the inverse of FrameKernel's calibration
+    public static short raw(float degrees) {
+        return (short) Math.round((degrees + 40) * 64);
+    }
+
+    /// A disk of radius min(width, height) / 2 - 2 around the centre
+    public static byte[] diskMask(int width, int height) {
+        byte[] mask = new byte[width * height];
+        float radius = Math.min(width, height) / 2f - 2;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float dx = x - width / 2f;
+                float dy = y - height / 2f;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    mask[y * width + x] = 1;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * frames frames of a breathing cycle, period frames long: the first half of each has a patch
+     * warmed by up to warmth degrees, the second half doesn't
+     */
+    public static short[][] breathing(int width, int height, int frames, int period, float warmth, long seed) {
+        Random random = new Random(seed);
+        short[][] result = new short[frames][width * height];
+        float patch = Math.min(width, height) / 4f;
+        for (int f = 0; f < frames; f++) {
+            int phase = f % period;
+            float warm = phase < period / 2 ? warmth * (float) Math.sin(Math.PI * phase / (period / 2.0)) : 0;
+            short[] frame = result[f];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    float dx = x - width / 2f;
+                    float dy = y - height / 2f;
+                    float degrees = 30 + (float) random.nextGaussian() * 0.05f;
+                    if (dx * dx + dy * dy <= patch * patch) {
+                        degrees += warm;
+                    }
+                    frame[y * width + x] = raw(degrees);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -10,10 +10,50 @@ signal camera_started
 signal camera_stopped
 signal new_image(image : PackedByteArray)
 #signal new_data(stats: Dictionary, data : PackedFloat32Array)
+# One or more records of STATS_STRIDE floats, oldest first (see set_stats_rate and the STAT_ constants)
 signal new_data(data : PackedFloat32Array)
+# The min/max stats of the newest record, built from new_data
 signal new_stats(stats : Dictionary)
 signal new_class(label : String, displayName : String, score : float, index : int)
 signal exhaling_changed(value : bool, exhale_type : String)
+signal plugin_ready(ok : bool)
+signal trace_written(path : String)
+# Breaths per minute, and 0-1 how clearly that rhythm stands out
+signal breathing_rate(rate : float, confidence : float)
+# A flight recorder dump was written (see set_flight_recorder); reasons are its triggers, comma separated
+signal flight_recorder_dumped(path : String, reasons : String)
+
+# The signals above are for the primary camera (id 0). With several cameras connected, these carry
+# every camera's events along with its id.
+signal camera_state_changed(camera_id : int, state : String)
+signal camera_image(camera_id : int, image : PackedByteArray)
+signal camera_data(camera_id : int, data : PackedFloat32Array)
+signal camera_exhaling_changed(camera_id : int, value : bool, exhale_type : String)
+signal camera_breathing_rate(camera_id : int, rate : float, confidence : float)
+signal camera_flight_recorder_dumped(camera_id : int, path : String, reasons : String)
+
+const PRIMARY_CAMERA := 0
+
+# Layout of each new_data record, matching PackedStats on the Java side
+const STATS_STRIDE := 18
+const STAT_SEQUENCE := 0
+const STAT_TIME := 1
+const STAT_FRAME_INTERVAL := 2
+const STAT_PROCESSING_TIME := 3
+const STAT_MIN_VALUE := 4
+const STAT_MIN_X := 5
+const STAT_MIN_Y := 6
+const STAT_MAX_VALUE := 7
+const STAT_MAX_X := 8
+const STAT_MAX_Y := 9
+const STAT_DIFF_MIN := 10
+const STAT_DIFF_MAX := 11
+const STAT_MIDRANGE := 12
+const STAT_IQR_MAX_DIFF := 13
+const STAT_EXHALING := 14
+const STAT_EXHALE_TYPE := 15
+const STAT_CLASSIFY := 16
+const STAT_EXHALE_TIME := 17
 
 var width : int
 var height : int
@@ -28,54 +68,147 @@ func _ready() -> void:
 		_android_plugin.connect("camera_closed", _on_camera_closed)
 		_android_plugin.connect("camera_started", _on_camera_started)
 		_android_plugin.connect("camera_stopped", _on_camera_stopped)
+		_android_plugin.connect("camera_initialized", _on_camera_initialized)
 		_android_plugin.connect("new_data", _on_new_data)
 		_android_plugin.connect("new_image", _on_new_image)
-		_android_plugin.connect("new_stats", _on_new_stats)
 		_android_plugin.connect("exhaling_changed", _on_exhaling_changed)
+		_android_plugin.connect("plugin_ready", _on_plugin_ready)
+		_android_plugin.connect("trace_written", _on_trace_written)
+		_android_plugin.connect("breathing_rate", _on_breathing_rate)
+		_android_plugin.connect("flight_recorder_dumped", _on_flight_recorder_dumped)
 
 	else:
 		printerr("Couldn't find plugin " + _plugin_name)
 
-func _on_camera_opened() -> void:
-	print("camera connected")
+func _on_camera_opened(camera_id : int) -> void:
+	print("camera ", camera_id, " connected")
+	camera_state_changed.emit(camera_id, "opened")
+	if camera_id != PRIMARY_CAMERA:
+		return
 	width = _android_plugin.getWidth()
 	height = _android_plugin.getHeight()
 	camera_info = _android_plugin.getCameraInfoText()
 	camera_connected.emit(camera_info, width, height)
 
-func _on_exhaling_changed(value : bool, exhale_type : String) -> void:
-	exhaling_changed.emit(value, exhale_type)
+func _on_camera_initialized(camera_id : int) -> void:
+	camera_state_changed.emit(camera_id, "initialized")
+
+func _on_plugin_ready(ok : bool) -> void:
+	print("plugin ready: ", ok)
+	plugin_ready.emit(ok)
+
+func is_ready() -> bool:
+	return _android_plugin.isReady()
+
+func _on_exhaling_changed(camera_id : int, value : bool, exhale_type : String) -> void:
+	camera_exhaling_changed.emit(camera_id, value, exhale_type)
+	if camera_id == PRIMARY_CAMERA:
+		exhaling_changed.emit(value, exhale_type)
 
 func _on_new_class(label : String, displayName : String, score : float, index : int) -> void:
 	new_class.emit(label, displayName, score, index)
 
-func _on_camera_started() -> void:
-	print("camera started")
-	camera_started.emit()
+func _on_camera_started(camera_id : int) -> void:
+	print("camera ", camera_id, " started")
+	camera_state_changed.emit(camera_id, "started")
+	if camera_id == PRIMARY_CAMERA:
+		camera_started.emit()
 
-func _on_camera_stopped() -> void:
-	print("camera stopped")
-	camera_stopped.emit()
+func _on_camera_stopped(camera_id : int) -> void:
+	print("camera ", camera_id, " stopped")
+	camera_state_changed.emit(camera_id, "stopped")
+	if camera_id == PRIMARY_CAMERA:
+		camera_stopped.emit()
 	
-func _on_camera_closed() -> void:
-	print("camera disconnected")
-	camera_disconnected.emit()
+func _on_camera_closed(camera_id : int) -> void:
+	print("camera ", camera_id, " disconnected")
+	camera_state_changed.emit(camera_id, "closed")
+	if camera_id == PRIMARY_CAMERA:
+		camera_disconnected.emit()
 
-func _on_new_image(image : PackedByteArray):
-	new_image.emit(image)
+func _on_new_image(camera_id : int, image : PackedByteArray):
+	camera_image.emit(camera_id, image)
+	if camera_id == PRIMARY_CAMERA:
+		new_image.emit(image)
 
 #func _on_new_data(stats : Dictionary, data : PackedFloat32Array) -> void:
 #	new_data.emit(stats, data)
 
-func _on_new_data(data : PackedFloat32Array) -> void:
+func _on_new_data(camera_id : int, data : PackedFloat32Array) -> void:
+	camera_data.emit(camera_id, data)
+	if camera_id != PRIMARY_CAMERA:
+		return
 	new_data.emit(data)
+	if new_stats.get_connections().is_empty() or data.size() < STATS_STRIDE:
+		return
+	var o := data.size() - STATS_STRIDE
+	new_stats.emit({
+		"maxX": int(data[o + STAT_MAX_X]),
+		"maxY": int(data[o + STAT_MAX_Y]),
+		"maxValue": data[o + STAT_MAX_VALUE],
+		"minX": int(data[o + STAT_MIN_X]),
+		"minY": int(data[o + STAT_MIN_Y]),
+		"minValue": data[o + STAT_MIN_VALUE],
+	})
+
+# Seconds between breathing_rate signals, 0 to stop them
+func set_breathing_rate_interval(seconds : float) -> void:
+	_android_plugin.setBreathingRateInterval(seconds)
+
+# Breaths per minute and 0-1 confidence of the last estimate
+func get_breathing_rate() -> float:
+	return _android_plugin.getBreathingRate()
+
+func get_breathing_rate_confidence() -> float:
+	return _android_plugin.getBreathingRateConfidence()
+
+# Detector settings, e.g. from a ThresholdSweep; used from the next frame
+func set_detector_config(history_seconds : float, exhale_timeout : float, start_threshold : float,
+		end_threshold : float, gale_threshold : float, waft_threshold : float) -> void:
+	_android_plugin.setDetectorConfig(history_seconds, exhale_timeout, start_threshold, end_threshold,
+			gale_threshold, waft_threshold)
 
-func _on_new_stats(stats : Dictionary) -> void:
-	new_stats.emit(stats)
+func get_detector_config() -> Dictionary:
+	return _android_plugin.getDetectorConfig()
+
+# Send the stats of every decimation-th frame, batch_size records per new_data signal
+func set_stats_rate(decimation : int, batch_size : int) -> void:
+	_android_plugin.setStatsRate(decimation, batch_size)
+
+func get_stats_layout() -> PackedStringArray:
+	return _android_plugin.getStatsLayout()
 
 func get_state() -> int:
 	return _android_plugin.getState()
 
+# Multiple cameras: ids of the connected cameras, and per-camera versions of the calls above
+func get_camera_ids() -> PackedInt32Array:
+	return _android_plugin.getCameraIds()
+
+func get_camera_state(camera_id : int) -> int:
+	return _android_plugin.getStateById(camera_id)
+
+func get_camera_width(camera_id : int) -> int:
+	return _android_plugin.getWidthById(camera_id)
+
+func get_camera_height(camera_id : int) -> int:
+	return _android_plugin.getHeightById(camera_id)
+
+func get_camera_info(camera_id : int) -> String:
+	return _android_plugin.getCameraInfoTextById(camera_id)
+
+func start_camera_by_id(camera_id : int) -> void:
+	_android_plugin.startCameraById(camera_id)
+
+func stop_camera_by_id(camera_id : int) -> void:
+	_android_plugin.stopCameraById(camera_id)
+
+func get_camera_preview_image(camera_id : int) -> PackedByteArray:
+	return _android_plugin.getPreviewImageById(camera_id)
+
+func get_camera_metrics(camera_id : int) -> Dictionary:
+	return _android_plugin.getMetricsById(camera_id)
+
 func start_camera() -> void:
 	_android_plugin.setColorPalette(0)
 	_android_plugin.startCamera()
@@ -119,6 +252,69 @@ func set_emissivity(val : float) -> void:
 func get_emissivity() -> float:
 	return _android_plugin.getEmissivity()
 
+# Pull API for preview images: poll once per rendered frame instead of handling new_image
+func get_preview_image() -> PackedByteArray:
+	return _android_plugin.getPreviewImage()
+
+func get_latest_preview_sequence() -> int:
+	return _android_plugin.getLatestPreviewSequence()
+
+func get_preview_image_sequence() -> int:
+	return _android_plugin.getPreviewImageSequence()
+
+func has_new_preview_image() -> bool:
+	return get_latest_preview_sequence() != get_preview_image_sequence()
+
+func set_preview_rate(fps : float) -> void:
+	_android_plugin.setPreviewRate(fps)
+
+func set_image_signal_enabled(enabled : bool) -> void:
+	_android_plugin.setImageSignalEnabled(enabled)
+
+# Frame counts, measured vs expected FPS, and latency percentiles per pipeline stage
+func get_metrics() -> Dictionary:
+	return _android_plugin.getMetrics()
+
+func reset_metrics() -> void:
+	_android_plugin.resetMetrics()
+
+# Native buffers, classifier tensors and flight recorder rings per camera, with totals and the native heap
+func get_memory_footprint() -> Dictionary:
+	return _android_plugin.getMemoryFootprint()
+
+# Writes recent pipeline and exhale event timings as a Chrome/Perfetto trace; emits trace_written
+func dump_trace(path : String) -> void:
+	_android_plugin.dumpTrace(path)
+
+func set_tracing_enabled(enabled : bool) -> void:
+	_android_plugin.setTracingEnabled(enabled)
+
+# Keeps the last pre_seconds of raw frames, and dumps them with the next post_seconds to directory
+# (user://flight-recorder by default) on exhale events if on_exhale, and on dump_flight_recorder.
+# An empty directory turns it off.
+func set_flight_recorder(directory : String, pre_seconds : float, post_seconds : float, on_exhale : bool) -> void:
+	_android_plugin.setFlightRecorder(directory, pre_seconds, post_seconds, on_exhale)
+
+# E.g. when the user reports a missed exhale; emits flight_recorder_dumped per camera
+func dump_flight_recorder(reason : String) -> bool:
+	return _android_plugin.dumpFlightRecorder(reason)
+
+func dump_flight_recorder_by_id(camera_id : int, reason : String) -> bool:
+	return _android_plugin.dumpFlightRecorderById(camera_id, reason)
+
+func _on_breathing_rate(camera_id : int, rate : float, confidence : float) -> void:
+	camera_breathing_rate.emit(camera_id, rate, confidence)
+	if camera_id == PRIMARY_CAMERA:
+		breathing_rate.emit(rate, confidence)
+
+func _on_trace_written(path : String) -> void:
+	trace_written.emit(path)
+
+func _on_flight_recorder_dumped(camera_id : int, path : String, reasons : String) -> void:
+	camera_flight_recorder_dumped.emit(camera_id, path, reasons)
+	if camera_id == PRIMARY_CAMERA:
+		flight_recorder_dumped.emit(path, reasons)
+
 #func get_image() -> PackedByteArray:
 #	return _android_plugin.getImage()
 
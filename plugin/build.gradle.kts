@@ -62,6 +62,9 @@ dependencies {
 
     // Seek Thermal dependency
     api(project(":seek-thermal"))
+
+    // Detection engine (plain Java)
+    implementation(project(":engine"))
 }
 
 // BUILD TASKS DEFINITION
@@ -93,6 +96,22 @@ val copySeekThermalDebugAARToBreathingLabAddons by tasks.registering(Copy::class
     into("breathing-lab/addons/$pluginName/bin/debug")
 }
 
+val copyEngineDebugJarToDemoAddons by tasks.registering(Copy::class) {
+    description = "Copies the detection engine JAR to the plugin's addons directory"
+    dependsOn(":engine:jar")
+    from("../engine/build/libs")
+    include("seek-thermal-engine.jar")
+    into("demo/addons/$pluginName/bin/debug")
+}
+
+val copyEngineDebugJarToBreathingLabAddons by tasks.registering(Copy::class) {
+    description = "Copies the detection engine JAR to the plugin's addons directory"
+    dependsOn(":engine:jar")
+    from("../engine/build/libs")
+    include("seek-thermal-engine.jar")
+    into("breathing-lab/addons/$pluginName/bin/debug")
+}
+
 val copyReleaseAARToDemoAddons by tasks.registering(Copy::class) {
     description = "Copies the generated release AAR binary to the plugin's addons directory"
     from("build/outputs/aar")
@@ -121,6 +140,22 @@ val copySeekThermalReleaseAARToBreathingLabAddons by tasks.registering(Copy::cla
     into("breathing-lab/addons/$pluginName/bin/release")
 }
 
+val copyEngineReleaseJarToDemoAddons by tasks.registering(Copy::class) {
+    description = "Copies the detection engine JAR to the plugin's addons directory"
+    dependsOn(":engine:jar")
+    from("../engine/build/libs")
+    include("seek-thermal-engine.jar")
+    into("demo/addons/$pluginName/bin/release")
+}
+
+val copyEngineReleaseJarToBreathingLabAddons by tasks.registering(Copy::class) {
+    description = "Copies the detection engine JAR to the plugin's addons directory"
+    dependsOn(":engine:jar")
+    from("../engine/build/libs")
+    include("seek-thermal-engine.jar")
+    into("breathing-lab/addons/$pluginName/bin/release")
+}
+
 val cleanDemoAddons by tasks.registering(Delete::class) {
     delete("demo/addons/$pluginName")
 }
@@ -140,6 +175,10 @@ val copyAddonsToDemo by tasks.registering(Copy::class) {
     finalizedBy(copySeekThermalDebugAARToDemoAddons)
     finalizedBy(copySeekThermalReleaseAARToDemoAddons)
 
+    // Copies the detection engine JAR
+    finalizedBy(copyEngineDebugJarToDemoAddons)
+    finalizedBy(copyEngineReleaseJarToDemoAddons)
+
     from("export_scripts_template")
     into("demo/addons/$pluginName")
 }
@@ -155,6 +194,10 @@ val copyAddonsToBreathingLab by tasks.registering(Copy::class) {
     finalizedBy(copySeekThermalDebugAARToBreathingLabAddons)
     finalizedBy(copySeekThermalReleaseAARToBreathingLabAddons)
 
+    // Copies the detection engine JAR
+    finalizedBy(copyEngineDebugJarToBreathingLabAddons)
+    finalizedBy(copyEngineReleaseJarToBreathingLabAddons)
+
     from("export_scripts_template")
     into("breathing-lab/addons/$pluginName")
 }
@@ -38,9 +38,9 @@ class AndroidExportPlugin extends EditorExportPlugin:
 
 	func _get_android_libraries(platform, debug):
 		if debug:
-			return PackedStringArray([_plugin_name + "/bin/debug/" + _plugin_name + "-debug.aar", _plugin_name + "/bin/debug/seek_android_sdk_4.3.0.2.aar"])
+			return PackedStringArray([_plugin_name + "/bin/debug/" + _plugin_name + "-debug.aar", _plugin_name + "/bin/debug/seek_android_sdk_4.3.0.2.aar", _plugin_name + "/bin/debug/seek-thermal-engine.jar"])
 		else:
-			return PackedStringArray([_plugin_name + "/bin/release/" + _plugin_name + "-release.aar", _plugin_name + "/bin/debug/seek_android_sdk_4.3.0.2.aar"])
+			return PackedStringArray([_plugin_name + "/bin/release/" + _plugin_name + "-release.aar", _plugin_name + "/bin/debug/seek_android_sdk_4.3.0.2.aar", _plugin_name + "/bin/release/seek-thermal-engine.jar"])
 
 	func _get_android_manifest_activity_element_contents(platform: EditorExportPlatform, debug: bool) -> String:
 		var contents = """
@@ -0,0 +1,916 @@
+package com.bschoun.godot.seekthermal;
+
+import android.util.Log;
+
+import com.bschoun.godot.seekthermal.engine.BreathingRateEstimator;
+import com.bschoun.godot.seekthermal.engine.ExhaleDetector;
+import com.bschoun.godot.seekthermal.engine.ExhaleType;
+import com.bschoun.godot.seekthermal.engine.FlightRecorder;
+import com.bschoun.godot.seekthermal.engine.FrameHandoff;
+import com.bschoun.godot.seekthermal.engine.FrameMask;
+import com.bschoun.godot.seekthermal.engine.FrameWindow;
+import com.bschoun.godot.seekthermal.engine.InferenceExecutor;
+import com.bschoun.godot.seekthermal.engine.LatencyHistogram;
+import com.bschoun.godot.seekthermal.engine.PackedStats;
+import com.bschoun.godot.seekthermal.engine.PipelineMetrics;
+import com.bschoun.godot.seekthermal.engine.PipelineStage;
+import com.bschoun.godot.seekthermal.engine.StripeRunner;
+import com.bschoun.godot.seekthermal.engine.ThermalFrame;
+import com.bschoun.godot.seekthermal.engine.ThermalRecorder;
+import com.bschoun.godot.seekthermal.engine.TraceRing;
+import com.thermal.seekware.SeekCamera;
+import com.thermal.seekware.SeekImage;
+import com.thermal.seekware.SeekImageReader;
+
+import org.godotengine.godot.Dictionary;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+/**
+ * Everything that processes one camera's frames: its own buffers, detector (with its own moving
+ * average and exhale state), pipeline threads, preview images, metrics and recording. Each camera
+ * gets one, so several sensors run side by side on their own threads instead of sharing one
+ * callback thread and one set of state. Replays run through camera 0's pipeline.
+ *
+ * Settings shared by all cameras (mask, flips, rates, temporal mode) are read from the plugin.
+ * Signals carry the camera id as their first argument.
+ */
+class CameraPipeline implements SeekImageReader.OnImageAvailableListener, ImageClassifierHelper.ClassifierListener {
+
+    private final SeekThermalGodotAndroidPlugin plugin;
+    private final int id;
+    private final String tag;
+    private final Integer idArg;  // Boxed once for signal arguments
+
+    // Frames come straight from this camera's reader, on the camera's own callback thread
+    private final SeekImageReader imageReader = new SeekImageReader();
+
+    private volatile SeekCamera seekCamera;
+    private volatile SeekThermalGodotAndroidPlugin.CameraState state = SeekThermalGodotAndroidPlugin.CameraState.NONE;
+    private String cameraInfoText = "";
+
+    private int width;
+    private int height;
+    private Size targetSize;
+
+    // Owns every Mat below and the stages' frames; kept across sessions at the same size
+    private volatile NativeArena arena;
+
+    private Mat processingMatGray;
+    private Mat processingMatGrayMask;
+    private Mat processingMatGrayMaskSmall;
+    private Mat processingMatGrayRoi; // The part of processingMatGray the camera image is copied into
+    private Mat squareMask;           // Square mask of the frames' FrameMask, updated when that changes
+    private FrameMask squareMaskSource;
+
+    // Statistics and exhale detection, on plain Java arrays
+    private volatile ExhaleDetector exhaleDetector;
+
+    // Only the first camera uses the classifier loaded at startup; others load their own on open,
+    // so their inferences can run in parallel
+    private ImageClassifierHelper ownClassifier;
+    private volatile ImageClassifierHelper classifier;
+
+    // Per-frame stats for new_data, packed into floats (see PackedStats for the layout). Recreated
+    // on the analysis stage when setStatsRate() changes the decimation or batch size.
+    private PackedStats packedStats;
+    private Object[] dataSignalArgs;
+
+    // Breathing rate from the detector's midrange, updated every frame on the analysis stage and
+    // sent with breathing_rate every breathing rate interval
+    private volatile BreathingRateEstimator breathingRate;
+    private long lastBreathingRateNanos;
+
+    // The SDK hands us the same buffer every frame, so the short view of it is cached
+    private ByteBuffer lastDataBuffer;
+    private ShortBuffer lastShortBuffer;
+
+    /// Processing stages, fed by newest-wins handoffs so the camera callback never waits on them
+    // Ingest (SDK callback) -> analysis (stats + exhale detection) -> preview -> CNN
+    private volatile PipelineStage<ThermalFrame> analysisStage;
+    private volatile PipelineStage<PreviewFrame> previewStage;
+
+    // The CNN runs one inference at a time; frames that arrive while it's busy are skipped
+    private volatile InferenceExecutor<PreviewFrame> cnnExecutor;
+
+    private long frameSequence = 0;
+
+    // Stage latencies, frame counts and the measured frame rate, see getMetrics()
+    private final PipelineMetrics metrics = new PipelineMetrics();
+
+    // Stage spans and exhale events go to the plugin's trace, on this camera's tracks
+    private final TraceRing trace;
+    private final int cameraTrack;
+    private final int analysisTrack;
+    private final int previewTrack;
+    private final int cnnTrack;
+    private final int exhaleTrack;
+
+    // The frame the analysis stage is working on, for tracing detector events
+    private long analysisSequence;
+    private long analysisStart;
+
+    // Raw frames are queued for writing to disk on the recorder's own thread while recording.
+    // Unlike the stages, nothing is dropped unless its queue overflows.
+    private volatile ThermalRecorder recorder;
+    private String recordingPath;
+
+    // The last few seconds of raw frames, dumped around exhale events and on request. Fed from the
+    // camera callback; compressed and written on its own thread.
+    private volatile FlightRecorder flightRecorder;
+
+    /// 8-bit image handed from the analysis stage to the preview and CNN stages
+    private static class PreviewFrame {
+        Mat image;
+        long sequence;
+        long timestampNanos;
+        boolean classify;
+        // The settings the analysis stage used for this frame, so the later stages agree with it
+        PipelineSettings settings;
+        FrameMask mask;
+
+        // Temporal mode: CNN-sized frames, oldest first; the sequence/timestamp are the newest's
+        byte[][] window;
+        int windowCount;
+    }
+
+    /// Masked square preview image for Godot, with the signal payload that sends it
+    private static class PreviewImage {
+        final byte[] data;
+        final Object[] signalArgs;
+        long sequence;
+        long timestampNanos;
+
+        PreviewImage(Integer cameraId, int size) {
+            data = new byte[size];
+            signalArgs = new Object[] { cameraId, data };
+        }
+    }
+
+    // Preview images for Godot to pull with getPreviewImage(). Triple-buffered, so the preview
+    // stage never waits on Godot and the image Godot is copying is never written to.
+    private volatile FrameHandoff<PreviewImage> previewImages;
+    private FrameHandoff<PreviewImage> pulledFrom;  // Guarded by previewImageLock, like pulledImage
+    private PreviewImage pulledImage;
+    private final Object previewImageLock = new Object();
+    private volatile long latestPreviewSequence = -1;
+    private static final byte[] NO_IMAGE = new byte[0];
+    private long lastPreviewTimestamp;  // Only used on the preview stage
+
+    // Temporal mode, see SeekThermalGodotAndroidPlugin.setTemporalWindow()
+    private FrameWindow cnnWindow;       // Only used on the preview stage
+    private Mat windowSmall;             // Only used on the preview stage
+    private int framesSinceWindowInference = 0;
+
+    // Turns detector events into Godot signals. These run on the analysis stage, inside
+    // detector.process(); timestampNanos is the capture time of the frame that decided it.
+    private final ExhaleDetector.Listener detectorListener = new ExhaleDetector.Listener() {
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {
+            long decided = System.nanoTime();
+            plugin.emit("exhaling_changed", idArg, true, type.name());
+            traceExhale("exhale started", type.name(), timestampNanos, decided);
+            triggerFlightRecorder("exhale started " + type.name(), timestampNanos);
+        }
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {
+            long decided = System.nanoTime();
+            plugin.emit("exhaling_changed", idArg, false, "NONE " + source);
+            traceExhale("exhale ended", source, timestampNanos, decided);
+            triggerFlightRecorder("exhale ended " + source, timestampNanos);
+        }
+    };
+
+    private final FlightRecorder.Listener flightListener = new FlightRecorder.Listener() {
+        @Override
+        public void onDumpWritten(File file, String reasons, long frames, long bytes) {
+            Log.d(tag, "Flight recorder dumped " + frames + " frames (" + (bytes >> 10) + " KB) to " + file
+                    + " for " + reasons);
+            plugin.emit("flight_recorder_dumped", idArg, file.getPath(), reasons);
+        }
+
+        @Override
+        public void onDumpFailed(File file, IOException e) {
+            Log.e(tag, "Flight recorder dump to " + file + " failed: " + e);
+        }
+    };
+
+    CameraPipeline(SeekThermalGodotAndroidPlugin plugin, int id, TraceRing trace) {
+        this.plugin = plugin;
+        this.id = id;
+        this.idArg = id;
+        this.tag = "SeekThermal[" + id + "]";
+        this.trace = trace;
+        String prefix = "camera " + id + " ";
+        cameraTrack = trace.addTrack(prefix + "callback");
+        analysisTrack = trace.addTrack(prefix + "analysis");
+        previewTrack = trace.addTrack(prefix + "preview");
+        cnnTrack = trace.addTrack(prefix + "cnn");
+        exhaleTrack = trace.addTrack(prefix + "exhale events");
+        imageReader.setOnImageAvailableListener(this);
+    }
+
+    int getId() {
+        return id;
+    }
+
+    SeekCamera getSeekCamera() {
+        return seekCamera;
+    }
+
+    SeekImageReader getImageReader() {
+        return imageReader;
+    }
+
+    SeekThermalGodotAndroidPlugin.CameraState getState() {
+        return state;
+    }
+
+    void setState(SeekThermalGodotAndroidPlugin.CameraState state) {
+        this.state = state;
+    }
+
+    /// Whether this pipeline currently belongs to an open camera
+    boolean isInUse() {
+        return seekCamera != null && state != SeekThermalGodotAndroidPlugin.CameraState.CLOSED;
+    }
+
+    void attach(SeekCamera camera) {
+        seekCamera = camera;
+    }
+
+    String getCameraInfoText() {
+        return cameraInfoText;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    PipelineMetrics getMetricsRecorder() {
+        return metrics;
+    }
+
+    ExhaleDetector getDetector() {
+        return exhaleDetector;
+    }
+
+    /// Null until the camera has opened
+    BreathingRateEstimator getBreathingRate() {
+        return breathingRate;
+    }
+
+    /// The camera opened: sets up buffers and threads for its frame size and starts processing
+    void open(SeekCamera camera, ImageClassifierHelper sharedClassifier) {
+        seekCamera = camera;
+        cameraInfoText = camera.toString();
+        classifier = id == 0 ? sharedClassifier : loadOwnClassifier();
+        restart(camera.getCharacteristics().getWidth(), camera.getCharacteristics().getHeight());
+    }
+
+    /// (Re)starts processing for frames of the given size, dropping anything from before
+    void restart(int width, int height) {
+        stopPipeline();
+        if (classifier == null) {
+            classifier = plugin.getSharedClassifier();
+        }
+        allocateBuffers(width, height);
+        startPipeline();
+    }
+
+    /// The camera closed: stops processing and recording, hands the buffers back to the arena for
+    /// the next session and releases this camera's classifier
+    void close() {
+        stopRecording();
+        stopPipeline();
+        stopFlightRecorder();
+        NativeArena buffers = arena;
+        if (buffers != null) {
+            buffers.recycle();
+        }
+        seekCamera = null;
+        if (ownClassifier != null) {
+            ownClassifier.clearInterpreter();
+            ownClassifier = null;
+        }
+        classifier = null;
+    }
+
+    /// Frees the buffers kept for the next session; only once closed
+    void releaseBuffers() {
+        NativeArena buffers = arena;
+        if (buffers != null) {
+            arena = null;
+            Log.d(tag, "Releasing " + buffers.getMatCount() + " buffers, " + (buffers.getFootprintBytes() >> 10) + " KB");
+            buffers.release();
+        }
+    }
+
+    private ImageClassifierHelper loadOwnClassifier() {
+        if (ownClassifier == null) {
+            ownClassifier = plugin.createClassifier(this);
+        }
+        return ownClassifier;
+    }
+
+    @Override
+    public void onImageAvailable(final SeekImage seekImage) {
+
+        // Only copy the data out here; everything else happens on the pipeline stages so the
+        // SDK callback thread is never held up by processing
+        PipelineStage<ThermalFrame> stage = analysisStage;
+        if (stage == null) {
+            return;
+        }
+
+        // The SDK doesn't report when the frame was captured, so the earliest we see it, on entering
+        // this callback, is its capture timestamp for the rest of the pipeline
+        long timestamp = System.nanoTime();
+
+        // Get thermal data from camera
+        ByteBuffer dataBuffer = seekImage.getThermography().getThermalData().getBuffer();
+
+        // Data is represented as a 16-bit short, big-endian
+        if (dataBuffer != lastDataBuffer) {
+            lastDataBuffer = dataBuffer;
+            lastShortBuffer = dataBuffer.asShortBuffer();
+        }
+        ShortBuffer shortBuffer = lastShortBuffer;
+        shortBuffer.rewind();
+
+        // Copy the shorts into the next free frame and hand it to the analysis stage
+        metrics.frameReceived(timestamp);
+        ThermalFrame frame = stage.getInput().acquire();
+        shortBuffer.get(frame.data);
+        frame.sequence = frameSequence++;
+        frame.timestampNanos = timestamp;
+        stage.getInput().publish();
+
+        // Hand the same data to the recorder, if we're recording
+        ThermalRecorder recording = recorder;
+        if (recording != null) {
+            shortBuffer.rewind();
+            recording.add(shortBuffer, frame.sequence, timestamp);
+        }
+
+        // And to the flight recorder's ring
+        FlightRecorder flight = flightRecorder;
+        if (flight != null) {
+            shortBuffer.rewind();
+            flight.add(shortBuffer, frame.sequence, timestamp);
+        }
+        long end = System.nanoTime();
+        metrics.record(PipelineMetrics.Stage.INGEST, end - timestamp);
+        trace.span(cameraTrack, "ingest", timestamp, end, frame.sequence);
+    }
+
+    /**
+     * Feeds a frame that didn't come from the camera (e.g. a replay) into the pipeline. With
+     * waitForAnalysis, blocks until the analysis stage has taken the frame, so a replay that isn't
+     * paced in real time doesn't drop frames and the detector sees every one, in order.
+     */
+    void publishFrame(short[] data, long timestampNanos, boolean waitForAnalysis) throws InterruptedException {
+        PipelineStage<ThermalFrame> stage = analysisStage;
+        if (stage == null) {
+            return;
+        }
+        metrics.frameReceived(timestampNanos);
+        ThermalFrame frame = stage.getInput().acquire();
+        System.arraycopy(data, 0, frame.data, 0, frame.data.length);
+        frame.sequence = frameSequence++;
+        frame.timestampNanos = timestampNanos;
+        stage.getInput().publish();
+
+        FlightRecorder flight = flightRecorder;
+        if (flight != null) {
+            flight.add(data, frame.sequence, timestampNanos);
+        }
+        if (waitForAnalysis) {
+            stage.getInput().awaitTaken();
+        }
+    }
+
+    //region Recording
+    /// Starts writing raw camera frames to path, returns false if the file can't be created
+    synchronized boolean startRecording(String path) {
+        stopRecording();
+
+        try {
+            recorder = new ThermalRecorder(new File(path), width, height, SeekThermalGodotAndroidPlugin.FPS,
+                    SeekThermalGodotAndroidPlugin.RECORDING_BUFFER_SECONDS);
+        } catch (IOException e) {
+            Log.e(tag, "Could not start recording: " + e);
+            return false;
+        }
+        recordingPath = path;
+        Log.d(tag, "Recording to " + path + ", buffering up to " + (recorder.getFootprintBytes() >> 20) + " MB");
+        return true;
+    }
+
+    /// Stops recording once the queued frames are written. Emits recording_stopped with the path and
+    /// the numbers of frames written and dropped (also in the file's header).
+    synchronized void stopRecording() {
+        ThermalRecorder recording = recorder;
+        if (recording == null) {
+            return;
+        }
+        recorder = null;
+        try {
+            recording.close();
+        } catch (IOException e) {
+            Log.e(tag, "Recording failed: " + e);
+        }
+        long written = recording.getFramesWritten();
+        long dropped = recording.getDroppedCount();
+        if (dropped > 0) {
+            Log.w(tag, "Recording stopped. Frames written: " + written + ", dropped: " + dropped);
+        } else {
+            Log.d(tag, "Recording stopped. Frames written: " + written);
+        }
+        plugin.emit("recording_stopped", idArg, recordingPath, (int) written, (int) dropped);
+        recordingPath = null;
+    }
+
+    /// (Re)creates the flight recorder for the current frame size and settings, or stops it if
+    /// it's turned off
+    synchronized void startFlightRecorder() {
+        stopFlightRecorder();
+        PipelineSettings settings = plugin.getSettings();
+        File directory = settings.getFlightRecorderDirectory();
+        if (directory == null || width == 0) {
+            return;
+        }
+        FlightRecorder recorder = new FlightRecorder(width, height, SeekThermalGodotAndroidPlugin.FPS,
+                settings.getFlightRecorderPreSeconds(), settings.getFlightRecorderPostSeconds(), directory,
+                "camera" + id, SeekThermalGodotAndroidPlugin.FLIGHT_RECORDER_MAX_DUMPS, flightListener);
+        Log.d(tag, "Flight recorder holding " + (recorder.getFootprintBytes() >> 20) + " MB of frames, dumps to "
+                + directory);
+        flightRecorder = recorder;
+    }
+
+    synchronized void stopFlightRecorder() {
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            flightRecorder = null;
+            recorder.close();
+        }
+    }
+
+    /// Dumps the frames around now; false if the flight recorder is off or has no frames yet
+    boolean dumpFlightRecorder(String reason) {
+        FlightRecorder recorder = flightRecorder;
+        return recorder != null && recorder.trigger(reason);
+    }
+
+    private void triggerFlightRecorder(String reason, long timestampNanos) {
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null && plugin.getSettings().isFlightRecorderOnExhale()) {
+            recorder.trigger(reason, timestampNanos);
+        }
+    }
+    //endregion
+
+    //region Frame pipeline
+    /// Sets up all per-frame storage for frames of the given size
+    private void allocateBuffers(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        targetSize = new Size(224, 224);
+
+        // The Mats of the last session are reused if it had the same size; nothing uses them now,
+        // as the stages have stopped
+        if (arena != null && arena.fits(width, height)) {
+            arena.recycle();
+        } else {
+            releaseBuffers();
+            arena = new NativeArena(width, height);
+        }
+        NativeArena buffers = arena;
+
+        Log.d(tag, "Setting up mats...");
+
+        // Initialize all of our data storage
+        // Large frames are split into row stripes on the common fork-join pool
+        exhaleDetector = new ExhaleDetector(width, height, plugin.getSettings().getDetectorConfig(),
+                SeekThermalGodotAndroidPlugin.IQR_MODE, StripeRunner.forPixels(width * height), detectorListener);
+        packedStats = null;
+        breathingRate = new BreathingRateEstimator(SeekThermalGodotAndroidPlugin.FPS);
+        lastBreathingRateNanos = 0;
+        startFlightRecorder();
+
+        // Preview images for Godot
+        final int imageSize = width * width; // usually (width, with)
+        previewImages = new FrameHandoff<>(() -> new PreviewImage(idArg, imageSize));
+        latestPreviewSequence = -1;
+        lastPreviewTimestamp = 0;
+
+        // For CNN-related processing
+        int targetRows = (int) targetSize.height;
+        int targetCols = (int) targetSize.width;
+        processingMatGray = buffers.mat(width, width);
+        processingMatGrayMask = buffers.mat(width, width);
+        squareMask = buffers.mat(width, width);
+        squareMaskSource = null;
+        processingMatGrayMaskSmall = buffers.mat(targetRows, targetCols);
+        windowSmall = buffers.mat(targetRows, targetCols);
+        cnnWindow = null;
+
+        int yOffset = (width - height) / 2;
+        Rect roiRect = new Rect(0, yOffset, width, height);
+        processingMatGrayRoi = buffers.submat(processingMatGray, roiRect);
+    }
+
+    private void startPipeline() {
+        final int frameWidth = width;
+        final int frameHeight = height;
+        final NativeArena buffers = arena;
+
+        analysisStage = new PipelineStage<ThermalFrame>("seek-analysis-" + id, () -> new ThermalFrame(frameWidth, frameHeight)) {
+            @Override
+            protected void process(ThermalFrame frame) {
+                analyzeFrame(frame);
+            }
+        };
+        previewStage = new PipelineStage<PreviewFrame>("seek-preview-" + id, () -> newPreviewFrame(buffers, frameHeight, frameWidth)) {
+            @Override
+            protected void process(PreviewFrame frame) {
+                long start = System.nanoTime();
+                long signalNanos = encodePreview(frame);
+                long end = System.nanoTime();
+                metrics.record(PipelineMetrics.Stage.PREVIEW, end - start - signalNanos);
+                trace.span(previewTrack, "preview", start, end, frame.sequence);
+            }
+        };
+        cnnExecutor = new InferenceExecutor<PreviewFrame>("seek-cnn-" + id, () -> newPreviewFrame(buffers, frameWidth, frameWidth)) {
+            @Override
+            protected void process(PreviewFrame frame) {
+                long start = System.nanoTime();
+                classifyFrame(frame);
+                long end = System.nanoTime();
+                metrics.record(PipelineMetrics.Stage.CNN, end - start);
+                trace.span(cnnTrack, frame.windowCount > 0 ? "cnn window" : "cnn", start, end, frame.sequence);
+            }
+        };
+
+        // Start from the end of the pipeline so nothing is published into a stage that isn't running
+        cnnExecutor.start();
+        previewStage.start();
+        analysisStage.start();
+
+        Log.d(tag, "Mats set up: " + buffers.getMatCount() + ", " + (buffers.getFootprintBytes() >> 10)
+                + " KB, " + buffers.getReusedCount() + " reused so far");
+    }
+
+    void stopPipeline() {
+        PipelineStage<ThermalFrame> analysis = analysisStage;
+        if (analysis == null) {
+            return;
+        }
+        analysis.stop();
+        previewStage.stop();
+        cnnExecutor.stop();
+
+        Log.d(tag, "Pipeline stopped. Dropped frames: analysis " + analysis.getDroppedCount()
+                + ", preview " + previewStage.getDroppedCount() + ". CNN: classified " + cnnExecutor.getCompletedCount()
+                + ", skipped " + cnnExecutor.getSkippedCount());
+
+        analysisStage = null;
+        previewStage = null;
+        cnnExecutor = null;
+    }
+
+    private static PreviewFrame newPreviewFrame(NativeArena buffers, int rows, int cols) {
+        PreviewFrame frame = new PreviewFrame();
+        frame.image = buffers.mat(rows, cols);
+        return frame;
+    }
+
+    /// Statistics and exhale detection, runs on the analysis stage
+    private void analyzeFrame(ThermalFrame frame) {
+        ExhaleDetector detector = exhaleDetector;
+
+        // One settings snapshot for the whole frame; changes from Godot apply from the next frame
+        PipelineSettings settings = plugin.getSettings();
+        FrameMask mask = settings.getMask(width, height);
+        if (detector.getConfig() != settings.getDetectorConfig()) {
+            detector.setConfig(settings.getDetectorConfig());
+        }
+
+        // Detect exhales; start/end events come back through detectorListener
+        long start = System.nanoTime();
+        analysisSequence = frame.sequence;
+        analysisStart = start;
+        detector.process(frame.data, mask.getFrame(), frame.timestampNanos);
+        long processingNanos = System.nanoTime() - start;
+        long kernelNanos = detector.getLastKernelNanos();
+        metrics.record(PipelineMetrics.Stage.CONVERSION, kernelNanos);
+        metrics.record(PipelineMetrics.Stage.DETECTION, processingNanos - kernelNanos);
+
+        // Breathing rate: a constant-cost update every frame, and an estimate every interval
+        BreathingRateEstimator rate = breathingRate;
+        rate.add(detector.getMidrange(), frame.sequence);
+        long rateInterval = settings.getBreathingRateIntervalNanos();
+        if (rateInterval > 0 && frame.timestampNanos - lastBreathingRateNanos >= rateInterval && rate.estimate()) {
+            lastBreathingRateNanos = frame.timestampNanos;
+            emitTimed("breathing_rate", new Object[] { idArg, rate.getRate(), rate.getConfidence() });
+        }
+
+        // Send stats to Godot, packed into one float array; Godot copies it while emitting
+        int decimation = settings.getStatsDecimation();
+        int batchSize = settings.getStatsBatchSize();
+        PackedStats packed = packedStats;
+        if (packed == null || packed.getDecimation() != decimation || packed.getBatchSize() != batchSize) {
+            packed = new PackedStats(decimation, batchSize);
+            packedStats = packed;
+            dataSignalArgs = new Object[] { idArg, packed.getBuffer() };
+        }
+        if (packed.add(detector, frame.sequence, frame.timestampNanos, processingNanos)) {
+            emitTimed("new_data", dataSignalArgs);
+        }
+
+        // The detector already scaled the min-subtracted data between 0 and 10 (the approximate range
+        // of the image after subtracting) and blacked out the masked pixels; hand that to the preview
+        // stage. If the exhale is classified, the CNN can look for an early end.
+        PreviewFrame preview = previewStage.getInput().acquire();
+        preview.image.put(0, 0, detector.getPreview());
+        preview.sequence = frame.sequence;
+        preview.timestampNanos = frame.timestampNanos;
+        preview.classify = detector.shouldClassify();
+        preview.settings = settings;
+        preview.mask = mask;
+        previewStage.getInput().publish();
+        metrics.frameProcessed();
+        trace.span(analysisTrack, "analyze", start, System.nanoTime(), frame.sequence);
+    }
+
+    /// Records the chain from a frame's capture to its exhale event leaving the plugin: waiting for
+    /// the analysis stage, detection up to the decision, and emitting the signal
+    private void traceExhale(String name, String detail, long captured, long decided) {
+        long emitted = System.nanoTime();
+        metrics.record(PipelineMetrics.Stage.EXHALE_EVENT, emitted - captured);
+        trace.span(exhaleTrack, name, captured, emitted, analysisSequence, detail);
+        trace.span(exhaleTrack, "queued", captured, analysisStart, analysisSequence);
+        trace.span(exhaleTrack, "detect", analysisStart, decided, analysisSequence);
+        trace.span(exhaleTrack, "emit", decided, emitted, analysisSequence);
+    }
+
+    /// Emits a per-frame signal and records how long that took, which is returned
+    private long emitTimed(String signal, Object[] args) {
+        long start = System.nanoTime();
+        plugin.emit(signal, args);
+        long nanos = System.nanoTime() - start;
+        metrics.record(PipelineMetrics.Stage.SIGNAL, nanos);
+        return nanos;
+    }
+
+    /// Builds the square, masked preview image and sends it to Godot, runs on the preview stage.
+    /// Returns the time spent emitting signals, so it isn't counted as preview time.
+    private long encodePreview(PreviewFrame frame) {
+        frame.image.copyTo(processingMatGrayRoi);
+
+        // Mask the data, with the mask the analysis stage used for this frame
+        if (frame.mask != squareMaskSource) {
+            squareMask.put(0, 0, frame.mask.getSquare());
+            squareMaskSource = frame.mask;
+        }
+        processingMatGray.copyTo(processingMatGrayMask, squareMask);
+
+        // Get the bytes and send this image to Godot so we can view it, at the preview rate
+        long signalNanos = 0;
+        long interval = frame.settings.getPreviewIntervalNanos();
+        if (interval == 0 || frame.timestampNanos - lastPreviewTimestamp >= interval) {
+            lastPreviewTimestamp = frame.timestampNanos;
+            signalNanos = publishPreviewImage(frame);
+        }
+
+        // If the exhale is classified, hand the masked square image to the CNN to look for an early
+        // end, unless it's still busy with an earlier frame
+        if (!frame.classify) {
+            // Windows don't span exhales
+            if (cnnWindow != null) {
+                cnnWindow.clear();
+            }
+            return signalNanos;
+        }
+        int window = frame.settings.getTemporalWindow();
+        if (window > 1) {
+            addToWindow(frame, window);
+            return signalNanos;
+        }
+
+        PreviewFrame cnnFrame = cnnExecutor.tryAcquire();
+        if (cnnFrame != null) {
+            processingMatGrayMask.copyTo(cnnFrame.image);
+            cnnFrame.sequence = frame.sequence;
+            cnnFrame.timestampNanos = frame.timestampNanos;
+            cnnFrame.classify = true;
+            cnnFrame.windowCount = 0;
+            cnnExecutor.submit();
+        }
+        return signalNanos;
+    }
+
+    /// Copies the masked square image into the next preview image, publishes it for getPreviewImage()
+    /// and emits it as new_image. Returns the time spent emitting.
+    private long publishPreviewImage(PreviewFrame frame) {
+        FrameHandoff<PreviewImage> images = previewImages;
+        PreviewImage image = images.acquire();
+        processingMatGrayMask.get(0, 0, image.data);
+        image.sequence = frame.sequence;
+        image.timestampNanos = frame.timestampNanos;
+        images.publish();
+        latestPreviewSequence = frame.sequence;
+
+        // Godot copies the image before emitSignal returns, and the preview stage doesn't write
+        // this buffer again before then
+        return frame.settings.isImageSignalEnabled() ? emitTimed("new_image", image.signalArgs) : 0;
+    }
+
+    /// Temporal mode: adds the masked square image to the window at CNN size, and hands the window
+    /// to the CNN when it's full and temporalStride frames have passed since the last one
+    private void addToWindow(PreviewFrame frame, int window) {
+        int frameSize = (int) targetSize.area();
+        if (cnnWindow == null || cnnWindow.capacity() != window) {
+            cnnWindow = new FrameWindow(window, frameSize);
+            framesSinceWindowInference = 0;
+        }
+
+        Imgproc.resize(processingMatGrayMask, windowSmall, targetSize, 0, 0, Imgproc.INTER_AREA);
+        windowSmall.get(0, 0, cnnWindow.next());
+        cnnWindow.commit(frame.sequence, frame.timestampNanos);
+        framesSinceWindowInference++;
+
+        if (!cnnWindow.isFull() || framesSinceWindowInference < frame.settings.getTemporalStride()) {
+            return;
+        }
+        PreviewFrame cnnFrame = cnnExecutor.tryAcquire();
+        if (cnnFrame == null) {
+            // Still busy; the next frame tries again with a newer window
+            return;
+        }
+        if (cnnFrame.window == null || cnnFrame.window.length != window) {
+            cnnFrame.window = new byte[window][frameSize];
+        }
+        cnnWindow.copyTo(cnnFrame.window);
+        cnnFrame.windowCount = window;
+        cnnFrame.sequence = frame.sequence;
+        cnnFrame.timestampNanos = frame.timestampNanos;
+        cnnFrame.classify = true;
+        cnnExecutor.submit();
+        framesSinceWindowInference = 0;
+    }
+
+    /// Prepares the CNN input and classifies it, runs on the CNN executor
+    private void classifyFrame(PreviewFrame frame) {
+        ImageClassifierHelper helper = classifier;
+        if (frame.windowCount > 0) {
+            // One batched inference over the window, already at CNN size
+            helper.classifyWindow(frame.window, frame.windowCount, frame.sequence, frame.timestampNanos);
+            return;
+        }
+
+        // Resize for our CNN target size
+        Imgproc.resize(frame.image, processingMatGrayMaskSmall, targetSize, 0, 0, Imgproc.INTER_AREA);
+
+        // Classify the grayscale image using the CNN; results come back through onResults
+        helper.classify(processingMatGrayMaskSmall, frame.sequence, frame.timestampNanos);
+    }
+    //endregion
+
+    //region Preview images
+    long getLatestPreviewSequence() {
+        return latestPreviewSequence;
+    }
+
+    long getPreviewImageSequence() {
+        synchronized (previewImageLock) {
+            return pulledImage == null ? -1 : pulledImage.sequence;
+        }
+    }
+
+    byte[] getPreviewImage() {
+        FrameHandoff<PreviewImage> images = previewImages;
+        synchronized (previewImageLock) {
+            if (images == null) {
+                return NO_IMAGE;
+            }
+            if (images != pulledFrom) {
+                // New camera session, possibly at a different size
+                pulledFrom = images;
+                pulledImage = null;
+            }
+            // The buffer we get stays ours until the next poll, so it can't change while Godot copies it
+            PreviewImage image = images.poll();
+            if (image != null) {
+                pulledImage = image;
+            }
+            return pulledImage == null ? NO_IMAGE : pulledImage.data;
+        }
+    }
+    //endregion
+
+    /// Snapshot of this camera's metrics, see SeekThermalGodotAndroidPlugin.getMetrics()
+    Dictionary getMetrics() {
+        Dictionary result = new Dictionary();
+        result.put("camera", id);
+        result.put("received", metrics.getReceivedCount());
+        result.put("processed", metrics.getProcessedCount());
+        result.put("fps", metrics.getFps());
+        result.put("expectedFps", SeekThermalGodotAndroidPlugin.FPS);
+
+        PipelineStage<ThermalFrame> analysis = analysisStage;
+        PipelineStage<PreviewFrame> preview = previewStage;
+        InferenceExecutor<PreviewFrame> cnn = cnnExecutor;
+        result.put("droppedAnalysis", analysis == null ? 0 : analysis.getDroppedCount());
+        result.put("droppedPreview", preview == null ? 0 : preview.getDroppedCount());
+        result.put("failedAnalysis", analysis == null ? 0 : analysis.getFailedCount());
+        result.put("failedPreview", preview == null ? 0 : preview.getFailedCount());
+        result.put("cnnCompleted", cnn == null ? 0 : cnn.getCompletedCount());
+        result.put("cnnSkipped", cnn == null ? 0 : cnn.getSkippedCount());
+        result.put("cnnFailed", cnn == null ? 0 : cnn.getFailedCount());
+
+        Dictionary stages = new Dictionary();
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            LatencyHistogram.Snapshot snapshot = metrics.getHistogram(stage).snapshot();
+            Dictionary latency = new Dictionary();
+            latency.put("count", snapshot.count);
+            latency.put("meanMs", snapshot.getMeanNanos() / 1e6);
+            latency.put("p50Ms", snapshot.getPercentileNanos(0.50) / 1e6);
+            latency.put("p95Ms", snapshot.getPercentileNanos(0.95) / 1e6);
+            latency.put("p99Ms", snapshot.getPercentileNanos(0.99) / 1e6);
+            latency.put("maxMs", snapshot.maxNanos / 1e6);
+            stages.put(stage.name(), latency);
+        }
+        result.put("stages", stages);
+        result.put("memory", getMemory());
+        return result;
+    }
+
+    /// What this camera holds outside the Java heap, and its flight recorder's ring, which is the
+    /// largest thing it holds on it
+    Dictionary getMemory() {
+        Dictionary memory = new Dictionary();
+        NativeArena buffers = arena;
+        memory.put("matBytes", buffers == null ? 0L : buffers.getFootprintBytes());
+        memory.put("mats", buffers == null ? 0 : buffers.getMatCount());
+        memory.put("matsReused", buffers == null ? 0 : buffers.getReusedCount());
+        ImageClassifierHelper helper = ownClassifier;
+        memory.put("classifierBytes", helper == null ? 0L : helper.getTensorBufferBytes());
+        FlightRecorder recorder = flightRecorder;
+        memory.put("flightRecorderBytes", recorder == null ? 0L : recorder.getFootprintBytes());
+        return memory;
+    }
+
+    /// Number of camera frames the analysis stage couldn't keep up with
+    long getDroppedFrameCount() {
+        PipelineStage<ThermalFrame> stage = analysisStage;
+        return stage == null ? 0 : stage.getDroppedCount();
+    }
+
+    @Override
+    public void onError(String error) {
+        Log.e(tag, error);
+    }
+
+    @Override
+    public void onResults(List<ImageClassifierHelper.Classification> results, long inferenceTime,
+                          long frameSequence, long frameTimestampNanos) {
+        // This will generally return 1 or 0 results, because we're thresholding at 0.5. I suppose
+        // it's possible it could return 2 if each is exactly .5, but this is highly unlikely
+
+        for (int i=0; i<results.size(); i++) {
+            Log.d(tag, results.toString());
+        }
+        if (results.isEmpty()) {
+            Log.d(tag, "empty classification");
+            return;
+        }
+
+        ImageClassifierHelper.Classification c = results.get(0);
+        Log.d(tag, c.label + " " + c.score + " " + c.index + " (frame " + frameSequence
+                + ", " + inferenceTime + " ms)");
+
+        // This runs on the CNN executor, so let the detector end the exhale on its next frame. The
+        // detector ignores the result if the frame is from before the current exhale was classified.
+        if (c.index == ExhaleType.NONE.ordinal() && c.score >= 0.95) {
+            ExhaleDetector detector = exhaleDetector;
+            if (detector != null) {
+                detector.requestEnd("CNN", frameTimestampNanos);
+            }
+        }
+    }
+}
@@ -20,20 +20,35 @@ package com.bschoun.godot.seekthermal;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Build;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.bschoun.godot.seekthermal.engine.ExecutionCalibrator;
+import com.bschoun.godot.seekthermal.engine.ExecutionConfig;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Delegate;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
 import org.tensorflow.lite.support.common.FileUtil;
+import org.tensorflow.lite.support.common.ops.CastOp;
 import org.tensorflow.lite.support.common.ops.NormalizeOp;
+import org.tensorflow.lite.support.common.ops.QuantizeOp;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.Rot90Op;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -47,10 +62,29 @@ public class ImageClassifierHelper {
     private static final int DELEGATE_GPU = 1;
     private static final int DELEGATE_NNAPI = 2;
 
+    // Where the fastest execution config per device and model is remembered
+    private static final String CALIBRATION_FILE = "tflite_execution.properties";
+    private static final int CALIBRATION_MAX_THREADS = 4;
+
+    /** Builds of the classifier that can be loaded. They share the labels and the [-1,1] input normalization. */
+    public enum ModelVariant {
+        FLOAT32("converted_tflite/model_unquant.tflite"),
+        // float16 weights, float32 input/output
+        FP16("converted_tflite/model_fp16.tflite"),
+        // Full integer quantization; input/output may be int8, uint8 or float32
+        INT8("converted_tflite/model_int8.tflite");
+
+        public final String modelPath;
+
+        ModelVariant(String modelPath) {
+            this.modelPath = modelPath;
+        }
+    }
+
     private final float threshold;
-    private final int numThreads;
     private final int maxResults;
-    private final int currentDelegate;
+    private ExecutionConfig executionConfig;
+    private final ModelVariant variant;
     private final Context context;
     private final ClassifierListener listener;
 
@@ -58,8 +92,26 @@ public class ImageClassifierHelper {
     private Delegate delegate;
     private List<String> labels;
 
+    // Reused between calls; sized from the model's tensors
+    private int inputWidth;
+    private int inputHeight;
+    private int inputChannels;
+    private DataType inputType;
+    private ByteBuffer inputBuffer;     // Direct, native order, [1, height, width, channels]
+    private FloatBuffer inputFloats;    // View of inputBuffer for float32 inputs
+    private final float[] grayToFloat = new float[256];  // Normalized input for each gray level
+    private final byte[] grayToQuantized = new byte[256];// The same, quantized for int8/uint8 inputs
+    private byte[] grayBytes;
+    private int batchSize = 1;          // Frames per inference; the input tensor is resized to match
+
+    private DataType outputType;
+    private float outputScale;
+    private int outputZeroPoint;
+    private ByteBuffer outputBuffer;    // Direct, native order, [1, NUM_CLASSES]
+    private float[] scores;             // Dequantized output of the last inference, averaged over the batch
+
     // Paths inside assets
-    private String modelPath = "converted_tflite/model_unquant.tflite";
+    private final String modelPath;
     private String labelPath = "converted_tflite/labels.txt";
 
     public ImageClassifierHelper(Float threshold,
@@ -68,42 +120,91 @@ public class ImageClassifierHelper {
                                  int currentDelegate,
                                  Context context,
                                  ClassifierListener listener) {
+        this(threshold, numThreads, maxResults, currentDelegate, ModelVariant.FLOAT32, context, listener);
+    }
+
+    public ImageClassifierHelper(Float threshold,
+                                 int numThreads,
+                                 int maxResults,
+                                 int currentDelegate,
+                                 ModelVariant variant,
+                                 Context context,
+                                 ClassifierListener listener) {
+        this(threshold, maxResults, toExecutionConfig(currentDelegate, numThreads), variant, context, listener);
+    }
+
+    public ImageClassifierHelper(Float threshold,
+                                 int maxResults,
+                                 ExecutionConfig executionConfig,
+                                 ModelVariant variant,
+                                 Context context,
+                                 ClassifierListener listener) {
         this.threshold = threshold;
-        this.numThreads = numThreads;
         this.maxResults = maxResults;
-        this.currentDelegate = currentDelegate;
+        this.executionConfig = executionConfig;
+        this.variant = variant;
+        this.modelPath = variant.modelPath;
         this.context = context;
         this.listener = listener;
         setupInterpreter();
     }
 
     public static ImageClassifierHelper create(Context context, ClassifierListener listener) {
-        return new ImageClassifierHelper(0.5f, 2, 3, DELEGATE_CPU, context, listener);
+        return create(context, listener, ModelVariant.FLOAT32);
+    }
+
+    public static ImageClassifierHelper create(Context context, ClassifierListener listener, ModelVariant variant) {
+        return new ImageClassifierHelper(0.5f, 2, 3, DELEGATE_CPU, variant, context, listener);
+    }
+
+    /** The original delegate constants; TFLite's default CPU path is XNNPACK */
+    private static ExecutionConfig toExecutionConfig(int delegate, int numThreads) {
+        switch (delegate) {
+            case DELEGATE_GPU:
+                return new ExecutionConfig(ExecutionConfig.Backend.GPU, numThreads);
+            case DELEGATE_NNAPI:
+                return new ExecutionConfig(ExecutionConfig.Backend.NNAPI, numThreads);
+            case DELEGATE_CPU:
+            default:
+                return new ExecutionConfig(ExecutionConfig.Backend.XNNPACK, numThreads);
+        }
+    }
+
+    /** Interpreter options for config; the delegate it needs (if any) is returned in delegateOut[0] */
+    private static Interpreter.Options createOptions(ExecutionConfig config, Delegate[] delegateOut) {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(config.numThreads);
+
+        switch (config.backend) {
+            case GPU:
+                delegateOut[0] = new GpuDelegate();
+                options.addDelegate(delegateOut[0]);
+                break;
+            case NNAPI:
+                delegateOut[0] = new NnApiDelegate();
+                options.addDelegate(delegateOut[0]);
+                break;
+            case CPU:
+                options.setUseXNNPACK(false);
+                break;
+            case XNNPACK:
+            default:
+                options.setUseXNNPACK(true);
+        }
+        return options;
     }
 
     /** Load model and configure interpreter */
     private void setupInterpreter() {
         try {
             MappedByteBuffer modelBuffer = FileUtil.loadMappedFile(context, modelPath);
-            Interpreter.Options options = new Interpreter.Options();
-            options.setNumThreads(numThreads);
-
-            switch (currentDelegate) {
-                case DELEGATE_GPU:
-                    delegate = new GpuDelegate();
-                    options.addDelegate(delegate);
-                    break;
-                case DELEGATE_NNAPI:
-                    delegate = new NnApiDelegate();
-                    options.addDelegate(delegate);
-                    break;
-                case DELEGATE_CPU:
-                default:
-                    // no delegate
-            }
+            Delegate[] created = new Delegate[1];
+            Interpreter.Options options = createOptions(executionConfig, created);
+            delegate = created[0];
 
             interpreter = new Interpreter(modelBuffer, options);
             labels = FileUtil.loadLabels(context, labelPath);
+            allocateBuffers();
 
         } catch (IOException e) {
             listener.onError("Failed to load TFLite model or labels: " + e.getMessage());
@@ -111,44 +212,414 @@ public class ImageClassifierHelper {
         }
     }
 
+    /** Allocate the input and output buffers, and work out the input and output quantization */
+    private void allocateBuffers() {
+        // e.g. [1, 224, 224, 3]
+        Tensor input = interpreter.getInputTensor(0);
+        int[] inputShape = input.shape();
+        inputHeight = inputShape[1];
+        inputWidth = inputShape[2];
+        inputChannels = inputShape.length > 3 ? inputShape[3] : 1;
+        inputType = input.dataType();
+        batchSize = inputShape[0];
+        allocateTensorBuffers();
+        grayBytes = new byte[inputWidth * inputHeight];
+
+        // Normalize to [-1,1], like NormalizeOp(127.5f, 127.5f), then quantize if the model wants
+        float inputScale = input.quantizationParams().getScale();
+        int inputZeroPoint = input.quantizationParams().getZeroPoint();
+        for (int g = 0; g < 256; g++) {
+            float v = (g - 127.5f) / 127.5f;
+            grayToFloat[g] = v;
+            if (inputType == DataType.UINT8) {
+                grayToQuantized[g] = (byte) clamp(Math.round(v / inputScale) + inputZeroPoint, 0, 255);
+            } else if (inputType == DataType.INT8) {
+                grayToQuantized[g] = (byte) clamp(Math.round(v / inputScale) + inputZeroPoint, -128, 127);
+            }
+        }
+
+        // e.g. [1, 1001]
+        Tensor output = interpreter.getOutputTensor(0);
+        outputType = output.dataType();
+        outputScale = output.quantizationParams().getScale();
+        outputZeroPoint = output.quantizationParams().getZeroPoint();
+        scores = new float[output.shape()[1]];
+
+        Log.d(TAG, variant + ": input " + inputType + " " + inputWidth + "x" + inputHeight + "x" + inputChannels
+                + " (scale " + inputScale + ", zero point " + inputZeroPoint + "), output " + outputType
+                + " (scale " + outputScale + ", zero point " + outputZeroPoint + ")");
+    }
+
+    private void allocateTensorBuffers() {
+        inputBuffer = ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        inputFloats = inputBuffer.asFloatBuffer();
+        outputBuffer = ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    /** Resizes the input tensor to a batch of frames; only reallocates when the size changes */
+    private void setBatchSize(int frames) {
+        if (frames == batchSize) {
+            return;
+        }
+        int[] shape = interpreter.getInputTensor(0).shape().clone();
+        shape[0] = frames;
+        interpreter.resizeInput(0, shape);
+        interpreter.allocateTensors();
+        batchSize = frames;
+        allocateTensorBuffers();
+        Log.d(TAG, "Batch size " + frames);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private boolean isQuantized(DataType type) {
+        return type == DataType.UINT8 || type == DataType.INT8;
+    }
+
     /** Run classification */
     public void classify(Bitmap bitmap, int imageRotation) {
+        classify(bitmap, imageRotation, 0, 0);
+    }
+
+    /** Run classification on a camera frame; the sequence and timestamp are passed back with the results */
+    public synchronized void classify(Bitmap bitmap, int imageRotation, long frameSequence, long frameTimestampNanos) {
         if (interpreter == null) {
             setupInterpreter();
             if (interpreter == null) return;
         }
+        setBatchSize(1);
 
         long startTime = SystemClock.uptimeMillis();
 
         Log.d(TAG, "Creating imageProcessor");
 
-        // Preprocess: rotate + normalize to [-1,1]
-        ImageProcessor imageProcessor =
+        // Preprocess: rotate + normalize to [-1,1], then quantize for integer inputs
+        ImageProcessor.Builder builder =
                 new ImageProcessor.Builder()
                         .add(new Rot90Op(-imageRotation / 90))
-                        .add(new NormalizeOp(127.5f, 127.5f)) // scale to [-1,1]
-                        .build();
+                        .add(new NormalizeOp(127.5f, 127.5f)); // scale to [-1,1]
+        if (isQuantized(inputType)) {
+            Tensor.QuantizationParams params = interpreter.getInputTensor(0).quantizationParams();
+            builder.add(new QuantizeOp(params.getZeroPoint(), params.getScale()))
+                    .add(new CastOp(inputType));
+        }
+        ImageProcessor imageProcessor = builder.build();
 
         Log.d(TAG, "Creating tensorImage");
         TensorImage tensorImage = imageProcessor.process(TensorImage.fromBitmap(bitmap));
 
-        // Allocate output buffer: [1, NUM_CLASSES]
-        Log.d(TAG, "Setting up output");
-        int[] outputShape = interpreter.getOutputTensor(0).shape(); // e.g. [1,1001]
-        float[][] output = new float[outputShape[0]][outputShape[1]];
-
         Log.d(TAG, "Running inference");
         // Run inference
-        interpreter.run(tensorImage.getBuffer(), output);
+        outputBuffer.rewind();
+        interpreter.run(tensorImage.getBuffer(), outputBuffer);
 
         long inferenceTime = SystemClock.uptimeMillis() - startTime;
 
         Log.d(TAG, "Creating results");
+        sendResults(inferenceTime, frameSequence, frameTimestampNanos);
+    }
+
+    /**
+     * Run classification on an 8-bit grayscale image that is already the model's input size, without
+     * going through a Bitmap. The gray value is used for every input channel. Only the copy out of
+     * the Mat and the interpreter's input/output copies remain; no buffers are allocated per call.
+     */
+    public synchronized void classify(Mat gray, long frameSequence, long frameTimestampNanos) {
+        if (!ensureInterpreter()) return;
+
+        if (gray.type() != CvType.CV_8UC1 || gray.cols() != inputWidth || gray.rows() != inputHeight) {
+            listener.onError("Expected a " + inputWidth + "x" + inputHeight + " CV_8UC1 image, got " + gray);
+            return;
+        }
+        long startTime = SystemClock.uptimeMillis();
+        setBatchSize(1);
+
+        gray.get(0, 0, grayBytes);
+        fillInput(grayBytes, 0);
+        runGray(startTime, frameSequence, frameTimestampNanos);
+    }
+
+    /**
+     * Run one batched inference over a window of 8-bit grayscale frames (each the model's input
+     * size, row-major), e.g. the last few frames of an exhale. The results are the scores averaged
+     * over the window; the sequence and timestamp passed back should be those of the newest frame.
+     * Changing the window size resizes the input tensor, so keep it fixed while classifying.
+     */
+    public synchronized void classifyWindow(byte[][] frames, int count, long frameSequence, long frameTimestampNanos) {
+        if (!ensureInterpreter()) return;
+
+        int pixelCount = inputWidth * inputHeight;
+        for (int f = 0; f < count; f++) {
+            if (frames[f].length < pixelCount) {
+                listener.onError("Expected " + pixelCount + " grayscale bytes per frame, got " + frames[f].length);
+                return;
+            }
+        }
+        long startTime = SystemClock.uptimeMillis();
+        setBatchSize(count);
+
+        for (int f = 0; f < count; f++) {
+            fillInput(frames[f], f);
+        }
+        runGray(startTime, frameSequence, frameTimestampNanos);
+    }
+
+    /** Normalizes (and quantizes) gray pixels into the input tensor, as frame number frame of the batch */
+    private void fillInput(byte[] pixels, int frame) {
+        final int channels = inputChannels;
+        final int pixelCount = inputWidth * inputHeight;
+        int o = frame * pixelCount * channels;
+        if (isQuantized(inputType)) {
+            final ByteBuffer in = inputBuffer;
+            for (int i = 0; i < pixelCount; i++) {
+                byte q = grayToQuantized[pixels[i] & 0xFF];
+                for (int c = 0; c < channels; c++) {
+                    in.put(o++, q);
+                }
+            }
+        } else {
+            final FloatBuffer in = inputFloats;
+            for (int i = 0; i < pixelCount; i++) {
+                float v = grayToFloat[pixels[i] & 0xFF];
+                for (int c = 0; c < channels; c++) {
+                    in.put(o++, v);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run classification on 8-bit grayscale pixels (row-major, the model's input size) from a
+     * buffer, e.g. a direct buffer shared with native code. The buffer's position isn't changed.
+     */
+    public synchronized void classify(ByteBuffer gray, long frameSequence, long frameTimestampNanos) {
+        if (!ensureInterpreter()) return;
+
+        int pixelCount = inputWidth * inputHeight;
+        if (gray.remaining() < pixelCount) {
+            listener.onError("Expected " + pixelCount + " grayscale bytes, got " + gray.remaining());
+            return;
+        }
+        long startTime = SystemClock.uptimeMillis();
+        setBatchSize(1);
+
+        final int channels = inputChannels;
+        final int offset = gray.position();
+        if (isQuantized(inputType)) {
+            final ByteBuffer in = inputBuffer;
+            for (int i = 0, o = 0; i < pixelCount; i++) {
+                byte q = grayToQuantized[gray.get(offset + i) & 0xFF];
+                for (int c = 0; c < channels; c++) {
+                    in.put(o++, q);
+                }
+            }
+        } else {
+            final FloatBuffer in = inputFloats;
+            for (int i = 0, o = 0; i < pixelCount; i++) {
+                float v = grayToFloat[gray.get(offset + i) & 0xFF];
+                for (int c = 0; c < channels; c++) {
+                    in.put(o++, v);
+                }
+            }
+        }
+        runGray(startTime, frameSequence, frameTimestampNanos);
+    }
+
+    private boolean ensureInterpreter() {
+        if (interpreter == null) {
+            setupInterpreter();
+        }
+        return interpreter != null;
+    }
+
+    private void runGray(long startTime, long frameSequence, long frameTimestampNanos) {
+        inputBuffer.rewind();
+        outputBuffer.rewind();
+        interpreter.run(inputBuffer, outputBuffer);
+
+        long inferenceTime = SystemClock.uptimeMillis() - startTime;
+        sendResults(inferenceTime, frameSequence, frameTimestampNanos);
+    }
+
+    private void sendResults(long inferenceTime, long frameSequence, long frameTimestampNanos) {
+        readScores();
 
         // Postprocess: extract top-K classes
-        List<Classification> results = getTopK(output[0], maxResults, threshold);
+        List<Classification> results = getTopK(scores, maxResults, threshold);
+
+        listener.onResults(results, inferenceTime, frameSequence, frameTimestampNanos);
+    }
+
+    public synchronized ExecutionConfig getExecutionConfig() {
+        return executionConfig;
+    }
 
-        listener.onResults(results, inferenceTime);
+    /** Reloads the interpreter with a different backend / thread count */
+    public synchronized void setExecutionConfig(ExecutionConfig config) {
+        if (config.equals(executionConfig) && interpreter != null) {
+            return;
+        }
+        clearInterpreter();
+        executionConfig = config;
+        setupInterpreter();
+        warmUp();
+    }
+
+    /** Runs a dummy inference, so the first real one doesn't pay for the interpreter's lazy setup */
+    public synchronized void warmUp() {
+        if (!ensureInterpreter()) return;
+        setBatchSize(1);
+
+        long startTime = SystemClock.uptimeMillis();
+        inputBuffer.rewind();
+        outputBuffer.rewind();
+        interpreter.run(inputBuffer, outputBuffer);
+        Log.d(TAG, "Warm-up inference took " + (SystemClock.uptimeMillis() - startTime) + " ms");
+    }
+
+    /** Uses the execution config a previous calibrate() found for this device and model, if there is one */
+    public boolean applyCalibration() {
+        try {
+            ExecutionConfig cached = new ExecutionCalibrator(getCalibrationFile())
+                    .getCached(getDeviceKey(), getModelHash());
+            if (cached == null) {
+                return false;
+            }
+            Log.d(TAG, "Using calibrated execution config " + cached);
+            setExecutionConfig(cached);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the calibration", e);
+            return false;
+        }
+    }
+
+    /**
+     * Times a few warm inferences with every backend and thread count available on this device
+     * (CPU and XNNPACK at 1-4 threads, NNAPI and GPU where supported), switches to the fastest and
+     * caches it for this device and model. Unless force is set, a cached result is used instead.
+     * Slow (seconds); call it off the frame pipeline. Returns the config in use afterwards.
+     */
+    public ExecutionConfig calibrate(boolean force) {
+        List<ExecutionConfig> candidates = ExecutionConfig.cpuCandidates(CALIBRATION_MAX_THREADS);
+        if (Build.VERSION.SDK_INT >= 27) { // NNAPI needs Android 8.1
+            candidates.add(new ExecutionConfig(ExecutionConfig.Backend.NNAPI, 1));
+        }
+        if (isGpuSupported()) {
+            candidates.add(new ExecutionConfig(ExecutionConfig.Backend.GPU, 1));
+        }
+
+        try {
+            final MappedByteBuffer model = FileUtil.loadMappedFile(context, modelPath);
+            ExecutionCalibrator calibrator = new ExecutionCalibrator(getCalibrationFile());
+            ExecutionConfig best = calibrator.calibrate(getDeviceKey(), ExecutionCalibrator.hash(model),
+                    candidates, config -> openSession(model, config), force);
+
+            for (ExecutionCalibrator.Trial trial : calibrator.getLastTrials()) {
+                Log.d(TAG, "Calibration " + trial);
+            }
+            if (best != null) {
+                Log.d(TAG, (calibrator.wasLastCached() ? "Cached" : "Fastest") + " execution config: " + best);
+                setExecutionConfig(best);
+            }
+        } catch (IOException e) {
+            listener.onError("Calibration failed: " + e.getMessage());
+            Log.e(TAG, "Calibration failed", e);
+        }
+        return getExecutionConfig();
+    }
+
+    /** A throwaway interpreter on zeroed input, for timing */
+    private static ExecutionCalibrator.Session openSession(MappedByteBuffer model, ExecutionConfig config) {
+        Delegate[] created = new Delegate[1];
+        final Interpreter trial = new Interpreter(model, createOptions(config, created));
+        final Delegate trialDelegate = created[0];
+        final ByteBuffer in = ByteBuffer.allocateDirect(trial.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        final ByteBuffer out = ByteBuffer.allocateDirect(trial.getOutputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+        return new ExecutionCalibrator.Session() {
+            @Override
+            public void run() {
+                in.rewind();
+                out.rewind();
+                trial.run(in, out);
+            }
+
+            @Override
+            public void close() {
+                trial.close();
+                if (trialDelegate != null) {
+                    trialDelegate.close();
+                }
+            }
+        };
+    }
+
+    private static boolean isGpuSupported() {
+        try {
+            CompatibilityList compatibilityList = new CompatibilityList();
+            boolean supported = compatibilityList.isDelegateSupportedOnThisDevice();
+            compatibilityList.close();
+            return supported;
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    private File getCalibrationFile() {
+        return new File(context.getFilesDir(), CALIBRATION_FILE);
+    }
+
+    private static String getDeviceKey() {
+        return Build.MANUFACTURER + " " + Build.MODEL + " (" + Build.HARDWARE + ", API " + Build.VERSION.SDK_INT + ")";
+    }
+
+    private String getModelHash() throws IOException {
+        return ExecutionCalibrator.hash(FileUtil.loadMappedFile(context, modelPath));
+    }
+
+    /** Dequantize the output tensor into scores */
+    private void readScores() {
+        final ByteBuffer out = outputBuffer;
+        final int classes = scores.length;
+        for (int i = 0; i < classes; i++) {
+            float sum = 0;
+            for (int b = 0; b < batchSize; b++) {
+                sum += dequantize(out, b * classes + i);
+            }
+            scores[i] = sum / batchSize;
+        }
+    }
+
+    private float dequantize(ByteBuffer out, int index) {
+        if (outputType == DataType.UINT8) {
+            return ((out.get(index) & 0xFF) - outputZeroPoint) * outputScale;
+        } else if (outputType == DataType.INT8) {
+            return (out.get(index) - outputZeroPoint) * outputScale;
+        }
+        return out.getFloat(index * 4);
+    }
+
+    /** Scores for every label from the last inference. Reused by the next inference. */
+    public float[] getScores() {
+        return scores;
+    }
+
+    public ModelVariant getVariant() {
+        return variant;
+    }
+
+    public boolean isReady() {
+        return interpreter != null;
+    }
+
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    public int getInputHeight() {
+        return inputHeight;
     }
 
     /** Extract top-K results above threshold */
@@ -172,7 +643,7 @@ public class ImageClassifierHelper {
         return all;
     }
 
-    public void clearInterpreter() {
+    public synchronized void clearInterpreter() {
         if (interpreter != null) {
             interpreter.close();
             interpreter = null;
@@ -181,6 +652,15 @@ public class ImageClassifierHelper {
             delegate.close();
             delegate = null;
         }
+        // The tensor buffers are direct, so let them go too; they're reallocated with the interpreter
+        inputBuffer = null;
+        inputFloats = null;
+        outputBuffer = null;
+    }
+
+    /** Native memory held by the input and output tensor buffers, 0 while there's no interpreter */
+    public synchronized long getTensorBufferBytes() {
+        return (inputBuffer == null ? 0 : inputBuffer.capacity()) + (outputBuffer == null ? 0 : outputBuffer.capacity());
     }
 
     /** Simple result object */
@@ -204,6 +684,6 @@ public class ImageClassifierHelper {
     /** Listener for passing results back to calling class */
     public interface ClassifierListener {
         void onError(String error);
-        void onResults(List<Classification> results, long inferenceTime);
+        void onResults(List<Classification> results, long inferenceTime, long frameSequence, long frameTimestampNanos);
     }
 }
@@ -0,0 +1,111 @@
+package com.bschoun.godot.seekthermal;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the square mask image from the assets as thresholded bytes (0 or 255), without OpenCV.
+ *
+ * Decoding and thresholding the JPEG is slow, so the result is cached in the app's files directory
+ * as raw bytes behind a small header. The cache is tied to the app install, so an update that
+ * changes the mask asset decodes it again.
+ */
+class MaskLoader {
+    private static final String TAG = "MaskLoader";
+    private static final int MAGIC = 0x4D41534B; // "MASK"
+
+    private MaskLoader() {}
+
+    /// Returns size * size mask bytes, from the cache if it's current, otherwise from the asset
+    static byte[] load(Context context, String assetName, int size) throws IOException {
+        long installTime = getInstallTime(context);
+        File cacheFile = new File(context.getFilesDir(), assetName + "." + size + ".bin");
+
+        byte[] mask = readCache(cacheFile, installTime, size);
+        if (mask != null) {
+            return mask;
+        }
+
+        mask = decode(context, assetName, size);
+        try {
+            writeCache(cacheFile, installTime, size, mask);
+        } catch (IOException e) {
+            // Only costs us the decode next time
+            Log.e(TAG, "Could not cache the mask: " + e);
+        }
+        return mask;
+    }
+
+    private static byte[] decode(Context context, String assetName, int size) throws IOException {
+        Bitmap bmp;
+        try (InputStream in = context.getAssets().open(assetName)) {
+            bmp = BitmapFactory.decodeStream(in);
+        }
+        if (bmp == null) {
+            throw new IOException("Could not decode " + assetName);
+        }
+        if (bmp.getWidth() != size || bmp.getHeight() != size) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bmp, size, size, false);
+            bmp.recycle();
+            bmp = scaled;
+        }
+
+        int[] pixels = new int[size * size];
+        bmp.getPixels(pixels, 0, size, 0, 0, size, size);
+        bmp.recycle();
+
+        // Gray, then make sure mask is completely black/white, no in-between
+        byte[] mask = new byte[size * size];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            int gray = (299 * ((p >> 16) & 0xFF) + 587 * ((p >> 8) & 0xFF) + 114 * (p & 0xFF) + 500) / 1000;
+            mask[i] = (byte) (gray > 127 ? 255 : 0);
+        }
+        return mask;
+    }
+
+    private static byte[] readCache(File cacheFile, long installTime, int size) {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(cacheFile))) {
+            if (in.readInt() != MAGIC || in.readLong() != installTime || in.readInt() != size) {
+                return null;
+            }
+            byte[] mask = new byte[size * size];
+            in.readFully(mask);
+            return mask;
+        } catch (IOException e) {
+            Log.e(TAG, "Ignoring unreadable mask cache: " + e);
+            return null;
+        }
+    }
+
+    private static void writeCache(File cacheFile, long installTime, int size, byte[] mask) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(cacheFile))) {
+            out.writeInt(MAGIC);
+            out.writeLong(installTime);
+            out.writeInt(size);
+            out.write(mask);
+        }
+    }
+
+    private static long getInstallTime(Context context) {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+}
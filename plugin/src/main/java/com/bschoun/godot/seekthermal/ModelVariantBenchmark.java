@@ -0,0 +1,287 @@
+package com.bschoun.godot.seekthermal;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import com.bschoun.godot.seekthermal.engine.ExhaleDetector;
+import com.bschoun.godot.seekthermal.engine.ExhaleType;
+import com.bschoun.godot.seekthermal.engine.FrameMask;
+import com.bschoun.godot.seekthermal.engine.ThermalRecordingReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs every ImageClassifierHelper.ModelVariant over the same recorded frames, on the device, and
+ * reports per-inference latency, native memory and agreement with the float32 model.
+ *
+ * Frames go through the same preprocessing as the live pipeline (detector preview, square, resize
+ * to the model input), so every variant sees exactly the same inputs.
+ */
+class ModelVariantBenchmark {
+    private static final String TAG = "ModelVariantBenchmark";
+    private static final int WARMUP_INFERENCES = 3;
+
+    private final Context context;
+    private final FrameMask.Source masks;
+
+    /// masks gives the mask for the recording's resolution
+    ModelVariantBenchmark(Context context, FrameMask.Source masks) {
+        this.context = context;
+        this.masks = masks;
+    }
+
+    /// Runs the benchmark over up to maxFrames frames (all of them if maxFrames <= 0), returns the report as JSON
+    String run(File recording, int maxFrames) throws IOException {
+        int inputWidth;
+        int inputHeight;
+
+        // The float model defines the reference results and the input size
+        ImageClassifierHelper reference = ImageClassifierHelper.create(context, NO_RESULTS);
+        if (!reference.isReady()) {
+            throw new IOException("Could not load the " + ImageClassifierHelper.ModelVariant.FLOAT32 + " model");
+        }
+        inputWidth = reference.getInputWidth();
+        inputHeight = reference.getInputHeight();
+        reference.clearInterpreter();
+
+        try (ThermalRecordingReader reader = new ThermalRecordingReader(recording);
+             Inputs inputs = new Inputs(reader, maxFrames, inputWidth, inputHeight)) {
+            Log.d(TAG, "Benchmarking " + inputs.count + " frames from " + recording);
+
+            JSONObject report = new JSONObject();
+            report.put("recording", recording.getPath());
+            report.put("frames", inputs.count);
+            report.put("device", android.os.Build.MANUFACTURER + " " + android.os.Build.MODEL);
+
+            JSONArray variants = new JSONArray();
+            int[] referenceTop = null;
+            float[][] referenceScores = null;
+            for (ImageClassifierHelper.ModelVariant variant : ImageClassifierHelper.ModelVariant.values()) {
+                VariantResult result = runVariant(variant, inputs);
+                if (variant == ImageClassifierHelper.ModelVariant.FLOAT32 && result != null) {
+                    referenceTop = result.top;
+                    referenceScores = result.scores;
+                }
+                variants.put(toJson(variant, result, referenceTop, referenceScores));
+            }
+            report.put("variants", variants);
+            return report.toString(2);
+        } catch (JSONException e) {
+            throw new IOException("Could not build the report", e);
+        }
+    }
+
+    /**
+     * Preview images of the recorded frames, square, masked and resized to the model input, made one
+     * at a time from the mapped recording. Each variant rewinds and makes them again, so a long
+     * recording doesn't have to fit on the heap.
+     */
+    private final class Inputs implements AutoCloseable {
+        final int count;
+
+        private final ThermalRecordingReader reader;
+        private final FrameMask mask;
+        private final short[] raw;
+        private final byte[] pixels;
+
+        private final Mat squareMask;
+        private final Mat square;
+        private final Mat squareRoi;
+        private final Mat squareMasked;
+        private final Mat small;
+        private final Size inputSize;
+
+        private ExhaleDetector detector;
+        private int next;
+
+        Inputs(ThermalRecordingReader reader, int maxFrames, int inputWidth, int inputHeight) throws IOException {
+            this.reader = reader;
+            int width = reader.getWidth();
+            int height = reader.getHeight();
+            count = maxFrames > 0 ? Math.min(reader.getFrameCount(), maxFrames) : reader.getFrameCount();
+
+            mask = masks.get(width, height);
+            if (mask == null) {
+                throw new IOException("No mask for " + width + "x" + height + " frames");
+            }
+            squareMask = new Mat(width, width, CvType.CV_8U);
+            squareMask.put(0, 0, mask.getSquare());
+
+            square = Mat.zeros(width, width, CvType.CV_8U);
+            squareRoi = square.submat(new Rect(0, mask.getYOffset(), width, height));
+            squareMasked = Mat.zeros(width, width, CvType.CV_8U);  // Stays black outside the mask
+            small = new Mat(inputHeight, inputWidth, CvType.CV_8U);
+            inputSize = new Size(inputWidth, inputHeight);
+
+            raw = new short[width * height];
+            pixels = new byte[inputWidth * inputHeight];
+            rewind();
+        }
+
+        /// Back to the first frame, with a fresh detector so every pass makes the same images
+        void rewind() {
+            detector = new ExhaleDetector(reader.getWidth(), reader.getHeight(), NO_EXHALES);
+            next = 0;
+        }
+
+        /// Makes the next frame's image and puts it in input, ready to read
+        void read(ByteBuffer input) {
+            long timestamp = reader.readFrame(next++, raw);
+            detector.process(raw, mask.getFrame(), timestamp);
+
+            squareRoi.put(0, 0, detector.getPreview());
+            square.copyTo(squareMasked, squareMask);
+            Imgproc.resize(squareMasked, small, inputSize, 0, 0, Imgproc.INTER_AREA);
+            small.get(0, 0, pixels);
+
+            input.clear();
+            input.put(pixels).flip();
+        }
+
+        @Override
+        public void close() {
+            for (Mat m : new Mat[] { squareMask, square, squareRoi, squareMasked, small }) {
+                m.release();
+            }
+        }
+    }
+
+    private static class VariantResult {
+        long nativeBytes;
+        long[] latencyNanos;
+        int[] top;
+        float[][] scores;
+    }
+
+    /// Runs one variant over every input, or returns null if the model can't be loaded. Making the
+    /// inputs isn't timed.
+    private VariantResult runVariant(ImageClassifierHelper.ModelVariant variant, Inputs inputs) {
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        ImageClassifierHelper helper = ImageClassifierHelper.create(context, NO_RESULTS, variant);
+        if (!helper.isReady()) {
+            Log.d(TAG, variant + " is not available");
+            return null;
+        }
+
+        VariantResult result = new VariantResult();
+        result.nativeBytes = Debug.getNativeHeapAllocatedSize() - nativeBefore;
+        result.latencyNanos = new long[inputs.count];
+        result.top = new int[inputs.count];
+        result.scores = new float[inputs.count][];
+
+        ByteBuffer input = ByteBuffer.allocateDirect(helper.getInputWidth() * helper.getInputHeight());
+        inputs.rewind();
+        for (int i = 0; i < WARMUP_INFERENCES && i < inputs.count; i++) {
+            inputs.read(input);
+            helper.classify(input, i, 0);
+        }
+
+        inputs.rewind();
+        for (int i = 0; i < inputs.count; i++) {
+            inputs.read(input);
+
+            long start = System.nanoTime();
+            helper.classify(input, i, 0);
+            result.latencyNanos[i] = System.nanoTime() - start;
+
+            float[] scores = helper.getScores();
+            result.scores[i] = scores.clone();
+            result.top[i] = argMax(scores);
+        }
+
+        helper.clearInterpreter();
+        Log.d(TAG, variant + " done");
+        return result;
+    }
+
+    private JSONObject toJson(ImageClassifierHelper.ModelVariant variant, VariantResult result,
+                              int[] referenceTop, float[][] referenceScores) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("variant", variant.name());
+        json.put("model", variant.modelPath);
+        json.put("available", result != null);
+        if (result == null) {
+            return json;
+        }
+
+        long[] sorted = result.latencyNanos.clone();
+        Arrays.sort(sorted);
+        double total = 0;
+        for (long l : sorted) {
+            total += l;
+        }
+        int n = sorted.length;
+        if (n > 0) {
+            json.put("meanMs", total / n / 1e6);
+            json.put("p50Ms", sorted[(n - 1) / 2] / 1e6);
+            json.put("p95Ms", sorted[(int) Math.ceil(0.95 * n) - 1] / 1e6);
+            json.put("maxMs", sorted[n - 1] / 1e6);
+        }
+        json.put("nativeHeapBytes", result.nativeBytes);
+
+        // Agreement with the float model: same top label, and how far the scores moved
+        if (referenceTop != null && n > 0) {
+            int agree = 0;
+            double scoreError = 0;
+            float maxScoreError = 0;
+            for (int i = 0; i < n; i++) {
+                if (result.top[i] == referenceTop[i]) {
+                    agree++;
+                }
+                for (int c = 0; c < result.scores[i].length; c++) {
+                    float error = Math.abs(result.scores[i][c] - referenceScores[i][c]);
+                    scoreError += error;
+                    maxScoreError = Math.max(maxScoreError, error);
+                }
+            }
+            json.put("top1Agreement", agree / (double) n);
+            json.put("meanScoreError", scoreError / (n * (double) result.scores[0].length));
+            json.put("maxScoreError", maxScoreError);
+        }
+        return json;
+    }
+
+    private static int argMax(float[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static final ExhaleDetector.Listener NO_EXHALES = new ExhaleDetector.Listener() {
+        @Override
+        public void onExhaleStarted(ExhaleType type, long timestampNanos) {}
+
+        @Override
+        public void onExhaleEnded(String source, long timestampNanos) {}
+    };
+
+    /// The benchmark reads scores straight from the helper
+    private static final ImageClassifierHelper.ClassifierListener NO_RESULTS = new ImageClassifierHelper.ClassifierListener() {
+        @Override
+        public void onError(String error) {
+            Log.e(TAG, error);
+        }
+
+        @Override
+        public void onResults(List<ImageClassifierHelper.Classification> results, long inferenceTime,
+                              long frameSequence, long frameTimestampNanos) {}
+    };
+}
@@ -0,0 +1,121 @@
+package com.bschoun.godot.seekthermal;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The OpenCV buffers of one camera's sessions at one frame size. Every Mat the pipeline uses comes
+ * from here, so their native memory is freed in one place rather than whenever the garbage
+ * collector gets around to finalizing them, which the Java heap (a few bytes per Mat) never
+ * pushes it to do.
+ *
+ * When the pipeline stops, recycle() takes all of them back, and the next session at the same
+ * size gets the same Mats instead of new ones, so open/close and unplug/replug cycles don't grow
+ * native memory. release() frees them for good, when the size changes or the plugin shuts down.
+ *
+ * Sessions are set up and torn down on one thread at a time; the footprint can be read from any.
+ */
+final class NativeArena {
+
+    /// A Mat, and whether the current session has it
+    private static final class Entry {
+        final Mat mat;
+        boolean inUse;
+
+        Entry(Mat mat) {
+            this.mat = mat;
+        }
+    }
+
+    private final int width;
+    private final int height;
+
+    private final List<Entry> mats = new ArrayList<>();
+    private final List<Mat> views = new ArrayList<>();  // Submats, which share their parent's data
+    private long footprintBytes = 0;
+    private int reusedCount = 0;
+    private boolean released = false;
+
+    NativeArena(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /// Whether this arena's buffers are the right ones for frames of this size
+    boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    /// A zeroed 8-bit Mat, one the arena already has if a free one is the right size
+    synchronized Mat mat(int rows, int cols) {
+        if (released) {
+            throw new IllegalStateException("Arena for " + width + "x" + height + " was released");
+        }
+        for (Entry entry : mats) {
+            if (!entry.inUse && entry.mat.rows() == rows && entry.mat.cols() == cols) {
+                entry.inUse = true;
+                entry.mat.setTo(Scalar.all(0));
+                reusedCount++;
+                return entry.mat;
+            }
+        }
+        Entry entry = new Entry(new Mat(rows, cols, CvType.CV_8U, Scalar.all(0)));
+        entry.inUse = true;
+        mats.add(entry);
+        footprintBytes += entry.mat.total() * entry.mat.elemSize();
+        return entry.mat;
+    }
+
+    /// A view of part of a Mat from this arena; released with the session
+    synchronized Mat submat(Mat parent, Rect rect) {
+        Mat view = parent.submat(rect);
+        views.add(view);
+        return view;
+    }
+
+    /// Takes back every Mat once nothing uses them any more (the pipeline has stopped), so the next
+    /// session can have them
+    synchronized void recycle() {
+        for (Entry entry : mats) {
+            entry.inUse = false;
+        }
+        releaseViews();
+    }
+
+    /// Frees every Mat; nothing may use them afterwards
+    synchronized void release() {
+        releaseViews();
+        for (Entry entry : mats) {
+            entry.mat.release();
+        }
+        mats.clear();
+        footprintBytes = 0;
+        released = true;
+    }
+
+    /// Native memory held by the Mats
+    synchronized long getFootprintBytes() {
+        return footprintBytes;
+    }
+
+    synchronized int getMatCount() {
+        return mats.size();
+    }
+
+    /// Mats handed out again instead of allocated, over the arena's life
+    synchronized int getReusedCount() {
+        return reusedCount;
+    }
+
+    private void releaseViews() {
+        for (Mat view : views) {
+            view.release();
+        }
+        views.clear();
+    }
+}
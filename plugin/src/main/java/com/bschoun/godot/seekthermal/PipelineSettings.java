@@ -0,0 +1,259 @@
+package com.bschoun.godot.seekthermal;
+
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.FrameMask;
+import com.thermal.seekware.SeekCamera;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Everything Godot can change that the frame pipelines read: mask and flips, palette, detector
+ * thresholds, how often results are sent, and the flight recorder.
+ *
+ * A snapshot never changes: its fields are final, and the with...() methods build a changed copy,
+ * which the plugin swaps in with a single volatile write. Each pipeline picks up the current
+ * snapshot once per frame, at the start of analysis, then hands that same snapshot on with the
+ * frame to the preview and CNN stages. So a frame is processed with one consistent set of settings,
+ * and the frame path never locks. Masks for each resolution are generated on first use, and shared
+ * by the snapshots that have the same mask and flips.
+ */
+final class PipelineSettings {
+
+    static final PipelineSettings DEFAULT = new PipelineSettings(DetectorConfig.DEFAULT,
+            new Masks(null, 0, false, false), SeekCamera.ColorPalette.WHITEHOT, 1, 1, 1_000_000_000L, 0, true,
+            1, 1, null, 3, 2, true);
+
+    private final DetectorConfig detectorConfig;
+
+    private final Masks masks;
+
+    private final SeekCamera.ColorPalette palette;
+
+    // Packed stats of every statsDecimation-th frame, statsBatchSize records per new_data
+    private final int statsDecimation;
+    private final int statsBatchSize;
+
+    private final long breathingRateIntervalNanos;
+
+    // Preview images at most once per previewIntervalNanos (0 for every frame), sent as new_image
+    // only if imageSignalEnabled
+    private final long previewIntervalNanos;
+    private final boolean imageSignalEnabled;
+
+    // Temporal mode: temporalWindow frames per inference, every temporalStride frames
+    private final int temporalWindow;
+    private final int temporalStride;
+
+    // Flight recorder: where dumps go (null when it's off), the window around each trigger, and
+    // whether exhale events trigger it
+    private final File flightRecorderDirectory;
+    private final float flightRecorderPreSeconds;
+    private final float flightRecorderPostSeconds;
+    private final boolean flightRecorderOnExhale;
+
+    /// The mask asset with its flips, and the masks generated from it per resolution
+    private static final class Masks {
+        // maskSize x maskSize, null until it's loaded
+        final byte[] source;
+        final int size;
+        final boolean xFlip;
+        final boolean yFlip;
+
+        // Only ever replaced by a longer copy
+        private volatile FrameMask[] generated = new FrameMask[0];
+
+        Masks(byte[] source, int size, boolean xFlip, boolean yFlip) {
+            this.source = source;
+            this.size = size;
+            this.xFlip = xFlip;
+            this.yFlip = yFlip;
+        }
+
+        FrameMask get(int width, int height) {
+            for (FrameMask mask : generated) {
+                if (mask.getWidth() == width && mask.getHeight() == height) {
+                    return mask;
+                }
+            }
+            return create(width, height);
+        }
+
+        // Locked so pipelines of the same resolution share one mask (the detector compares masks by
+        // reference, and a new one restarts its moving average). Runs once per resolution.
+        private synchronized FrameMask create(int width, int height) {
+            FrameMask[] current = generated;
+            for (FrameMask mask : current) {
+                if (mask.getWidth() == width && mask.getHeight() == height) {
+                    return mask;
+                }
+            }
+            if (source == null) {
+                return null;
+            }
+            FrameMask mask = new FrameMask(source, size, width, height, xFlip, yFlip);
+            FrameMask[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = mask;
+            generated = updated;
+            return mask;
+        }
+    }
+
+    private PipelineSettings(DetectorConfig detectorConfig, Masks masks, SeekCamera.ColorPalette palette,
+                             int statsDecimation, int statsBatchSize, long breathingRateIntervalNanos,
+                             long previewIntervalNanos, boolean imageSignalEnabled,
+                             int temporalWindow, int temporalStride,
+                             File flightRecorderDirectory, float flightRecorderPreSeconds,
+                             float flightRecorderPostSeconds, boolean flightRecorderOnExhale) {
+        this.detectorConfig = detectorConfig;
+        this.masks = masks;
+        this.palette = palette;
+        this.statsDecimation = statsDecimation;
+        this.statsBatchSize = statsBatchSize;
+        this.breathingRateIntervalNanos = breathingRateIntervalNanos;
+        this.previewIntervalNanos = previewIntervalNanos;
+        this.imageSignalEnabled = imageSignalEnabled;
+        this.temporalWindow = temporalWindow;
+        this.temporalStride = temporalStride;
+        this.flightRecorderDirectory = flightRecorderDirectory;
+        this.flightRecorderPreSeconds = flightRecorderPreSeconds;
+        this.flightRecorderPostSeconds = flightRecorderPostSeconds;
+        this.flightRecorderOnExhale = flightRecorderOnExhale;
+    }
+
+    /// size x size mask bytes, non-zero inside the mask
+    PipelineSettings withMaskSource(byte[] source, int size) {
+        return withMasks(new Masks(source, size, masks.xFlip, masks.yFlip));
+    }
+
+    PipelineSettings withFlips(boolean xFlip, boolean yFlip) {
+        if (xFlip == masks.xFlip && yFlip == masks.yFlip) {
+            return this;
+        }
+        return withMasks(new Masks(masks.source, masks.size, xFlip, yFlip));
+    }
+
+    private PipelineSettings withMasks(Masks masks) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withDetectorConfig(DetectorConfig config) {
+        return new PipelineSettings(config, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withPalette(SeekCamera.ColorPalette palette) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withStatsRate(int decimation, int batchSize) {
+        return new PipelineSettings(detectorConfig, masks, palette, decimation, batchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withBreathingRateInterval(long nanos) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                nanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withPreviewInterval(long nanos) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, nanos, imageSignalEnabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withImageSignalEnabled(boolean enabled) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, enabled, temporalWindow, temporalStride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    PipelineSettings withTemporalMode(int window, int stride) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, window, stride,
+                flightRecorderDirectory, flightRecorderPreSeconds, flightRecorderPostSeconds, flightRecorderOnExhale);
+    }
+
+    /// directory null turns the flight recorder off
+    PipelineSettings withFlightRecorder(File directory, float preSeconds, float postSeconds, boolean onExhale) {
+        return new PipelineSettings(detectorConfig, masks, palette, statsDecimation, statsBatchSize,
+                breathingRateIntervalNanos, previewIntervalNanos, imageSignalEnabled, temporalWindow, temporalStride,
+                directory, preSeconds, postSeconds, onExhale);
+    }
+
+    /// The mask for a sensor resolution, generated on first use; null until the mask asset is loaded
+    FrameMask getMask(int width, int height) {
+        return masks.get(width, height);
+    }
+
+    boolean hasMask() {
+        return masks.source != null;
+    }
+
+    DetectorConfig getDetectorConfig() {
+        return detectorConfig;
+    }
+
+    boolean isXFlipped() {
+        return masks.xFlip;
+    }
+
+    boolean isYFlipped() {
+        return masks.yFlip;
+    }
+
+    SeekCamera.ColorPalette getPalette() {
+        return palette;
+    }
+
+    int getStatsDecimation() {
+        return statsDecimation;
+    }
+
+    int getStatsBatchSize() {
+        return statsBatchSize;
+    }
+
+    long getBreathingRateIntervalNanos() {
+        return breathingRateIntervalNanos;
+    }
+
+    long getPreviewIntervalNanos() {
+        return previewIntervalNanos;
+    }
+
+    boolean isImageSignalEnabled() {
+        return imageSignalEnabled;
+    }
+
+    int getTemporalWindow() {
+        return temporalWindow;
+    }
+
+    int getTemporalStride() {
+        return temporalStride;
+    }
+
+    File getFlightRecorderDirectory() {
+        return flightRecorderDirectory;
+    }
+
+    float getFlightRecorderPreSeconds() {
+        return flightRecorderPreSeconds;
+    }
+
+    float getFlightRecorderPostSeconds() {
+        return flightRecorderPostSeconds;
+    }
+
+    boolean isFlightRecorderOnExhale() {
+        return flightRecorderOnExhale;
+    }
+}
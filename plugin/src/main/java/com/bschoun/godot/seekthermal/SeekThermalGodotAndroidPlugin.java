@@ -1,121 +1,84 @@
 package com.bschoun.godot.seekthermal;
 
 // Graphics
-import android.content.res.AssetManager;
-import android.graphics.Bitmap;
+import android.app.Activity;
 
 // Seek Thermal
 import com.thermal.seekware.SeekCamera;
 import com.thermal.seekware.SeekCameraManager;
-import com.thermal.seekware.SeekImage;
-import com.thermal.seekware.SeekImageReader;
+
+// Detection engine
+import com.bschoun.godot.seekthermal.engine.BreathingRateEstimator;
+import com.bschoun.godot.seekthermal.engine.DetectorConfig;
+import com.bschoun.godot.seekthermal.engine.PackedStats;
+import com.bschoun.godot.seekthermal.engine.QuantileEngine;
+import com.bschoun.godot.seekthermal.engine.ReplayFrameSource;
+import com.bschoun.godot.seekthermal.engine.ThermalFrame;
+import com.bschoun.godot.seekthermal.engine.ThermalRecordingReader;
+import com.bschoun.godot.seekthermal.engine.TraceRing;
 
 // Godot
+import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.Godot;
 import org.godotengine.godot.plugin.GodotPlugin;
 import org.godotengine.godot.plugin.SignalInfo;
-import org.godotengine.godot.Dictionary;
 import org.godotengine.godot.plugin.UsedByGodot;
 
 // OpenCV
 import org.opencv.android.OpenCVLoader;
-import org.opencv.android.Utils;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.core.Core.MinMaxLocResult;
-import org.opencv.core.Core;
-import org.opencv.core.MatOfDouble;
-import org.opencv.core.MatOfFloat;
-import org.opencv.core.MatOfInt;
-import org.opencv.core.Scalar;
-import org.opencv.core.Rect;
-import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 // Java
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.nio.ByteBuffer;
-import java.nio.ShortBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.UnaryOperator;
+import java.nio.charset.StandardCharsets;
 
 // Android
-import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.NonNull;
 
-public class SeekThermalGodotAndroidPlugin extends GodotPlugin
-        implements SeekImageReader.OnImageAvailableListener, ImageClassifierHelper.ClassifierListener {
+public class SeekThermalGodotAndroidPlugin extends GodotPlugin implements ImageClassifierHelper.ClassifierListener {
 
     private final SeekCameraManager seekCameraManager;
-    private final SeekImageReader seekImageReader;        // Access to images without rendering
-
-    private SeekCamera seekCamera;
-
-    // Image configurations
-    //private java.nio.ByteBuffer bitmapBytes = null; // Buffer to hold bitmap
-    private Bitmap processingBitmap;
 
-    // Prepare for input into classifier
-    // Make image square
+    // One pipeline per connected camera, indexed by camera id. A camera keeps its id (and pipeline)
+    // while it's connected; a closed camera's slot goes to the next camera that opens. Camera 0 is
+    // the primary camera the methods without a camera id use, and replays run through its pipeline.
+    static final int MAX_CAMERAS = 4;
+    private final CameraPipeline[] pipelines = new CameraPipeline[MAX_CAMERAS];
 
-    private boolean xFlip = false;
-    private boolean yFlip = false;
+    // Side the square mask asset is loaded at; each sensor resolution's mask is scaled from it
+    private static final int MASK_SIZE = 320;
 
-    // Camera info
-    private int width = 320;
-    private int height = 240;
+    static final int FPS = 27;
 
-    private Size targetSize;
+    // Flight recorder dumps kept per camera; older ones are deleted
+    static final int FLIGHT_RECORDER_MAX_DUMPS = 20;
 
-    private final int FPS = 27;
-
-    private final int EXHALE_TIMEOUT = 7;
-
-    //private final float SHORT_HISTORY = 0.5f;
-    private final float HISTORY_SECONDS = 1;
-
-    private final float EXHALE_START_THRESHOLD = 0.5f;
-    private final float EXHALE_END_THRESHOLD = -0.25f;
-
-    private final float GALE_THRESHOLD = -0.125f;
-    private final float WAFT_THRESHOLD = 2.0f;
+    // Seconds of frames a recording can queue while the disk is slow before it drops any
+    static final float RECORDING_BUFFER_SECONDS = 3;
 
     private final float STD_DEV = 2;
-    private String cameraInfoText;
-
-    private Mat processingMatGray;
-
-    private Mat processingMatGrayMask;
-
-    private Mat processingMatGrayMaskSmall;
-
-    private Mat processingMatColor;
-    private Mat shortMat; // Intermediate data in 16-bit shorts
-    private Mat floatMat; // Data as 32-bit floats after conversion to actual values (in C)
-
-    private Mat shortDiffMat;
-    private Mat diffMat;
-
-    private Mat scaled;
-
-    private Rect roiRect;
-
-    private Mat mask320x320;
-
-    private Mat mask320x240;
-
-    private Mat mask320x240Inverse;
 
-    private Mat shortMovingAverageMat;
-    private Mat movingAverageMat;
+    // Mask, flips, palette, thresholds and signal rates, for every camera. Replaced (never modified)
+    // under the plugin's lock; pipelines read it once per frame without locking.
+    private volatile PipelineSettings settings = PipelineSettings.DEFAULT;
 
-    private byte[] scaledBytes;
-    private byte[] scaledSquareBytes;
-    private short[] shortArray;
+    // How the detector finds the quartiles of the diff image for the IQR upper fence
+    static final QuantileEngine.Mode IQR_MODE = QuantileEngine.Mode.EXACT;
 
 
     // List of color palettes that can be indexed (because you can't cast Java enums to ints?)
@@ -140,7 +103,7 @@ public class SeekThermalGodotAndroidPlugin extends GodotPlugin
         SeekCamera.ColorPalette.USER4
     };
 
-    private enum CameraState {
+    enum CameraState {
         NONE,
         INITIALIZED,
         OPENED,
@@ -149,130 +112,221 @@ public class SeekThermalGodotAndroidPlugin extends GodotPlugin
         CLOSED
     }
 
-    private enum ExhaleType {
-        GALE,
-        WAFT,
-        NONE,
-        CALM
-    }
-
-    private CameraState state = CameraState.NONE;
-
-    // Initialize to color 0
-    private SeekCamera.ColorPalette _palette = colorPallets[0];
-
-    private final ImageClassifierHelper imageClassifierHelper;
+    // Set once background startup has loaded the model. Used by camera 0; other cameras load their own.
+    private volatile ImageClassifierHelper imageClassifierHelper;
 
-    // Keep track of whether we're exhaling or not (inhaling, holding breath)
-    private boolean exhaling = false;
+    private CompletableFuture<Void> startup;
 
     private static final int nFrames = 27;
 
-    private long exhaleStartTime = 0;
-    private long exhaleEndTime;
+    // Last frames' stage spans and exhale events of every camera, for dumpTrace()
+    private static final int TRACE_CAPACITY = 16384;
+    private final TraceRing trace = new TraceRing(TRACE_CAPACITY);
 
-    private float accumulateAlpha;
+    // Plays recorded frames into camera 0's pipeline in place of the camera
+    private ReplayFrameSource replaySource;
+    private ThermalRecordingReader replayReader;
 
-    private boolean initialized = false;
+    // Compares the CNN model variants over a recording
+    private Thread modelBenchmarkThread;
 
-    private final Scalar blackColor = new Scalar(0,0,0);
-
-    private static int totalPixels;
-
-    private ExhaleType exhaleType = ExhaleType.NONE;
 
 
     /// Thermal Camera things ///
 
-    // Callback adapter allows us to run specific functions when the camera changes state
+    // Callback adapter allows us to run specific functions when the camera changes state. Every
+    // camera reports here; sc tells us which one.
     SeekCamera.StateCallback stateCallback = new SeekCamera.StateCallbackAdapter() {
         @Override
         public synchronized void onOpened(SeekCamera sc) {
 
-            Log.d(getPluginName(), "Camera opened");
-            seekCamera = sc;
-
-            // Get details from camera
-            cameraInfoText = seekCamera.toString();
-            width = seekCamera.getCharacteristics().getWidth();
-            height = seekCamera.getCharacteristics().getHeight();
-
-            totalPixels = width*height;
-            targetSize = new Size(224, 224);
-
-            exhaleEndTime = System.nanoTime();
-
-            Log.d(getPluginName(), "Setting up mats...");
-
-            // Initialize all of our data storage
-            shortArray = new short[totalPixels];
-            shortMat = new Mat(height, width, CvType.CV_16UC1);
-            floatMat = new Mat(height, width, CvType.CV_32F);
-
-            shortMovingAverageMat = new Mat(height, width, CvType.CV_32F);
-            movingAverageMat = new Mat(height, width, CvType.CV_32F);
-
-            shortDiffMat = new Mat(height, width, CvType.CV_32F);
-            diffMat = new Mat(height, width, CvType.CV_32F);
-
-            // Mats and byte arrays for passing image data to Godot
-            scaled = new Mat(height, width, CvType.CV_8U);
-            scaledBytes = new byte[totalPixels];
-            scaledSquareBytes = new byte[width * width]; // usually (width, with)
+            CameraPipeline pipeline = pipelineFor(sc);
+            if (pipeline == null) {
+                Log.e(getPluginName(), "Camera opened, but " + MAX_CAMERAS + " cameras are already in use. Ignoring it.");
+                return;
+            }
+            int id = pipeline.getId();
+            Log.d(getPluginName(), "Camera " + id + " opened");
 
-            // For CNN-related processing
-            processingBitmap = Bitmap.createBitmap((int)targetSize.width, (int)targetSize.height, Bitmap.Config.ARGB_8888);
-            processingMatGray = new Mat(width, width, CvType.CV_8U);
-            processingMatGrayMask = new Mat(width, width, CvType.CV_8U);
-            processingMatGrayMaskSmall = new Mat(targetSize, CvType.CV_8U);
-            processingMatColor = new Mat(targetSize, CvType.CV_8UC3);
+            // The pipeline needs the mask; this only waits if the camera opens while the plugin starts
+            if (!awaitStartup()) {
+                Log.e(getPluginName(), "Plugin failed to start, not processing camera frames.");
+                return;
+            }
 
-            // Alpha values for moving averages
-            //shortAccumulateAlpha = 1.0f/(FPS*SHORT_HISTORY);
-            accumulateAlpha = 1.0f/(FPS* HISTORY_SECONDS);
+            // Camera 0's pipeline may be busy with a replay
+            if (id == 0) {
+                stopReplay();
+            }
 
-            Log.d(getPluginName(), "Mats set up!");
+            // Sets up buffers and threads for the camera's frame size, dropping anything still
+            // processing from a previous session
+            pipeline.open(sc, imageClassifierHelper);
 
-            int yOffset = (width - height) / 2;
-            roiRect = new Rect(0, yOffset, width, height);
             // Our state is OPENED
-            state = CameraState.OPENED;
+            pipeline.setState(CameraState.OPENED);
 
             Log.d(getPluginName(), "Emitting camera_opened");
 
             // Tell Godot the camera is opened
-            emitSignal("camera_opened");
+            emitSignal("camera_opened", id);
         }
 
         @Override
         public synchronized void onStarted(SeekCamera sc) {
-            Log.d(getPluginName(), "Camera started");
-            state = CameraState.STARTED;
-            emitSignal("camera_started");
+            CameraPipeline pipeline = findPipeline(sc);
+            if (pipeline == null) {
+                return;
+            }
+            Log.d(getPluginName(), "Camera " + pipeline.getId() + " started");
+            pipeline.setState(CameraState.STARTED);
+
+            // After the state, so a palette set meanwhile is either seen here or applied by setColorPalette()
+            sc.setColorPalette(settings.getPalette());
+            emitSignal("camera_started", pipeline.getId());
         }
 
         @Override
         public synchronized void onStopped(SeekCamera sc) {
-            Log.d(getPluginName(), "Camera stopped");
-            state = CameraState.STOPPED;
-            emitSignal("camera_stopped");
+            CameraPipeline pipeline = findPipeline(sc);
+            if (pipeline == null) {
+                return;
+            }
+            Log.d(getPluginName(), "Camera " + pipeline.getId() + " stopped");
+            pipeline.setState(CameraState.STOPPED);
+            emitSignal("camera_stopped", pipeline.getId());
         }
 
         @Override
         public synchronized void onClosed(SeekCamera sc) {
-            Log.d(getPluginName(), "Camera closed");
-            state = CameraState.CLOSED;
-            emitSignal("camera_closed");
+            CameraPipeline pipeline = findPipeline(sc);
+            if (pipeline == null) {
+                return;
+            }
+            Log.d(getPluginName(), "Camera " + pipeline.getId() + " closed");
+            pipeline.close();
+            pipeline.setState(CameraState.CLOSED);
+            emitSignal("camera_closed", pipeline.getId());
         }
 
         @Override
         public synchronized void onInitialized(SeekCamera sc) {
-            Log.d(getPluginName(), "Camera initialized");
-            state = CameraState.INITIALIZED;
-            emitSignal("camera_initialized");
+            CameraPipeline pipeline = pipelineFor(sc);
+            if (pipeline == null) {
+                return;
+            }
+            Log.d(getPluginName(), "Camera " + pipeline.getId() + " initialized");
+            pipeline.setState(CameraState.INITIALIZED);
+            emitSignal("camera_initialized", pipeline.getId());
         }
     };
 
+    /// The pipeline of this camera, or null if it doesn't have one
+    private synchronized CameraPipeline findPipeline(SeekCamera camera) {
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null && pipeline.getSeekCamera() == camera) {
+                return pipeline;
+            }
+        }
+        return null;
+    }
+
+    /// The pipeline of this camera, giving it the lowest free id if it doesn't have one yet; null if
+    /// MAX_CAMERAS cameras are already in use
+    private synchronized CameraPipeline pipelineFor(SeekCamera camera) {
+        CameraPipeline existing = findPipeline(camera);
+        if (existing != null) {
+            return existing;
+        }
+        for (int id = 0; id < MAX_CAMERAS; id++) {
+            CameraPipeline pipeline = getOrCreatePipeline(id);
+            if (!pipeline.isInUse()) {
+                pipeline.attach(camera);
+                return pipeline;
+            }
+        }
+        return null;
+    }
+
+    private synchronized CameraPipeline getOrCreatePipeline(int id) {
+        if (pipelines[id] == null) {
+            pipelines[id] = new CameraPipeline(this, id, trace);
+        }
+        return pipelines[id];
+    }
+
+    /// The pipeline with this id, or null (logged) if there's no such camera
+    private synchronized CameraPipeline getPipeline(int id) {
+        CameraPipeline pipeline = id >= 0 && id < MAX_CAMERAS ? pipelines[id] : null;
+        if (pipeline == null) {
+            Log.d(getPluginName(), "No camera " + id + ".");
+        }
+        return pipeline;
+    }
+
+    /// Cameras that are currently open (or opening)
+    private synchronized List<SeekCamera> getOpenCameras() {
+        List<SeekCamera> cameras = new java.util.ArrayList<>();
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null && pipeline.isInUse()) {
+                cameras.add(pipeline.getSeekCamera());
+            }
+        }
+        return cameras;
+    }
+
+    /// Cameras that are currently started
+    private synchronized List<SeekCamera> getStartedCameras() {
+        List<SeekCamera> cameras = new java.util.ArrayList<>();
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null && pipeline.getState() == CameraState.STARTED) {
+                cameras.add(pipeline.getSeekCamera());
+            }
+        }
+        return cameras;
+    }
+
+    /// Camera 0's SeekCamera, or null (logged) if it isn't connected
+    private SeekCamera getPrimaryCamera() {
+        CameraPipeline pipeline = pipelines[0];
+        SeekCamera camera = pipeline == null ? null : pipeline.getSeekCamera();
+        if (camera == null) {
+            Log.d(getPluginName(), "Camera 0 is not connected.");
+        }
+        return camera;
+    }
+
+    //region Accessors for the camera pipelines
+    /// Emits a signal on behalf of a camera pipeline
+    void emit(String signal, Object... args) {
+        emitSignal(signal, args);
+    }
+
+    /// Loads the classifier, ready to run: on the fastest backend found by calibrateClassifier() on
+    /// an earlier launch if there is one, otherwise warmed up on the default
+    ImageClassifierHelper createClassifier(ImageClassifierHelper.ClassifierListener listener) {
+        ImageClassifierHelper helper = ImageClassifierHelper.create(Objects.requireNonNull(getActivity()), listener);
+        if (!helper.applyCalibration()) {
+            helper.warmUp();
+        }
+        return helper;
+    }
+
+    ImageClassifierHelper getSharedClassifier() {
+        return imageClassifierHelper;
+    }
+
+    /// The current settings; read once and use that snapshot for the whole frame
+    PipelineSettings getSettings() {
+        return settings;
+    }
+
+    /// Publishes a changed copy of the settings; pipelines pick it up from their next frame
+    private synchronized void updateSettings(UnaryOperator<PipelineSettings> change) {
+        settings = change.apply(settings);
+    }
+    //endregion
+
     //region Thermal camera Godot functions
     // TODO: Ideally, separate this functionality from exhale detection
 
@@ -281,451 +335,714 @@ public class SeekThermalGodotAndroidPlugin extends GodotPlugin
         return seekCameraManager.getUSBDeviceCount();
     }
 
+    /// Ids of the cameras that are connected, for the methods that take a camera id
+    @UsedByGodot
+    public synchronized int[] getCameraIds() {
+        int count = 0;
+        int[] ids = new int[MAX_CAMERAS];
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null && pipeline.isInUse()) {
+                ids[count++] = pipeline.getId();
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    // The shutter, smoothing and emissivity apply to every camera; the getters report camera 0
+
     @UsedByGodot
     public void suspendShutter() {
-        seekCamera.suspendShutter();
+        for (SeekCamera camera : getOpenCameras()) {
+            camera.suspendShutter();
+        }
     }
 
     @UsedByGodot
     public void triggerShutter() {
-        seekCamera.triggerShutter();
+        for (SeekCamera camera : getOpenCameras()) {
+            camera.triggerShutter();
+        }
     }
 
     @UsedByGodot
     public void resumeShutter() {
-        seekCamera.resumeShutter();
+        for (SeekCamera camera : getOpenCameras()) {
+            camera.resumeShutter();
+        }
     }
 
     @UsedByGodot
     public boolean isAutomaticShutter() {
-        return seekCamera.isAutomaticShutter();
+        SeekCamera camera = getPrimaryCamera();
+        return camera != null && camera.isAutomaticShutter();
     }
 
     @UsedByGodot
     public void setImageSmoothing(boolean value) {
-        seekCamera.setImageSmoothing(value);
+        for (SeekCamera camera : getOpenCameras()) {
+            camera.setImageSmoothing(value);
+        }
     }
 
     @UsedByGodot
     public boolean getImageSmoothing() {
-        return seekCamera.getImageSmoothing();
+        SeekCamera camera = getPrimaryCamera();
+        return camera != null && camera.getImageSmoothing();
     }
 
     @UsedByGodot
     public void setEmissivity(float emissivity) {
-        seekCamera.setEmissivity(emissivity);
+        for (SeekCamera camera : getOpenCameras()) {
+            camera.setEmissivity(emissivity);
+        }
     }
 
     @UsedByGodot
     public float getEmissivity() {
-        return seekCamera.getEmissivity();
+        SeekCamera camera = getPrimaryCamera();
+        return camera == null ? 0 : camera.getEmissivity();
     }
 
+    /// Starts every open camera
     @UsedByGodot
     public void startCamera() {
-        if (state != CameraState.OPENED && state != CameraState.STOPPED) {
-            Log.d(getPluginName(), "Invalid camera state, cannot start camera.");
-            return;
+        for (int id : getCameraIds()) {
+            startCameraById(id);
         }
-        seekCamera.createSeekCameraCaptureSession(false, true, true, seekImageReader);
-        seekCamera.setColorPalette(_palette);
     }
 
+    /// Stops every started camera
     @UsedByGodot
     public void stopCamera() {
-        if (state != CameraState.STARTED) {
-            Log.d(getPluginName(), "Invalid camera state, cannot stop camera.");
+        for (int id : getCameraIds()) {
+            stopCameraById(id);
         }
-        seekCamera.stop();
     }
 
     @UsedByGodot
-    public void setXFlip(boolean flipped) {
-        if (xFlip != flipped) {
-            Core.flip(mask320x320, mask320x320, 1);
-            Core.flip(mask320x240, mask320x240, 1);
-            xFlip = flipped;
+    public void startCameraById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        if (pipeline == null) {
+            return;
         }
+        CameraState state = pipeline.getState();
+        SeekCamera camera = pipeline.getSeekCamera();
+        if (camera == null || (state != CameraState.OPENED && state != CameraState.STOPPED)) {
+            Log.d(getPluginName(), "Invalid camera state, cannot start camera " + id + ".");
+            return;
+        }
+        // The palette is applied once the camera has started (see onStarted)
+        camera.createSeekCameraCaptureSession(false, true, true, pipeline.getImageReader());
     }
 
     @UsedByGodot
-    public void setYFlip(boolean flipped) {
-        if (yFlip != flipped) {
-            yFlip = flipped;
-            Core.flip(mask320x320, mask320x320, 0);
-            Core.flip(mask320x240, mask320x240, 0);
+    public void stopCameraById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        if (pipeline == null) {
+            return;
+        }
+        SeekCamera camera = pipeline.getSeekCamera();
+        if (camera == null || pipeline.getState() != CameraState.STARTED) {
+            Log.d(getPluginName(), "Invalid camera state, cannot stop camera " + id + ".");
+            return;
         }
+        camera.stop();
+    }
+
+    @UsedByGodot
+    public void setXFlip(boolean flipped) {
+        // Masks are generated again, with the flip, on their next use
+        updateSettings(s -> s.withFlips(flipped, s.isYFlipped()));
     }
 
+    @UsedByGodot
+    public void setYFlip(boolean flipped) {
+        updateSettings(s -> s.withFlips(s.isXFlipped(), flipped));
+    }
+
+    /// Sets the palette of every camera
     @UsedByGodot
     public void setColorPalette(int palette) {
-        if (palette > (colorPallets.length - 1)) {
+        if (palette < 0 || palette >= colorPallets.length) {
             Log.d(getPluginName(),"Invalid color palette.");
             return;
         }
-        _palette = colorPallets[palette];
-        if (state == CameraState.STARTED) {
-            seekCamera.setColorPalette(_palette);
+        SeekCamera.ColorPalette selected = colorPallets[palette];
+        updateSettings(s -> s.withPalette(selected));
+
+        // Cameras that start after this pick the palette up in onStarted
+        for (SeekCamera camera : getStartedCameras()) {
+            camera.setColorPalette(settings.getPalette());
         }
     }
 
+    /// Sets the exhale detector's moving-average history (seconds), exhale timeout (seconds) and
+    /// thresholds, e.g. from a ThresholdSweep. Every camera uses them from its next frame.
+    @UsedByGodot
+    public void setDetectorConfig(float historySeconds, float exhaleTimeout, float exhaleStartThreshold,
+                                  float exhaleEndThreshold, float galeThreshold, float waftThreshold) {
+        if (historySeconds <= 0) {
+            Log.d(getPluginName(), "Invalid history, must be above 0.");
+            return;
+        }
+        DetectorConfig config = new DetectorConfig(FPS, historySeconds, exhaleTimeout,
+                exhaleStartThreshold, exhaleEndThreshold, galeThreshold, waftThreshold);
+        updateSettings(s -> s.withDetectorConfig(config));
+    }
+
+    /// The detector settings in use, by DetectorConfig field name
+    @UsedByGodot
+    public Dictionary getDetectorConfig() {
+        DetectorConfig config = settings.getDetectorConfig();
+        Dictionary result = new Dictionary();
+        result.put("historySeconds", config.historySeconds);
+        result.put("exhaleTimeout", config.exhaleTimeout);
+        result.put("exhaleStartThreshold", config.exhaleStartThreshold);
+        result.put("exhaleEndThreshold", config.exhaleEndThreshold);
+        result.put("galeThreshold", config.galeThreshold);
+        result.put("waftThreshold", config.waftThreshold);
+        return result;
+    }
+
     @UsedByGodot
     public String getCameraInfoText() {
-        if (state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
+        return getCameraInfoTextById(0);
+    }
+
+    @UsedByGodot
+    public String getCameraInfoTextById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        CameraState state = pipeline == null ? CameraState.NONE : pipeline.getState();
+        if (state == CameraState.NONE || state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
             Log.d(getPluginName(), "Invalid camera state, cannot get info.");
             return "";
         }
-        return cameraInfoText;
+        return pipeline.getCameraInfoText();
     }
 
     @UsedByGodot
     public int getState() {
-        return state.ordinal();
+        return getStateById(0);
     }
+
+    @UsedByGodot
+    public int getStateById(int id) {
+        CameraPipeline pipeline = id >= 0 && id < MAX_CAMERAS ? pipelines[id] : null;
+        return (pipeline == null ? CameraState.NONE : pipeline.getState()).ordinal();
+    }
+
     @UsedByGodot
     public int getWidth() {
-        if (state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
+        return getWidthById(0);
+    }
+
+    @UsedByGodot
+    public int getWidthById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        CameraState state = pipeline == null ? CameraState.NONE : pipeline.getState();
+        if (state == CameraState.NONE || state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
             Log.d(getPluginName(), "Invalid camera state, cannot get width.");
             return -1;
         }
-        return width;
+        return pipeline.getWidth();
     }
 
+    /// Starts writing camera 0's raw frames to path, returns false if the file can't be created
     @UsedByGodot
-    public int getHeight() {
-        if (state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
-            Log.d(getPluginName(), "Invalid camera state, cannot get height.");
-            return -1;
+    public boolean startRecording(String path) {
+        return startRecordingById(0, path);
+    }
+
+    /// Starts writing a camera's raw frames to path, returns false if the file can't be created
+    @UsedByGodot
+    public boolean startRecordingById(int id, String path) {
+        CameraPipeline pipeline = getPipeline(id);
+        CameraState state = pipeline == null ? CameraState.NONE : pipeline.getState();
+        if (state != CameraState.OPENED && state != CameraState.STARTED && state != CameraState.STOPPED) {
+            Log.d(getPluginName(), "Invalid camera state, cannot start recording.");
+            return false;
         }
-        return height;
+        return pipeline.startRecording(path);
     }
-    //endregion
 
-    public SeekThermalGodotAndroidPlugin(Godot godot) {
-        super(godot);
+    /// Stops recording every camera, once their queued frames are written. Each emits
+    /// recording_stopped(camera id, path, frames written, frames dropped).
+    @UsedByGodot
+    public synchronized void stopRecording() {
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null) {
+                pipeline.stopRecording();
+            }
+        }
+    }
 
-        Log.d(getPluginName(), "Initializing OpenCV...");
-        if (OpenCVLoader.initLocal())
-        {
-            Log.d(getPluginName(), "OpenCV loaded successfully!");
+    /// Plays a recording through the same processing as live frames, in place of camera 0.
+    /// With realTime false, frames are fed as fast as the analysis stage takes them, so every frame
+    /// is analyzed and two replays of a file give the same detector output.
+    @UsedByGodot
+    public synchronized boolean startReplay(String path, boolean realTime) {
+        CameraPipeline pipeline = getOrCreatePipeline(0);
+        if (pipeline.getState() == CameraState.STARTED) {
+            Log.d(getPluginName(), "Invalid camera state, stop the camera before replaying.");
+            return false;
         }
-        else
-        {
-            Log.d(getPluginName(), "ERROR: Could not load OpenCV.");
+        if (!isReady()) {
+            Log.d(getPluginName(), "Plugin not ready, wait for plugin_ready before replaying.");
+            return false;
         }
+        stopReplay();
 
-        imageClassifierHelper = ImageClassifierHelper.create(getActivity(), this);
-
-        // Seek thermal camera initialization
-        Log.d(getPluginName(), "Initializing Seek Thermal camera...");
-        seekCameraManager = new SeekCameraManager(Objects.requireNonNull(getActivity()), null, stateCallback);
-        seekImageReader = new SeekImageReader();
-        seekImageReader.setOnImageAvailableListener(this);
-
-        Log.d(getPluginName(), "Seek Thermal camera initialized!");
-
-        // Set up the mask
-        mask320x320 = new Mat(width, width, CvType.CV_8U);
-
-        AssetManager assetManager = getActivity().getAssets();
-        InputStream istr = null;
         try {
-            istr = assetManager.open("mask.jpg");
+            replayReader = new ThermalRecordingReader(new File(path));
         } catch (IOException e) {
-            Log.e(getPluginName(), e.toString());
+            Log.e(getPluginName(), "Could not open recording: " + e);
+            return false;
         }
-        Bitmap bmp = BitmapFactory.decodeStream(istr);
-        Mat m = new Mat();
-        Utils.bitmapToMat(bmp, m);
-        Imgproc.cvtColor(m, mask320x320, Imgproc.COLOR_BGR2GRAY);
 
-        // Make sure mask is completely black/white, no in-between
-        Imgproc.threshold(mask320x320, mask320x320, 127, 255, Imgproc.THRESH_BINARY);
-        Rect roiRect = new Rect(0, 40, width, height);
+        pipeline.restart(replayReader.getWidth(), replayReader.getHeight());
 
-        // The mask that is the size of the image is a submat of the square image
-        mask320x240 = mask320x320.submat(roiRect);
+        replaySource = new ReplayFrameSource(replayReader, new ReplayFrameSource.Listener() {
+            @Override
+            public void onFrame(ThermalFrame frame) throws InterruptedException {
+                pipeline.publishFrame(frame.data, frame.timestampNanos, !realTime);
+            }
 
-        // Get the inverted mask
-        mask320x240Inverse = new Mat();
-        Core.bitwise_not(mask320x240, mask320x240Inverse);
+            @Override
+            public void onReplayFinished(long framesPlayed) {
+                Log.d(getPluginName(), "Replay finished after " + framesPlayed + " frames");
+                emitSignal("replay_finished");
+            }
+        }, realTime, false);
+        replaySource.start();
+        return true;
     }
 
-    @NonNull
-    @Override
-    public String getPluginName() { return "SeekThermalGodotAndroidPlugin"; }
-
-    @NonNull
-    @Override
-    public Set<SignalInfo> getPluginSignals() {
-        // Define the signals this plugin will emit
-        Set<SignalInfo> signals = new HashSet<>();
-
-        // Signal we emit when the wakeword is detected
-        signals.add(new SignalInfo("camera_opened"));
-        signals.add(new SignalInfo("camera_started"));
-        signals.add(new SignalInfo("camera_stopped"));
-        signals.add(new SignalInfo("camera_closed"));
-        signals.add(new SignalInfo("camera_initialized"));
-        signals.add(new SignalInfo("new_image", byte[].class));
-        signals.add(new SignalInfo("new_stats", Dictionary.class));
-        signals.add(new SignalInfo("new_data", float[].class));
-        signals.add(new SignalInfo("exhaling_changed", Boolean.class, String.class));
-
-        return signals;
+    @UsedByGodot
+    public synchronized void stopReplay() {
+        if (replaySource == null) {
+            return;
+        }
+        replaySource.stop();
+        replaySource = null;
+        try {
+            replayReader.close();
+        } catch (IOException e) {
+            Log.e(getPluginName(), "Could not close recording: " + e);
+        }
+        replayReader = null;
     }
 
-    @Override
-    public void onImageAvailable(final SeekImage seekImage) {
-
-        // Get the color bitmap (Bitmap.Config is hardware configuration)
-        // Hardware bitmap (to be converted to software bitmap)
-        /*Bitmap bitmap = seekImage.getColorBitmap();
+    /// Times the CNN with every backend and thread count this device supports and switches to the
+    /// fastest, on a background thread. The choice is cached, so later launches start with it; force
+    /// times the backends again anyway. Emits classifier_calibrated with the chosen config.
+    @UsedByGodot
+    public void calibrateClassifier(boolean force) {
+        new Thread(() -> {
+            if (!awaitStartup()) {
+                return;
+            }
+            String config = imageClassifierHelper.calibrate(force).toString();
+            emitSignal("classifier_calibrated", config);
+        }, "seek-calibration").start();
+    }
 
-        // Flip about x or y if necessary
-        if (xFlip) {
-            bitmap = SeekUtility.flipBitmapHorizontal(bitmap);
-        }
-        if (yFlip) {
-            bitmap = SeekUtility.flipBitmapVertical(bitmap);
+    /// Runs every CNN model variant over a recording on a background thread, and reports latency,
+    /// memory and agreement with the float model. The JSON report is written next to the recording
+    /// (<recording>.models.json) and sent with model_benchmark_finished. Returns false if a benchmark
+    /// is already running.
+    @UsedByGodot
+    public synchronized boolean runModelBenchmark(String recordingPath, int maxFrames) {
+        if (modelBenchmarkThread != null && modelBenchmarkThread.isAlive()) {
+            Log.d(getPluginName(), "Model benchmark already running.");
+            return false;
         }
-        // Allocate the bitmap bytes if needed
-        if (bitmapBytes == null) {
-            Log.d(getPluginName(), "Byte count: " + String.valueOf(bitmap.getByteCount()));
-            bitmapBytes = java.nio.ByteBuffer.allocate(bitmap.getByteCount());
+        if (!isReady()) {
+            Log.d(getPluginName(), "Plugin not ready, wait for plugin_ready before benchmarking.");
+            return false;
         }
-        // Sets read/write position to 0
-        bitmapBytes.rewind();
-
-        // Copy bits from bitmap to the bytebuffer
-        bitmap.copyPixelsToBuffer(bitmapBytes);*/
-
-        // Get thermal data from camera and convert to a float Mat
-        ByteBuffer dataBuffer = seekImage.getThermography().getThermalData().getBuffer();
-
-        // Data is represented as a 16-bit short, big-endian
-        ShortBuffer shortBuffer = dataBuffer.asShortBuffer();
-
-        // Copy the shorts to an array
-        shortBuffer.get(shortArray);
-
-        // Convert the array into a 16-bit Mat
-        shortMat.put(0, 0, shortArray);
+        final File recording = new File(recordingPath);
+        modelBenchmarkThread = new Thread(() -> {
+            String report;
+            try {
+                report = new ModelVariantBenchmark(getActivity(), settings::getMask).run(recording, maxFrames);
+                File reportFile = new File(recording.getPath() + ".models.json");
+                try (FileOutputStream out = new FileOutputStream(reportFile)) {
+                    out.write(report.getBytes(StandardCharsets.UTF_8));
+                }
+                Log.d(getPluginName(), "Model benchmark written to " + reportFile + "\n" + report);
+            } catch (IOException e) {
+                Log.e(getPluginName(), "Model benchmark failed: " + e);
+                report = "";
+            }
+            emitSignal("model_benchmark_finished", report);
+        }, "seek-model-benchmark");
+        modelBenchmarkThread.start();
+        return true;
+    }
 
-        // Convert the 16-bit Mat to a 32-bit float Mat
-        // Seek algorithm scales shorts by 1/64 and subtracts 40 to get the float values
-        shortMat.convertTo(floatMat, floatMat.type(), (1 / 64.0f), -40);
+    /// Writes the last few thousand pipeline spans and exhale events to path as Chrome trace JSON
+    /// (open it in ui.perfetto.dev or chrome://tracing), on a background thread. Emits trace_written
+    /// with the path, or "" if it couldn't be written.
+    @UsedByGodot
+    public void dumpTrace(String path) {
+        new Thread(() -> {
+            File file = new File(path);
+            try {
+                trace.writeChromeTrace(file);
+                Log.d(getPluginName(), "Trace of " + trace.size() + " events written to " + file);
+                emitSignal("trace_written", file.getPath());
+            } catch (IOException e) {
+                Log.e(getPluginName(), "Could not write the trace: " + e);
+                emitSignal("trace_written", "");
+            }
+        }, "seek-trace").start();
+    }
 
-        // Flip floatMat appropriately
-        // TODO: maybe wait until end for this
-        /*if (xFlip && yFlip) {
-            Core.flip(floatMat, floatMat, -1);
+    /// Sets up the flight recorder, which keeps every camera's last preSeconds of raw frames and
+    /// dumps preSeconds before to postSeconds after a trigger to directory (user://flight-recorder by
+    /// default). onExhale makes exhale starts and ends triggers. An empty directory turns it off.
+    /// Memory use is about (preSeconds + 1) * 27 frames of width * height * 2 bytes per camera.
+    @UsedByGodot
+    public void setFlightRecorder(String directory, float preSeconds, float postSeconds, boolean onExhale) {
+        if (preSeconds < 0 || postSeconds < 0) {
+            Log.d(getPluginName(), "Invalid flight recorder window, must be 0 or above.");
+            return;
         }
-        else if (xFlip) {
-            Core.flip(floatMat, floatMat, 1);
+        File dir = directory.isEmpty() ? null : new File(directory);
+        updateSettings(s -> s.withFlightRecorder(dir, preSeconds, postSeconds, onExhale));
+        for (int id : getCameraIds()) {
+            pipelines[id].startFlightRecorder();
         }
-        else if (yFlip) {
-            Core.flip(floatMat, floatMat, 0);
-        }*/
+    }
 
-        // Get the min/max locations and values to find the min (within mask320x240)
-        MinMaxLocResult res = Core.minMaxLoc(floatMat, mask320x240);
+    /// Dumps the last preSeconds of every camera's frames, and the next postSeconds, on a
+    /// background thread. Emits flight_recorder_dumped for each file written. Returns false if no
+    /// camera has frames to dump.
+    @UsedByGodot
+    public boolean dumpFlightRecorder(String reason) {
+        boolean dumped = false;
+        for (int id : getCameraIds()) {
+            dumped |= pipelines[id].dumpFlightRecorder(reason);
+        }
+        return dumped;
+    }
 
-        // Now let's start detecting exhales
-        // Subtract the min value from the data (within mask)
-        Core.subtract(floatMat, new Scalar(res.minVal), floatMat, mask320x240);
+    @UsedByGodot
+    public boolean dumpFlightRecorderById(int id, String reason) {
+        CameraPipeline pipeline = getPipeline(id);
+        return pipeline != null && pipeline.dumpFlightRecorder(reason);
+    }
 
-        // Scale the image between 0 and 10, which is the approximate range of the image after subtracting
-        scaled = scaleImage(floatMat, 0, 10, mask320x240);
+    /// Tracing is on by default; turning it off stops recording new events
+    @UsedByGodot
+    public void setTracingEnabled(boolean enabled) {
+        trace.setEnabled(enabled);
+    }
 
-        // Make sure the pixels of scaled that are masked are black
-        scaled.setTo(blackColor, mask320x240Inverse);
+    /// Classifies a sliding window of frames in one batched CNN inference instead of single frames.
+    /// frames is the window length (1 turns temporal mode off), stride how many new frames to wait
+    /// for between inferences. Results are averaged over the window.
+    @UsedByGodot
+    public void setTemporalWindow(int frames, int stride) {
+        updateSettings(s -> s.withTemporalMode(Math.max(1, frames), Math.max(1, stride)));
+    }
 
-        scaled.get(0, 0, scaledBytes);
-        scaled.copyTo(processingMatGray.submat(roiRect));
+    /// Limits preview images (new_image and getPreviewImage()) to fps per second, below the camera
+    /// rate if the game doesn't need every frame. 0 publishes every frame. Detection and the CNN
+    /// still see every frame.
+    @UsedByGodot
+    public void setPreviewRate(float fps) {
+        long interval = fps > 0 ? (long) (1_000_000_000L / fps) : 0;
+        updateSettings(s -> s.withPreviewInterval(interval));
+    }
 
-        // Mask the data
-        processingMatGray.copyTo(processingMatGrayMask, mask320x320);
+    /// Whether preview images are sent with the new_image signal. Games that pull them with
+    /// getPreviewImage() can turn it off so frames they don't render aren't copied into Godot.
+    @UsedByGodot
+    public void setImageSignalEnabled(boolean enabled) {
+        updateSettings(s -> s.withImageSignalEnabled(enabled));
+    }
 
-        // Get the bytes and send this image to Godot so we can view it
-        processingMatGrayMask.get(0, 0, scaledSquareBytes);
-        emitSignal("new_image", (Object) scaledSquareBytes);
+    /// Sequence number of camera 0's newest preview image, -1 if there hasn't been one. Compare it
+    /// with getPreviewImageSequence() to see whether getPreviewImage() has anything new.
+    @UsedByGodot
+    public long getLatestPreviewSequence() {
+        return getLatestPreviewSequenceById(0);
+    }
 
-        // Resize for our CNN target size
-        Imgproc.resize(processingMatGrayMask, processingMatGrayMaskSmall, targetSize, 0, 0, Imgproc.INTER_AREA);
+    @UsedByGodot
+    public long getLatestPreviewSequenceById(int id) {
+        CameraPipeline pipeline = id >= 0 && id < MAX_CAMERAS ? pipelines[id] : null;
+        return pipeline == null ? -1 : pipeline.getLatestPreviewSequence();
+    }
 
-        // Convert to color for CNN processing
-        Imgproc.cvtColor(processingMatGrayMaskSmall, processingMatColor, Imgproc.COLOR_GRAY2BGR);
-        Utils.matToBitmap(processingMatColor, processingBitmap);
+    /// Sequence number of the image the last getPreviewImage() returned, -1 if none
+    @UsedByGodot
+    public long getPreviewImageSequence() {
+        return getPreviewImageSequenceById(0);
+    }
 
+    @UsedByGodot
+    public long getPreviewImageSequenceById(int id) {
+        CameraPipeline pipeline = id >= 0 && id < MAX_CAMERAS ? pipelines[id] : null;
+        return pipeline == null ? -1 : pipeline.getPreviewImageSequence();
+    }
 
-        // Initialize the moving average with the current image
-        if (!initialized) {
-            //floatMat.copyTo(shortMovingAverageMat, mask320x240);
-            floatMat.copyTo(movingAverageMat, mask320x240);
-            initialized = true;
-        }
+    /// Camera 0's newest masked square preview image (width x width, 8-bit), or the one returned
+    /// last time if there's nothing newer. Empty before the first image.
+    @UsedByGodot
+    public byte[] getPreviewImage() {
+        return getPreviewImageById(0);
+    }
 
-        /* Statistical classification */
+    @UsedByGodot
+    public byte[] getPreviewImageById(int id) {
+        CameraPipeline pipeline = id >= 0 && id < MAX_CAMERAS ? pipelines[id] : null;
+        return pipeline == null ? new byte[0] : pipeline.getPreviewImage();
+    }
 
-        // Get the max value of the current float data
-        float max = (float) (res.maxVal - res.minVal);
+    /// Sends the packed stats of every decimation-th frame with new_data, batchSize records per
+    /// signal. (1, 1) sends every frame as it's processed.
+    @UsedByGodot
+    public void setStatsRate(int decimation, int batchSize) {
+        updateSettings(s -> s.withStatsRate(Math.max(1, decimation), Math.max(1, batchSize)));
+    }
 
-        // Subtract the moving average from the float data to get the difference image
-        Core.subtract(floatMat, movingAverageMat, diffMat);
+    /// Sends breathing_rate (breaths per minute and a 0-1 confidence) every interval seconds, once
+    /// 30 seconds of frames have been seen. 0 stops the estimates.
+    @UsedByGodot
+    public void setBreathingRateInterval(float seconds) {
+        long interval = (long) (Math.max(0, seconds) * 1_000_000_000L);
+        updateSettings(s -> s.withBreathingRateInterval(interval));
+    }
 
-        // Get the min/max values and locations of diffMat, masked
-        MinMaxLocResult diffRes = Core.minMaxLoc(diffMat, mask320x240);
+    /// Camera 0's last breathing rate estimate in breaths per minute, 0 if there is none yet
+    @UsedByGodot
+    public float getBreathingRate() {
+        BreathingRateEstimator estimator = getPrimaryBreathingRate();
+        return estimator == null ? 0 : estimator.getRate();
+    }
 
-        // Calculate the midrange of the data
-        float midrange = (float) (diffRes.maxVal + diffRes.minVal) / 2.0f;
-        float iqrMaxDiff = getIqrUpperFence(diffMat) - midrange;
+    /// How clearly camera 0's last breathing rate estimate stood out, 0-1
+    @UsedByGodot
+    public float getBreathingRateConfidence() {
+        BreathingRateEstimator estimator = getPrimaryBreathingRate();
+        return estimator == null ? 0 : estimator.getConfidence();
+    }
 
+    /// Camera 0's breathing rate estimator, or null. Scripts may poll the rate every frame, so unlike
+    /// getPipeline() this doesn't log a missing camera.
+    private synchronized BreathingRateEstimator getPrimaryBreathingRate() {
+        CameraPipeline pipeline = pipelines[0];
+        return pipeline == null ? null : pipeline.getBreathingRate();
+    }
 
-        // Send stats to Godot
-        Dictionary stats = new Dictionary();
-        stats.put("maxX", (int) res.maxLoc.x);
-        stats.put("maxY", (int) res.maxLoc.y);
-        stats.put("maxValue", res.maxVal);
-        stats.put("minX", (int) res.minLoc.x);
-        stats.put("minY", (int) res.minLoc.y);
-        stats.put("minValue", res.minVal);
+    /// Names of the fields in each new_data record, in order
+    @UsedByGodot
+    public String[] getStatsLayout() {
+        return PackedStats.FIELD_NAMES.clone();
+    }
 
-        emitSignal("new_stats", stats);
+    /// Snapshot of camera 0's pipeline metrics: frame counts, measured FPS against the expected
+    /// rate, and latency per stage (count, meanMs, p50Ms, p95Ms, p99Ms, maxMs) under "stages"
+    @UsedByGodot
+    public Dictionary getMetrics() {
+        return getMetricsById(0);
+    }
 
-        // When we're not exhaling, check for the start of the exhale
-        if (!exhaling) {
+    @UsedByGodot
+    public Dictionary getMetricsById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        return pipeline == null ? new Dictionary() : pipeline.getMetrics();
+    }
 
-            if (midrange > EXHALE_START_THRESHOLD) {
-                // Start the exhale but don't classify it yet
-                startExhale(ExhaleType.NONE);
+    /// Clears every camera's latency histograms and frame counts
+    @UsedByGodot
+    public synchronized void resetMetrics() {
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline != null) {
+                pipeline.getMetricsRecorder().reset();
             }
         }
+    }
 
-        // When we're exhaling, check for the end of the exhale
-        // This needs to be exhaling, not else, to process any exhale we found above immediately and not one frame later
-        if (exhaling) {
+    /// What the plugin holds outside the Java heap, to check that long sessions stay flat: each
+    /// camera's "memory" from getMetricsById() under "cameras", their totals with the startup
+    /// classifier's tensor buffers, and the process's native heap as Android counts it
+    @UsedByGodot
+    public synchronized Dictionary getMemoryFootprint() {
+        Dictionary cameras = new Dictionary();
+        long matBytes = 0;
+        long flightRecorderBytes = 0;
+        ImageClassifierHelper shared = imageClassifierHelper;
+        long classifierBytes = shared == null ? 0 : shared.getTensorBufferBytes();
+        for (CameraPipeline pipeline : pipelines) {
+            if (pipeline == null) {
+                continue;
+            }
+            Dictionary memory = pipeline.getMemory();
+            cameras.put(String.valueOf(pipeline.getId()), memory);
+            matBytes += (Long) memory.get("matBytes");
+            classifierBytes += (Long) memory.get("classifierBytes");
+            flightRecorderBytes += (Long) memory.get("flightRecorderBytes");
+        }
+        Dictionary result = new Dictionary();
+        result.put("cameras", cameras);
+        result.put("matBytes", matBytes);
+        result.put("classifierBytes", classifierBytes);
+        result.put("flightRecorderBytes", flightRecorderBytes);
+        result.put("nativeHeapBytes", Debug.getNativeHeapAllocatedSize());
+        return result;
+    }
 
-            // If we're exhaling and haven't yet classified the exhale, see if we can classify it
-            if (exhaleType == ExhaleType.NONE) {
+    /// Number of camera 0's frames the analysis stage couldn't keep up with
+    @UsedByGodot
+    public int getDroppedFrameCount() {
+        CameraPipeline pipeline = pipelines[0];
+        return pipeline == null ? 0 : (int) pipeline.getDroppedFrameCount();
+    }
 
-                if (iqrMaxDiff < GALE_THRESHOLD) {
-                    startExhale(ExhaleType.GALE);
-                } else if (iqrMaxDiff > WAFT_THRESHOLD) {
-                    startExhale(ExhaleType.WAFT);
-                }
-            }
-            // If our exhale type is WAFT or GALE, try classifying the image to look for an early end
-            else {
-                // Classify the resulting bitmap using the CNN
-                //classifyImage(processingBitmap);
-            }
+    @UsedByGodot
+    public int getHeight() {
+        return getHeightById(0);
+    }
 
-            if (midrange < EXHALE_END_THRESHOLD) {
-                endExhale("");
-            }
-            // Check for timeout (six seconds or longer exhale)
-            else if ((System.nanoTime() - exhaleStartTime) / 1_000_000_000.0f > EXHALE_TIMEOUT) {
-                endExhale("(TIMEOUT)");
-            }
+    @UsedByGodot
+    public int getHeightById(int id) {
+        CameraPipeline pipeline = getPipeline(id);
+        CameraState state = pipeline == null ? CameraState.NONE : pipeline.getState();
+        if (state == CameraState.NONE || state == CameraState.INITIALIZED || state == CameraState.CLOSED) {
+            Log.d(getPluginName(), "Invalid camera state, cannot get height.");
+            return -1;
         }
-
-        // Add floatMat into the accumulator after doing all of this processing
-        Imgproc.accumulateWeighted(floatMat, movingAverageMat, accumulateAlpha, mask320x240);
+        return pipeline.getHeight();
     }
+    //endregion
 
-    private float getIqrUpperFence(Mat m) {
+    public SeekThermalGodotAndroidPlugin(Godot godot) {
+        super(godot);
 
-        MinMaxLocResult res = Core.minMaxLoc(m, mask320x240);
-        // Scale to 8-bit (0–255)
-        Mat byteImage = new Mat();
-        float alpha = 255.0f / (float)(res.maxVal - res.minVal);
-        float beta = (float)(-res.minVal * alpha);
-        m.convertTo(byteImage, CvType.CV_8UC1, alpha, beta);
+        // Seek thermal camera initialization
+        Log.d(getPluginName(), "Initializing Seek Thermal camera...");
+        seekCameraManager = new SeekCameraManager(Objects.requireNonNull(getActivity()), null, stateCallback);
 
-        // Compute histogram with mask
-        Mat hist = new Mat();
-        int histSize = 256;
-        float[] range = {0f, 256f};
-        Imgproc.calcHist(
-                java.util.Collections.singletonList(byteImage),
-                new MatOfInt(0),
-                mask320x240, // <-- apply mask here
-                hist,
-                new MatOfInt(histSize),
-                new MatOfFloat(range),
-                false
-        );
+        Log.d(getPluginName(), "Seek Thermal camera initialized!");
 
-        // Compute cumulative histogram
-        double total = Core.sumElems(hist).val[0];
-        if (total == 0.0) {
-            return 0.0f;
-        }
+        // OpenCV, the CNN and the mask load in the background; plugin_ready is emitted when they're done
+        startup = startInBackground();
+    }
 
-        double q1Count = total * 0.25;
-        double q3Count = total * 0.75;
+    /// Loads OpenCV, the classifier (interpreter, labels, warm-up) and the mask concurrently, so
+    /// Godot's init path doesn't wait for any of them
+    private CompletableFuture<Void> startInBackground() {
+        final Activity activity = Objects.requireNonNull(getActivity());
+        final long startTime = SystemClock.uptimeMillis();
 
-        double cumulative = 0.0;
-        int q1Bin = -1, q3Bin = -1;
+        // The flight recorder is on from the start, dumping to user://flight-recorder
+        File flightDirectory = new File(activity.getFilesDir(), "flight-recorder");
+        updateSettings(s -> s.withFlightRecorder(flightDirectory, s.getFlightRecorderPreSeconds(),
+                s.getFlightRecorderPostSeconds(), s.isFlightRecorderOnExhale()));
 
-        for (int i = 0; i < histSize; i++) {
-            cumulative += hist.get(i, 0)[0];
-            if (q1Bin == -1 && cumulative >= q1Count) {
-                q1Bin = i;
+        final ExecutorService executor = Executors.newFixedThreadPool(3, r -> new Thread(r, "seek-startup"));
+
+        CompletableFuture<Void> openCv = CompletableFuture.runAsync(() -> {
+            Log.d(getPluginName(), "Initializing OpenCV...");
+            if (!OpenCVLoader.initLocal()) {
+                throw new IllegalStateException("Could not load OpenCV.");
             }
-            if (q3Bin == -1 && cumulative >= q3Count) {
-                q3Bin = i;
-                break;
+            Log.d(getPluginName(), "OpenCV loaded successfully!");
+        }, executor);
+
+        CompletableFuture<byte[]> maskData = CompletableFuture.supplyAsync(() -> {
+            try {
+                return MaskLoader.load(activity, "mask.jpg", MASK_SIZE);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
-        }
+        }, executor);
 
-        // Convert back to original float scale
-        double q1Val = (q1Bin / 255.0) * (res.maxVal - res.minVal) + res.minVal;
-        double q3Val = (q3Bin / 255.0) * (res.maxVal - res.minVal) + res.minVal;
-        double iqr = q3Val - q1Val;
-        return (float)(q3Val + iqr*1.5);
-    }
+        CompletableFuture<Void> classifier = CompletableFuture.runAsync(() -> {
+            imageClassifierHelper = createClassifier(this);
+        }, executor);
 
-    private void endExhale(String source) {
-        exhaling = false;
-        exhaleEndTime = System.nanoTime();
-        exhaleType = ExhaleType.NONE;
-        emitSignal("exhaling_changed", false, "NONE " + source);
-    }
+        CompletableFuture<Void> mask = maskData.thenAccept(data -> updateSettings(s -> s.withMaskSource(data, MASK_SIZE)));
 
-    private void startExhale(ExhaleType _exhaleType) {
-        exhaling = true;
-        exhaleStartTime = System.nanoTime();
-        exhaleType = _exhaleType;
-        emitSignal("exhaling_changed", true, _exhaleType.name());
+        return CompletableFuture.allOf(openCv, mask, classifier).whenComplete((ignored, error) -> {
+            executor.shutdown();
+            boolean ok = error == null;
+            if (ok) {
+                Log.d(getPluginName(), "Ready after " + (SystemClock.uptimeMillis() - startTime) + " ms");
+            } else {
+                Log.e(getPluginName(), "Startup failed: " + error);
+            }
+            emitSignal("plugin_ready", ok);
+        });
     }
 
-    /// Scales image between MIN_TEMP and MAX_TEMP, sets to CV_8U
-    private Mat scaleImage(Mat image, float _minTemp, float _maxTemp, Mat mask) {
-
-        // Create a results array, copy the image to it
-        Mat result = new Mat();
-        image.copyTo(result);
+    /// Waits for startInBackground() to finish, returns whether it succeeded
+    private boolean awaitStartup() {
+        try {
+            startup.join();
+            return true;
+        } catch (CompletionException | CancellationException e) {
+            return false;
+        }
+    }
 
-        // Clip data below minTemp
-        Core.max(result, new Scalar(_minTemp), result);
+    /// Whether OpenCV, the CNN and the mask have been loaded (see plugin_ready)
+    @UsedByGodot
+    public boolean isReady() {
+        return startup.isDone() && !startup.isCompletedExceptionally();
+    }
 
-        // Clip data above maxTemp
-        Core.min(result, new Scalar(_maxTemp), result);
+    /// The app is going away: stops every pipeline and frees what they kept for the next session
+    @Override
+    public void onMainDestroy() {
+        stopReplay();
+        synchronized (this) {
+            for (CameraPipeline pipeline : pipelines) {
+                if (pipeline != null) {
+                    pipeline.close();
+                    pipeline.releaseBuffers();
+                }
+            }
+        }
+        ImageClassifierHelper helper = imageClassifierHelper;
+        if (helper != null) {
+            helper.clearInterpreter();
+        }
+        super.onMainDestroy();
+    }
 
-        // Subtract min value from image (within the mask)
-        Core.subtract(result, new Scalar(_minTemp), result, mask);
+    @NonNull
+    @Override
+    public String getPluginName() { return "SeekThermalGodotAndroidPlugin"; }
 
-        // Scale to [0,255] and convert to 8-bit unsigned integers
-        result.convertTo(result, CvType.CV_8U, 255.0/(_maxTemp - _minTemp));
+    @NonNull
+    @Override
+    public Set<SignalInfo> getPluginSignals() {
+        // Define the signals this plugin will emit
+        Set<SignalInfo> signals = new HashSet<>();
 
-        return result;
-    }
+        // Camera signals carry the id of the camera first
+        signals.add(new SignalInfo("camera_opened", Integer.class));
+        signals.add(new SignalInfo("camera_started", Integer.class));
+        signals.add(new SignalInfo("camera_stopped", Integer.class));
+        signals.add(new SignalInfo("camera_closed", Integer.class));
+        signals.add(new SignalInfo("camera_initialized", Integer.class));
+        signals.add(new SignalInfo("new_image", Integer.class, byte[].class));
+        signals.add(new SignalInfo("new_data", Integer.class, float[].class));
+        signals.add(new SignalInfo("exhaling_changed", Integer.class, Boolean.class, String.class));
+        signals.add(new SignalInfo("breathing_rate", Integer.class, Float.class, Float.class));
+        signals.add(new SignalInfo("recording_stopped", Integer.class, String.class, Integer.class, Integer.class));
+        signals.add(new SignalInfo("replay_finished"));
+        signals.add(new SignalInfo("model_benchmark_finished", String.class));
+        signals.add(new SignalInfo("classifier_calibrated", String.class));
+        signals.add(new SignalInfo("plugin_ready", Boolean.class));
+        signals.add(new SignalInfo("trace_written", String.class));
+        signals.add(new SignalInfo("flight_recorder_dumped", Integer.class, String.class, String.class));
 
-    /// Classifies the image
-    private void classifyImage(Bitmap image) {
-        imageClassifierHelper.classify(image, 0);
+        return signals;
     }
 
     @Override
@@ -733,26 +1050,13 @@ public class SeekThermalGodotAndroidPlugin extends GodotPlugin
         Log.e(getPluginName(), error);
     }
 
+    /// Results of the classifier loaded at startup, which belongs to camera 0
     @Override
-    public void onResults(List<ImageClassifierHelper.Classification> results, long inferenceTime) {
-        // This will generally return 1 or 0 results, because we're thresholding at 0.5. I suppose
-        // it's possible it could return 2 if each is exactly .5, but this is highly unlikely
-
-        for (int i=0; i<results.size(); i++) {
-            Log.d(getPluginName(), results.toString());
-        }
-        if (results.isEmpty()) {
-            Log.d(getPluginName(), "empty classification");
-            return;
-        }
-
-        ImageClassifierHelper.Classification c = results.get(0);
-        Log.d(getPluginName(), c.label + " " + c.score + " " + c.index);
-
-        if (c.index == ExhaleType.NONE.ordinal() && c.score >= 0.95) {
-            if (exhaling && exhaleType != ExhaleType.NONE) {
-                endExhale("CNN");
-            }
+    public void onResults(List<ImageClassifierHelper.Classification> results, long inferenceTime,
+                          long frameSequence, long frameTimestampNanos) {
+        CameraPipeline pipeline = pipelines[0];
+        if (pipeline != null) {
+            pipeline.onResults(results, inferenceTime, frameSequence, frameTimestampNanos);
         }
     }
 }
@@ -23,3 +23,5 @@ dependencyResolutionManagement {
 rootProject.name = "SeekThermalGodotAndroidPlugin"
 include(":plugin")
 include(":seek-thermal")
+include(":engine")
+include(":benchmark")